@@ -0,0 +1,61 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times constructing a Bank, which loads the accounts and rebuilds the
+ * transaction index from the history file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankLoadBenchmark {
+    @Param({ "1000", "100000", "1000000" })
+    int accounts;
+
+    @Param({ "1000", "1000000" })
+    int historyLines;
+
+    @Param({ "csv", "journal" })
+    String store;
+
+    Path dataDirectory;
+    Bank bank;
+
+    @Setup(Level.Trial)
+    public void writeData() throws IOException {
+        BenchmarkData.quiet();
+        System.setProperty("mybank.store", store);
+        dataDirectory = Files.createTempDirectory("bank-load");
+        BenchmarkData.writeAccounts(dataDirectory, accounts);
+        BenchmarkData.writeHistory(dataDirectory, historyLines, accounts);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeBank() {
+        // Not timed, closing writes a fresh snapshot of the accounts
+        if (bank != null) {
+            bank.close();
+            bank = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        BenchmarkData.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public Bank construct() {
+        bank = new Bank(dataDirectory.toString());
+        return bank;
+    }
+}
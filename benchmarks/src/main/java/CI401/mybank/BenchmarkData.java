@@ -0,0 +1,86 @@
+package CI401.mybank;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the accounts and transaction history files used by the benchmarks.
+ */
+final class BenchmarkData {
+    // Every generated account has this password, hashed once at cost 10
+    static final String PASSWORD = "password";
+    static final String HASHED_PASSWORD = SecurityUtils.hashPassword(PASSWORD, 10);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Turns off tracing and the console output of the account classes, so the
+     * benchmarks measure the bank rather than the terminal.
+     */
+    static void quiet() {
+        Debug.set(false);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Writes accounts.csv holding accounts numbered 0 to count - 1, cycling
+     * through the three account types.
+     */
+    static void writeAccounts(Path dataDirectory, int count) throws IOException {
+        Files.createDirectories(dataDirectory);
+        try (BufferedWriter out = Files.newBufferedWriter(dataDirectory.resolve("accounts.csv"))) {
+            out.write(CsvAccountStore.HEADER);
+            out.newLine();
+            for (int i = 0; i < count; i++) {
+                BankAccount a;
+                switch (i % 3) {
+                    case 0:
+                        a = new BankAccount(i, HASHED_PASSWORD, 1_000_000);
+                        break;
+                    case 1:
+                        a = new OverdraftBankAccount(i, HASHED_PASSWORD, 1_000_000, 500);
+                        break;
+                    default:
+                        a = new LimitedWithdrawalBankAccount(i, HASHED_PASSWORD, 1_000_000);
+                }
+                out.write(CsvAccountStore.formatAccount(a));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes transaction_history.csv holding the given number of records spread
+     * over accounts numbered 0 to accounts - 1.
+     */
+    static void writeHistory(Path dataDirectory, int lines, int accounts) throws IOException {
+        Files.createDirectories(dataDirectory);
+        try (BufferedWriter out = Files.newBufferedWriter(dataDirectory.resolve("transaction_history.csv"))) {
+            out.write(Transaction.HEADER);
+            out.newLine();
+            for (int i = 0; i < lines; i++) {
+                out.write(new Transaction(i % accounts, i % 2 == 0 ? "deposit" : "withdraw", 10 + i % 90,
+                        1_000_000 + i % 1000, "22/04/24", "11:40").toCsv());
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     */
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package CI401.mybank;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times Model.formatBalance for a balance in credit and one in overdraft.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBalanceBenchmark {
+    @Param({ "1234567", "-500" })
+    int balance;
+
+    @Benchmark
+    public String formatBalance() {
+        return Model.formatBalance(balance);
+    }
+}
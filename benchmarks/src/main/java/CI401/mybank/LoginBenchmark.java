@@ -0,0 +1,69 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times logging in through Bank.login, and hashing and checking passwords with
+ * SecurityUtils, at a few bcrypt costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+    @Param({ "1000", "1000000" })
+    int accounts;
+
+    @Param({ "10", "12" })
+    int cost;
+
+    Path dataDirectory;
+    Bank bank;
+    String hashedPassword;
+    int accNumber;
+
+    @Setup(Level.Trial)
+    public void openBank() throws IOException {
+        BenchmarkData.quiet();
+        SecurityUtils.setCost(cost); // so logging in never rehashes
+        dataDirectory = Files.createTempDirectory("login");
+        BenchmarkData.writeAccounts(dataDirectory, accounts);
+        bank = new Bank(dataDirectory.toString());
+        hashedPassword = SecurityUtils.hashPassword(BenchmarkData.PASSWORD, cost);
+        accNumber = accounts / 2;
+        bank.findAccount(accNumber).accPasswd = hashedPassword;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeBank() throws IOException {
+        bank.close();
+        BenchmarkData.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public boolean login() {
+        return bank.login(accNumber, BenchmarkData.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean loginWrongPassword() {
+        return bank.login(accNumber, "wrong");
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return SecurityUtils.hashPassword(BenchmarkData.PASSWORD, cost);
+    }
+
+    @Benchmark
+    public boolean checkPassword() {
+        return SecurityUtils.checkPassword(hashedPassword, BenchmarkData.PASSWORD);
+    }
+}
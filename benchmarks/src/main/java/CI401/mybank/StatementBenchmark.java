@@ -0,0 +1,58 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times a statement read by scanning the whole history file
+ * (BankAccount.getStatement) and served from the transaction index
+ * (Bank.getStatement), for history files of 1K to 10M lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StatementBenchmark {
+    private static final int ACCOUNTS = 10_000;
+
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    int historyLines;
+
+    Path dataDirectory;
+    String historyFile;
+    Bank bank;
+    BankAccount account;
+
+    @Setup(Level.Trial)
+    public void writeHistory() throws IOException {
+        BenchmarkData.quiet();
+        dataDirectory = Files.createTempDirectory("statement");
+        BenchmarkData.writeAccounts(dataDirectory, ACCOUNTS);
+        BenchmarkData.writeHistory(dataDirectory, historyLines, ACCOUNTS);
+        historyFile = dataDirectory.resolve("transaction_history.csv").toString();
+        bank = new Bank(dataDirectory.toString());
+        account = bank.findAccount(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeBank() throws IOException {
+        bank.close();
+        BenchmarkData.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public String scanHistoryFile() {
+        return account.getStatement(historyFile);
+    }
+
+    @Benchmark
+    public String fromIndex() {
+        return bank.getStatement(account);
+    }
+}
@@ -0,0 +1,71 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times deposits, withdrawals and transfers including persisting the accounts
+ * and logging the transactions, and logging a transaction on its own, for each
+ * account store and a few bank sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionBenchmark {
+    @Param({ "1000", "100000" })
+    int accounts;
+
+    @Param({ "csv", "journal" })
+    String store;
+
+    Path dataDirectory;
+    Bank bank;
+    BankAccount account;
+    BankAccount other;
+
+    @Setup(Level.Trial)
+    public void openBank() throws IOException {
+        BenchmarkData.quiet();
+        System.setProperty("mybank.store", store);
+        dataDirectory = Files.createTempDirectory("transactions");
+        BenchmarkData.writeAccounts(dataDirectory, accounts);
+        bank = new Bank(dataDirectory.toString());
+        account = bank.findAccount(0); // normal accounts, see BenchmarkData.writeAccounts
+        other = bank.findAccount(3);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeBank() throws IOException {
+        bank.close();
+        BenchmarkData.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return bank.deposit(account, 10);
+    }
+
+    @Benchmark
+    public boolean depositAndWithdraw() {
+        // Pairs keep the balance steady however many times it runs
+        return bank.deposit(account, 10) & bank.withdraw(account, 10);
+    }
+
+    @Benchmark
+    public boolean transferBothWays() {
+        return bank.transfer(account, other.accNumber, 10) & bank.transfer(other, account.accNumber, 10);
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> logTransaction() {
+        return bank.logTransaction(account.accNumber, "deposit", 10, 1_000_000);
+    }
+}
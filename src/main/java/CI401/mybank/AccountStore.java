@@ -0,0 +1,110 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The AccountStore interface is implemented by the classes which persist the
+ * bank accounts.
+ * A store loads the accounts into the Bank's account index once, and from then
+ * on is told about every account that changes so it can write it out.
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * Loads every stored account into the given index.
+     * The store keeps hold of the index so it can write snapshots of it later.
+     *
+     * @param accounts The index to load the accounts into.
+     * @throws IOException if the stored accounts could not be read.
+     */
+    void load(IntObjectMap<BankAccount> accounts) throws IOException;
+
+    /**
+     * Persists the current state of one or more accounts which have been added
+     * or changed. The accounts are written together, so a transfer is never
+     * half persisted.
+     *
+     * @param changed The accounts to persist.
+     * @throws IOException if the accounts could not be written.
+     */
+    void update(BankAccount... changed) throws IOException;
+
+    /**
+     * Checks if the store wants a full snapshot to be written. The Bank writes
+     * one with checkpoint() once no account is part way through a change.
+     *
+     * @return true if checkpoint() should be called.
+     */
+    boolean needsCheckpoint();
+
+    /**
+     * Writes a full snapshot of every account.
+     * The caller must make sure no account changes while this runs.
+     *
+     * @throws IOException if the snapshot could not be written.
+     */
+    void checkpoint() throws IOException;
+
+    /**
+     * Persists a batch of changed accounts, such as every account the end of
+     * day has posted to, and makes sure they are on disk when it returns. The
+     * caller must make sure no account changes while this runs.
+     * By default the accounts are updated and a snapshot written.
+     *
+     * @param changed The accounts to persist.
+     * @throws IOException if the accounts could not be written.
+     */
+    default void updateBatch(BankAccount... changed) throws IOException {
+        update(changed);
+        checkpoint();
+    }
+
+    /**
+     * Reads the accounts which another program has changed in the store's files
+     * since the store last read or wrote them, so a running Bank can pick them
+     * up. Stores whose files are not meant to be edited report nothing.
+     *
+     * @return The changed accounts, as new objects which are not in the index.
+     * @throws IOException if the files could not be read.
+     */
+    default List<BankAccount> readOutsideChanges() throws IOException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Gets the number of bytes this store has written, for the bank's metrics.
+     *
+     * @return The bytes written since the store was opened.
+     */
+    default long getBytesWritten() {
+        return 0;
+    }
+
+    /**
+     * Opens the store selected by the "mybank.store" system property for the
+     * given data directory: "journal" (the default) for a JournalAccountStore,
+     * "csv" for a CsvAccountStore which rewrites accounts.csv on every change,
+     * or "mapped" for a MappedAccountStore, which keeps the accounts in
+     * accounts.dat, importing accounts.csv the first time.
+     *
+     * @param dataDirectory The directory holding accounts.csv.
+     * @return The account store.
+     */
+    static AccountStore open(String dataDirectory) {
+        String accountsFile = dataDirectory + "/accounts.csv";
+        String mode = System.getProperty("mybank.store", "journal");
+        switch (mode) {
+            case "csv":
+                return new CsvAccountStore(accountsFile);
+            case "journal":
+                return new JournalAccountStore(accountsFile, dataDirectory + "/accounts.journal");
+            case "mapped":
+                return new MappedAccountStore(dataDirectory + "/accounts.dat", accountsFile);
+            default:
+                throw new IllegalArgumentException("Unknown account store: " + mode);
+        }
+    }
+}
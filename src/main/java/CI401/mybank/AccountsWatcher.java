@@ -0,0 +1,90 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AccountsWatcher class watches a Bank's data directory with a
+ * WatchService, and asks the Bank to reload the changed accounts whenever
+ * accounts.csv is written. The Bank's own checkpoints are noticed too, and
+ * ignored by the account store, so only edits made by other programs change
+ * any account.
+ * The watching is done by one daemon thread, which waits a moment after each
+ * change for the writer to finish before reloading.
+ */
+
+final class AccountsWatcher implements Closeable {
+    static final long SETTLE_MILLIS = 100; // how long the file must be left alone before it is read
+
+    private final Bank bank;
+    private final Path fileName; // the name of accounts.csv within the directory
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Constructor for the AccountsWatcher class. It starts watching straight
+     * away.
+     *
+     * @param bank          The bank to reload.
+     * @param dataDirectory The directory holding accounts.csv.
+     * @throws IOException if the directory cannot be watched.
+     */
+    AccountsWatcher(Bank bank, Path dataDirectory) throws IOException {
+        this.bank = bank;
+        this.fileName = dataDirectory.getFileSystem().getPath("accounts.csv");
+        watchService = dataDirectory.getFileSystem().newWatchService();
+        dataDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::run, "accounts-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean changed = takeChanges(watchService.take());
+                // Keep waiting while the file is still being written
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= takeChanges(key);
+                }
+                if (changed) {
+                    bank.reloadChangedAccounts();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            Debug.trace("AccountsWatcher::run: stopped watching");
+        }
+    }
+
+    /**
+     * Takes the events of a key and makes it ready for more.
+     *
+     * @return true if accounts.csv was among the files changed.
+     */
+    private boolean takeChanges(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // OVERFLOW events have no file, and mean some changes were missed
+            changed |= event.context() == null || fileName.equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Stops watching.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -24,21 +24,21 @@ public class App extends Application {
 
     /**
      * The start method that is called by the launch method.
-     * It sets up debugging, creates a new View, and starts the view.
+     * It creates a new View and starts the view. How much debugging
+     * information is kept is set by the system property mybank.debug.level,
+     * see Debug.
      *
      * @param window The primary stage for this application, onto which
      *               the application scene can be set. 
      */
     public void start(Stage window) {
-        // set up debugging and print initial debugging message
-        Debug.set(true);
-        Debug.trace("atm starting");
+        Debug.info("atm starting");
         Debug.trace("App::start");
 
         View view = new View();
         view.start(window, "login.fxml"); // load login.fxml instead of atm.fxml
 
         // application is now running
-        Debug.trace("atm running");
+        Debug.info("atm running");
     }
 }
\ No newline at end of file
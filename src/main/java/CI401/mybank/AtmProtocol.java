@@ -0,0 +1,164 @@
+package CI401.mybank;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format spoken between AtmServer and RemoteSession.
+ * Every message is a frame: a 4 byte big-endian length, followed by that many
+ * bytes. A request frame starts with a 1 byte operation code, a response frame
+ * with a 1 byte status, followed by the fields of the operation. Ints are 4
+ * bytes big-endian, booleans 1 byte, and strings a 4 byte length followed by
+ * that many bytes of UTF-8.
+ *
+ * Operation    request fields            response fields
+ * LOGIN        account, password         logged in
+ * LOGOUT
+ * BALANCE                                balance (-1 if not logged in)
+ * DEPOSIT      amount                    done
+ * WITHDRAW     amount                    done
+ * TRANSFER     target account, amount    done
+ * STATEMENT                              statement
+ * PASSWORD     new password              done
+ * ACCOUNT                                account type ("" if not logged in),
+ *                                        account, balance, overdraft limit,
+ *                                        withdrawals today
+ * OVERDRAFT    overdraft limit           done
+ * HISTORY_PAGE page, page size           transactions
+ * HISTORY_RANGE from, to (8 byte millis) transactions
+ * HISTORY_COUNT                          number of transactions
+ *
+ * Transactions are a 4 byte count followed by, for each one, the type
+ * (string), amount, new balance, timestamp (8 byte millis) and sequence
+ * number (8 bytes).
+ * A response with any status but OK has no fields.
+ */
+
+final class AtmProtocol {
+    static final int DEFAULT_PORT = 7401;
+    static final int MAX_REQUEST_BYTES = 64 * 1024; // longer requests are refused
+
+    // Operation codes
+    static final byte LOGIN = 1;
+    static final byte LOGOUT = 2;
+    static final byte BALANCE = 3;
+    static final byte DEPOSIT = 4;
+    static final byte WITHDRAW = 5;
+    static final byte TRANSFER = 6;
+    static final byte STATEMENT = 7;
+    static final byte PASSWORD = 8;
+    static final byte ACCOUNT = 9;
+    static final byte OVERDRAFT = 10;
+    static final byte HISTORY_PAGE = 11;
+    static final byte HISTORY_RANGE = 12;
+    static final byte HISTORY_COUNT = 13;
+
+    // Response statuses
+    static final byte OK = 0;
+    static final byte BUSY = 1; // the bank is too busy to check or hash a password, try again later
+    static final byte BAD_REQUEST = 2; // the request could not be understood
+
+    private AtmProtocol() {
+    }
+
+    /**
+     * Starts a frame, in a buffer just big enough for it.
+     *
+     * @param code       The operation code or status.
+     * @param fieldBytes The number of bytes the fields take.
+     * @return The buffer, positioned after the code for the fields to be
+     *         written. Flip it once they have been.
+     */
+    static ByteBuffer frame(byte code, int fieldBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(5 + fieldBytes);
+        buffer.putInt(1 + fieldBytes);
+        buffer.put(code);
+        return buffer;
+    }
+
+    /**
+     * Works out how many bytes a string takes in a frame.
+     *
+     * @param value The string.
+     * @return The number of bytes.
+     */
+    static int sizeOf(String value) {
+        return 4 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Works out how many bytes a list of transactions takes in a frame.
+     *
+     * @param transactions The transactions.
+     * @return The number of bytes.
+     */
+    static int sizeOf(List<Transaction> transactions) {
+        int size = 4;
+        for (Transaction t : transactions) {
+            size += sizeOf(t.transactionType) + 24;
+        }
+        return size;
+    }
+
+    static void putTransactions(ByteBuffer buffer, List<Transaction> transactions) {
+        buffer.putInt(transactions.size());
+        for (Transaction t : transactions) {
+            putString(buffer, t.transactionType);
+            buffer.putInt(t.amount);
+            buffer.putInt(t.newBalance);
+            buffer.putLong(t.timestamp);
+            buffer.putLong(t.sequence);
+        }
+    }
+
+    /**
+     * Reads a list of transactions, which are all of one account.
+     *
+     * @param buffer    The frame.
+     * @param accNumber The account the transactions are of.
+     * @return The transactions.
+     */
+    static List<Transaction> getTransactions(ByteBuffer buffer, int accNumber) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = getString(buffer);
+            int amount = buffer.getInt();
+            int newBalance = buffer.getInt();
+            long timestamp = buffer.getLong();
+            transactions.add(new Transaction(accNumber, type, amount, newBalance, timestamp, buffer.getLong()));
+        }
+        return transactions;
+    }
+
+    static void putBoolean(ByteBuffer buffer, boolean value) {
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    static boolean getBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+}
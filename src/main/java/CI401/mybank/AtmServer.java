@@ -0,0 +1,466 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves one Bank to any number of ATM terminals over TCP, so every terminal
+ * sees the same accounts and only one process writes the data directory.
+ * Each connection is one Session, spoken to with the frames described in
+ * AtmProtocol; RemoteSession is the client side.
+ * One selector thread reads and writes every connection, so an idle
+ * connection only costs its socket and a few small objects. The bank
+ * operations of each request run on a small pool of worker threads, one
+ * request of a connection at a time and in the order they were sent, and the
+ * password checks of logins run on the bank's password verifier.
+ * A connection may send requests ahead of the replies, but once
+ * MAX_REQUESTS_IN_FLIGHT of them are waiting to run or for their replies to be
+ * written, the server stops reading it until some replies have been written,
+ * so one terminal cannot queue up unbounded work or replies.
+ * Run it from the command line with
+ * java -cp target/atm-test-two-1.0-SNAPSHOT-shaded.jar CI401.mybank.AtmServer [--port 7401] [--data CSV] [--threads N]
+ * and start the ATM with -Dmybank.server=host:port to use it.
+ */
+
+public class AtmServer implements Closeable {
+    private static final int READ_BUFFER_BYTES = 256; // enough for any request but a long password
+    static final int MAX_REQUESTS_IN_FLIGHT = 32; // requests of a connection read but not yet replied to
+
+    private final Bank bank; // the bank served to every connection
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers; // runs the bank operations
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>(); // connections with replies to send
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor for the AtmServer class. The server listens straight away,
+     * but does not accept connections until it is started.
+     *
+     * @param bank          The bank to serve. The server does not close it.
+     * @param address       The address to listen on, port 0 picks a free port.
+     * @param workerThreads The number of threads running bank operations.
+     * @throws IOException If the address cannot be listened on.
+     */
+    public AtmServer(Bank bank, InetSocketAddress address, int workerThreads) throws IOException {
+        this.bank = bank;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "atm-server-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        selectorThread = new Thread(this::run, "atm-server-selector");
+        Debug.trace("AtmServer::<constructor>: listening on %s", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return The number of connections.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Stops the server and closes every connection, logging their sessions
+     * out. Requests still running are left to finish on their own. Closing
+     * a closed server does nothing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!selector.isOpen()) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        selector.close();
+        serverChannel.close();
+        workers.shutdown();
+    }
+
+    /**
+     * The selector loop: accepts connections, reads requests and writes
+     * replies.
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                // Connections whose replies were made on the worker threads want writing
+                Connection ready;
+                while ((ready = writable.poll()) != null) {
+                    if (ready.key.isValid()) {
+                        ready.key.interestOps(ready.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        Debug.trace("AtmServer::run: closing connection: %s", e.getMessage());
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                Debug.trace("AtmServer::run: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts every waiting connection.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connectionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * One terminal's connection and its session with the bank.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Session session = bank.newSession();
+        private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<>(); // replies waiting to be written
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES); // bytes read but not yet handled
+        // The last request sent to the workers, the next one runs after it ('selector thread only')
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        private int inFlight = 0; // requests sent to the workers whose replies are not written ('selector thread only')
+        private boolean closed = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads what the terminal has sent, and hands each whole request to
+         * the workers.
+         */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            dispatch();
+        }
+
+        /**
+         * Hands the whole requests read so far to the workers, up to
+         * MAX_REQUESTS_IN_FLIGHT, and stops reading the connection while
+         * that many are in flight.
+         */
+        private void dispatch() throws IOException {
+            in.flip();
+            while (inFlight < MAX_REQUESTS_IN_FLIGHT && in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > AtmProtocol.MAX_REQUEST_BYTES) {
+                    throw new IOException("bad request length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                ByteBuffer request = ByteBuffer.allocate(length);
+                in.position(in.position() + 4);
+                in.get(request.array());
+                inFlight++;
+                last = last.thenComposeAsync(done -> handle(request), workers)
+                        .exceptionally(error -> {
+                            // Never let one failed request stop the ones after it
+                            Debug.trace("AtmServer::read: request failed: %s", error);
+                            return AtmProtocol.frame(AtmProtocol.BAD_REQUEST, 0);
+                        })
+                        .thenAccept(this::reply);
+            }
+            in.compact();
+            // Make room for a request longer than the buffer
+            if (!in.hasRemaining() && inFlight < MAX_REQUESTS_IN_FLIGHT) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, 4 + AtmProtocol.MAX_REQUEST_BYTES));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            updateInterest();
+        }
+
+        /**
+         * Reads the connection unless too many of its requests are in flight,
+         * and writes it while it has replies waiting.
+         */
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = inFlight < MAX_REQUESTS_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+            if (!replies.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Queues a reply to be written by the selector thread.
+         */
+        private void reply(ByteBuffer reply) {
+            reply.flip();
+            replies.add(reply);
+            writable.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes as many of the queued replies as the socket will take, then
+         * hands on any requests held back while too many were in flight.
+         */
+        void write() throws IOException {
+            ByteBuffer reply;
+            while ((reply = replies.peek()) != null) {
+                channel.write(reply);
+                if (reply.hasRemaining()) {
+                    return; // the socket is full, carry on when it is writable again
+                }
+                replies.poll();
+                inFlight--;
+            }
+            dispatch();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connectionCount.decrementAndGet();
+            key.cancel();
+            session.logout();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Debug.trace("AtmServer::close: %s", e.getMessage());
+            }
+        }
+
+        /**
+         * Runs one request against the session.
+         *
+         * @param request The request, from the operation code on.
+         * @return A future which completes with the reply.
+         */
+        private CompletableFuture<ByteBuffer> handle(ByteBuffer request) {
+            try {
+                byte operation = request.get();
+                switch (operation) {
+                    case AtmProtocol.LOGIN:
+                        int accNumber = request.getInt();
+                        String password = AtmProtocol.getString(request);
+                        return session.loginAsync(accNumber, password).handle(AtmServer::booleanReply);
+                    case AtmProtocol.LOGOUT:
+                        session.logout();
+                        return done(AtmProtocol.frame(AtmProtocol.OK, 0));
+                    case AtmProtocol.BALANCE:
+                        return done(AtmProtocol.frame(AtmProtocol.OK, 4).putInt(session.getBalance()));
+                    case AtmProtocol.DEPOSIT:
+                        return done(booleanReply(session.deposit(request.getInt())));
+                    case AtmProtocol.WITHDRAW:
+                        return done(booleanReply(session.withdraw(request.getInt())));
+                    case AtmProtocol.TRANSFER:
+                        int target = request.getInt();
+                        return done(booleanReply(session.transfer(target, request.getInt())));
+                    case AtmProtocol.STATEMENT:
+                        String statement = session.getStatement();
+                        ByteBuffer reply = AtmProtocol.frame(AtmProtocol.OK, AtmProtocol.sizeOf(statement));
+                        AtmProtocol.putString(reply, statement);
+                        return done(reply);
+                    case AtmProtocol.PASSWORD:
+                        return session.updatePasswordAsync(AtmProtocol.getString(request))
+                                .handle(AtmServer::booleanReply);
+                    case AtmProtocol.ACCOUNT:
+                        return done(accountReply(session.getAccount()));
+                    case AtmProtocol.OVERDRAFT:
+                        return done(booleanReply(session.setOverdraftLimit(request.getInt())));
+                    case AtmProtocol.HISTORY_PAGE:
+                        int page = request.getInt();
+                        return done(transactionsReply(session.getStatementPage(page, request.getInt())));
+                    case AtmProtocol.HISTORY_RANGE:
+                        long from = request.getLong();
+                        return done(transactionsReply(session.getStatementBetween(from, request.getLong())));
+                    case AtmProtocol.HISTORY_COUNT:
+                        return done(AtmProtocol.frame(AtmProtocol.OK, 4).putInt(session.getTransactionCount()));
+                    default:
+                        return done(AtmProtocol.frame(AtmProtocol.BAD_REQUEST, 0));
+                }
+            } catch (BufferUnderflowException e) {
+                return done(AtmProtocol.frame(AtmProtocol.BAD_REQUEST, 0));
+            }
+        }
+    }
+
+    private static CompletableFuture<ByteBuffer> done(ByteBuffer reply) {
+        return CompletableFuture.completedFuture(reply);
+    }
+
+    private static ByteBuffer booleanReply(boolean value) {
+        ByteBuffer reply = AtmProtocol.frame(AtmProtocol.OK, 1);
+        AtmProtocol.putBoolean(reply, value);
+        return reply;
+    }
+
+    /**
+     * Makes the reply to a request which checks or hashes a password, which
+     * fails if the password verifier is too busy.
+     */
+    private static ByteBuffer booleanReply(Boolean value, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            Debug.trace("AtmServer::booleanReply: %s", cause);
+            return AtmProtocol.frame(cause instanceof RejectedExecutionException ? AtmProtocol.BUSY
+                    : AtmProtocol.BAD_REQUEST, 0);
+        }
+        return booleanReply(value.booleanValue());
+    }
+
+    private static ByteBuffer transactionsReply(List<Transaction> transactions) {
+        ByteBuffer reply = AtmProtocol.frame(AtmProtocol.OK, AtmProtocol.sizeOf(transactions));
+        AtmProtocol.putTransactions(reply, transactions);
+        return reply;
+    }
+
+    private static ByteBuffer accountReply(BankAccount a) {
+        String type = a == null ? "" : a.accountType;
+        ByteBuffer reply = AtmProtocol.frame(AtmProtocol.OK, AtmProtocol.sizeOf(type) + 16);
+        AtmProtocol.putString(reply, type);
+        reply.putInt(a == null ? -1 : a.accNumber);
+        reply.putInt(a == null ? 0 : a.getBalance());
+        reply.putInt(a instanceof OverdraftBankAccount ? ((OverdraftBankAccount) a).getOverdraftLimit() : 0);
+        reply.putInt(a instanceof LimitedWithdrawalBankAccount
+                ? ((LimitedWithdrawalBankAccount) a).getWithdrawalsToday() : 0);
+        return reply;
+    }
+
+    /**
+     * Runs the server from the command line until the process is stopped. The
+     * options are --port N (default 7401), --data DIR (default CSV) and
+     * --threads N, the number of worker threads (default the number of
+     * cores).
+     * The server only listens on the loopback address, so only terminals on
+     * the same machine can connect, unless the "mybank.server.bind" system
+     * property names the address to listen on instead, such as a LAN address
+     * or 0.0.0.0 for every interface.
+     *
+     * @param args The options.
+     * @throws IOException If the port cannot be listened on.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = AtmProtocol.DEFAULT_PORT;
+        String data = "CSV";
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--data":
+                    data = args[i + 1];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+
+        Bank bank = new Bank(data);
+        bank.watchForChanges(); // pick up accounts edited in the data directory while the server runs
+        String bind = System.getProperty("mybank.server.bind");
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        AtmServer server = new AtmServer(bank, new InetSocketAddress(address, port), threads);
+        // Write out the accounts when the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            bank.close();
+        }));
+        server.start();
+        System.out.println("ATM server listening on " + address.getHostAddress() + " port " + server.getPort()
+                + ", data directory " + data);
+    }
+}
@@ -0,0 +1,58 @@
+package CI401.mybank;
+
+/**
+ * The states of an ATM session. Each state says what the Enter button does in
+ * it, so the Model does not need to check the state itself.
+ */
+public enum AtmState {
+    /** Waiting for the customer to choose an operation, Enter does nothing. */
+    LOGGED_IN {
+        @Override
+        void enter(Model model) {
+            // nothing to finish
+        }
+    },
+    /** Waiting for the amount to withdraw. */
+    WITHDRAWING {
+        @Override
+        void enter(Model model) {
+            model.makeWithDrawal();
+        }
+    },
+    /** Waiting for the amount to deposit. */
+    DEPOSITING {
+        @Override
+        void enter(Model model) {
+            model.makeDeposit();
+        }
+    },
+    /** Waiting for the account number to transfer to. */
+    ENTERING_ACCOUNT {
+        @Override
+        void enter(Model model) {
+            model.targetAccountNumber = model.number;
+            model.makeTransfer();
+        }
+    },
+    /** Waiting for the amount to transfer. */
+    TRANSFERRING {
+        @Override
+        void enter(Model model) {
+            model.makeTransfer();
+        }
+    },
+    /** Logged out. Enter should not be reachable, so it makes sure of the logout. */
+    LOGGED_OUT {
+        @Override
+        void enter(Model model) {
+            model.processLogout();
+        }
+    };
+
+    /**
+     * Handles the Enter button in this state.
+     *
+     * @param model The session the button was pressed in.
+     */
+    abstract void enter(Model model);
+}
@@ -1,12 +1,20 @@
 package CI401.mybank;
 
 import java.io.*;
-import java.util.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
- * This class represents a bank, which can hold a maximum number of bank
- * accounts.
- * It provides methods for loading and saving accounts from/to a CSV file,
+ * This class represents a bank, which holds any number of bank accounts
+ * indexed by account number, and can be shared by any number of sessions.
+ * Changes to an account are made while holding that account's lock.
+ * It provides methods for loading and saving accounts through an account store,
  * logging transactions,
  * adding accounts, logging in and out, depositing and withdrawing money,
  * getting the balance,
@@ -14,140 +22,387 @@ import java.util.*;
  * getting the statement of an account.
  */
 
-public class Bank {
-    int maxAccounts = 10; // maximum number of accounts the bank can hold
-    List<BankAccount> accounts = new ArrayList<>(); // list to hold the bank accounts
-    BankAccount account = null; // currently logged in acccount ('null' if no-one is logged in)
-    String accountsFile = "CSV/accounts.csv"; // CSV file to store accounts
-    String transactionsFile = "CSV/transaction_history.csv"; // CSV file to store accounts
+public class Bank implements Closeable {
+    static final int LOCK_STRIPES = 1024; // number of account locks, a power of two
+    private static Bank shared = null; // the bank used by the whole process, created when first needed
+
+    IntObjectMap<BankAccount> accounts = new IntObjectMap<>(); // bank accounts keyed by account number
+    final StampedLock accountsLock = new StampedLock(); // guards adding accounts to the index
+    final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES]; // account locks, see lockFor
+    final Session session = new Session(this); // the bank's own session, used by the single-session methods
+    PasswordVerifier verifier = PasswordVerifier.shared(); // runs the bcrypt checks and hashes
+    AccountStore store; // where the accounts are persisted
+    String dataDirectory; // the directory holding the bank's files
+    String transactionsFile; // CSV file to store the transaction history
+    TransactionIndex transactions = new TransactionIndex(); // where each account's transactions are in the file
+    TransactionLog transactionLog = null; // writes the transaction history ('null' if it could not be opened)
+    final BankMetrics metrics; // counts and times the bank's operations
+    private AccountsWatcher watcher = null; // reloads accounts changed by other programs ('null' if not watching)
+
+    /**
+     * Returns the bank shared by the whole process, on the default "CSV" data
+     * directory. It is created, and its accounts loaded, the first time it is
+     * asked for, and from then on it watches the data directory for accounts
+     * changed by other programs. It is closed when the process exits.
+     *
+     * @return The shared bank.
+     */
+    public static synchronized Bank shared() {
+        if (shared == null) {
+            Bank bank = new Bank();
+            try {
+                bank.watchForChanges();
+            } catch (IOException e) {
+                Debug.warn("Bank::shared: cannot watch the data directory: %s", e.getMessage());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(bank::close, "bank-shutdown"));
+            shared = bank;
+        }
+        return shared;
+    }
 
     /**
      * Constructor for the Bank class.
-     * It initializes the bank and loads the accounts from the CSV file.
+     * It initializes the bank and loads the accounts from the CSV file in the
+     * default "CSV" data directory.
      */
     public Bank() {
+        this("CSV");
+    }
+
+    /**
+     * Constructor for the Bank class.
+     * It initializes the bank and loads the accounts from the given data
+     * directory, using the account store selected by the "mybank.store" system
+     * property.
+     *
+     * @param dataDirectory The directory holding accounts.csv and
+     *                      transaction_history.csv.
+     */
+    public Bank(String dataDirectory) {
+        this(dataDirectory, AccountStore.open(dataDirectory));
+    }
+
+    /**
+     * Constructor for the Bank class.
+     * It initializes the bank and loads the accounts from the given account
+     * store.
+     *
+     * @param dataDirectory The directory holding transaction_history.csv.
+     * @param store         The store which persists the accounts.
+     */
+    public Bank(String dataDirectory, AccountStore store) {
         Debug.trace("Bank::<constructor>");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.store = store;
+        this.dataDirectory = dataDirectory;
+        transactionsFile = dataDirectory + "/transaction_history.csv";
+        metrics = BankMetrics.open(dataDirectory);
         loadAccounts();
+        openTransactionLog();
+        recoverEndOfDay();
+        metrics.setByteSources(store::getBytesWritten,
+                () -> transactionLog == null ? 0 : transactionLog.getBytesWritten());
     }
 
     /**
-     * Loads the accounts from the CSV file.
+     * Loads the accounts from the account store.
+     * Loading does not write anything back to the store.
      */
 
     private void loadAccounts() {
         Debug.trace("Bank::loadAccounts: Loading accounts from file");
-        try (BufferedReader br = new BufferedReader(new FileReader(accountsFile))) {
-            // Read the file line by line
-            String line;
-            boolean isFirstLine = true; // Flag to skip the header line
-
-            while ((line = br.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue; // Skip the header line
-                }
-                // Associate the given values with the account fields
-                String[] values = line.split(",");
-                try {
+        try {
+            store.load(accounts);
+            Debug.trace("Bank::loadAccounts: Loaded %d accounts", accounts.size());
+        } catch (IOException e) {
+            Debug.warn("Bank::loadAccounts: Error reading accounts file: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the transaction log, which builds the transaction index from the
+     * transaction history file.
+     */
+
+    private void openTransactionLog() {
+        try {
+            transactionLog = TransactionLog.open(Paths.get(transactionsFile), transactions);
+        } catch (IOException e) {
+            Debug.warn("Bank::openTransactionLog: Error opening transactions file: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Completes an end of day which was interrupted, see EndOfDay.recover,
+     * before any session can change a balance.
+     */
+
+    private void recoverEndOfDay() {
+        try {
+            EndOfDay.recover(this);
+        } catch (IOException e) {
+            Debug.warn("Bank::recoverEndOfDay: Error completing the end of day: %s", e.getMessage());
+        }
+    }
 
-                    int accNumber = Integer.parseInt(values[0]);
-                    String accPasswd = values[1]; // Decrypt the password here
-                    int balance = Integer.parseInt(values[2]);
-                    String accountType = values[3];
-
-                    // Create the appropriate account type based on the accountType
-                    switch (accountType) {
-                        case "overdraft":
-                            int overdraftLimit = Integer.parseInt(values[4]);
-                            makeOverdraftBankAccount(accNumber, accPasswd, balance, overdraftLimit);
-                            break;
-                        case "limited":
-                            makeLimitedWithdrawalBankAccount(accNumber, accPasswd, balance);
-                            break;
-                        default:
-                            addBankAccount(accNumber, accPasswd, balance);
-                            break;
+    /**
+     * Saves the changed accounts to the account store.
+     * If they could not be saved the caller must undo the change in memory, so
+     * the bank never reports a change which would be lost on restart.
+     *
+     * @param changed The accounts which have been added or changed.
+     * @return true if the accounts were saved, false on a write error.
+     */
+
+    private boolean saveAccounts(BankAccount... changed) {
+        long start = System.nanoTime();
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.SUCCESS;
+        try {
+            store.update(changed);
+            return true;
+        } catch (IOException e) {
+            outcome = BankMetrics.Outcome.ERROR;
+            Debug.error("Bank::saveAccounts: Error saving %d accounts: %s", changed.length, e.getMessage());
+            return false;
+        } finally {
+            metrics.record(BankMetrics.Operation.SAVE_ACCOUNTS, outcome, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Checks if the transaction log has stopped after a write error. Money is
+     * not moved once it has, since the change would have no record in the
+     * history; the bank must be restarted once the disk is fixed.
+     *
+     * @return true if deposits, withdrawals and transfers are refused.
+     */
 
+    public boolean historyStopped() {
+        TransactionLog log = transactionLog;
+        return log != null && log.getFailure() != null;
+    }
+
+    /**
+     * Puts an account back into the state it had before a change which could
+     * not be saved. This must be called holding the account's lock.
+     *
+     * @param a     The account.
+     * @param state The state read with getState before the change.
+     */
+
+    private static void undo(BankAccount a, long state) {
+        while (!a.compareAndSetState(a.getState(), state)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Writes a full snapshot of the accounts if the account store wants one.
+     * This must be called without holding any account lock.
+     */
+
+    private void checkpointIfNeeded() {
+        if (store.needsCheckpoint()) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes a full snapshot of the accounts to the account store.
+     * Every account lock is taken first (in stripe order), so the snapshot never
+     * holds half of a transfer, and nothing else is written to the store while
+     * the bytes written by the snapshot are counted.
+     */
+
+    public void checkpoint() {
+        long stamp = lockAll();
+        try {
+            try {
+                if (store.needsCheckpoint()) {
+                    long start = System.nanoTime();
+                    long bytes = store.getBytesWritten();
+                    BankMetrics.Outcome outcome = BankMetrics.Outcome.ERROR;
+                    try {
+                        store.checkpoint();
+                        outcome = BankMetrics.Outcome.SUCCESS;
+                    } finally {
+                        metrics.get(BankMetrics.Operation.CHECKPOINT).addBytes(store.getBytesWritten() - bytes);
+                        metrics.record(BankMetrics.Operation.CHECKPOINT, outcome, System.nanoTime() - start);
                     }
-                } catch (Exception e) {
-                    Debug.trace("Bank::loadAccounts: Error parsing account data: " + e.getMessage());
                 }
+            } catch (IOException e) {
+                Debug.error("Bank::checkpoint: Error writing the accounts snapshot: %s", e.getMessage());
             }
-        } catch (IOException e) {
-            Debug.trace("Bank::loadAccounts: Error reading accounts file: " + e.getMessage());
+        } finally {
+            unlockAll(stamp);
         }
     }
 
     /**
-     * Saves the accounts to the CSV file.
+     * Stops every account from changing or being added: takes the index lock
+     * and then every account lock, in stripe order.
+     *
+     * @return The stamp to give to unlockAll.
      */
 
-    private void saveAccounts() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(accountsFile))) {
+    long lockAll() {
+        long stamp = accountsLock.readLock();
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        return stamp;
+    }
 
-            String accountType = "";
-            String extraInfo = "";
+    /**
+     * Releases the locks taken by lockAll.
+     *
+     * @param stamp The stamp lockAll returned.
+     */
 
-            pw.println("Account Number,Password,Balance,Account Type,Overdraft Limit"); // Header line
+    void unlockAll(long stamp) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+        accountsLock.unlockRead(stamp);
+    }
 
-            for (BankAccount a : accounts) {
+    /**
+     * Starts watching the data directory, so accounts which another program
+     * changes or adds in accounts.csv while the bank runs are reloaded, see
+     * reloadChangedAccounts. Calling it again does nothing.
+     *
+     * @throws IOException if the directory cannot be watched.
+     */
+
+    public synchronized void watchForChanges() throws IOException {
+        if (watcher == null) {
+            watcher = new AccountsWatcher(this, Paths.get(dataDirectory));
+        }
+    }
+
+    /**
+     * Reloads the accounts which another program has changed or added in the
+     * account store's files, leaving every other account alone. A changed
+     * account is updated in place under its lock, so sessions logged in to it
+     * see the change; an account whose type has changed is replaced, and
+     * sessions already logged in to it keep the old one until they log in
+     * again. The reloaded accounts are saved through the store like any other
+     * change, so a journal replay does not undo them.
+     *
+     * @return The number of accounts reloaded.
+     */
+
+    int reloadChangedAccounts() {
+        List<BankAccount> rows;
+        try {
+            rows = store.readOutsideChanges();
+        } catch (IOException e) {
+            Debug.warn("Bank::reloadChangedAccounts: Error reading accounts file: %s", e.getMessage());
+            return 0;
+        }
+        List<BankAccount> reloaded = new ArrayList<>(rows.size());
+        for (BankAccount row : rows) {
+            reloaded.add(reload(row));
+        }
+        if (!reloaded.isEmpty()) {
+            Debug.trace("Bank::reloadChangedAccounts: Reloaded %d accounts", reloaded.size());
+            if (!saveAccounts(reloaded.toArray(new BankAccount[0]))) {
+                Debug.warn("Bank::reloadChangedAccounts: Reloaded accounts are only in memory until the next checkpoint");
+            }
+            checkpointIfNeeded();
+        }
+        return reloaded.size();
+    }
+
+    /**
+     * Copies one changed row into the index, taking the index lock and then the
+     * account's lock, in the same order as checkpoint.
+     *
+     * @param row The account as read from the file.
+     * @return The account now in the index.
+     */
+
+    private BankAccount reload(BankAccount row) {
+        long stamp = accountsLock.writeLock();
+        try {
+            ReentrantLock lock = lockFor(row.accNumber);
+            lock.lock();
+            try {
+                BankAccount a = accounts.get(row.accNumber);
+                if (a == null || a.getClass() != row.getClass()) {
+                    accounts.put(row.accNumber, row);
+                    return row;
+                }
+                a.accPasswd = row.accPasswd;
+                a.setBalance(row.getBalance());
                 if (a instanceof OverdraftBankAccount) {
-                    accountType = "overdraft";
-                    extraInfo = "," + ((OverdraftBankAccount) a).getOverdraftLimit();
+                    ((OverdraftBankAccount) a).setOverdraftLimit(((OverdraftBankAccount) row).getOverdraftLimit());
                 } else if (a instanceof LimitedWithdrawalBankAccount) {
-                    accountType = "limited";
-                    extraInfo = ",0";
-                } else {
-                    accountType = "normal";
-                    extraInfo = ",0";
+                    LimitedWithdrawalBankAccount limited = (LimitedWithdrawalBankAccount) row;
+                    ((LimitedWithdrawalBankAccount) a).setWithdrawals(limited.getWithdrawalCount(),
+                            limited.getWithdrawalDay());
                 }
+                return a;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            accountsLock.unlockWrite(stamp);
+        }
+    }
 
-                pw.println(a.accNumber + "," + a.accPasswd + "," + a.balance + "," + accountType + extraInfo);
+    /**
+     * Closes the transaction log, writing any queued transactions, closes
+     * the account store, writing a final snapshot of the accounts, and closes
+     * the metrics.
+     * The bank should not be used after it has been closed.
+     */
 
+    public void close() {
+        Debug.trace("Bank::close");
+        try {
+            synchronized (this) {
+                if (watcher != null) {
+                    watcher.close();
+                }
+            }
+            if (transactionLog != null) {
+                transactionLog.close();
             }
+            store.close();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            metrics.close();
         }
     }
 
     /**
      * Logs a transaction for a specific account.
+     * The record is written by the transaction log's background writer.
      *
      * @param accNumber       The account number.
      * @param transactionType The type of the transaction.
      * @param amount          The amount of money involved in the transaction.
      * @param newBalance      The new balance of the account after the transaction.
+     * @return A future which completes when the record has been written.
      */
 
-    public void logTransaction(int accNumber, String transactionType, int amount, int newBalance) {
-        try {
-
-            String[] dateTime = DateTimeUtils.getCurrentDateTime();
-            String date = dateTime[0];
-            String time = dateTime[1];
-
-            Debug.trace("Bank::logTransaction: Logging transaction for account %d", accNumber);
-            File file = new File(transactionsFile);
-            boolean isNewFile = file.createNewFile(); // This will create the file if it does not exist and return true
-
-            // Open the file in append mode
-            try (FileWriter csvWriter = new FileWriter(file, true)) {
-                // Write the headers if the file is new
-                if (isNewFile) {
-                    csvWriter.append("accNumber,transactionType,amount,newBalance,date,time\n"); // Write the headers
-                }
-
-                String csvLine = String.format("%d,%s,%d,%d,%s,%s\n", accNumber, transactionType, amount, newBalance,
-                        date, time);
-                // Append the transaction to the file
-                csvWriter.append(csvLine);
-                // Flush the writer to ensure the data is written to the file and not stored in
-                // memory
-                csvWriter.flush();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    public CompletableFuture<Void> logTransaction(int accNumber, String transactionType, int amount, int newBalance) {
+        Debug.trace("Bank::logTransaction: Logging transaction for account %d", accNumber);
+        long start = System.nanoTime();
+        if (transactionLog == null) {
+            metrics.record(BankMetrics.Operation.LOG_TRANSACTION, BankMetrics.Outcome.ERROR, 0);
+            return CompletableFuture.failedFuture(new IOException("Transaction log is not open"));
         }
+        CompletableFuture<Void> written = transactionLog.append(new Transaction(accNumber, transactionType, amount,
+                newBalance, DateTimeUtils.now(), 0));
+        written.whenComplete((ignored, e) -> metrics.record(BankMetrics.Operation.LOG_TRANSACTION,
+                e == null ? BankMetrics.Outcome.SUCCESS : BankMetrics.Outcome.ERROR, System.nanoTime() - start));
+        return written;
     }
 
     /**
@@ -159,15 +414,30 @@ public class Bank {
 
     public boolean addBankAccount(BankAccount a) {
         Debug.trace("Bank::addBankAccount: Adding bank account %d", a.accNumber);
-        if (accounts.size() < maxAccounts) {
+        boolean added;
+        long stamp = accountsLock.writeLock();
+        try {
+            added = accounts.putIfAbsent(a.accNumber, a);
+        } finally {
+            accountsLock.unlockWrite(stamp);
+        }
+        if (added) {
 
-            accounts.add(a);
-            Debug.trace("Bank::addBankAccount: added Account:" + a.accNumber + " Balance: £" + a.balance);
-            saveAccounts();
+            Debug.trace("Bank::addBankAccount: added Account:%s Balance: £%d", a.accNumber, a.getBalance());
+            if (!saveAccounts(a)) {
+                stamp = accountsLock.writeLock();
+                try {
+                    accounts.remove(a.accNumber);
+                } finally {
+                    accountsLock.unlockWrite(stamp);
+                }
+                return false;
+            }
+            checkpointIfNeeded();
             return true;
 
         } else {
-            Debug.trace("Bank::addBankAccount: can't add bank account - too many accounts");
+            Debug.trace("Bank::addBankAccount: can't add bank account - account number already in use");
             return false;
         }
     }
@@ -195,123 +465,508 @@ public class Bank {
     }
 
     /**
-     * Logs in to a specific account.
+     * Opens a new session on this bank. Any number of sessions can be open at
+     * once, each logged in to its own account.
      *
-     * @param newAccNumber The account number.
-     * @param newAccPasswd The password of the account.
-     * @return true if the login was successful, false otherwise.
+     * @return A new session, not yet logged in.
      */
 
-    public boolean login(int newAccNumber, String newAccPasswd) {
-        Debug.trace("Bank::login: Attempting to login with account %d", newAccNumber);
-        logout();
-
-        for (BankAccount b : accounts) {
-            if (b.accNumber == newAccNumber) {
+    public Session newSession() {
+        return new Session(this);
+    }
 
-                String storedPasswordHash = b.accPasswd;
-                boolean passwordMatches = SecurityUtils.checkPassword(storedPasswordHash, newAccPasswd);
+    /**
+     * Looks up an account by account number.
+     * Lookups normally run without locking: if an account is added while the
+     * lookup runs, it is retried under the lock.
+     *
+     * @param accNumber The account number.
+     * @return The account, or null if there is no such account.
+     */
 
-                if (passwordMatches) {
-                    Debug.trace("Bank::login: logged in, accNumber = " + newAccNumber + " balance = " + b.getBalance());
-                    account = b;
+    BankAccount findAccount(int accNumber) {
+        long stamp = accountsLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                BankAccount a = accounts.get(accNumber);
+                if (accountsLock.validate(stamp)) {
+                    return a;
                 }
-                return passwordMatches;
+            } catch (RuntimeException e) {
+                // the index changed under the lookup, retry below
             }
         }
-        account = null;
-        return false;
+        stamp = accountsLock.readLock();
+        try {
+            return accounts.get(accNumber);
+        } finally {
+            accountsLock.unlockRead(stamp);
+        }
     }
 
     /**
-     * Logs out from the current account.
+     * Checks an account number and password.
+     * The password check (bcrypt) runs on the password verifier's threads,
+     * without holding any lock. If the password is correct but its hash was made
+     * with a different bcrypt cost than new hashes use, the password is hashed
+     * again in the background.
+     *
+     * @param accNumber The account number.
+     * @param password  The password.
+     * @return A future which completes with the account if the password is
+     *         correct or null otherwise, or completes exceptionally if the
+     *         verifier is too busy to take the check.
      */
 
-    public void logout() {
-        if (loggedIn()) {
-            Debug.trace("Bank::logout: logging out, accNumber = " + account.accNumber);
-            account = null;
+    CompletableFuture<BankAccount> authenticateAsync(int accNumber, String password) {
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        BankAccount b = findAccount(accNumber);
+        if (b == null) {
+            metrics.end(event, BankMetrics.Operation.LOGIN, accNumber, BankMetrics.Outcome.NO_ACCOUNT);
+            return CompletableFuture.completedFuture(null);
         }
+        String hashedPassword = b.accPasswd;
+        return verifier.verify(hashedPassword, password).whenComplete((ok, e) -> {
+            BankMetrics.Outcome outcome = e != null ? failureOf(e)
+                    : ok ? BankMetrics.Outcome.SUCCESS : BankMetrics.Outcome.BAD_PASSWORD;
+            metrics.end(event, BankMetrics.Operation.LOGIN, accNumber, outcome);
+        }).thenApply(ok -> {
+            if (!ok) {
+                return null;
+            }
+            if (SecurityUtils.needsRehash(hashedPassword)) {
+                rehash(b, hashedPassword, password);
+            }
+            return b;
+        });
     }
 
     /**
-     * Checks if the bank is logged in to an account or not.
+     * Tells a verifier which was too busy from any other failure.
+     */
+
+    private static BankMetrics.Outcome failureOf(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof RejectedExecutionException ? BankMetrics.Outcome.BUSY : BankMetrics.Outcome.ERROR;
+    }
+
+    /**
+     * Hashes a password again with the current bcrypt cost, without waiting for
+     * it. A rehash which cannot be done now (such as when the verifier is busy)
+     * is simply tried again at the next login.
      *
-     * @return true if the bank is logged in to an account, false otherwise.
+     * @param a              The account.
+     * @param hashedPassword The hash the password was checked against.
+     * @param password       The password.
      */
 
-    public boolean loggedIn() {
-        if (account == null) {
-            return false;
-        } else {
+    private void rehash(BankAccount a, String hashedPassword, String password) {
+        Debug.trace("Bank::rehash: Rehashing password of account %d from cost %d", a.accNumber,
+                SecurityUtils.costOf(hashedPassword));
+        verifier.hash(password).thenAccept(newHashedPassword -> {
+            // Only replace the hash checked, a password changed meanwhile is kept
+            if (setPasswordHash(a, hashedPassword, newHashedPassword)) {
+                Debug.trace("Bank::rehash: Rehashed password of account %d", a.accNumber);
+            }
+        });
+    }
+
+    /**
+     * Replaces the password hash of an account and saves it.
+     *
+     * @param a                 The account.
+     * @param expected          The hash the account must still have, or null to
+     *                          replace any hash.
+     * @param newHashedPassword The new hash.
+     * @return true if the hash was replaced.
+     */
+
+    private boolean setPasswordHash(BankAccount a, String expected, String newHashedPassword) {
+        ReentrantLock lock = lockFor(a.accNumber);
+        lock.lock();
+        try {
+            if (expected != null && !expected.equals(a.accPasswd)) {
+                return false;
+            }
+            String oldHashedPassword = a.accPasswd;
+            a.accPasswd = newHashedPassword;
+            if (!saveAccounts(a)) {
+                a.accPasswd = oldHashedPassword;
+                return false;
+            }
             return true;
+        } finally {
+            lock.unlock();
+            checkpointIfNeeded();
         }
     }
 
     /**
-     * Deposits a certain amount of money to the current account.
+     * Returns the lock guarding an account. Accounts share a fixed number of
+     * locks (lock striping), so the number of locks does not grow with the
+     * number of accounts.
+     */
+
+    private ReentrantLock lockFor(int accNumber) {
+        return locks[stripe(accNumber)];
+    }
+
+    private static int stripe(int accNumber) {
+        int h = accNumber * 0x9E3779B9; // spread sequential account numbers over the stripes
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Deposits money into an account, then persists and logs it.
      *
+     * @param a      The account.
      * @param amount The amount of money to be deposited.
      * @return true if the deposit was successful, false otherwise.
      */
 
-    public boolean deposit(int amount) {
-        if (loggedIn()) {
-            Debug.trace("Bank::deposit: Depositing %d", amount);
-            boolean result = account.deposit(amount);
-            if (result) {
-                saveAccounts();
-                logTransaction(account.accNumber, "deposit", amount, account.getBalance());
+    boolean deposit(BankAccount a, int amount) {
+        Debug.trace("Bank::deposit: Depositing %d", amount);
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        ReentrantLock lock = lockFor(a.accNumber);
+        lock.lock();
+        boolean result = false;
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.REFUSED;
+        try {
+            long before = a.getState();
+            if (historyStopped()) {
+                outcome = BankMetrics.Outcome.ERROR;
+            } else if (a.deposit(amount)) {
+                if (saveAccounts(a)) {
+                    logTransaction(a.accNumber, "deposit", amount, a.getBalance());
+                    result = true;
+                    outcome = BankMetrics.Outcome.SUCCESS;
+                } else {
+                    undo(a, before);
+                    outcome = BankMetrics.Outcome.ERROR;
+                }
             }
             return result;
-        } else {
-            return false;
+        } finally {
+            lock.unlock();
+            checkpointIfNeeded();
+            metrics.end(event, BankMetrics.Operation.DEPOSIT, a.accNumber, outcome);
         }
     }
 
     /**
-     * Withdraws a certain amount of money from the current account.
+     * Withdraws money from an account, then persists and logs it.
      *
+     * @param a      The account.
      * @param amount The amount of money to be withdrawn.
      * @return true if the withdrawal was successful, false otherwise.
      */
 
-    public boolean withdraw(int amount) {
-        if (loggedIn()) {
-            Debug.trace("Bank::withdraw: Withdrawing %d", amount);
-            boolean result = account.withdraw(amount);
-            if (result) {
+    boolean withdraw(BankAccount a, int amount) {
+        Debug.trace("Bank::withdraw: Withdrawing %d", amount);
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        ReentrantLock lock = lockFor(a.accNumber);
+        lock.lock();
+        boolean result = false;
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.REFUSED;
+        try {
+            long before = a.getState();
+            if (historyStopped()) {
+                outcome = BankMetrics.Outcome.ERROR;
+            } else if (a.withdraw(amount)) {
+                if (saveAccounts(a)) {
+                    logTransaction(a.accNumber, "withdraw", amount, a.getBalance());
+                    result = true;
+                    outcome = BankMetrics.Outcome.SUCCESS;
+                } else {
+                    undo(a, before);
+                    outcome = BankMetrics.Outcome.ERROR;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+            checkpointIfNeeded();
+            metrics.end(event, BankMetrics.Operation.WITHDRAW, a.accNumber, outcome);
+        }
+    }
 
-                saveAccounts();
-                logTransaction(account.accNumber, "withdraw", amount, account.getBalance());
+    /**
+     * Gets the balance of an account.
+     *
+     * @param a The account.
+     * @return The balance of the account.
+     */
+
+    int getBalance(BankAccount a) {
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        ReentrantLock lock = lockFor(a.accNumber);
+        lock.lock();
+        try {
+            return a.getBalance();
+        } finally {
+            lock.unlock();
+            metrics.end(event, BankMetrics.Operation.BALANCE, a.accNumber, BankMetrics.Outcome.SUCCESS);
+        }
+    }
 
+    /**
+     * Transfers money from one account to another, then persists and logs it.
+     * The locks of both accounts are taken in stripe order, so two transfers
+     * going opposite ways between the same accounts cannot deadlock.
+     *
+     * @param sourceAccount   The account to take the money from.
+     * @param targetAccNumber The account number of the target account.
+     * @param amount          The amount of money to be transferred.
+     * @return true if the transfer was successful, false otherwise.
+     */
+
+    boolean transfer(BankAccount sourceAccount, int targetAccNumber, int amount) {
+        Debug.trace("Bank::transfer: Transferring %d from %d to %d", amount, sourceAccount.accNumber, targetAccNumber);
+        // Look up the target account, a transfer to the same account is not allowed
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        BankAccount targetAccount = sourceAccount.accNumber != targetAccNumber ? findAccount(targetAccNumber) : null;
+        if (targetAccount == null) {
+            metrics.end(event, BankMetrics.Operation.TRANSFER, sourceAccount.accNumber,
+                    BankMetrics.Outcome.NO_ACCOUNT);
+            return false;
+        }
+
+        int first = Math.min(stripe(sourceAccount.accNumber), stripe(targetAccNumber));
+        int second = Math.max(stripe(sourceAccount.accNumber), stripe(targetAccNumber));
+        locks[first].lock();
+        if (second != first) {
+            locks[second].lock();
+        }
+        boolean result = false;
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.REFUSED;
+        try {
+            long sourceBefore = sourceAccount.getState();
+            long targetBefore = targetAccount.getState();
+            // Attempt to withdraw the amount from the source account
+            if (historyStopped()) {
+                outcome = BankMetrics.Outcome.ERROR;
+            } else if (sourceAccount.withdraw(amount)) {
+                // If withdrawal is successful, deposit the amount to the target account
+                targetAccount.deposit(amount);
+
+                // Save the state of both accounts, log the transactions for both accounts
+                if (saveAccounts(sourceAccount, targetAccount)) {
+                    logTransaction(sourceAccount.accNumber, "transfer", amount, sourceAccount.getBalance());
+                    logTransaction(targetAccount.accNumber, "transfer", amount, targetAccount.getBalance());
+                    // Return true indicating the transfer was successful
+                    result = true;
+                    outcome = BankMetrics.Outcome.SUCCESS;
+                } else {
+                    undo(sourceAccount, sourceBefore);
+                    undo(targetAccount, targetBefore);
+                    outcome = BankMetrics.Outcome.ERROR;
+                }
             }
             return result;
-        } else {
+        } finally {
+            if (second != first) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+            checkpointIfNeeded();
+            metrics.end(event, BankMetrics.Operation.TRANSFER, sourceAccount.accNumber, outcome);
+        }
+    }
+
+    /**
+     * Gets the statement of an account.
+     *
+     * @param a The account.
+     * @return The statement of the account.
+     */
+
+    String getStatement(BankAccount a) {
+        Debug.trace("Bank::getStatement: Getting statement");
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        try {
+            return Transaction.formatStatement(transactions.recent(a.accNumber));
+        } finally {
+            metrics.end(event, BankMetrics.Operation.STATEMENT, a.accNumber, BankMetrics.Outcome.SUCCESS);
+        }
+    }
+
+    /**
+     * Gets the number of transactions of an account, for paging through its
+     * statement.
+     *
+     * @param a The account.
+     * @return The number of transactions.
+     */
+
+    int getTransactionCount(BankAccount a) {
+        return transactions.count(a.accNumber);
+    }
+
+    /**
+     * Gets one page of the transactions of an account. Page 0 holds the most
+     * recent transactions, page 1 the ones before them, and so on. Only the
+     * records of the page are read from the history file.
+     *
+     * @param a        The account.
+     * @param page     The page, counting back from the most recent.
+     * @param pageSize The number of transactions on a page.
+     * @return The transactions of the page, oldest first, or an empty list if
+     *         there is no such page.
+     * @throws UncheckedIOException if the history file could not be read.
+     */
+
+    List<Transaction> getTransactions(BankAccount a, int page, int pageSize) {
+        Debug.trace("Bank::getTransactions: Getting page %d of %d", page, pageSize);
+        if (transactionLog == null || page < 0 || pageSize <= 0) {
+            return new ArrayList<>();
+        }
+        long end = transactions.count(a.accNumber) - (long) page * pageSize;
+        if (end <= 0) {
+            return new ArrayList<>();
+        }
+        return readTransactions(a.accNumber,
+                transactions.offsets(a.accNumber, (int) Math.max(0, end - pageSize), (int) end));
+    }
+
+    /**
+     * Gets the transactions of an account made in a time range. The time
+     * index narrows the records to read down to the range, give or take a few.
+     *
+     * @param a          The account.
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, exclusive.
+     * @return The transactions in the range, in the order they were made.
+     * @throws UncheckedIOException if the history file could not be read.
+     */
+
+    List<Transaction> getTransactions(BankAccount a, long fromMillis, long toMillis) {
+        Debug.trace("Bank::getTransactions: Getting transactions from %d to %d", fromMillis, toMillis);
+        List<Transaction> result = new ArrayList<>();
+        if (transactionLog == null) {
+            return result;
+        }
+        int[] positions = transactions.positionsBetween(a.accNumber, fromMillis, toMillis);
+        long[] offsets = transactions.offsets(a.accNumber, positions[0], positions[1]);
+        for (Transaction t : readTransactions(a.accNumber, offsets)) {
+            if (t.timestamp >= fromMillis && t.timestamp < toMillis) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private List<Transaction> readTransactions(int accNumber, long[] offsets) {
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.ERROR;
+        try {
+            List<Transaction> result = transactionLog.read(accNumber, offsets);
+            outcome = BankMetrics.Outcome.SUCCESS;
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            metrics.end(event, BankMetrics.Operation.STATEMENT, accNumber, outcome);
+        }
+    }
+
+    /**
+     * Sets the overdraft limit of an account, then persists it.
+     *
+     * @param a              The account.
+     * @param overdraftLimit The new overdraft limit.
+     * @return true if the limit was set, false if the account has no overdraft
+     *         facility.
+     */
+
+    boolean setOverdraftLimit(BankAccount a, int overdraftLimit) {
+        if (!(a instanceof OverdraftBankAccount)) {
             return false;
         }
+        ReentrantLock lock = lockFor(a.accNumber);
+        lock.lock();
+        try {
+            OverdraftBankAccount account = (OverdraftBankAccount) a;
+            int oldLimit = account.getOverdraftLimit();
+            account.setOverdraftLimit(overdraftLimit);
+            if (!saveAccounts(a)) {
+                account.setOverdraftLimit(oldLimit);
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            checkpointIfNeeded();
+        }
     }
 
     /**
-     * Gets the balance of the current account.
+     * Logs in to a specific account, using the bank's own session.
+     *
+     * @param newAccNumber The account number.
+     * @param newAccPasswd The password of the account.
+     * @return true if the login was successful, false otherwise.
+     */
+
+    public boolean login(int newAccNumber, String newAccPasswd) {
+        return session.login(newAccNumber, newAccPasswd);
+    }
+
+    /**
+     * Logs out from the current account of the bank's own session.
+     */
+
+    public void logout() {
+        session.logout();
+    }
+
+    /**
+     * Checks if the bank's own session is logged in to an account or not.
+     *
+     * @return true if the bank is logged in to an account, false otherwise.
+     */
+
+    public boolean loggedIn() {
+        return session.loggedIn();
+    }
+
+    /**
+     * Deposits a certain amount of money to the current account of the bank's
+     * own session.
+     *
+     * @param amount The amount of money to be deposited.
+     * @return true if the deposit was successful, false otherwise.
+     */
+
+    public boolean deposit(int amount) {
+        return session.deposit(amount);
+    }
+
+    /**
+     * Withdraws a certain amount of money from the current account of the
+     * bank's own session.
+     *
+     * @param amount The amount of money to be withdrawn.
+     * @return true if the withdrawal was successful, false otherwise.
+     */
+
+    public boolean withdraw(int amount) {
+        return session.withdraw(amount);
+    }
+
+    /**
+     * Gets the balance of the current account of the bank's own session.
      *
      * @return The balance of the current account, or -1 if the bank is not logged
      *         in to an account.
      */
 
     public int getBalance() {
-        if (loggedIn()) {
-            Debug.trace("Bank::getBalance: Getting balance");
-            return account.getBalance();
-        } else {
-            Debug.trace("Bank::getBalance: ERROR getting balance - not logged in");
-            return -1; // use -1 as an indicator of an error
-        }
+        return session.getBalance();
     }
 
     /**
      * Transfers a certain amount of money from a source account to a target
-     * account.
+     * account. The bank's own session must be logged in.
      *
      * @param sourceAccNumber The account number of the source account.
      * @param targetAccNumber The account number of the target account.
@@ -322,49 +977,16 @@ public class Bank {
     public boolean transfer(int sourceAccNumber, int targetAccNumber, int amount) {
         // Check if a user is logged in
         if (loggedIn()) {
-            // Log the transfer details
-            Debug.trace(
-                    "Bank::transfer: Transferring " + amount + " from " + sourceAccNumber + " to " + targetAccNumber);
-            // Initialize source and target account objects
-            BankAccount sourceAccount = null;
-            BankAccount targetAccount = null;
-
-            // Iterate over all accounts to find the source and target accounts
-            for (BankAccount acc : accounts) {
-                if (acc != null) {
-                    if (acc.accNumber == sourceAccNumber) {
-                        sourceAccount = acc; // Found the source account
-                    } else if (acc.accNumber == targetAccNumber) {
-                        targetAccount = acc; // Found the target account
-                    }
-                }
-                // Break the loop if both accounts are found
-                if (sourceAccount != null && targetAccount != null) {
-                    break;
-                }
-            }
-            // Proceed if both accounts are found
-            if (sourceAccount != null && targetAccount != null) {
-                // Attempt to withdraw the amount from the source account
-                if (sourceAccount.withdraw(amount)) {
-                    // If withdrawal is successful, deposit the amount to the target account
-                    targetAccount.deposit(amount);
-
-                    // Save the state of all accounts, log the transactions for both accounts
-                    saveAccounts();
-                    logTransaction(sourceAccount.accNumber, "transfer", amount, sourceAccount.getBalance());
-                    logTransaction(targetAccount.accNumber, "transfer", amount, targetAccount.getBalance());
-                    // Return true indicating the transfer was successful
-                    return true;
-                }
-            }
+            BankAccount sourceAccount = findAccount(sourceAccNumber);
+            return sourceAccount != null && transfer(sourceAccount, targetAccNumber, amount);
         }
-        // Return false if transfer was not successful or user is not logged in
+        // Return false if the user is not logged in
         return false;
     }
 
     /**
-     * Updates the password of a specific account.
+     * Updates the password of a specific account, waiting for the new password
+     * to be hashed.
      *
      * @param accNumber   The account number.
      * @param newPassword The new password.
@@ -372,40 +994,55 @@ public class Bank {
      */
 
     public boolean updatePassword(int accNumber, String newPassword) {
-        Debug.trace("Bank::updatePassword: Attempting to update password for account %d", accNumber);
-        for (BankAccount acc : accounts) {
-            if (acc != null && acc.accNumber == accNumber) {
-
-                Debug.trace("Bank::updatePassword: Found account %d", accNumber);
-                
-                String newHashedPassword = SecurityUtils.hashPassword(newPassword);
-                acc.accPasswd = newHashedPassword;
-                Debug.trace("Bank::updatePassword: Successfully updated password");
+        try {
+            return updatePasswordAsync(accNumber, newPassword).join();
+        } catch (CompletionException e) {
+            Debug.warn("Bank::updatePassword: Failed to hash password: %s", e.getCause());
+            return false;
+        }
+    }
 
-                saveAccounts();
-                Debug.trace("Bank::updatePassword: Saved accounts to file");
-                return true; // Password updated successfully
+    /**
+     * Updates the password of a specific account.
+     * The new password is hashed on the password verifier's threads before
+     * any lock is taken.
+     *
+     * @param accNumber   The account number.
+     * @param newPassword The new password.
+     * @return A future which completes with true if the password was updated
+     *         or false if there is no such account or the new hash could not
+     *         be saved, or completes exceptionally
+     *         if the verifier is too busy to hash the password.
+     */
 
-            }
+    public CompletableFuture<Boolean> updatePasswordAsync(int accNumber, String newPassword) {
+        Debug.trace("Bank::updatePassword: Attempting to update password for account %d", accNumber);
+        BankEvents.OperationEvent event = BankMetrics.begin();
+        BankAccount acc = findAccount(accNumber);
+        if (acc == null) {
+            Debug.trace("Bank::updatePassword: Failed to find account %d", accNumber);
+            metrics.end(event, BankMetrics.Operation.PASSWORD, accNumber, BankMetrics.Outcome.NO_ACCOUNT);
+            return CompletableFuture.completedFuture(false); // Account not found
         }
-        Debug.trace("Bank::updatePassword: Failed to find account %d", accNumber);
-        return false; // Account not found or password not updated
+        Debug.trace("Bank::updatePassword: Found account %d", accNumber);
+        return verifier.hash(newPassword).thenApply(newHashedPassword -> {
+            if (!setPasswordHash(acc, null, newHashedPassword)) {
+                return false; // The new hash could not be saved
+            }
+            Debug.trace("Bank::updatePassword: Successfully updated password and saved accounts to file");
+            return true; // Password updated successfully
+        }).whenComplete((updated, e) -> metrics.end(event, BankMetrics.Operation.PASSWORD, accNumber,
+                e != null ? failureOf(e) : updated ? BankMetrics.Outcome.SUCCESS : BankMetrics.Outcome.ERROR));
     }
 
     /**
-     * Gets the statement of the current account.
+     * Gets the statement of the current account of the bank's own session.
      *
      * @return The statement of the current account, or an error message if the bank
      *         is not logged in to an account.
      */
 
     public String getStatement() {
-        if (loggedIn()) {
-            Debug.trace("Bank::getStatement: Getting statement");
-            return account.getStatement();
-        } else {
-            Debug.trace("Bank::getStatement: ERROR getting statement - not logged in");
-            return "ERROR: Not logged in";
-        }
+        return session.getStatement();
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,10 @@
 package CI401.mybank;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -8,13 +12,29 @@ import java.util.*;
  * password, balance, and account type.
  * It provides methods to withdraw and deposit money, get the current balance,
  * and retrieve the transaction history.
+ * The balance is changed without locking: each change reads the state, checks
+ * the account's rules against it and installs the new state with a
+ * compare-and-set, retrying if another thread changed it in between. The
+ * state is a long holding the balance in its low 32 bits and a counter in its
+ * high 32 bits, so a subclass can keep a count (such as withdrawals today)
+ * which always changes together with the balance.
  */
 
 public class BankAccount {
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(BankAccount.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public int accNumber = 0;
     public String accPasswd = "";
-    public int balance = 0;
     public String accountType = "normal";
+    private volatile long state = 0; // balance in the low 32 bits, counter in the high 32 bits
 
     public BankAccount() {
     }
@@ -32,7 +52,7 @@ public class BankAccount {
     public BankAccount(int a, String p, int b) {
         accNumber = a;
         accPasswd = p;
-        balance = b;
+        state = pack(b, 0);
     }
 
     /**
@@ -43,14 +63,31 @@ public class BankAccount {
      */
 
     public boolean withdraw(int amount) {
-        Debug.trace("BankAccount::withdraw: amount = £" + amount);
-        System.out.println("\n Printing from BankAccount Class \n");
+        Debug.trace("BankAccount::withdraw: amount = £%d", amount);
 
-        if (amount < 0 || balance < amount) {
-            return false;
-        } else {
-            balance = balance - amount; // subtract amount from balance
-            return true;
+        return withdrawAbove(amount, 0);
+    }
+
+    /**
+     * Withdraws a certain amount of money as long as the balance does not go
+     * below a floor.
+     *
+     * @param amount The amount of money to be withdrawn.
+     * @param floor  The lowest the balance may go.
+     * @return true if the withdrawal was successful, false otherwise.
+     */
+
+    protected boolean withdrawAbove(int amount, int floor) {
+        while (true) {
+            long current = getState();
+            int balance = balanceOf(current);
+            if (amount < 0 || (long) balance - amount < floor) {
+                return false;
+            }
+            // subtract amount from balance, retry if the state changed since it was read
+            if (compareAndSetState(current, pack(balance - amount, counterOf(current)))) {
+                return true;
+            }
         }
     }
 
@@ -62,13 +99,17 @@ public class BankAccount {
      */
 
     public boolean deposit(int amount) {
-        Debug.trace("LocalBank::deposit: amount = £" + amount);
+        Debug.trace("LocalBank::deposit: amount = £%d", amount);
 
         if (amount < 0) {
             return false;
-        } else {
-            balance = balance + amount; // add amount to balance
-            return true;
+        }
+        while (true) {
+            long current = getState();
+            // add amount to balance, retry if the state changed since it was read
+            if (compareAndSetState(current, pack(balanceOf(current) + amount, counterOf(current)))) {
+                return true;
+            }
         }
     }
 
@@ -80,61 +121,175 @@ public class BankAccount {
 
     public int getBalance() {
         Debug.trace("LocalBank::getBalance");
-        return balance;
+        return balanceOf(getState());
+    }
+
+    /**
+     * Replaces the balance, keeping the counter. This is used when an account
+     * is changed outside the bank, such as by editing accounts.csv, and should
+     * be called holding the account's lock in the Bank.
+     *
+     * @param balance The new balance.
+     */
+
+    void setBalance(int balance) {
+        while (true) {
+            long current = getState();
+            if (compareAndSetState(current, pack(balance, counterOf(current)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds to the balance (or takes from it, if the amount is negative)
+     * unconditionally, keeping the counter. This is used for postings the
+     * bank makes itself, such as interest and fees, and should be called
+     * holding the account's lock in the Bank.
+     *
+     * @param amount The amount to add.
+     * @throws ArithmeticException if the balance would overflow.
+     */
+
+    void adjust(int amount) {
+        while (true) {
+            long current = getState();
+            int balance = Math.addExact(balanceOf(current), amount);
+            if (compareAndSetState(current, pack(balance, counterOf(current)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the current state of the account: the balance and the counter.
+     *
+     * @return The state, see balanceOf and counterOf.
+     */
+
+    protected final long getState() {
+        return state;
+    }
+
+    /**
+     * Replaces the state of the account if it still holds the expected state.
+     *
+     * @param expected The state the change was worked out from.
+     * @param updated  The new state.
+     * @return true if the state was replaced, false if another thread changed
+     *         it first.
+     */
+
+    protected final boolean compareAndSetState(long expected, long updated) {
+        return STATE.compareAndSet(this, expected, updated);
+    }
+
+    /**
+     * Packs a balance and a counter into a state.
+     */
+
+    protected static long pack(int balance, int counter) {
+        return ((long) counter << 32) | (balance & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the balance held in a state.
+     */
+
+    protected static int balanceOf(long state) {
+        return (int) state;
+    }
+
+    /**
+     * Returns the counter held in a state.
+     */
+
+    protected static int counterOf(long state) {
+        return (int) (state >>> 32);
     }
 
     /**
      * Returns the statement of the account.
      * The statement includes the last five transactions.
+     * This reads the whole of the history file, the Bank serves statements from
+     * its TransactionIndex instead, and StatementExport writes the statements
+     * of every account in one pass.
      *
      * @return The statement of the account.
      */
 
     public String getStatement() {
-        Debug.trace("LocalBank::statement");
-        List<String> lastFiveLines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader("CSV/transaction_history.csv"))) {
+        return getStatement("CSV/transaction_history.csv");
+    }
 
-            String line;
-            boolean isFirstLine = true; // Flag to skip the header line
+    /**
+     * Returns the statement of the account from the given history file.
+     * The statement includes the last five transactions. If the account has
+     * fewer than five in the file, the ones before are looked for in the
+     * files rotated out of it and then in the sealed segments whose account
+     * range covers the account, newest first (see HistoryCatalogue).
+     *
+     * @param historyFile The transaction history file to read.
+     * @return The statement of the account.
+     */
 
-            while ((line = br.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue; // Skip the header line
+    public String getStatement(String historyFile) {
+        Debug.trace("LocalBank::statement");
+        ArrayDeque<Transaction> lastFive = new ArrayDeque<>();
+        try {
+            lastFiveIn(historyFile, lastFive);
+            if (lastFive.size() < 5) {
+                Path directory = HistoryCatalogue.directoryOf(Paths.get(historyFile));
+                List<Path> rotated = HistoryCatalogue.rotatedFiles(directory);
+                HistoryCatalogue catalogue = HistoryCatalogue.open(directory);
+                for (int i = rotated.size() - 1; i >= 0 && lastFive.size() < 5; i--) {
+                    if (!catalogue.contains(HistoryCatalogue.segmentFileOf(rotated.get(i)))) {
+                        ArrayDeque<Transaction> older = new ArrayDeque<>();
+                        lastFiveIn(rotated.get(i).toString(), older);
+                        while (!older.isEmpty() && lastFive.size() < 5) {
+                            lastFive.addFirst(older.removeLast());
+                        }
+                    }
                 }
-                String[] parts = line.split(",");
-                if (parts.length < 6) {
-                    continue; // Skip lines that don't have enough parts
+                List<HistoryCatalogue.Entry> entries = catalogue.getEntries();
+                for (int i = entries.size() - 1; i >= 0 && lastFive.size() < 5; i--) {
+                    if (entries.get(i).covers(this.accNumber)) {
+                        List<Transaction> older = HistorySegment.open(entries.get(i).file).transactionsOf(accNumber);
+                        for (int j = older.size() - 1; j >= 0 && lastFive.size() < 5; j--) {
+                            lastFive.addFirst(older.get(j));
+                        }
+                    }
                 }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Join the last 5 transactions into a single string
+        return Transaction.formatStatement(new ArrayList<>(lastFive));
+    }
+
+    /**
+     * Reads the last five transactions of the account in one history file.
+     */
+    private void lastFiveIn(String historyFile, ArrayDeque<Transaction> lastFive) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(historyFile))) {
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                // Skips the header line and lines that don't have enough parts
+                Transaction t = Transaction.parse(line);
                 // Check if the account number in the line matches the account number of the
                 // current account
-                if (Integer.parseInt(parts[0]) != this.accNumber) {
+                if (t == null || t.accNumber != this.accNumber) {
                     continue; // Skip lines that are not for the current account
                 }
 
-                String formattedLine = "Transaction Type: " + parts[1] 
-                    + "\nAmount: " + Model.formatBalance(Integer.parseInt(parts[2])) 
-                    + "\nNew Balance: " + Model.formatBalance(Integer.parseInt(parts[3]))
-                    + "\nTransaction Date: " + parts[4]
-                    + "\nTransaction Time: " + parts[5];
-
-                lastFiveLines.add(formattedLine);
-                if (lastFiveLines.size() > 5) {
-                    lastFiveLines.remove(0); // Remove the oldest line if more than 5 lines
+                lastFive.addLast(t);
+                if (lastFive.size() > 5) {
+                    lastFive.removeFirst(); // Remove the oldest line if more than 5 lines
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-
-        // Check if there are no transactions
-        if (lastFiveLines.isEmpty()) {
-            return "No transaction history available for this account.";
-        }
-
-        // Join the last 5 lines into a single string
-        String statement = String.join("\n\n", lastFiveLines);
-        return statement;
     }
 }
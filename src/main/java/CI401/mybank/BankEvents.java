@@ -0,0 +1,214 @@
+package CI401.mybank;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The BankEvents class holds the Java Flight Recorder events of the bank, so
+ * a recording shows where the time of a slow login or deposit went: the
+ * operation itself, the bcrypt check or hash, the account store write and the
+ * transaction log write or read. Each event is only filled in and committed
+ * when it is enabled, so with the recorder off they cost a few nanoseconds.
+ * The settings profile mybank.jfc, next to this class, enables them all with
+ * thresholds suited to a continuous recording:
+ * java -XX:StartFlightRecording:settings=default,settings=mybank.jfc ...
+ * Account numbers are recorded as they are, or, if the system property
+ * "mybank.jfr.hashAccounts" is true, as a keyed hash (HMAC-SHA256 with a key
+ * made for each run of the program), which is the same for an account
+ * throughout a recording but cannot be turned back into the account number.
+ */
+
+final class BankEvents {
+    private static final boolean HASH_ACCOUNTS = Boolean.getBoolean("mybank.jfr.hashAccounts");
+    private static final ThreadLocal<Mac> HASH = ThreadLocal.withInitial(BankEvents::newHash);
+    private static final byte[] KEY = new byte[32]; // the key of the account hash, made for each run
+
+    static {
+        new SecureRandom().nextBytes(KEY);
+    }
+
+    private BankEvents() {
+    }
+
+    /**
+     * Gets what is recorded for an account number.
+     *
+     * @param accNumber The account number.
+     * @return The account number, or its keyed hash.
+     */
+    static long account(int accNumber) {
+        return HASH_ACCOUNTS ? hash(accNumber) : accNumber;
+    }
+
+    /**
+     * Gets the keyed hash of an account number.
+     *
+     * @param accNumber The account number.
+     * @return The first 8 bytes of its HMAC-SHA256.
+     */
+    static long hash(int accNumber) {
+        Mac mac = HASH.get();
+        byte[] hash = mac.doFinal(ByteBuffer.allocate(4).putInt(accNumber).array());
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    private static Mac newHash() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Fills in and commits an account store write, if it is recorded.
+     *
+     * @param event     The event, begun when the write started.
+     * @param store     The store written to.
+     * @param operation "update" or "checkpoint".
+     * @param accounts  The number of accounts written.
+     * @param bytes     The bytes written.
+     * @param ok        true if the write succeeded.
+     */
+    static void commit(AccountStoreWriteEvent event, AccountStore store, String operation, int accounts, long bytes,
+            boolean ok) {
+        if (event.shouldCommit()) {
+            event.store = store.getClass().getSimpleName();
+            event.operation = operation;
+            event.accounts = accounts;
+            event.bytes = bytes;
+            event.outcome = ok ? "success" : "error";
+            event.commit();
+        }
+    }
+
+    /**
+     * One bank operation, from the call to the result, see BankMetrics. The
+     * stages it went through, such as the password check or the account store
+     * write, are events of their own.
+     */
+    @Name("CI401.mybank.Operation")
+    @Label("Bank Operation")
+    @Category({ "MyBank", "Operations" })
+    @Description("A login, deposit, withdrawal, transfer, balance or statement read, or password change")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Account")
+        @Description("The account number, or its hash if mybank.jfr.hashAccounts is true")
+        long account;
+
+        @Label("Outcome")
+        String outcome;
+
+        transient long startNanos; // for BankMetrics, not recorded
+    }
+
+    /**
+     * One bcrypt password check or hash on the password verifier's threads.
+     */
+    @Name("CI401.mybank.Password")
+    @Label("Password Check")
+    @Category({ "MyBank", "Security" })
+    @Description("A bcrypt password check or hash")
+    @StackTrace(false)
+    static final class PasswordEvent extends Event {
+        @Label("Operation")
+        String operation; // "check" or "hash"
+
+        @Label("Cost")
+        @Description("The bcrypt cost, log2 of the rounds")
+        int cost;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Queued")
+        @Description("How long the request waited for a verifier thread")
+        @Timespan(Timespan.NANOSECONDS)
+        long queued;
+    }
+
+    /**
+     * One write of changed accounts, or of a snapshot, to an account store.
+     */
+    @Name("CI401.mybank.AccountStoreWrite")
+    @Label("Account Store Write")
+    @Category({ "MyBank", "File I/O" })
+    @Description("Changed accounts or a snapshot written to the account store")
+    @StackTrace(false)
+    static final class AccountStoreWriteEvent extends Event {
+        @Label("Store")
+        String store;
+
+        @Label("Operation")
+        String operation; // "update" or "checkpoint"
+
+        @Label("Accounts")
+        int accounts;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * One group of records written to the transaction history file.
+     */
+    @Name("CI401.mybank.TransactionLogWrite")
+    @Label("Transaction Log Write")
+    @Category({ "MyBank", "File I/O" })
+    @Description("A group of transaction records appended to the history file")
+    @StackTrace(false)
+    static final class TransactionLogWriteEvent extends Event {
+        @Label("Records")
+        int records;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Forced")
+        @Description("Whether the file was forced to the disk")
+        boolean forced;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * One read of records back from the transaction history file.
+     */
+    @Name("CI401.mybank.TransactionLogRead")
+    @Label("Transaction Log Read")
+    @Category({ "MyBank", "File I/O" })
+    @Description("Transaction records read back from the history file")
+    @StackTrace(false)
+    static final class TransactionLogReadEvent extends Event {
+        @Label("Records")
+        int records;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
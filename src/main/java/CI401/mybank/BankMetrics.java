@@ -0,0 +1,330 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The BankMetrics class counts what a Bank does: every kind of operation by
+ * outcome, how long each took, and how many bytes the account store and the
+ * transaction log have written, so the cost of password checks and the
+ * bytes written for each change (write amplification) can be watched while
+ * the bank runs.
+ * The metrics are registered as JMX MBeans, under
+ * CI401.mybank:type=Bank,name=bank-N with one more MBean per operation, and
+ * can also be appended to a CSV file every so often. These are set with the
+ * system properties "mybank.metrics.jmx" (default true),
+ * "mybank.metrics.file" (default none) and "mybank.metrics.seconds" (how
+ * often the file is written, default 60).
+ */
+
+public class BankMetrics implements BankMetricsMBean, Closeable {
+    static final String DOMAIN = "CI401.mybank";
+    static final String FILE_HEADER = "time,operation,count,success,refused,badPassword,noAccount,busy,error,"
+            + "meanMicros,p50Micros,p99Micros,p999Micros,maxMicros,bytesWritten";
+
+    /**
+     * The kinds of operation counted.
+     */
+    public enum Operation {
+        LOGIN, BALANCE, DEPOSIT, WITHDRAW, TRANSFER, STATEMENT, PASSWORD, SAVE_ACCOUNTS, LOG_TRANSACTION, CHECKPOINT,
+        END_OF_DAY
+    }
+
+    /**
+     * How an operation ended.
+     */
+    public enum Outcome {
+        SUCCESS, // done
+        REFUSED, // not allowed, such as for insufficient funds
+        BAD_PASSWORD, // the password was wrong
+        NO_ACCOUNT, // there is no such account
+        BUSY, // the password verifier was too busy
+        ERROR // it failed, such as on a write error
+    }
+
+    private static final String[] NAMES = new String[Operation.values().length]; // in lower case, for reports
+    private static final String[] OUTCOMES = new String[Outcome.values().length]; // in lower case, for events
+
+    static {
+        for (Operation operation : Operation.values()) {
+            NAMES[operation.ordinal()] = operation.name().toLowerCase(Locale.ROOT);
+        }
+        for (Outcome outcome : Outcome.values()) {
+            OUTCOMES[outcome.ordinal()] = outcome.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final AtomicInteger banks = new AtomicInteger(); // for naming the MBeans
+
+    private final String dataDirectory;
+    private final OperationMetrics[] operations = new OperationMetrics[Operation.values().length];
+    private volatile LongSupplier storeBytes = () -> 0;
+    private volatile LongSupplier logBytes = () -> 0;
+    private final List<ObjectName> registered = new ArrayList<>(); // the MBeans to unregister on close
+    private ScheduledExecutorService reporter = null; // writes the metrics file ('null' if not written)
+    private Path reportFile = null;
+
+    /**
+     * Constructor for the BankMetrics class. Nothing is registered or written
+     * until asked for, see open.
+     *
+     * @param dataDirectory The data directory of the bank, to tell banks
+     *                      apart.
+     */
+    public BankMetrics(String dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        for (Operation operation : Operation.values()) {
+            operations[operation.ordinal()] = new OperationMetrics(operation);
+        }
+    }
+
+    /**
+     * Makes the metrics for a bank, registering them with JMX and starting the
+     * metrics file as the system properties say.
+     *
+     * @param dataDirectory The data directory of the bank.
+     * @return The metrics.
+     */
+    static BankMetrics open(String dataDirectory) {
+        BankMetrics metrics = new BankMetrics(dataDirectory);
+        if (Boolean.parseBoolean(System.getProperty("mybank.metrics.jmx", "true"))) {
+            metrics.register();
+        }
+        String file = System.getProperty("mybank.metrics.file");
+        if (file != null) {
+            metrics.startReporting(Paths.get(file), Long.getLong("mybank.metrics.seconds", 60));
+        }
+        return metrics;
+    }
+
+    /**
+     * Sets where the bytes written by the account store and the transaction
+     * log are read from. The account store's bytes are split between
+     * SAVE_ACCOUNTS and CHECKPOINT, which counts its own.
+     *
+     * @param accountStore   Gives the bytes written by the account store.
+     * @param transactionLog Gives the bytes written by the transaction log.
+     */
+    void setByteSources(LongSupplier accountStore, LongSupplier transactionLog) {
+        storeBytes = accountStore;
+        logBytes = transactionLog;
+        OperationMetrics checkpoints = get(Operation.CHECKPOINT);
+        get(Operation.SAVE_ACCOUNTS).setBytesSource(
+                () -> Math.max(0, accountStore.getAsLong() - checkpoints.getBytesWritten()));
+        get(Operation.LOG_TRANSACTION).setBytesSource(transactionLog);
+    }
+
+    /**
+     * Gets the metrics of one kind of operation.
+     *
+     * @param operation The operation.
+     * @return The metrics.
+     */
+    public OperationMetrics get(Operation operation) {
+        return operations[operation.ordinal()];
+    }
+
+    /**
+     * Records one operation.
+     *
+     * @param operation The operation.
+     * @param outcome   How it ended.
+     * @param nanos     How long it took.
+     */
+    void record(Operation operation, Outcome outcome, long nanos) {
+        operations[operation.ordinal()].record(outcome, nanos);
+    }
+
+    /**
+     * Starts timing a customer operation, see end.
+     *
+     * @return The operation's flight recorder event, which also holds when it
+     *         started.
+     */
+    static BankEvents.OperationEvent begin() {
+        BankEvents.OperationEvent event = new BankEvents.OperationEvent();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Records a customer operation started with begin, and commits its flight
+     * recorder event if it is recorded. It may be called on another thread
+     * than begin was.
+     *
+     * @param event     The event begin returned.
+     * @param operation The operation.
+     * @param accNumber The account number.
+     * @param outcome   How it ended.
+     */
+    void end(BankEvents.OperationEvent event, Operation operation, int accNumber, Outcome outcome) {
+        record(operation, outcome, System.nanoTime() - event.startNanos);
+        if (event.shouldCommit()) {
+            event.operation = NAMES[operation.ordinal()];
+            event.account = BankEvents.account(accNumber);
+            event.outcome = OUTCOMES[outcome.ordinal()];
+            event.commit();
+        }
+    }
+
+    @Override
+    public String getDataDirectory() {
+        return dataDirectory;
+    }
+
+    @Override
+    public long getAccountStoreBytesWritten() {
+        return storeBytes.getAsLong();
+    }
+
+    @Override
+    public long getTransactionLogBytesWritten() {
+        return logBytes.getAsLong();
+    }
+
+    /**
+     * Gets the number of changes made to accounts: successful deposits,
+     * withdrawals, transfers and password changes.
+     *
+     * @return The number of changes.
+     */
+    @Override
+    public long getChanges() {
+        return get(Operation.DEPOSIT).getSuccesses() + get(Operation.WITHDRAW).getSuccesses()
+                + get(Operation.TRANSFER).getSuccesses() + get(Operation.PASSWORD).getSuccesses();
+    }
+
+    /**
+     * Gets the bytes written by the account store and the transaction log for
+     * each change made to accounts.
+     *
+     * @return The bytes per change, or 0 if there have been no changes.
+     */
+    @Override
+    public double getBytesPerChange() {
+        long changes = getChanges();
+        return changes == 0 ? 0 : (double) (getAccountStoreBytesWritten() + getTransactionLogBytesWritten()) / changes;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. A metric which
+     * cannot be registered is skipped.
+     */
+    public synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String name = DOMAIN + ":type=Bank,name=bank-" + banks.incrementAndGet();
+        try {
+            ObjectName bankName = new ObjectName(name);
+            server.registerMBean(this, bankName);
+            registered.add(bankName);
+            for (OperationMetrics operation : operations) {
+                ObjectName operationName = new ObjectName(
+                        name + ",operation=" + NAMES[operation.getOperation().ordinal()]);
+                server.registerMBean(operation, operationName);
+                registered.add(operationName);
+            }
+        } catch (JMException e) {
+            Debug.warn("BankMetrics::register: cannot register the metrics: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts appending the metrics to a CSV file, one row for each kind of
+     * operation every so often, from a background thread.
+     *
+     * @param file    The metrics file.
+     * @param seconds How often to write the metrics.
+     */
+    public synchronized void startReporting(Path file, long seconds) {
+        if (reporter != null) {
+            return;
+        }
+        reportFile = file;
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, seconds);
+        reporter.scheduleAtFixedRate(this::writeReportQuietly, period, period, TimeUnit.SECONDS);
+    }
+
+    private void writeReportQuietly() {
+        try {
+            writeReport(reportFile);
+        } catch (IOException e) {
+            Debug.warn("BankMetrics::writeReport: cannot write %s: %s", reportFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the metrics as they are now to a CSV file, writing the header
+     * first if the file is new. Times are in microseconds.
+     *
+     * @param file The metrics file.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeReport(Path file) throws IOException {
+        StringBuilder rows = new StringBuilder();
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            rows.append(FILE_HEADER).append('\n');
+        }
+        long now = System.currentTimeMillis();
+        for (OperationMetrics operation : operations) {
+            LatencyHistogram latencies = operation.getLatencies();
+            rows.append(now).append(',').append(NAMES[operation.getOperation().ordinal()]);
+            rows.append(',').append(operation.getCount());
+            for (Outcome outcome : Outcome.values()) {
+                rows.append(',').append(operation.getCount(outcome));
+            }
+            rows.append(String.format(Locale.ROOT, ",%.1f,%.1f,%.1f,%.1f,%.1f", latencies.getMean() / 1000,
+                    latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                    latencies.getValueAtPercentile(99.9) / 1000.0, latencies.getMax() / 1000.0));
+            rows.append(',').append(operation.getBytesWritten()).append('\n');
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.write(file, rows.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Stops the metrics file, writing it one last time, and unregisters the
+     * MBeans.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+            writeReportQuietly();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                Debug.trace("BankMetrics::close: %s", e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,17 @@
+package CI401.mybank;
+
+/**
+ * The JMX view of a bank's writes, see BankMetrics. Each kind of operation
+ * has its own OperationMetricsMBean.
+ */
+public interface BankMetricsMBean {
+    String getDataDirectory();
+
+    long getAccountStoreBytesWritten();
+
+    long getTransactionLogBytesWritten();
+
+    long getChanges();
+
+    double getBytesPerChange();
+}
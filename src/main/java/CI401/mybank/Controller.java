@@ -1,8 +1,10 @@
 package CI401.mybank;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import javafx.animation.KeyFrame;
+import javafx.application.Platform;
 import javafx.animation.Timeline;
 import javafx.util.Duration;
 import javafx.scene.control.Alert;
@@ -24,14 +26,16 @@ import javafx.scene.control.Label;
  * Handles user interactions and updates the view and model accordingly.
  * The Controller class is part of the model-view-controller
  * (MVC) design pattern.
- * It is responsible for processing user input, updating the model,
- * and updating the view.
+ * It is the JavaFX adapter on top of the Model: it passes the ATM's button
+ * presses to the Model, shows the Model's output in the window, and handles
+ * the account management windows, which only exist in JavaFX.
  */
-public class Controller {
+public class Controller implements DisplayListener {
 
     public View view;
     private Model model;
     private Stage window;
+    private Closeable connection; // closed on logout: the session on the shared Bank, or the ATM server connection
 
     /**
      * Sets the model for this controller.
@@ -42,6 +46,16 @@ public class Controller {
         this.model = model;
     }
 
+    /**
+     * Sets what to close once the user logs out: the session on the shared
+     * Bank, or the connection to the ATM server.
+     * 
+     * @param connection The session or connection.
+     */
+    public void setConnection(Closeable connection) {
+        this.connection = connection;
+    }
+
     /**
      * Sets the view and window for this controller.
      * 
@@ -70,13 +84,11 @@ public class Controller {
 
     /**
      * Constructor for the Controller class.
-     * Initializes the text fields and text area.
+     * The text fields and text area are filled in when atm.fxml is loaded, so
+     * a Controller can be made without starting JavaFX.
      */
     public Controller() {
         Debug.trace("Controller::<constructor>");
-        this.transactionAccNoField = new TextField();
-        this.message = new TextField();
-        this.reply = new TextArea();
     }
 
     /**
@@ -112,6 +124,7 @@ public class Controller {
      * @param output1 The text to be set in the message text field.
      * @param output2 The text to be set in the reply text area.
      */
+    @Override
     public void update(String output1, String output2) {
         message.setText(output1);
         reply.setText(output2);
@@ -124,56 +137,16 @@ public class Controller {
 
     /**
      * Processes the given action.
-     * Actions include number inputs, enter, clear, logout, cancel,
-     * deposit, balance, statement, withdraw, transfer,
-     * account, Change Password, and Change Overdraft.
+     * The account management actions, account, Change Password and Change
+     * Overdraft, open windows and are handled here. Every other action, number
+     * inputs, enter, clear, logout, cancel, deposit, balance, statement,
+     * withdraw and transfer, is an ATM button and is passed to the model.
      * 
      * @param action The action to be processed.
      */
     public void process(String action) {
-        Debug.trace("Controller::process: action = " + action);
+        Debug.trace("Controller::process: action = %s", action);
         switch (action) {
-            case "1":
-            case "2":
-            case "3":
-            case "4":
-            case "5":
-            case "6":
-            case "7":
-            case "8":
-            case "9":
-            case "0":
-            case "00":
-                System.out.println("Processing number: " + action);
-                model.processNumber(action);
-                break;
-            case "ENTER":
-                model.processEnter();
-                break;
-            case "CLEAR":
-                model.processClear();
-                break;
-            case "LOGOUT":
-                handleLogout(window, "login.fxml");
-                break;
-            case "CANCEL":
-                model.processCancel();
-                break;
-            case "DEPOSIT":
-                model.processDeposit();
-                break;
-            case "BALANCE":
-                model.processBalance();
-                break;
-            case "STATEMENT":
-                model.processStatement();
-                break;
-            case "WITHDRAW":
-                model.processWithdraw();
-                break;
-            case "TRANSFER":
-                model.processTransfer();
-                break;
             case "ACCOUNT":
                 showAccountManagementWindow();
                 break;
@@ -184,7 +157,7 @@ public class Controller {
                 handleOverdraftChange();
                 break;
             default:
-                model.processUnknownKey(action);
+                model.process(action);
                 break;
         }
     }
@@ -235,7 +208,8 @@ public class Controller {
      * Checks if the current password is correct, if the new password and confirmed
      * password match, and if the new password is different from
      * the current password.
-     * Displays an alert based on the result.
+     * Displays an alert based on the result, once the bank has saved the new
+     * password.
      */
     public void handleChangePassword() {
         // Get the text from the text fields
@@ -243,8 +217,17 @@ public class Controller {
         String newPassword = newPasswordField.getText();
         String confirmPassword = confirmPasswordField.getText();
 
-        // Change the password
-        int result = model.changePassword(currentPassword, newPassword, confirmPassword);
+        // Change the password, showing the result on the JavaFX application thread
+        model.changePassword(currentPassword, newPassword, confirmPassword)
+                .thenAccept(result -> Platform.runLater(() -> showPasswordChange(result)));
+    }
+
+    /**
+     * Displays an alert for the result of a password change.
+     *
+     * @param result The status returned by the model.
+     */
+    private void showPasswordChange(int result) {
         String alertText; // The text to display in the alert
         AlertType alertType; // The type of alert to display
 
@@ -337,16 +320,35 @@ public class Controller {
         alert.showAndWait();
     }
 
+    /**
+     * Called by the model once the user has logged out, and loads the login
+     * scene. The model may call it from the thread which finished a password
+     * change, so the scene is changed on the JavaFX application thread.
+     */
+    @Override
+    public void loggedOut() {
+        if (Platform.isFxApplicationThread()) {
+            handleLogout(window, "login.fxml");
+        } else {
+            Platform.runLater(() -> handleLogout(window, "login.fxml"));
+        }
+    }
+
     /**
      * Handles logout.
-     * Logs out the user and loads the login scene by calling the start
-     * Method in View.
+     * Closes the session or server connection which has logged out and loads
+     * the login scene by calling the start Method in View.
      * 
      * @param window   The window to be logged out from.
      * @param fxmlFile The FXML file to be loaded after logout.
      */
     public void handleLogout(Stage window, String fxmlFile) {
-        model.processLogout();
+        // Each login opens its own session or connection, so close it now it is finished with
+        try {
+            connection.close();
+        } catch (IOException e) {
+            Debug.trace("Controller::handleLogout: %s", e.getMessage());
+        }
         view.start(window, fxmlFile);
     }
 }
\ No newline at end of file
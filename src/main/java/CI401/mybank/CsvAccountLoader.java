@@ -0,0 +1,299 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The CsvAccountLoader class reads accounts.csv in parallel. The file is cut
+ * into byte ranges which each end at a line break, the ranges are parsed on a
+ * fork/join pool straight from the bytes, and the accounts are then put into
+ * the index in file order, so the first row of a duplicated account number
+ * still wins. Nothing is written while loading.
+ * Rows the fast parser cannot handle are given to
+ * CsvAccountStore.parseAccount, so they are accepted or skipped exactly as
+ * before.
+ */
+
+final class CsvAccountLoader {
+    static final int MIN_CHUNK_BYTES = 1 << 20;
+    static final int MAX_CHUNK_BYTES = 32 << 20;
+    private static final int SCAN_BYTES = 4096; // read at a time when looking for a line break
+
+    private CsvAccountLoader() {
+    }
+
+    /**
+     * Loads every account in a CSV file into an index, parsing on the common
+     * fork/join pool.
+     *
+     * @param file     The CSV file, which must exist.
+     * @param accounts The index to load the accounts into.
+     * @return The number of accounts added to the index.
+     * @throws IOException if the file could not be read.
+     */
+    static int load(Path file, IntObjectMap<BankAccount> accounts) throws IOException {
+        return load(file, accounts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads every account in a CSV file into an index.
+     *
+     * @param file     The CSV file, which must exist.
+     * @param accounts The index to load the accounts into.
+     * @param pool     The pool to parse the file on.
+     * @return The number of accounts added to the index.
+     * @throws IOException if the file could not be read.
+     */
+    static int load(Path file, IntObjectMap<BankAccount> accounts, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkBytes = Math.max(MIN_CHUNK_BYTES,
+                    Math.min(MAX_CHUNK_BYTES, size / (4L * pool.getParallelism())));
+            long[] bounds = findBounds(channel, size, chunkBytes);
+
+            @SuppressWarnings({ "unchecked", "rawtypes" }) // no generic arrays, every slot holds a List<BankAccount>
+            List<BankAccount>[] parsed = new List[bounds.length - 1];
+            try {
+                pool.invoke(new ParseTask(channel, bounds, parsed, 0, parsed.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            int rows = 0;
+            for (List<BankAccount> chunk : parsed) {
+                rows += chunk.size();
+            }
+            accounts.ensureCapacity(accounts.size() + rows);
+            int added = 0;
+            for (List<BankAccount> chunk : parsed) {
+                for (BankAccount a : chunk) {
+                    if (accounts.putIfAbsent(a.accNumber, a)) {
+                        added++;
+                    } else {
+                        Debug.trace("CsvAccountStore::load: Skipping duplicate account %d", a.accNumber);
+                    }
+                }
+            }
+            return added;
+        }
+    }
+
+    /**
+     * Cuts the file into ranges of about chunkBytes, each starting at the
+     * beginning of a line. The header line is left out.
+     *
+     * @return The start of each range followed by the end of the last one.
+     */
+    static long[] findBounds(FileChannel channel, long size, long chunkBytes) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        long start = nextLine(channel, 0, size); // skip the header
+        bounds.add(start);
+        while (start < size) {
+            start = nextLine(channel, Math.min(size, start + chunkBytes), size);
+            bounds.add(start);
+        }
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the start of the first line beginning at or after a position.
+     */
+    private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(SCAN_BYTES);
+        // A line starts at position if the byte before it is a line break. From 0 this skips the header.
+        long offset = Math.max(0, position - 1);
+        while (offset < size) {
+            window.clear();
+            int read = channel.read(window, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a run of ranges, splitting it in half until there is one range
+     * each.
+     */
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final List<BankAccount>[] parsed;
+        private final int from;
+        private final int to;
+
+        ParseTask(FileChannel channel, long[] bounds, List<BankAccount>[] parsed, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(channel, bounds, parsed, from, middle),
+                        new ParseTask(channel, bounds, parsed, middle, to));
+                return;
+            }
+            try {
+                parsed[from] = parseRange(channel, bounds[from], bounds[from + 1]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads and parses the whole lines in one range of the file.
+     */
+    static List<BankAccount> parseRange(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = buffer.array();
+        int length = buffer.position();
+        List<BankAccount> accounts = new ArrayList<>(length / 64 + 1);
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            BankAccount a = parseLine(bytes, lineStart, contentEnd);
+            if (a != null) {
+                accounts.add(a);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return accounts;
+    }
+
+    /**
+     * Parses one row, or returns null if it should be skipped.
+     */
+    private static BankAccount parseLine(byte[] bytes, int start, int end) {
+        try {
+            return parseFast(bytes, start, end);
+        } catch (RuntimeException fastFailed) {
+            // Let the line by line parser decide, so odd rows are treated as they always were
+            try {
+                return CsvAccountStore.parseAccount(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                Debug.warn("CsvAccountStore::load: Error parsing account data: %s", e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Parses a well formed row straight from the bytes, without splitting it
+     * into Strings.
+     *
+     * @throws RuntimeException if the row is not well formed.
+     */
+    static BankAccount parseFast(byte[] bytes, int start, int end) {
+        int numberEnd = indexOf(bytes, start, end);
+        int passwordEnd = indexOf(bytes, numberEnd + 1, end);
+        int balanceEnd = indexOf(bytes, passwordEnd + 1, end);
+        int typeEnd = indexOf(bytes, balanceEnd + 1, end);
+        if (numberEnd == end || passwordEnd == end || balanceEnd == end) {
+            throw new IllegalArgumentException("too few fields");
+        }
+        int accNumber = parseInt(bytes, start, numberEnd);
+        String accPasswd = new String(bytes, numberEnd + 1, passwordEnd - numberEnd - 1, StandardCharsets.UTF_8);
+        int balance = parseInt(bytes, passwordEnd + 1, balanceEnd);
+
+        if (equals(bytes, balanceEnd + 1, typeEnd, "overdraft")) {
+            int overdraftLimit = parseInt(bytes, typeEnd + 1, indexOf(bytes, typeEnd + 1, end));
+            return new OverdraftBankAccount(accNumber, accPasswd, balance, overdraftLimit);
+        } else if (equals(bytes, balanceEnd + 1, typeEnd, "limited")) {
+            if (indexOf(bytes, typeEnd + 1, end) < end) {
+                // The withdrawal count and its day follow, rare enough to parse the slow way
+                return CsvAccountStore.parseAccount(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            }
+            return new LimitedWithdrawalBankAccount(accNumber, accPasswd, balance);
+        } else if (typeEnd == balanceEnd + 1) {
+            throw new IllegalArgumentException("no account type"); // split(",") would drop the field
+        }
+        return new BankAccount(accNumber, accPasswd, balance);
+    }
+
+    /**
+     * Finds the next comma, or the end of the row.
+     */
+    private static int indexOf(byte[] bytes, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == ',') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean equals(byte[] bytes, int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (bytes[from + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal int, accepting the same text as Integer.parseInt.
+     *
+     * @throws NumberFormatException if the text is not an int.
+     */
+    static int parseInt(byte[] bytes, int from, int to) {
+        boolean negative = from < to && bytes[from] == '-';
+        int i = from < to && (bytes[from] == '-' || bytes[from] == '+') ? from + 1 : from;
+        if (i >= to || to - i > 10) {
+            throw new NumberFormatException("not an int");
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not an int");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("not an int");
+        }
+        return (int) value;
+    }
+}
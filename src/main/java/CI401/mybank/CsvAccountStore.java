@@ -0,0 +1,313 @@
+package CI401.mybank;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CsvAccountStore class keeps the bank accounts in accounts.csv.
+ * Every change asks for a checkpoint which rewrites the whole file, which costs
+ * O(number of accounts) per transaction. The new contents are written to a temporary file which then
+ * replaces accounts.csv, so a crash mid-write never leaves a half written file.
+ * It also holds the CSV layout used by the other stores. Limited withdrawal
+ * accounts have two more fields, the number of withdrawals counted and the
+ * day they were counted on (yyyy-MM-dd), unless no withdrawal has ever been
+ * made; rows without them are read as no withdrawals.
+ * To notice rows changed by another program, the store remembers a
+ * fingerprint of every row as it last read or wrote the file, see
+ * readOutsideChanges. The fingerprints are kept by account number in the
+ * store's own arrays, so they are read without the bank's index, which other
+ * threads change.
+ */
+public class CsvAccountStore implements AccountStore {
+    static final String HEADER = "Account Number,Password,Balance,Account Type,Overdraft Limit,Withdrawals,"
+            + "Withdrawal Day";
+
+    final Path accountsFile; // CSV file to store accounts
+    IntObjectMap<BankAccount> accounts = new IntObjectMap<>(); // the accounts being persisted
+    private boolean dirty = false; // true if an account has changed since the file was written
+    protected long bytesWritten = 0; // bytes written since the store was opened
+    private int[] fingerprinted = new int[0]; // the account numbers with a fingerprint, in order
+    private long[] fingerprints = new long[0]; // the file's row for fingerprinted[i], see fingerprint
+    private IntObjectMap<Long> newFingerprints = new IntObjectMap<>(); // rows found since, for accounts past the array
+    private FileTime fileTime = null; // the modification time of the file as last read or written
+    private long fileSize = -1; // the size of the file as last read or written
+
+    /**
+     * Constructor for the CsvAccountStore class.
+     *
+     * @param accountsFile The CSV file to store the accounts in.
+     */
+    public CsvAccountStore(String accountsFile) {
+        this.accountsFile = Paths.get(accountsFile);
+    }
+
+    /**
+     * Loads the accounts from the CSV file, parsing it in parallel with a
+     * CsvAccountLoader. Rows which cannot be parsed are skipped. A missing file
+     * is treated as an empty bank.
+     *
+     * @param accounts The index to load the accounts into.
+     * @throws IOException if the file exists but could not be read.
+     */
+    @Override
+    public synchronized void load(IntObjectMap<BankAccount> accounts) throws IOException {
+        Debug.trace("CsvAccountStore::load: Loading accounts from file");
+        this.accounts = accounts;
+        if (!Files.exists(accountsFile)) {
+            Debug.trace("CsvAccountStore::load: No accounts file found at %s", accountsFile);
+            return;
+        }
+        int loaded = CsvAccountLoader.load(accountsFile, accounts);
+        Debug.trace("CsvAccountStore::load: Loaded %d accounts", loaded);
+        rememberFile();
+    }
+
+    /**
+     * Reads the rows of the CSV file which another program has changed or added
+     * since this store last read or wrote it. Rows are compared with what the
+     * file held before, not with the accounts, so an account which has simply
+     * changed since the last checkpoint is not reported. Rows removed from the
+     * file are not reported either.
+     *
+     * @return The changed rows, as accounts which are not in the index.
+     * @throws IOException if the file could not be read.
+     */
+    @Override
+    public synchronized List<BankAccount> readOutsideChanges() throws IOException {
+        if (!Files.exists(accountsFile)) {
+            return Collections.emptyList();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(accountsFile, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().equals(fileTime) && attributes.size() == fileSize) {
+            return Collections.emptyList(); // the file as this store left it
+        }
+        IntObjectMap<BankAccount> rows = new IntObjectMap<>();
+        CsvAccountLoader.load(accountsFile, rows);
+        List<BankAccount> changed = new ArrayList<>();
+        for (BankAccount row : rows) {
+            long fingerprint = fingerprint(row);
+            int position = Arrays.binarySearch(fingerprinted, row.accNumber);
+            if (position >= 0) {
+                if (fingerprints[position] != fingerprint) {
+                    fingerprints[position] = fingerprint;
+                    changed.add(row);
+                }
+            } else {
+                Long known = newFingerprints.put(row.accNumber, fingerprint);
+                if (known == null || known != fingerprint) {
+                    changed.add(row);
+                }
+            }
+        }
+        fileTime = attributes.lastModifiedTime();
+        fileSize = attributes.size();
+        Debug.trace("CsvAccountStore::readOutsideChanges: %d of %d rows changed", changed.size(), rows.size());
+        return changed;
+    }
+
+    /**
+     * Remembers the file as it is now, with the fingerprint of every account,
+     * after the file has been read or written. The accounts must not change
+     * while this runs, as for checkpoint.
+     */
+    private void rememberFile() throws IOException {
+        int[] numbers = new int[accounts.size()];
+        int count = 0;
+        for (BankAccount a : accounts) {
+            numbers[count++] = a.accNumber;
+        }
+        Arrays.sort(numbers);
+        long[] rows = new long[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = fingerprint(accounts.get(numbers[i]));
+        }
+        fingerprinted = numbers;
+        fingerprints = rows;
+        newFingerprints = new IntObjectMap<>();
+        if (Files.exists(accountsFile)) {
+            BasicFileAttributes attributes = Files.readAttributes(accountsFile, BasicFileAttributes.class);
+            fileTime = attributes.lastModifiedTime();
+            fileSize = attributes.size();
+        }
+    }
+
+    /**
+     * Works out a 64-bit fingerprint of the fields of an account which are
+     * kept in the CSV file.
+     *
+     * @param a The account.
+     * @return The fingerprint.
+     */
+    static long fingerprint(BankAccount a) {
+        int type = 0;
+        int overdraftLimit = 0; // or, for limited accounts, the withdrawals and their day
+        if (a instanceof OverdraftBankAccount) {
+            type = 1;
+            overdraftLimit = ((OverdraftBankAccount) a).getOverdraftLimit();
+        } else if (a instanceof LimitedWithdrawalBankAccount) {
+            type = 2;
+            LimitedWithdrawalBankAccount limited = (LimitedWithdrawalBankAccount) a;
+            overdraftLimit = limited.getWithdrawalDay() << 8 | limited.getWithdrawalCount();
+        }
+        long h = mix(a.accNumber);
+        h = mix(h ^ a.accPasswd.hashCode());
+        h = mix(h ^ a.getBalance());
+        return mix(h ^ ((long) type << 32 | (overdraftLimit & 0xFFFFFFFFL)));
+    }
+
+    /**
+     * The finalisation step of MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e4ec5L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Marks the CSV file as out of date, so the whole file is rewritten by the
+     * next checkpoint.
+     *
+     * @param changed The accounts which changed (all accounts are written).
+     * @throws IOException never, but stores which write here may.
+     */
+    @Override
+    public synchronized void update(BankAccount... changed) throws IOException {
+        dirty = true;
+    }
+
+    /**
+     * Checks if any account has changed since the CSV file was last written.
+     *
+     * @return true if the CSV file is out of date.
+     */
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        return dirty;
+    }
+
+    /**
+     * Writes every account to a temporary file and moves it over the CSV file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        BankEvents.AccountStoreWriteEvent event = new BankEvents.AccountStoreWriteEvent();
+        event.begin();
+        long bytes = bytesWritten;
+        boolean ok = false;
+        try {
+            writeSnapshot();
+            ok = true;
+        } finally {
+            BankEvents.commit(event, this, "checkpoint", accounts.size(), bytesWritten - bytes, ok);
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path parent = accountsFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(accountsFile.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"))) {
+            bw.write(HEADER); // Header line
+            bw.newLine();
+            for (BankAccount a : accounts) {
+                bw.write(formatAccount(a));
+                bw.newLine();
+            }
+            bw.flush();
+            out.getFD().sync(); // make sure the data is on disk before it replaces the old file
+        }
+        try {
+            Files.move(temp, accountsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, accountsFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+        bytesWritten += Files.size(accountsFile);
+        rememberFile();
+    }
+
+    /**
+     * Gets the number of bytes this store has written.
+     *
+     * @return The bytes written since the store was opened.
+     */
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Nothing is held open, so there is nothing to close.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Creates the appropriate account type for one row of the CSV layout.
+     *
+     * @param line The CSV row.
+     * @return The account described by the row.
+     * @throws RuntimeException if the row is malformed.
+     */
+    static BankAccount parseAccount(String line) {
+        // Associate the given values with the account fields
+        String[] values = line.split(",");
+        int accNumber = Integer.parseInt(values[0]);
+        String accPasswd = values[1];
+        int balance = Integer.parseInt(values[2]);
+        String accountType = values[3];
+
+        // Create the appropriate account type based on the accountType
+        switch (accountType) {
+            case "overdraft":
+                int overdraftLimit = Integer.parseInt(values[4]);
+                return new OverdraftBankAccount(accNumber, accPasswd, balance, overdraftLimit);
+            case "limited":
+                if (values.length < 7) {
+                    return new LimitedWithdrawalBankAccount(accNumber, accPasswd, balance);
+                }
+                return new LimitedWithdrawalBankAccount(accNumber, accPasswd, balance, Integer.parseInt(values[5]),
+                        (int) LocalDate.parse(values[6]).toEpochDay());
+            default:
+                return new BankAccount(accNumber, accPasswd, balance);
+        }
+    }
+
+    /**
+     * Formats an account as one row of the CSV layout.
+     *
+     * @param a The account.
+     * @return The CSV row, without a line terminator.
+     */
+    static String formatAccount(BankAccount a) {
+        String accountType;
+        String extraInfo;
+        if (a instanceof OverdraftBankAccount) {
+            accountType = "overdraft";
+            extraInfo = "," + ((OverdraftBankAccount) a).getOverdraftLimit();
+        } else if (a instanceof LimitedWithdrawalBankAccount) {
+            LimitedWithdrawalBankAccount limited = (LimitedWithdrawalBankAccount) a;
+            accountType = "limited";
+            extraInfo = limited.getWithdrawalDay() == 0 ? ",0" // never withdrawn from
+                    : ",0," + limited.getWithdrawalCount() + "," + LocalDate.ofEpochDay(limited.getWithdrawalDay());
+        } else {
+            accountType = "normal";
+            extraInfo = ",0";
+        }
+        return a.accNumber + "," + a.accPasswd + "," + a.getBalance() + "," + accountType + extraInfo;
+    }
+}
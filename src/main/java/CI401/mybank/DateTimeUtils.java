@@ -1,12 +1,63 @@
 package CI401.mybank;
 
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The DateTimeUtils class provides methods for getting the current date and time.
+ * The DateTimeUtils class provides the clock transactions are stamped with,
+ * formats times for display, and converts the dates and times of the old
+ * transaction history format to milliseconds since the epoch.
+ * Formatting is cached by the minute, since the date and time shown only
+ * change once a minute however often they are asked for.
  */
 public class DateTimeUtils {
+    private static final ZoneId ZONE = ZoneId.systemDefault(); // the zone dates and times are shown in
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/yy");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm");
+    private static final long MINUTE_MILLIS = 60_000;
+
+    private static final AtomicLong lastMillis = new AtomicLong(); // the latest time handed out by now()
+    private static volatile Minute lastMinute = new Minute(Long.MIN_VALUE, 0, null, null); // the last minute formatted
+
+    /**
+     * A minute and its date and time, as formatted.
+     */
+    private static final class Minute {
+        final long minute; // minutes since the epoch
+        final int day; // days since 1970-01-01, in the system's time zone
+        final String date;
+        final String time;
+
+        Minute(long minute, int day, String date, String time) {
+            this.minute = minute;
+            this.day = day;
+            this.date = date;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Returns the current time in milliseconds since the epoch. The time never
+     * goes backwards, even if the system clock is set back.
+     *
+     * @return The current time.
+     */
+    public static long now() {
+        long millis = System.currentTimeMillis();
+        long last = lastMillis.get();
+        while (millis > last) {
+            if (lastMillis.compareAndSet(last, millis)) {
+                return millis;
+            }
+            last = lastMillis.get();
+        }
+        return last;
+    }
 
     /**
      * Returns the current date and time as an array of strings.
@@ -14,15 +65,117 @@ public class DateTimeUtils {
      * @return an array of strings containing the current date and time
      */
     public static String[] getCurrentDateTime() {
-        // Get the current date and time
-        LocalDateTime now = LocalDateTime.now();
+        Minute m = minuteOf(System.currentTimeMillis());
+        return new String[] { m.date, m.time };
+    }
 
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd/MM/yy"); // Create a formatter for the date
-        String date = now.format(dateFormatter); // Format the current date
+    /**
+     * Returns today's date as a number of days since 1970-01-01, in the
+     * system's time zone.
+     *
+     * @return The day.
+     */
+    public static int today() {
+        return minuteOf(System.currentTimeMillis()).day;
+    }
+
+    /**
+     * Gets the day a time falls on, in the system's time zone.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The days since 1970-01-01.
+     */
+    public static int dayOf(long millis) {
+        return minuteOf(millis).day;
+    }
 
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
-        String time = now.format(timeFormatter);
+    /**
+     * Formats the date of a time, for display.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The date (dd/MM/yy).
+     */
+    public static String formatDate(long millis) {
+        return minuteOf(millis).date;
+    }
 
-        return new String[] { date, time };
+    /**
+     * Formats the time of day of a time, for display.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The time (HH:mm).
+     */
+    public static String formatTime(long millis) {
+        return minuteOf(millis).time;
+    }
+
+    /**
+     * Gets the formatted date and time of the minute holding a time, reusing
+     * the last one formatted if it is the same minute.
+     */
+    private static Minute minuteOf(long millis) {
+        long minute = Math.floorDiv(millis, MINUTE_MILLIS);
+        Minute m = lastMinute;
+        if (m.minute != minute) {
+            LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(minute * MINUTE_MILLIS), ZONE);
+            m = new Minute(minute, (int) local.toLocalDate().toEpochDay(), local.format(DATE), local.format(TIME));
+            lastMinute = m;
+        }
+        return m;
+    }
+
+    /**
+     * Converts a date (dd/MM/yy) and time (HH:mm), as in the old history
+     * format, to milliseconds since the epoch, in the system's time zone.
+     *
+     * @param date The date.
+     * @param time The time.
+     * @return The milliseconds since the epoch.
+     * @throws IllegalArgumentException if the date or time cannot be read.
+     */
+    public static long toEpochMillis(String date, String time) {
+        if (date.length() != 8 || time.length() != 5 || date.charAt(2) != '/' || date.charAt(5) != '/'
+                || time.charAt(2) != ':') {
+            throw new IllegalArgumentException("cannot read the time " + date + " " + time);
+        }
+        try {
+            LocalDateTime local = LocalDateTime.of(2000 + twoDigits(date, 6), twoDigits(date, 3),
+                    twoDigits(date, 0), twoDigits(time, 0), twoDigits(time, 3));
+            return local.atZone(ZONE).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("cannot read the time " + date + " " + time, e);
+        }
+    }
+
+    private static int twoDigits(String text, int at) {
+        int tens = text.charAt(at) - '0';
+        int units = text.charAt(at + 1) - '0';
+        if (tens < 0 || tens > 9 || units < 0 || units > 9) {
+            throw new IllegalArgumentException("not a number: " + text);
+        }
+        return tens * 10 + units;
+    }
+
+    /**
+     * Converts milliseconds since the epoch to a history date and time, in the
+     * system's time zone.
+     *
+     * @param millis The milliseconds since the epoch.
+     * @return an array of strings containing the date (dd/MM/yy) and time (HH:mm)
+     */
+    public static String[] fromEpochMillis(long millis) {
+        Minute m = minuteOf(millis);
+        return new String[] { m.date, m.time };
+    }
+
+    /**
+     * Gets the start of a day in the system's time zone, for date range
+     * statements.
+     *
+     * @param date The day.
+     * @return The milliseconds since the epoch at midnight.
+     */
+    public static long startOfDay(LocalDate date) {
+        return date.atStartOfDay(ZONE).toInstant().toEpochMilli();
     }
 }
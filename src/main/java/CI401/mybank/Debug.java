@@ -1,42 +1,177 @@
 package CI401.mybank;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
 
 /**
  * The Debug class provides methods for debugging purposes.
+ * Messages have a level, and only messages at or above the current level are
+ * kept. A message is a printf format and its parameters, which are only
+ * formatted if the message is kept, by a background thread (see
+ * DebugAppender), so a message which is not kept costs a level check, and one
+ * which is kept costs the caller no formatting, locking or I/O. The
+ * parameters should be values, such as numbers and strings, rather than
+ * objects which may change before they are formatted.
+ * The level and where messages go are set with the system properties
+ * "mybank.debug.level" (TRACE, INFO, WARN, ERROR or OFF, default INFO),
+ * "mybank.debug.file" (a rolling log file, default standard output),
+ * "mybank.debug.fileBytes" (the size a log file is rolled at, default 10 MB),
+ * "mybank.debug.files" (the number of old log files kept, default 5) and
+ * "mybank.debug.buffer" (the number of messages which can wait to be
+ * written, default 8192).
  */
 public class Debug {
-  private static boolean debug = true;
+  /**
+   * The levels of messages, from the most to the least detailed.
+   */
+  public enum Level {
+    TRACE, INFO, WARN, ERROR, OFF
+  }
+
+  private static volatile Level level = Level.valueOf(
+      System.getProperty("mybank.debug.level", "INFO").toUpperCase());
+  private static volatile DebugAppender appender = null; // started by the first message kept
 
   /**
-   * Set true/false to print debugging information
-   * 
+   * Set true/false to print debugging information. true keeps every message,
+   * false only warnings and errors.
+   *
    * @param state Debugging true false
    * @return The old state
    */
   public static synchronized boolean set(boolean state) {
-    boolean oldState = debug;
-    debug = state;
+    boolean oldState = level == Level.TRACE;
+    level = state ? Level.TRACE : Level.WARN;
     return oldState;
   }
 
+  /**
+   * Sets the level of the messages to keep.
+   *
+   * @param newLevel The least detailed level to keep.
+   * @return The old level.
+   */
+  public static synchronized Level setLevel(Level newLevel) {
+    Level oldLevel = level;
+    level = newLevel;
+    return oldLevel;
+  }
+
+  /**
+   * Gets the level of the messages kept.
+   *
+   * @return The level.
+   */
+  public static Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Checks if messages of a level are kept, to guard work done only to make
+   * a message.
+   *
+   * @param messageLevel The level.
+   * @return true if messages of the level are kept.
+   */
+  public static boolean isEnabled(Level messageLevel) {
+    return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+  }
+
+  /**
+   * Display text for debugging purposes
+   *
+   * @param fmt The same as printf etc
+   */
+  public static void trace(String fmt) {
+    if (isEnabled(Level.TRACE)) {
+      appender().append(Level.TRACE, fmt, 0, null, null, null, null);
+    }
+  }
+
+  /**
+   * Display text for debugging purposes
+   *
+   * @param fmt The same as printf etc
+   * @param a   The parameter to fmt
+   */
+  public static void trace(String fmt, Object a) {
+    if (isEnabled(Level.TRACE)) {
+      appender().append(Level.TRACE, fmt, 1, a, null, null, null);
+    }
+  }
+
+  /**
+   * Display text for debugging purposes
+   *
+   * @param fmt The same as printf etc
+   * @param a   The first parameter to fmt
+   * @param b   The second parameter to fmt
+   */
+  public static void trace(String fmt, Object a, Object b) {
+    if (isEnabled(Level.TRACE)) {
+      appender().append(Level.TRACE, fmt, 2, a, b, null, null);
+    }
+  }
+
+  /**
+   * Display text for debugging purposes
+   *
+   * @param fmt The same as printf etc
+   * @param a   The first parameter to fmt
+   * @param b   The second parameter to fmt
+   * @param c   The third parameter to fmt
+   */
+  public static void trace(String fmt, Object a, Object b, Object c) {
+    if (isEnabled(Level.TRACE)) {
+      appender().append(Level.TRACE, fmt, 3, a, b, c, null);
+    }
+  }
+
   /**
    * Display text for debugging purposes
-   * 
+   *
    * @param fmt    The same as printf etc
    * @param params The parameters to fmt
    */
   public static void trace(String fmt, Object... params) {
-    if (debug) {
-      synchronized (Debug.class) {
-        System.out.printf(fmt, params);
-        System.out.println();
-      }
+    log(Level.TRACE, fmt, params);
+  }
+
+  /**
+   * Display text for debugging purposes, made only if it is kept
+   *
+   * @param message Makes the text
+   */
+  public static void trace(Supplier<String> message) {
+    if (isEnabled(Level.TRACE)) {
+      appender().append(Level.TRACE, message.get(), 0, null, null, null, null);
     }
   }
 
+  /**
+   * Display a message about something expected but worth knowing
+   *
+   * @param fmt    The same as printf etc
+   * @param params The parameters to fmt
+   */
+  public static void info(String fmt, Object... params) {
+    log(Level.INFO, fmt, params);
+  }
+
+  /**
+   * Display a message about something which went wrong but was handled
+   *
+   * @param fmt    The same as printf etc
+   * @param params The parameters to fmt
+   */
+  public static void warn(String fmt, Object... params) {
+    log(Level.WARN, fmt, params);
+  }
+
   /**
    * Display a fatal message if the assertion fails
-   * 
+   *
    * @param ok     true if all is ok
    * @param fmt    The same as printf etc
    * @param params The parameters to fmt
@@ -50,13 +185,48 @@ public class Debug {
 
   /**
    * Display a fatal message
-   * 
+   *
    * @param fmt    The same as printf etc
    * @param params The parameters to fmt
    */
-  public static synchronized void error(String fmt, Object... params) {
-    System.out.printf("ERROR: " + fmt, params);
-    System.out.println();
+  public static void error(String fmt, Object... params) {
+    log(Level.ERROR, fmt, params);
+  }
+
+  private static void log(Level messageLevel, String fmt, Object[] params) {
+    if (isEnabled(messageLevel)) {
+      appender().append(messageLevel, fmt, params.length, null, null, null, params);
+    }
+  }
+
+  /**
+   * Waits until every message kept so far has been written out.
+   */
+  public static void flush() {
+    DebugAppender a = appender;
+    if (a != null) {
+      a.flush();
+    }
   }
 
+  /**
+   * Gets the appender, starting it the first time a message is kept.
+   */
+  private static DebugAppender appender() {
+    DebugAppender a = appender;
+    if (a == null) {
+      synchronized (Debug.class) {
+        a = appender;
+        if (a == null) {
+          String file = System.getProperty("mybank.debug.file");
+          Path path = file == null ? null : Paths.get(file);
+          a = new DebugAppender(path, Long.getLong("mybank.debug.fileBytes", 10L << 20),
+              Integer.getInteger("mybank.debug.files", 5), Integer.getInteger("mybank.debug.buffer", 8192));
+          Runtime.getRuntime().addShutdownHook(new Thread(a::close, "debug-flush"));
+          appender = a;
+        }
+      }
+    }
+    return a;
+  }
 }
@@ -0,0 +1,278 @@
+package CI401.mybank;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The DebugAppender class writes Debug's messages from one background thread.
+ * Callers put each message into the next slot of a ring of preallocated
+ * slots, without locking or allocating: the format and its parameters are
+ * stored as they are, and formatted by the writer thread.
+ * If the ring is full, trace and info messages are dropped (and counted,
+ * the count is written once there is room), while warnings and errors wait
+ * for a free slot.
+ * Messages go to standard output, or to a log file which is rolled once it
+ * reaches a size: mybank.log is renamed mybank.log.1, mybank.log.1 becomes
+ * mybank.log.2 and so on, and the oldest is deleted.
+ */
+
+final class DebugAppender {
+    private static final long IDLE_NANOS = 1_000_000; // how long the writer sleeps when there is nothing to write
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final Entry[] slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong(); // sequence number of the next slot to claim
+    private final AtomicLong written = new AtomicLong(); // sequence number of the next slot to write
+    private final AtomicLong dropped = new AtomicLong(); // messages dropped since last reported
+    private volatile long flushed = 0; // sequence number of the next slot not yet flushed
+    private final Path file; // the log file, or null for standard output
+    private final long fileBytes; // the size at which the log file is rolled
+    private final int files; // the number of rolled files kept
+    private final Thread writer;
+    private volatile boolean closing = false;
+
+    // Used only by the writer thread
+    private final StringBuilder line = new StringBuilder(256);
+    private final Formatter formatter = new Formatter(line);
+    private OutputStream out;
+    private long bytes; // bytes in the current log file
+
+    /**
+     * One message, from when it is put in the ring until it is written.
+     */
+    private static final class Entry {
+        volatile long sequence = -1; // set last, once the rest of the entry is filled in
+        Debug.Level level;
+        long millis;
+        String thread;
+        String fmt;
+        int count; // the number of parameters
+        Object a, b, c; // the first three parameters, or all of them in more
+        Object[] more;
+
+        void clear() {
+            thread = null;
+            fmt = null;
+            a = b = c = null;
+            more = null;
+        }
+    }
+
+    /**
+     * Constructor for the DebugAppender class. It starts the writer thread.
+     *
+     * @param file      The log file, or null to write to standard output.
+     * @param fileBytes The size at which the log file is rolled.
+     * @param files     The number of rolled log files to keep.
+     * @param capacity  The number of messages which can wait to be written,
+     *                  rounded up to a power of two.
+     */
+    DebugAppender(Path file, long fileBytes, int files, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Entry();
+        }
+        mask = size - 1;
+        this.file = file;
+        this.fileBytes = Math.max(1, fileBytes);
+        this.files = Math.max(0, files);
+        writer = new Thread(this::run, "debug-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Puts a message in the ring for the writer.
+     *
+     * @param level The level of the message.
+     * @param fmt   The printf format, or the message itself if it has no
+     *              parameters.
+     * @param count The number of parameters.
+     * @param a     The first parameter, when there are at most three.
+     * @param b     The second parameter.
+     * @param c     The third parameter.
+     * @param more  All the parameters, when they came as an array.
+     */
+    void append(Debug.Level level, String fmt, int count, Object a, Object b, Object c, Object[] more) {
+        long sequence;
+        while (true) {
+            sequence = next.get();
+            if (sequence - written.get() >= slots.length) {
+                if (level.compareTo(Debug.Level.WARN) < 0) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                Thread.yield(); // wait for the writer to make room
+            } else if (next.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        Entry e = slots[(int) sequence & mask];
+        e.level = level;
+        e.millis = System.currentTimeMillis();
+        e.thread = Thread.currentThread().getName();
+        e.fmt = fmt;
+        e.count = count;
+        e.a = a;
+        e.b = b;
+        e.c = c;
+        e.more = more;
+        e.sequence = sequence;
+    }
+
+    /**
+     * Waits until every message put in the ring so far has been written and
+     * flushed.
+     */
+    void flush() {
+        long target = next.get();
+        while (flushed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Writes out the messages waiting and stops the writer thread.
+     */
+    void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer thread: writes each message in turn, flushing whenever it
+     * runs out of messages.
+     */
+    private void run() {
+        long cursor = 0;
+        while (true) {
+            Entry e = slots[(int) cursor & mask];
+            if (e.sequence == cursor) {
+                write(e);
+                e.clear();
+                cursor++;
+                written.lazySet(cursor);
+                continue;
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                writeLine(Debug.Level.WARN, System.currentTimeMillis(), writer.getName(),
+                        lost + " debug messages were dropped, the buffer was full");
+            }
+            flushOut();
+            flushed = cursor;
+            if (closing && next.get() == cursor) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        if (out != null && out != System.out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("DebugAppender::run: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(Entry e) {
+        String message;
+        if (e.count == 0) {
+            message = e.fmt;
+        } else {
+            Object[] params = e.more != null ? e.more : new Object[] { e.a, e.b, e.c };
+            try {
+                line.setLength(0);
+                formatter.format(e.fmt, params);
+                message = line.toString();
+            } catch (RuntimeException bad) {
+                message = e.fmt + " (cannot format: " + bad + ")";
+            }
+        }
+        writeLine(e.level, e.millis, e.thread, message);
+    }
+
+    private void writeLine(Debug.Level level, long millis, String thread, String message) {
+        line.setLength(0);
+        STAMP.formatTo(Instant.ofEpochMilli(millis), line);
+        line.append(' ').append(level).append(" [").append(thread).append("] ").append(message)
+                .append(System.lineSeparator());
+        byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null || (file != null && bytes + encoded.length > fileBytes && bytes > 0)) {
+                roll();
+            }
+            out.write(encoded);
+            bytes += encoded.length;
+        } catch (IOException e) {
+            // Nowhere better to say so, carry on with standard output
+            System.err.println("DebugAppender::writeLine: " + e.getMessage());
+            out = System.out;
+        }
+    }
+
+    /**
+     * Opens the output, rolling the log file first if it is full.
+     */
+    private void roll() throws IOException {
+        if (file == null) {
+            out = System.out;
+            return;
+        }
+        if (out != null) {
+            out.close();
+        }
+        if (Files.exists(file) && (out != null || Files.size(file) >= fileBytes)) {
+            Files.deleteIfExists(rolled(files));
+            for (int i = files - 1; i >= 1; i--) {
+                if (Files.exists(rolled(i))) {
+                    Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (files > 0) {
+                Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(file);
+            }
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        out = new BufferedOutputStream(new FileOutputStream(file.toFile(), true), 1 << 16);
+        bytes = Files.size(file);
+    }
+
+    private Path rolled(int n) {
+        return file.resolveSibling(file.getFileName() + "." + n);
+    }
+
+    private void flushOut() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("DebugAppender::flushOut: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package CI401.mybank;
+
+/**
+ * The DisplayListener interface is implemented by anything which shows an ATM
+ * session to its customer, such as the JavaFX Controller. The Model tells its
+ * listener what to show after every button press, and knows nothing else
+ * about how it is shown.
+ */
+public interface DisplayListener {
+
+    /**
+     * Shows the ATM's output.
+     *
+     * @param message The short message, shown above the buttons.
+     * @param reply   The longer reply, such as a balance or statement.
+     */
+    void update(String message, String reply);
+
+    /**
+     * Called once the session has logged out, so the listener can show the
+     * login screen again. Does nothing by default.
+     */
+    default void loggedOut() {
+    }
+}
@@ -0,0 +1,422 @@
+package CI401.mybank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The EndOfDay class is the bank's end-of-day batch: it pays interest on every
+ * positive balance and charges a fee to every OverdraftBankAccount below zero.
+ * The postings are worked out and applied in parallel on a fork/join pool,
+ * splitting the accounts into ranges of their positions in the index, and are
+ * then persisted as one batch: one updateBatch of the account store and one
+ * appendAll of the transaction log, rather than a save for each account.
+ * Every account lock is held while the batch runs, as for a checkpoint, so no
+ * customer operation sees half of it.
+ * The batch is restartable. Before any balance changes, the postings and the
+ * balances they were worked out from are written to end_of_day.pending, and
+ * once everything is persisted the day is written to end_of_day and the
+ * pending file deleted. If the bank stops in between, the next Bank opened on
+ * the data directory finishes the batch from the pending file, see recover,
+ * and running the same day again does nothing.
+ */
+
+public class EndOfDay {
+    static final String MARKER_FILE = "end_of_day"; // the last day completed, as yyyy-MM-dd
+    static final String PENDING_FILE = "end_of_day.pending"; // the postings of a batch not yet completed
+    static final String INTEREST = "interest"; // transaction type of an interest posting
+    static final String FEE = "fee"; // transaction type of an overdraft fee posting
+    private static final int MAGIC = 0x454f4401; // "EOD" and the version of the pending file
+    private static final int LEAF_ACCOUNTS = 1 << 14; // accounts worked out by one fork/join task
+
+    private final Bank bank;
+    private final int interestBasisPoints; // interest paid on a positive balance, in 1/100ths of a percent
+    private final int overdraftFee; // charged to an overdraft account below zero
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor for the EndOfDay class, using the rates from the system
+     * properties "mybank.eod.interestBasisPoints" (default 10, that is 0.1%)
+     * and "mybank.eod.overdraftFee" (default 5), and the common fork/join pool.
+     *
+     * @param bank The bank.
+     */
+    public EndOfDay(Bank bank) {
+        this(bank, Integer.getInteger("mybank.eod.interestBasisPoints", 10),
+                Integer.getInteger("mybank.eod.overdraftFee", 5), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for the EndOfDay class.
+     *
+     * @param bank                The bank.
+     * @param interestBasisPoints The interest paid on a positive balance each
+     *                            day, in 1/100ths of a percent, rounded down.
+     * @param overdraftFee        The fee charged to an overdraft account
+     *                            below zero.
+     * @param pool                The pool the postings are worked out on.
+     */
+    public EndOfDay(Bank bank, int interestBasisPoints, int overdraftFee, ForkJoinPool pool) {
+        this.bank = bank;
+        this.interestBasisPoints = interestBasisPoints;
+        this.overdraftFee = overdraftFee;
+        this.pool = pool;
+    }
+
+    /**
+     * Runs the end of day, unless it has already been run for the day or a
+     * later one. A batch left unfinished is completed first.
+     *
+     * @param day The day being closed.
+     * @return The number of postings made.
+     * @throws IOException if the postings could not be persisted; the pending
+     *                     file is kept, so the next recover completes them.
+     */
+    public int run(LocalDate day) throws IOException {
+        recover(bank);
+        Path directory = Paths.get(bank.dataDirectory);
+        LocalDate last = lastCompleted(directory);
+        if (last != null && !day.isAfter(last)) {
+            Debug.info("EndOfDay::run: %s is already closed", day);
+            return 0;
+        }
+        if (bank.transactionLog == null) {
+            throw new IOException("Transaction log is not open");
+        }
+        long start = System.nanoTime();
+        BankMetrics.Outcome outcome = BankMetrics.Outcome.ERROR;
+        long stamp = bank.lockAll();
+        try {
+            IntObjectMap<BankAccount> accounts = bank.accounts;
+            int size = accounts.size();
+            int[] amounts = new int[size];
+            pool.invoke(new RangeTask(accounts, amounts, 0, size, false));
+
+            int count = 0;
+            for (int amount : amounts) {
+                if (amount != 0) {
+                    count++;
+                }
+            }
+            BankAccount[] changed = new BankAccount[count];
+            Postings postings = new Postings(count);
+            for (int i = 0, p = 0; i < size; i++) {
+                if (amounts[i] != 0) {
+                    BankAccount a = accounts.valueAt(i);
+                    changed[p] = a;
+                    postings.set(p++, a.accNumber, amounts[i], a.getBalance());
+                }
+            }
+            writePending(directory, day, bank.transactionLog.getEndOffset(), postings);
+
+            pool.invoke(new RangeTask(accounts, amounts, 0, size, true));
+            bank.store.updateBatch(changed);
+            bank.transactionLog.appendAll(transactionsOf(postings, new boolean[count])).join();
+            complete(directory, day);
+            outcome = BankMetrics.Outcome.SUCCESS;
+            Debug.info("EndOfDay::run: Closed %s with %d postings to %d accounts in %d ms", day, count, size,
+                    (System.nanoTime() - start) / 1_000_000);
+            return count;
+        } catch (RuntimeException e) {
+            throw new IOException("End of day failed: " + e, e); // such as the log failing to write
+        } finally {
+            bank.unlockAll(stamp);
+            bank.metrics.record(BankMetrics.Operation.END_OF_DAY, outcome, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Works out the posting to an account: interest on a positive balance, or
+     * the fee on an overdraft account below zero. The balance is kept within
+     * the range of an int.
+     *
+     * @param a The account.
+     * @return The amount to add to the balance, 0 if there is nothing to post.
+     */
+    int postingFor(BankAccount a) {
+        int balance = a.getBalance();
+        if (balance > 0) {
+            long interest = (long) balance * interestBasisPoints / 10_000;
+            return (int) Math.min(interest, Integer.MAX_VALUE - (long) balance);
+        }
+        if (balance < 0 && a instanceof OverdraftBankAccount) {
+            return -(int) Math.min(overdraftFee, balance - (long) Integer.MIN_VALUE);
+        }
+        return 0;
+    }
+
+    /**
+     * Works out the postings to a range of accounts, or applies them, splitting
+     * the range in two until it is small enough.
+     */
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntObjectMap<BankAccount> accounts;
+        private final int[] amounts; // the posting to each account, by position
+        private final int from;
+        private final int to;
+        private final boolean apply; // false to work out the postings, true to apply them
+
+        RangeTask(IntObjectMap<BankAccount> accounts, int[] amounts, int from, int to, boolean apply) {
+            this.accounts = accounts;
+            this.amounts = amounts;
+            this.from = from;
+            this.to = to;
+            this.apply = apply;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_ACCOUNTS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(accounts, amounts, from, middle, apply),
+                        new RangeTask(accounts, amounts, middle, to, apply));
+            } else if (apply) {
+                for (int i = from; i < to; i++) {
+                    if (amounts[i] != 0) {
+                        accounts.valueAt(i).adjust(amounts[i]);
+                    }
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    amounts[i] = postingFor(accounts.valueAt(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * The postings of a batch, as kept in the pending file, in arrays rather
+     * than an object each.
+     */
+    private static final class Postings {
+        final int[] accNumbers;
+        final int[] amounts; // added to the balance: positive for interest, negative for a fee
+        final int[] before; // the balance each was worked out from
+
+        Postings(int count) {
+            accNumbers = new int[count];
+            amounts = new int[count];
+            before = new int[count];
+        }
+
+        void set(int i, int accNumber, int amount, int balance) {
+            accNumbers[i] = accNumber;
+            amounts[i] = amount;
+            before[i] = balance;
+        }
+
+        int size() {
+            return accNumbers.length;
+        }
+    }
+
+    /**
+     * Completes an end of day left unfinished in a bank's data directory, if
+     * there is one. Each posting whose account still has the balance it was
+     * worked out from is applied, and each one not in the transaction history
+     * after the point the batch started is logged. This is called when a Bank
+     * is opened, before any session can change a balance.
+     *
+     * @param bank The bank, with its accounts loaded and its log open.
+     * @return The number of postings applied.
+     * @throws IOException if the pending file could not be read or the postings
+     *                     not persisted.
+     */
+    public static int recover(Bank bank) throws IOException {
+        Path directory = Paths.get(bank.dataDirectory);
+        Path pending = directory.resolve(PENDING_FILE);
+        if (!Files.exists(pending)) {
+            return 0;
+        }
+        if (bank.transactionLog == null) {
+            throw new IOException("Transaction log is not open");
+        }
+        LocalDate day;
+        long logOffset;
+        Postings postings;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pending),
+                1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(pending + " is not an end of day file");
+            }
+            day = LocalDate.ofEpochDay(in.readLong());
+            logOffset = in.readLong();
+            postings = new Postings(in.readInt());
+            for (int i = 0; i < postings.size(); i++) {
+                postings.set(i, in.readInt(), in.readInt(), in.readInt());
+            }
+        }
+
+        List<BankAccount> changed = new ArrayList<>();
+        boolean[] logged = loggedSince(bank.transactionLog, logOffset, postings);
+        int applied = 0;
+        long stamp = bank.lockAll();
+        try {
+            for (int i = 0; i < postings.size(); i++) {
+                int accNumber = postings.accNumbers[i];
+                int amount = postings.amounts[i];
+                int before = postings.before[i];
+                BankAccount a = bank.accounts.get(accNumber);
+                if (a == null) {
+                    Debug.warn("EndOfDay::recover: Account %d of the %s postings no longer exists", accNumber, day);
+                } else if (a.getBalance() == before) {
+                    a.adjust(amount);
+                    changed.add(a);
+                    applied++;
+                } else if (a.getBalance() != before + amount) {
+                    Debug.warn("EndOfDay::recover: Account %d has balance %d, neither %d nor %d, not posting %d",
+                            accNumber, a.getBalance(), before, before + amount, amount);
+                }
+            }
+            bank.store.updateBatch(changed.toArray(new BankAccount[0]));
+            bank.transactionLog.appendAll(transactionsOf(postings, logged)).join();
+            complete(directory, day);
+        } catch (RuntimeException e) {
+            throw new IOException("End of day recovery failed: " + e, e);
+        } finally {
+            bank.unlockAll(stamp);
+        }
+        Debug.info("EndOfDay::recover: Completed %s, %d of %d postings applied", day, applied, postings.size());
+        return applied;
+    }
+
+    /**
+     * Gets the last day the end of day completed for.
+     *
+     * @param directory The data directory.
+     * @return The day, or null if it has never been run.
+     * @throws IOException if the marker file could not be read.
+     */
+    public static LocalDate lastCompleted(Path directory) throws IOException {
+        Path marker = directory.resolve(MARKER_FILE);
+        if (!Files.exists(marker)) {
+            return null;
+        }
+        return LocalDate.parse(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Makes the transaction records of the postings not yet logged.
+     */
+    private static List<Transaction> transactionsOf(Postings postings, boolean[] logged) {
+        long now = DateTimeUtils.now();
+        List<Transaction> transactions = new ArrayList<>(postings.size());
+        for (int i = 0; i < postings.size(); i++) {
+            int amount = postings.amounts[i];
+            if (!logged[i]) {
+                transactions.add(new Transaction(postings.accNumbers[i], amount > 0 ? INTEREST : FEE,
+                        Math.abs(amount), postings.before[i] + amount, now, 0));
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Finds which postings are already in the transaction history, reading it
+     * from the offset the batch started at, through whichever files and
+     * segments it has been rotated into since.
+     */
+    private static boolean[] loggedSince(TransactionLog log, long offset, Postings postings) throws IOException {
+        int[][] holder = { new int[16] };
+        int[] count = { 0 };
+        log.scan(offset, (t, at) -> {
+            if (t.transactionType.equals(INTEREST) || t.transactionType.equals(FEE)) {
+                if (count[0] == holder[0].length) {
+                    holder[0] = Arrays.copyOf(holder[0], count[0] * 2);
+                }
+                holder[0][count[0]++] = t.accNumber;
+            }
+        });
+        int[] accNumbers = holder[0];
+        int found = count[0];
+        Arrays.sort(accNumbers, 0, found);
+        boolean[] logged = new boolean[postings.size()];
+        for (int i = 0; i < logged.length; i++) {
+            logged[i] = Arrays.binarySearch(accNumbers, 0, found, postings.accNumbers[i]) >= 0;
+        }
+        return logged;
+    }
+
+    /**
+     * Writes the pending file: the day, where the transaction history ends,
+     * and the postings. It is forced to disk and then renamed into place, so
+     * it is either all there or not there at all.
+     */
+    private static void writePending(Path directory, LocalDate day, long logOffset, Postings postings)
+            throws IOException {
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(PENDING_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(day.toEpochDay());
+            out.writeLong(logOffset);
+            out.writeInt(postings.size());
+            for (int i = 0; i < postings.size(); i++) {
+                out.writeInt(postings.accNumbers[i]);
+                out.writeInt(postings.amounts[i]);
+                out.writeInt(postings.before[i]);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        move(temp, directory.resolve(PENDING_FILE));
+    }
+
+    /**
+     * Records the day as completed and deletes the pending file.
+     */
+    private static void complete(Path directory, LocalDate day) throws IOException {
+        Path temp = directory.resolve(MARKER_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            out.write((day + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        move(temp, directory.resolve(MARKER_FILE));
+        Files.deleteIfExists(directory.resolve(PENDING_FILE));
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Runs the end of day on a data directory.
+     * Usage: EndOfDay dataDirectory [yyyy-MM-dd, default today]
+     *
+     * @param args The data directory and the day.
+     * @throws IOException if the postings could not be persisted.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: EndOfDay <data directory> [yyyy-MM-dd]");
+            System.exit(2);
+        }
+        LocalDate day = args.length > 1 ? LocalDate.parse(args[1]) : LocalDate.now();
+        try (Bank bank = new Bank(args[0])) {
+            int postings = new EndOfDay(bank).run(day);
+            System.out.println("End of day " + day + ": " + postings + " postings");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package CI401.mybank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The HistoryArchive class is a directory of sealed HistorySegments holding
+ * transaction history which no longer needs to be appended to. Segments are
+ * named history-NNNNNN.seg and numbered in the order they were sealed, so
+ * reading them in name order reads the history oldest first.
+ * Reads look at each segment's header first and skip the segments which
+ * cannot hold what they are looking for.
+ */
+
+public class HistoryArchive {
+    public static final int DEFAULT_SEGMENT_ROWS = 1 << 20; // records per segment
+
+    private final List<HistorySegment> segments; // oldest first
+
+    private HistoryArchive(List<HistorySegment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Opens the archive in a directory, reading the header of every segment.
+     * A missing directory is an empty archive.
+     *
+     * @param directory The archive directory.
+     * @return The archive.
+     * @throws IOException if a segment could not be read.
+     */
+    public static HistoryArchive open(Path directory) throws IOException {
+        List<Path> files = segmentFiles(directory);
+        List<HistorySegment> segments = new ArrayList<>(files.size());
+        for (Path file : files) {
+            segments.add(HistorySegment.open(file));
+        }
+        return new HistoryArchive(segments);
+    }
+
+    /**
+     * Lists the segment files in a directory, oldest first.
+     */
+    static List<Path> segmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "history-*.seg")) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Gets the name of the segment file sealed after the existing ones.
+     */
+    static Path nextSegmentFile(Path directory) throws IOException {
+        List<Path> files = segmentFiles(directory);
+        int next = 1;
+        if (!files.isEmpty()) {
+            String last = files.get(files.size() - 1).getFileName().toString();
+            next = Integer.parseInt(last.substring("history-".length(), last.length() - ".seg".length())) + 1;
+        }
+        return directory.resolve(String.format("history-%06d.seg", next));
+    }
+
+    /**
+     * Gets the segments, oldest first.
+     *
+     * @return The segments.
+     */
+    public List<HistorySegment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Gets the number of records in the archive.
+     *
+     * @return The number of records.
+     */
+    public long getRows() {
+        long rows = 0;
+        for (HistorySegment segment : segments) {
+            rows += segment.getRows();
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the segments which may hold records from a time range.
+     *
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, inclusive.
+     * @return The segments, oldest first.
+     */
+    public List<HistorySegment> segmentsBetween(long fromMillis, long toMillis) {
+        List<HistorySegment> result = new ArrayList<>();
+        for (HistorySegment segment : segments) {
+            if (segment.overlaps(fromMillis, toMillis)) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets every archived transaction of an account, oldest first. Segments
+     * whose header rules the account out are not read.
+     *
+     * @param accNumber The account number.
+     * @return The transactions.
+     * @throws IOException if a segment could not be read.
+     */
+    public List<Transaction> transactionsOf(int accNumber) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        for (HistorySegment segment : segments) {
+            result.addAll(segment.transactionsOf(accNumber));
+        }
+        return result;
+    }
+
+    /**
+     * Seals the records of a transaction history file into new segments at the
+     * end of an archive. Lines which are not valid records, including the
+     * header, are skipped, as they are by the TransactionIndex.
+     *
+     * @param historyFile    The transaction history CSV file.
+     * @param directory      The archive directory, created if needed.
+     * @param rowsPerSegment The most records in each segment.
+     * @return The number of records archived.
+     * @throws IOException if the file could not be read or a segment written.
+     */
+    public static long archive(Path historyFile, Path directory, int rowsPerSegment) throws IOException {
+        Files.createDirectories(directory);
+        long archived = 0;
+        long skipped = 0;
+        HistorySegment.Writer writer = null;
+        try (BufferedReader in = Files.newBufferedReader(historyFile)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction t = Transaction.parse(line);
+                if (t == null) {
+                    skipped++;
+                    continue;
+                }
+                if (writer == null) {
+                    writer = new HistorySegment.Writer(nextSegmentFile(directory), rowsPerSegment);
+                }
+                writer.add(t);
+                archived++;
+                if (writer.isFull()) {
+                    writer.close();
+                    writer = null;
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        Debug.trace("HistoryArchive::archive: Archived %d records, skipped %d lines", archived, skipped);
+        return archived;
+    }
+
+    /**
+     * Prints the size and statistics of each segment, and of the archive as a
+     * whole.
+     *
+     * @param out Where to print.
+     * @throws IOException if a segment's size could not be read.
+     */
+    public void printSummary(PrintStream out) throws IOException {
+        long bytes = 0;
+        for (HistorySegment segment : segments) {
+            long size = Files.size(segment.getFile());
+            bytes += size;
+            String[] from = DateTimeUtils.fromEpochMillis(segment.getMinTime());
+            String[] to = DateTimeUtils.fromEpochMillis(segment.getMaxTime());
+            out.printf("%s %,10d records %,12d bytes  accounts %d-%d  %s %s - %s %s%n",
+                    segment.getFile().getFileName(), segment.getRows(), size, segment.getMinAccNumber(),
+                    segment.getMaxAccNumber(), from[0], from[1], to[0], to[1]);
+        }
+        long rows = getRows();
+        out.printf("%d segments, %,d records, %,d bytes (%.1f bytes per record)%n", segments.size(), rows, bytes,
+                rows == 0 ? 0.0 : (double) bytes / rows);
+    }
+
+    /**
+     * Seals a history file into an archive, or reads an archive.
+     * Usage: HistoryArchive archive history.csv directory [rows per segment]
+     * | summary directory | statement directory accNumber
+     *
+     * @param args The command and its arguments.
+     * @throws IOException if the files could not be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        Debug.set(false);
+        if (args.length >= 3 && args[0].equals("archive")) {
+            int rows = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SEGMENT_ROWS;
+            long archived = archive(Paths.get(args[1]), Paths.get(args[2]), rows);
+            System.out.println("Archived " + archived + " records");
+            open(Paths.get(args[2])).printSummary(System.out);
+        } else if (args.length == 2 && args[0].equals("summary")) {
+            open(Paths.get(args[1])).printSummary(System.out);
+        } else if (args.length == 3 && args[0].equals("statement")) {
+            List<Transaction> transactions = open(Paths.get(args[1])).transactionsOf(Integer.parseInt(args[2]));
+            System.out.println(Transaction.formatStatement(transactions));
+        } else {
+            System.err.println("Usage: HistoryArchive archive <history.csv> <directory> [rows per segment]");
+            System.err.println("       HistoryArchive summary <directory>");
+            System.err.println("       HistoryArchive statement <directory> <account number>");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package CI401.mybank;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The HistoryCatalogue class lists the sealed segments of the transaction
+ * history which the TransactionLog has rotated out of
+ * transaction_history.csv. They are kept in the "history" directory next to
+ * it, as HistorySegments named history-NNNNNN.seg (so HistoryArchive can read
+ * the directory too), and catalogue.csv lists them oldest first with the
+ * offsets, sequence numbers, times and account numbers each one covers.
+ * A reader looks at the catalogue alone to find the few segments which can
+ * hold what it wants, without opening the others.
+ * A rotated file waits in the directory as history-NNNNNN.csv until it is
+ * sealed, see seal.
+ */
+
+public class HistoryCatalogue {
+    static final String FILE = "catalogue.csv";
+    static final String HEADER = "segment,rows,firstOffset,endOffset,firstSequence,lastSequence,minTime,maxTime,"
+            + "minAccNumber,maxAccNumber";
+
+    private final Path directory;
+    private volatile List<Entry> entries; // oldest first, replaced as a whole when a segment is added
+
+    /**
+     * One sealed segment, as listed in the catalogue.
+     */
+    public static final class Entry {
+        public final Path file; // the segment file
+        public final int rows;
+        public final long firstOffset; // the offset in the history of the file it was sealed from
+        public final long endOffset; // the offset just after that file
+        public final long firstSequence;
+        public final long lastSequence;
+        public final long minTime; // in milliseconds since the epoch
+        public final long maxTime;
+        public final int minAccNumber;
+        public final int maxAccNumber;
+
+        Entry(Path file, int rows, long firstOffset, long endOffset, long firstSequence, long lastSequence,
+                long minTime, long maxTime, int minAccNumber, int maxAccNumber) {
+            this.file = file;
+            this.rows = rows;
+            this.firstOffset = firstOffset;
+            this.endOffset = endOffset;
+            this.firstSequence = firstSequence;
+            this.lastSequence = lastSequence;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.minAccNumber = minAccNumber;
+            this.maxAccNumber = maxAccNumber;
+        }
+
+        /**
+         * Checks if the segment may hold records from a time range.
+         *
+         * @param fromMillis The start of the range, in milliseconds since the epoch.
+         * @param toMillis   The end of the range, inclusive.
+         * @return false if every record is outside the range.
+         */
+        public boolean overlaps(long fromMillis, long toMillis) {
+            return rows > 0 && minTime <= toMillis && maxTime >= fromMillis;
+        }
+
+        /**
+         * Checks if an account number is in the range the segment covers.
+         *
+         * @param accNumber The account number.
+         * @return false if the segment has no records of the account.
+         */
+        public boolean covers(int accNumber) {
+            return rows > 0 && accNumber >= minAccNumber && accNumber <= maxAccNumber;
+        }
+
+        String toCsv() {
+            return file.getFileName() + "," + rows + "," + firstOffset + "," + endOffset + "," + firstSequence + ","
+                    + lastSequence + "," + minTime + "," + maxTime + "," + minAccNumber + "," + maxAccNumber;
+        }
+    }
+
+    /**
+     * Called with each record read from a history file.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param t      The transaction.
+         * @param offset The offset of its record in the history.
+         */
+        void visit(Transaction t, long offset) throws IOException;
+    }
+
+    private HistoryCatalogue(Path directory, List<Entry> entries) {
+        this.directory = directory;
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the history directory of an active history file, the "history"
+     * directory next to it.
+     *
+     * @param historyFile The active history file.
+     * @return The directory.
+     */
+    public static Path directoryOf(Path historyFile) {
+        return historyFile.toAbsolutePath().resolveSibling("history");
+    }
+
+    /**
+     * Opens the catalogue of a history directory. A missing directory or
+     * catalogue is an empty one.
+     *
+     * @param directory The history directory.
+     * @return The catalogue.
+     * @throws IOException if the catalogue could not be read.
+     */
+    public static HistoryCatalogue open(Path directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path file = directory.resolve(FILE);
+        if (Files.exists(file)) {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty() || line.equals(HEADER)) {
+                        continue;
+                    }
+                    String[] f = line.split(",");
+                    try {
+                        entries.add(new Entry(directory.resolve(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]),
+                                Long.parseLong(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]),
+                                Long.parseLong(f[6]), Long.parseLong(f[7]), Integer.parseInt(f[8]),
+                                Integer.parseInt(f[9])));
+                    } catch (RuntimeException e) {
+                        throw new IOException(file + " has a bad line: " + line, e);
+                    }
+                }
+            }
+        }
+        return new HistoryCatalogue(directory, Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Gets the history directory.
+     *
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the segments, oldest first.
+     *
+     * @return The segments.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the offset in the history just after the last segment, which is
+     * where the file after it starts.
+     *
+     * @return The offset, or 0 if there are no segments.
+     */
+    public long getEndOffset() {
+        List<Entry> list = entries;
+        return list.isEmpty() ? 0 : list.get(list.size() - 1).endOffset;
+    }
+
+    /**
+     * Checks if a segment file is listed.
+     *
+     * @param segmentFile The segment file.
+     * @return true if it is in the catalogue.
+     */
+    public boolean contains(Path segmentFile) {
+        for (Entry e : entries) {
+            if (e.file.getFileName().equals(segmentFile.getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the segment holding the record at an offset in the history.
+     *
+     * @param offset The offset.
+     * @return The segment, or null if no segment covers the offset.
+     */
+    public Entry entryAt(long offset) {
+        List<Entry> list = entries;
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Entry e = list.get(middle);
+            if (offset < e.firstOffset) {
+                high = middle - 1;
+            } else if (offset >= e.endOffset) {
+                low = middle + 1;
+            } else {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the segments which may hold records from a time range.
+     *
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, inclusive.
+     * @return The segments, oldest first.
+     */
+    public List<Entry> entriesBetween(long fromMillis, long toMillis) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry e : entries) {
+            if (e.overlaps(fromMillis, toMillis)) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets every sealed transaction of an account, oldest first. Only the
+     * segments whose account range and Bloom filter allow the account are
+     * read.
+     *
+     * @param accNumber The account number.
+     * @return The transactions.
+     * @throws IOException if a segment could not be read.
+     */
+    public List<Transaction> transactionsOf(int accNumber) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        for (Entry e : entries) {
+            if (e.covers(accNumber)) {
+                result.addAll(HistorySegment.open(e.file).transactionsOf(accNumber));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a segment to the end of the catalogue and writes the catalogue,
+     * through a temporary file so a half written one is never seen.
+     *
+     * @param entry The segment.
+     * @throws IOException if the catalogue could not be written.
+     */
+    synchronized void add(Entry entry) throws IOException {
+        List<Entry> list = new ArrayList<>(entries);
+        list.add(entry);
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "\n");
+            for (Entry e : list) {
+                writer.write(e.toCsv() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING);
+        }
+        entries = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Lists the rotated files waiting to be sealed, oldest first.
+     *
+     * @param directory The history directory.
+     * @return The files.
+     * @throws IOException if the directory could not be read.
+     */
+    public static List<Path> rotatedFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "history-*.csv")) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Gets the segment file a rotated file is sealed into.
+     *
+     * @param rotatedFile The rotated file, history-NNNNNN.csv.
+     * @return The segment file, history-NNNNNN.seg.
+     */
+    static Path segmentFileOf(Path rotatedFile) {
+        String name = rotatedFile.getFileName().toString();
+        return rotatedFile.resolveSibling(name.substring(0, name.length() - ".csv".length()) + ".seg");
+    }
+
+    /**
+     * Seals a rotated history file into a segment, keeping each record's
+     * offset in the history, and adds it to the catalogue. The rotated file
+     * is left for the caller to delete.
+     *
+     * @param rotatedFile The rotated file.
+     * @param base        The offset in the history the file starts at.
+     * @return The catalogue entry of the new segment.
+     * @throws IOException if the file could not be read or the segment written.
+     */
+    Entry seal(Path rotatedFile, long base) throws IOException {
+        Path segmentFile = segmentFileOf(rotatedFile);
+        HistorySegment.Writer writer = new HistorySegment.Writer(segmentFile, Integer.MAX_VALUE - 8);
+        long[] ranges = { Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0 };
+        forEachRecord(rotatedFile, base, base, Long.MAX_VALUE, (t, offset) -> {
+            writer.add(t, offset);
+            ranges[0] = Math.min(ranges[0], t.timestamp);
+            ranges[1] = Math.max(ranges[1], t.timestamp);
+            ranges[2] = Math.min(ranges[2], t.accNumber);
+            ranges[3] = Math.max(ranges[3], t.accNumber);
+            if (ranges[4] == 0) {
+                ranges[4] = t.sequence;
+            }
+            ranges[5] = t.sequence;
+        });
+        int rows = writer.size();
+        writer.close();
+        Entry entry = rows == 0
+                ? new Entry(segmentFile, 0, base, base + Files.size(rotatedFile), 0, 0, 0, 0, 0, 0)
+                : new Entry(segmentFile, rows, base, base + Files.size(rotatedFile), ranges[4], ranges[5],
+                        ranges[0], ranges[1], (int) ranges[2], (int) ranges[3]);
+        add(entry);
+        Debug.trace("HistoryCatalogue::seal: Sealed %d records of %s into %s", rows, rotatedFile, segmentFile);
+        return entry;
+    }
+
+    /**
+     * Reads the records of a history file, or of part of it, with the offset
+     * of each. Lines which are not valid records, including the header, are
+     * skipped.
+     *
+     * @param file    The history file.
+     * @param base    The offset in the history the file starts at.
+     * @param from    The offset to start reading at, which should be the start
+     *                of a line.
+     * @param to      The offset to stop reading at; a line which is not
+     *                complete by then is left out.
+     * @param visitor Called with each record.
+     * @throws IOException if the file could not be read.
+     */
+    public static void forEachRecord(Path file, long base, long from, long to, RecordVisitor visitor)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            long position = Math.max(base, from); // offset of the start of the buffer
+            long skip = position - base;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    return;
+                }
+                skip -= skipped;
+            }
+            byte[] buffer = new byte[1 << 16];
+            int carried = 0; // bytes of an unfinished line kept at the start of the buffer
+            int read;
+            while (position + carried < to
+                    && (read = in.read(buffer, carried, buffer.length - carried)) != -1) {
+                int end = (int) Math.min(carried + read, to - position);
+                int start = 0;
+                for (int i = carried; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        int length = i > start && buffer[i - 1] == '\r' ? i - 1 - start : i - start;
+                        Transaction t = Transaction.parse(new String(buffer, start, length, StandardCharsets.UTF_8));
+                        if (t != null) {
+                            visitor.visit(t, position + start);
+                        }
+                        start = i + 1;
+                    }
+                }
+                if (end < carried + read) {
+                    return; // reached the end of the range
+                }
+                // Keep the unfinished line, growing the buffer if one line fills it
+                carried = end - start;
+                if (carried == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, carried);
+                }
+                position += start;
+            }
+            if (carried > 0 && position + carried <= to) {
+                // The last line, without a terminator
+                Transaction t = Transaction.parse(new String(buffer, 0, carried, StandardCharsets.UTF_8));
+                if (t != null) {
+                    visitor.visit(t, position);
+                }
+            }
+        }
+    }
+}
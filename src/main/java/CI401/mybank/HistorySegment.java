@@ -0,0 +1,763 @@
+package CI401.mybank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The HistorySegment class is one sealed, read-only file of the transaction
+ * history archive. The records are kept in the order they were logged, but
+ * stored by column rather than by row:
+ * <ul>
+ * <li>the transaction type as a code into a dictionary of the type names,</li>
+ * <li>the account number as the zigzag varint of its difference from the
+ * previous record's,</li>
+ * <li>the amount and new balance as zigzag varints,</li>
+ * <li>the time as the zigzag varint of its difference from the previous
+ * record's, in milliseconds since the epoch,</li>
+ * <li>the sequence number and the offset of the record in the history (see
+ * TransactionLog) as zigzag varints of their differences from the previous
+ * record's,</li>
+ * </ul>
+ * and each column is then deflated on its own. The header holds the min/max of
+ * the account numbers, times, amounts and balances, and a Bloom filter of the
+ * account numbers, so a reader can tell from the header alone whether the
+ * segment can hold what it is looking for. Only the columns a reader asks for
+ * are read and inflated. Segments of version 1 have no sequence or offset
+ * columns.
+ */
+
+public final class HistorySegment {
+    static final int MAGIC = 0x41544d48; // "ATMH"
+    static final int VERSION = 2;
+    static final int COLUMNS = 7;
+    static final int TYPE = 0; // the columns, in file order
+    static final int ACCOUNT = 1;
+    static final int AMOUNT = 2;
+    static final int BALANCE = 3;
+    static final int TIME = 4;
+    static final int SEQUENCE = 5; // from version 2
+    static final int OFFSET = 6; // from version 2
+    private static final int VERSION_1_COLUMNS = 5;
+    private static final int BLOOM_BITS_PER_ACCOUNT = 10;
+
+    private final Path file;
+    private final int columnCount; // the number of columns in the file
+    private final int rows; // the number of records
+    private final int minAccNumber;
+    private final int maxAccNumber;
+    private final long minTime; // in milliseconds since the epoch
+    private final long maxTime;
+    private final int minAmount;
+    private final int maxAmount;
+    private final int minBalance;
+    private final int maxBalance;
+    private final String[] types; // the type dictionary
+    private final long[] bloom; // the Bloom filter of account numbers
+    private final long[] columnOffsets = new long[COLUMNS]; // where each column starts in the file
+    private final int[] rawLengths = new int[COLUMNS]; // the length of each column before deflating
+    private final int[] storedLengths = new int[COLUMNS]; // the length of each column in the file
+
+    private HistorySegment(Path file, DataInputStream in) throws IOException {
+        this.file = file;
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a history segment");
+        }
+        int version = in.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException(file + " has unknown version " + version);
+        }
+        columnCount = version == 1 ? VERSION_1_COLUMNS : COLUMNS;
+        rows = in.readInt();
+        minAccNumber = in.readInt();
+        maxAccNumber = in.readInt();
+        minTime = in.readLong();
+        maxTime = in.readLong();
+        minAmount = in.readInt();
+        maxAmount = in.readInt();
+        minBalance = in.readInt();
+        maxBalance = in.readInt();
+        types = new String[in.readUnsignedShort()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = in.readUTF();
+        }
+        bloom = new long[in.readInt()];
+        for (int i = 0; i < bloom.length; i++) {
+            bloom[i] = in.readLong();
+        }
+        long offset = headerLength(types, bloom.length, columnCount);
+        for (int c = 0; c < columnCount; c++) {
+            rawLengths[c] = in.readInt();
+            storedLengths[c] = in.readInt();
+            columnOffsets[c] = offset;
+            offset += storedLengths[c];
+        }
+    }
+
+    /**
+     * Opens a segment, reading only its header.
+     *
+     * @param file The segment file.
+     * @return The segment.
+     * @throws IOException if the file could not be read or is not a segment.
+     */
+    public static HistorySegment open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return new HistorySegment(file, in);
+        }
+    }
+
+    /**
+     * Gets the segment file.
+     *
+     * @return The file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the number of records in the segment.
+     *
+     * @return The number of records.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the smallest account number in the segment.
+     *
+     * @return The account number, or 0 if the segment is empty.
+     */
+    public int getMinAccNumber() {
+        return minAccNumber;
+    }
+
+    /**
+     * Gets the largest account number in the segment.
+     *
+     * @return The account number, or 0 if the segment is empty.
+     */
+    public int getMaxAccNumber() {
+        return maxAccNumber;
+    }
+
+    /**
+     * Gets the time of the earliest record.
+     *
+     * @return The time in milliseconds since the epoch, or 0 if the segment is empty.
+     */
+    public long getMinTime() {
+        return minTime;
+    }
+
+    /**
+     * Gets the time of the latest record.
+     *
+     * @return The time in milliseconds since the epoch, or 0 if the segment is empty.
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Gets the smallest amount in the segment.
+     *
+     * @return The amount, or 0 if the segment is empty.
+     */
+    public int getMinAmount() {
+        return minAmount;
+    }
+
+    /**
+     * Gets the largest amount in the segment.
+     *
+     * @return The amount, or 0 if the segment is empty.
+     */
+    public int getMaxAmount() {
+        return maxAmount;
+    }
+
+    /**
+     * Gets the smallest new balance in the segment.
+     *
+     * @return The balance, or 0 if the segment is empty.
+     */
+    public int getMinBalance() {
+        return minBalance;
+    }
+
+    /**
+     * Gets the largest new balance in the segment.
+     *
+     * @return The balance, or 0 if the segment is empty.
+     */
+    public int getMaxBalance() {
+        return maxBalance;
+    }
+
+    /**
+     * Checks, from the header alone, if the segment may hold records of an
+     * account. A false answer is always right; a true one is wrong for about 1
+     * in 100 accounts which are not there.
+     *
+     * @param accNumber The account number.
+     * @return false if the segment has no records of the account.
+     */
+    public boolean mightContain(int accNumber) {
+        if (accNumber < minAccNumber || accNumber > maxAccNumber) {
+            return false;
+        }
+        return bloomContains(bloom, accNumber);
+    }
+
+    /**
+     * Checks, from the header alone, if the segment may hold records from a
+     * time range.
+     *
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, inclusive.
+     * @return false if every record is outside the range.
+     */
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return rows > 0 && minTime <= toMillis && maxTime >= fromMillis;
+    }
+
+    /**
+     * Gets the records of the segment, decoding each column the first time it
+     * is asked for.
+     *
+     * @return The columns.
+     */
+    public Columns columns() {
+        return new Columns();
+    }
+
+    /**
+     * Gets every record of one account in this segment, oldest first.
+     *
+     * @param accNumber The account number.
+     * @return The transactions, empty without reading any column if the
+     *         header rules the account out.
+     * @throws IOException if the segment could not be read.
+     */
+    public List<Transaction> transactionsOf(int accNumber) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        if (!mightContain(accNumber)) {
+            return result;
+        }
+        Columns columns = columns();
+        int[] accNumbers = columns.accNumbers();
+        for (int i = 0; i < rows; i++) {
+            if (accNumbers[i] == accNumber) {
+                result.add(columns.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The decoded records of a segment, by column.
+     */
+    public final class Columns {
+        private int[] typeCodes, accNumbers, amounts, balances;
+        private long[] times, sequences, offsets;
+
+        public int size() {
+            return rows;
+        }
+
+        /**
+         * Gets the transaction type names, indexed by the codes in typeCodes.
+         */
+        public String[] types() {
+            return types;
+        }
+
+        public int[] typeCodes() throws IOException {
+            if (typeCodes == null) {
+                typeCodes = decodeInts(TYPE, false, false);
+            }
+            return typeCodes;
+        }
+
+        public int[] accNumbers() throws IOException {
+            if (accNumbers == null) {
+                accNumbers = decodeInts(ACCOUNT, true, true);
+            }
+            return accNumbers;
+        }
+
+        public int[] amounts() throws IOException {
+            if (amounts == null) {
+                amounts = decodeInts(AMOUNT, true, false);
+            }
+            return amounts;
+        }
+
+        public int[] balances() throws IOException {
+            if (balances == null) {
+                balances = decodeInts(BALANCE, true, false);
+            }
+            return balances;
+        }
+
+        /**
+         * Gets the time of each record, in milliseconds since the epoch.
+         */
+        public long[] times() throws IOException {
+            if (times == null) {
+                ColumnReader in = new ColumnReader(readColumn(TIME));
+                times = new long[rows];
+                long previous = 0;
+                for (int i = 0; i < rows; i++) {
+                    previous += zigzagDecode(in.readVarint());
+                    times[i] = previous;
+                }
+            }
+            return times;
+        }
+
+        /**
+         * Gets the sequence number of each record, or 0 for every record of a
+         * version 1 segment.
+         */
+        public long[] sequences() throws IOException {
+            if (sequences == null) {
+                sequences = decodeLongs(SEQUENCE, 0);
+            }
+            return sequences;
+        }
+
+        /**
+         * Gets the offset of each record in the history it was sealed from,
+         * or -1 for a record sealed without one and for every record of a
+         * version 1 segment.
+         */
+        public long[] offsets() throws IOException {
+            if (offsets == null) {
+                offsets = decodeLongs(OFFSET, -1);
+            }
+            return offsets;
+        }
+
+        /**
+         * Finds a record by its offset in the history it was sealed from.
+         *
+         * @param offset The offset.
+         * @return The position of the record, or -1 if no record starts there.
+         */
+        public int positionOf(long offset) throws IOException {
+            int i = Arrays.binarySearch(offsets(), offset); // the records were sealed in offset order
+            return i < 0 ? -1 : i;
+        }
+
+        /**
+         * Builds the Transaction for one record, reading every column.
+         *
+         * @param i The position of the record in the segment.
+         * @return The transaction.
+         */
+        public Transaction get(int i) throws IOException {
+            return new Transaction(accNumbers()[i], types[typeCodes()[i]], amounts()[i], balances()[i], times()[i],
+                    sequences()[i]);
+        }
+
+        private long[] decodeLongs(int column, long missing) throws IOException {
+            long[] values = new long[rows];
+            if (column >= columnCount) {
+                Arrays.fill(values, missing);
+                return values;
+            }
+            ColumnReader in = new ColumnReader(readColumn(column));
+            long previous = 0;
+            for (int i = 0; i < rows; i++) {
+                previous += zigzagDecode(in.readVarint());
+                values[i] = previous;
+            }
+            return values;
+        }
+
+        private int[] decodeInts(int column, boolean zigzag, boolean delta) throws IOException {
+            ColumnReader in = new ColumnReader(readColumn(column));
+            int[] values = new int[rows];
+            int previous = 0;
+            for (int i = 0; i < rows; i++) {
+                long raw = in.readVarint();
+                int value = (int) (zigzag ? zigzagDecode(raw) : raw);
+                previous = delta ? previous + value : value;
+                values[i] = previous;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Reads and inflates one column.
+     */
+    private byte[] readColumn(int column) throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate(storedLengths[column]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (stored.hasRemaining()) {
+                if (channel.read(stored, columnOffsets[column] + stored.position()) < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+        }
+        byte[] raw = new byte[rawLengths[column]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+                if (inflater.needsInput() && length < raw.length) {
+                    throw new IOException(file + " has a truncated column");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(file + " has a corrupt column", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * The Writer class builds a segment from records added one at a time, and
+     * seals it into its file when closed. Records are held in memory, by
+     * column, until then.
+     */
+    public static final class Writer implements Closeable {
+        private final Path file;
+        private final int capacity;
+        private final List<String> types = new ArrayList<>();
+        private int[] typeCodes, accNumbers, amounts, balances;
+        private long[] times, sequences, offsets;
+        private int rows = 0;
+
+        /**
+         * Constructor for the Writer class.
+         *
+         * @param file     The segment file to write.
+         * @param capacity The most records the segment can hold.
+         */
+        public Writer(Path file, int capacity) {
+            this.file = file;
+            this.capacity = capacity;
+            int initial = Math.min(capacity, 1024);
+            typeCodes = new int[initial];
+            accNumbers = new int[initial];
+            amounts = new int[initial];
+            balances = new int[initial];
+            times = new long[initial];
+            sequences = new long[initial];
+            offsets = new long[initial];
+        }
+
+        public int size() {
+            return rows;
+        }
+
+        public boolean isFull() {
+            return rows == capacity;
+        }
+
+        /**
+         * Adds a record.
+         *
+         * @param t The transaction.
+         * @throws IllegalStateException if the segment is full.
+         */
+        public void add(Transaction t) {
+            add(t, -1);
+        }
+
+        /**
+         * Adds a record and where it was in the history it is sealed from.
+         *
+         * @param t      The transaction.
+         * @param offset The offset of its record in the history.
+         * @throws IllegalStateException if the segment is full.
+         */
+        public void add(Transaction t, long offset) {
+            add(t.accNumber, t.transactionType, t.amount, t.newBalance, t.timestamp);
+            sequences[rows - 1] = t.sequence;
+            offsets[rows - 1] = offset;
+        }
+
+        /**
+         * Adds a record.
+         *
+         * @param accNumber       The account number.
+         * @param transactionType The type of the transaction.
+         * @param amount          The amount.
+         * @param newBalance      The balance after the transaction.
+         * @param timeMillis      When it happened, in milliseconds since the
+         *                        epoch.
+         * @throws IllegalStateException if the segment is full.
+         */
+        public void add(int accNumber, String transactionType, int amount, int newBalance, long timeMillis) {
+            if (isFull()) {
+                throw new IllegalStateException("the segment is full");
+            }
+            if (rows == accNumbers.length) {
+                int length = (int) Math.min(capacity, rows * 2L);
+                typeCodes = Arrays.copyOf(typeCodes, length);
+                accNumbers = Arrays.copyOf(accNumbers, length);
+                amounts = Arrays.copyOf(amounts, length);
+                balances = Arrays.copyOf(balances, length);
+                times = Arrays.copyOf(times, length);
+                sequences = Arrays.copyOf(sequences, length);
+                offsets = Arrays.copyOf(offsets, length);
+            }
+            int code = types.indexOf(transactionType);
+            if (code < 0) {
+                code = types.size();
+                types.add(transactionType);
+            }
+            typeCodes[rows] = code;
+            accNumbers[rows] = accNumber;
+            amounts[rows] = amount;
+            balances[rows] = newBalance;
+            times[rows] = timeMillis;
+            sequences[rows] = 0;
+            offsets[rows] = -1;
+            rows++;
+        }
+
+        /**
+         * Seals the segment: encodes and deflates the columns and writes the
+         * file, through a temporary file so a half written segment is never
+         * seen.
+         *
+         * @throws IOException if the file could not be written.
+         */
+        @Override
+        public void close() throws IOException {
+            if (types.size() > 0xFFFF) {
+                throw new IOException("too many transaction types for one segment");
+            }
+            ColumnWriter[] columns = new ColumnWriter[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++) {
+                columns[c] = new ColumnWriter(rows);
+            }
+            int minAcc = Integer.MAX_VALUE, maxAcc = Integer.MIN_VALUE;
+            int minAmount = Integer.MAX_VALUE, maxAmount = Integer.MIN_VALUE;
+            int minBalance = Integer.MAX_VALUE, maxBalance = Integer.MIN_VALUE;
+            long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+            int previousAcc = 0;
+            long previousTime = 0;
+            long previousSequence = 0;
+            long previousOffset = 0;
+            for (int i = 0; i < rows; i++) {
+                columns[TYPE].writeVarint(typeCodes[i]);
+                columns[ACCOUNT].writeVarint(zigzagEncode(accNumbers[i] - previousAcc));
+                columns[AMOUNT].writeVarint(zigzagEncode(amounts[i]));
+                columns[BALANCE].writeVarint(zigzagEncode(balances[i]));
+                columns[TIME].writeVarint(zigzagEncode(times[i] - previousTime));
+                columns[SEQUENCE].writeVarint(zigzagEncode(sequences[i] - previousSequence));
+                columns[OFFSET].writeVarint(zigzagEncode(offsets[i] - previousOffset));
+                previousAcc = accNumbers[i];
+                previousTime = times[i];
+                previousSequence = sequences[i];
+                previousOffset = offsets[i];
+                minAcc = Math.min(minAcc, accNumbers[i]);
+                maxAcc = Math.max(maxAcc, accNumbers[i]);
+                minAmount = Math.min(minAmount, amounts[i]);
+                maxAmount = Math.max(maxAmount, amounts[i]);
+                minBalance = Math.min(minBalance, balances[i]);
+                maxBalance = Math.max(maxBalance, balances[i]);
+                minTime = Math.min(minTime, times[i]);
+                maxTime = Math.max(maxTime, times[i]);
+            }
+            long[] bloom = buildBloom(Arrays.copyOf(accNumbers, rows));
+
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = parent.resolve(file.getFileName() + ".tmp");
+            Deflater deflater = new Deflater();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rows);
+                out.writeInt(rows == 0 ? 0 : minAcc);
+                out.writeInt(rows == 0 ? 0 : maxAcc);
+                out.writeLong(rows == 0 ? 0 : minTime);
+                out.writeLong(rows == 0 ? 0 : maxTime);
+                out.writeInt(rows == 0 ? 0 : minAmount);
+                out.writeInt(rows == 0 ? 0 : maxAmount);
+                out.writeInt(rows == 0 ? 0 : minBalance);
+                out.writeInt(rows == 0 ? 0 : maxBalance);
+                out.writeShort(types.size());
+                for (String type : types) {
+                    out.writeUTF(type);
+                }
+                out.writeInt(bloom.length);
+                for (long word : bloom) {
+                    out.writeLong(word);
+                }
+                byte[][] stored = new byte[COLUMNS][];
+                for (int c = 0; c < COLUMNS; c++) {
+                    stored[c] = columns[c].deflate(deflater);
+                    out.writeInt(columns[c].length);
+                    out.writeInt(stored[c].length);
+                }
+                for (byte[] column : stored) {
+                    out.write(column);
+                }
+            } finally {
+                deflater.end();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Debug.trace("HistorySegment.Writer::close: Sealed %d records in %s", rows, file);
+        }
+    }
+
+    /**
+     * Gets the length of a header with the given dictionary and Bloom filter.
+     */
+    private static long headerLength(String[] types, int bloomWords, int columns) {
+        long length = 4 * 2 + 4 + 4 * 2 + 8 * 2 + 4 * 4 + 2;
+        for (String type : types) {
+            length += 2; // writeUTF's length, then the modified UTF-8 of the name
+            for (int i = 0; i < type.length(); i++) {
+                char c = type.charAt(i);
+                length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+        }
+        return length + 4 + 8L * bloomWords + columns * 8;
+    }
+
+    /**
+     * Builds a Bloom filter of account numbers, with about 10 bits and 3
+     * probes per distinct account.
+     *
+     * @param accNumbers The account numbers, which are sorted in place.
+     */
+    static long[] buildBloom(int[] accNumbers) {
+        Arrays.sort(accNumbers);
+        int distinct = 0;
+        for (int i = 0; i < accNumbers.length; i++) {
+            if (i == 0 || accNumbers[i] != accNumbers[i - 1]) {
+                distinct++;
+            }
+        }
+        long bits = Math.max(64, Long.highestOneBit(Math.max(1, (long) distinct * BLOOM_BITS_PER_ACCOUNT) - 1) << 1);
+        long[] bloom = new long[(int) (bits >>> 6)];
+        for (int accNumber : accNumbers) {
+            long h = bloomHash(accNumber);
+            for (int k = 0; k < 3; k++) {
+                long bit = (h >>> (k * 21)) & (bits - 1);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        return bloom;
+    }
+
+    private static boolean bloomContains(long[] bloom, int accNumber) {
+        long bits = (long) bloom.length << 6;
+        long h = bloomHash(accNumber);
+        for (int k = 0; k < 3; k++) {
+            long bit = (h >>> (k * 21)) & (bits - 1);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long bloomHash(int accNumber) {
+        long h = accNumber * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+
+    static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A growable buffer of varints.
+     */
+    static final class ColumnWriter {
+        byte[] bytes;
+        int length = 0;
+
+        ColumnWriter(int rows) {
+            bytes = new byte[Math.max(16, rows * 2)];
+        }
+
+        void writeVarint(long value) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        byte[] deflate(Deflater deflater) {
+            deflater.reset();
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, length / 2)];
+            int stored = 0;
+            while (!deflater.finished()) {
+                if (stored == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                stored += deflater.deflate(out, stored, out.length - stored);
+            }
+            return Arrays.copyOf(out, stored);
+        }
+    }
+
+    /**
+     * Reads varints back from a column.
+     */
+    static final class ColumnReader {
+        private final byte[] bytes;
+        private int position = 0;
+
+        ColumnReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
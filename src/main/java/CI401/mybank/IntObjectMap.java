@@ -0,0 +1,382 @@
+package CI401.mybank;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The IntObjectMap class is a hash map keyed on a primitive int, used by the
+ * Bank to look up accounts by account number without boxing.
+ * It uses open addressing with linear probing. Each table slot packs the key
+ * together with the entry's position in two dense arrays (keys and values),
+ * so a lookup only touches the table until it finds a match. The dense arrays
+ * keep entries in insertion order and make the memory use easy to predict:
+ * 8 bytes per table slot plus 4 bytes and one reference per entry.
+ * The table is kept at most 3/4 full, so lookups stay O(1) however many
+ * accounts are stored.
+ *
+ * @param <V> The type of the values stored in the map.
+ */
+public class IntObjectMap<V> implements Iterable<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table; // key in the high half, entry position + 1 in the low half ('0' if the slot is free)
+    private int[] keys; // keys in insertion order
+    private Object[] values; // values in insertion order
+    private int size = 0; // number of entries in the map
+    private int mask; // table length - 1, the table length is always a power of two
+
+    /**
+     * Constructor for the IntObjectMap class.
+     * It creates an empty map with room for a small number of entries.
+     */
+    public IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructor for the IntObjectMap class.
+     * It creates an empty map which can hold the expected number of entries
+     * without having to resize.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+    public IntObjectMap(int expectedSize) {
+        int entries = Math.max(MIN_CAPACITY, expectedSize);
+        keys = new int[entries];
+        values = new Object[entries];
+        allocateTable(tableSizeFor(entries));
+    }
+
+    /**
+     * Makes room for the given number of entries, so adding up to that many
+     * does not resize the map again.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize > keys.length) {
+            keys = Arrays.copyOf(keys, expectedSize);
+            values = Arrays.copyOf(values, expectedSize);
+        }
+        int length = tableSizeFor(expectedSize);
+        if (length > table.length) {
+            rehash(length);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     *
+     * @return The number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the map has no entries.
+     *
+     * @return true if the map is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the value stored for a key.
+     *
+     * @param key The key to look up.
+     * @return The value for the key, or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int entry = findEntry(key);
+        return entry < 0 ? null : (V) values[entry];
+    }
+
+    /**
+     * Checks if the map holds a value for a key.
+     *
+     * @param key The key to look up.
+     * @return true if the key is in the map, false otherwise.
+     */
+    public boolean containsKey(int key) {
+        return findEntry(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key, replacing any value already stored for it.
+     *
+     * @param key   The key.
+     * @param value The value, which must not be null.
+     * @return The value previously stored for the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntObjectMap does not hold null values");
+        }
+        int slot = findSlot(key);
+        if (table[slot] != 0) {
+            int entry = entryOf(table[slot]);
+            V old = (V) values[entry];
+            values[entry] = value;
+            return old;
+        }
+        insert(slot, key, value);
+        return null;
+    }
+
+    /**
+     * Stores a value for a key only if the key is not already in the map.
+     *
+     * @param key   The key.
+     * @param value The value, which must not be null.
+     * @return true if the value was stored, false if the key was already in the
+     *         map.
+     */
+    public boolean putIfAbsent(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntObjectMap does not hold null values");
+        }
+        int slot = findSlot(key);
+        if (table[slot] != 0) {
+            return false;
+        }
+        insert(slot, key, value);
+        return true;
+    }
+
+    /**
+     * Removes a key from the map.
+     * The last entry is moved into the gap, so removing changes the iteration
+     * order of that one entry.
+     *
+     * @param key The key to remove.
+     * @return The value that was stored for the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if (table[slot] == 0) {
+            return null;
+        }
+        int entry = entryOf(table[slot]);
+        V old = (V) values[entry];
+        deleteSlot(slot);
+
+        // Move the last entry into the free position to keep the arrays dense
+        int last = size - 1;
+        if (entry != last) {
+            keys[entry] = keys[last];
+            values[entry] = values[last];
+            table[findSlot(keys[entry])] = pack(keys[entry], entry);
+        }
+        values[last] = null;
+        size--;
+        return old;
+    }
+
+    /**
+     * Removes every entry from the map, keeping the allocated capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, 0L);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the position of a key in insertion order.
+     *
+     * @param key The key.
+     * @return The position, or -1 if the key is not in the map.
+     */
+    public int indexOf(int key) {
+        return findEntry(key);
+    }
+
+    /**
+     * Returns the key at a position in insertion order.
+     *
+     * @param index The position, from 0 to size() - 1.
+     * @return The key at that position.
+     */
+    public int keyAt(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * Returns the value at a position in insertion order.
+     * Together with size() this lets callers split the map into ranges.
+     *
+     * @param index The position, from 0 to size() - 1.
+     * @return The value at that position.
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        checkIndex(index);
+        return (V) values[index];
+    }
+
+    /**
+     * Returns an iterator over the values in insertion order.
+     *
+     * @return An iterator over the values.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (V) values[next++];
+            }
+        };
+    }
+
+    /**
+     * Returns the position of the entry for a key, or -1 if there is none.
+     */
+    private int findEntry(int key) {
+        int slot = hash(key) & mask;
+        long packed;
+        while ((packed = table[slot]) != 0) {
+            if (keyOf(packed) == key) {
+                return entryOf(packed);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot holding a key, or the free slot where it would go.
+     */
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        long packed;
+        while ((packed = table[slot]) != 0) {
+            if (keyOf(packed) == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Adds a new entry whose key belongs in the given free slot.
+     */
+    private void insert(int slot, int key, V value) {
+        if (size == keys.length) {
+            int newLength = keys.length + (keys.length >> 1);
+            keys = Arrays.copyOf(keys, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+        keys[size] = key;
+        values[size] = value;
+        table[slot] = pack(key, size);
+        size++;
+
+        // Grow the table once it is more than 3/4 full, so probe chains stay short
+        if (size > (table.length >> 2) * 3) {
+            rehash(table.length << 1);
+        }
+    }
+
+    /**
+     * Frees a slot, shifting back any later entries of the same probe chain so
+     * lookups never stop early at the gap (no tombstones are needed).
+     */
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        long packed;
+        while ((packed = table[next]) != 0) {
+            int home = hash(keyOf(packed)) & mask;
+            // Move the entry into the gap if its home slot is not between the gap and it
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = packed;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = 0;
+    }
+
+    /**
+     * Rebuilds the table with a new length.
+     */
+    private void rehash(int newLength) {
+        allocateTable(newLength);
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = pack(keys[i], i);
+        }
+    }
+
+    private void allocateTable(int length) {
+        table = new long[length];
+        mask = length - 1;
+    }
+
+    private static long pack(int key, int entry) {
+        return ((long) key << 32) | (entry + 1L);
+    }
+
+    private static int keyOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int entryOf(long packed) {
+        return (int) packed - 1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Returns the smallest power of two table length that keeps the given number
+     * of entries under the 3/4 load factor.
+     */
+    private static int tableSizeFor(int entries) {
+        long wanted = (long) entries * 4 / 3 + 1;
+        if (wanted > (1 << 30)) {
+            throw new IllegalArgumentException("IntObjectMap cannot hold " + entries + " entries");
+        }
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit((int) wanted - 1) << 1);
+    }
+
+    /**
+     * Spreads the bits of a key so that sequential account numbers do not
+     * cluster in the table (the finalisation step of MurmurHash3).
+     */
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
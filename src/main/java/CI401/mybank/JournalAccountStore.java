@@ -0,0 +1,282 @@
+package CI401.mybank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * The JournalAccountStore class keeps accounts.csv as a snapshot and appends
+ * every change to a write-ahead journal (accounts.journal) instead of
+ * rewriting the snapshot.
+ * Each journal record is one line holding a CRC32 checksum followed by the
+ * CSV rows of the accounts that changed, separated by ';'. So a transaction
+ * costs one small append however many accounts the bank holds.
+ * Once the journal holds as many records as there are accounts, it asks for a
+ * checkpoint, which compacts it into a new snapshot and truncates it. This
+ * keeps the snapshot cost at O(1) per transaction on average.
+ * On startup the snapshot is loaded and the journal replayed on top of it. A
+ * record torn by a crash fails its checksum and is discarded with anything
+ * after it.
+ * So that a record torn by a failed write never hides the records after it,
+ * the journal is cut back to the end of the last good record when a write
+ * fails, and refuses updates until a checkpoint has written a snapshot of
+ * every account.
+ */
+public class JournalAccountStore extends CsvAccountStore {
+    static final int MIN_COMPACT_RECORDS = 1000; // never compact more often than this
+
+    private final Path journalFile; // file holding the journal records
+    private final boolean fsync; // force every record to disk before returning
+    private FileChannel journal = null; // open journal, 'null' until loaded or after close
+    private int journalRecords = 0; // number of records since the last snapshot
+    private IOException failure = null; // the write error which stopped updates, or null
+
+    /**
+     * Constructor for the JournalAccountStore class.
+     * Records are forced to disk on every write if the "mybank.journal.fsync"
+     * system property is "true".
+     *
+     * @param accountsFile The CSV snapshot file.
+     * @param journalFile  The journal file.
+     */
+    public JournalAccountStore(String accountsFile, String journalFile) {
+        this(accountsFile, journalFile, Boolean.getBoolean("mybank.journal.fsync"));
+    }
+
+    /**
+     * Constructor for the JournalAccountStore class.
+     *
+     * @param accountsFile The CSV snapshot file.
+     * @param journalFile  The journal file.
+     * @param fsync        true to force every record to disk before returning.
+     */
+    public JournalAccountStore(String accountsFile, String journalFile, boolean fsync) {
+        super(accountsFile);
+        this.journalFile = Paths.get(journalFile);
+        this.fsync = fsync;
+    }
+
+    /**
+     * Loads the snapshot, replays the journal on top of it, and opens the
+     * journal for appending.
+     *
+     * @param accounts The index to load the accounts into.
+     * @throws IOException if the snapshot or journal could not be read.
+     */
+    @Override
+    public synchronized void load(IntObjectMap<BankAccount> accounts) throws IOException {
+        super.load(accounts);
+        long validLength = replay(accounts);
+        Debug.trace("JournalAccountStore::load: Replayed %d journal records", journalRecords);
+
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (journal.size() > validLength) {
+            // Drop a torn record left by a crash so new records follow the last good one
+            Debug.trace("JournalAccountStore::load: Discarding %d bytes of torn journal", journal.size() - validLength);
+            journal.truncate(validLength);
+        }
+        journal.position(validLength);
+    }
+
+    /**
+     * Appends one journal record holding the given accounts.
+     *
+     * @param changed The accounts to persist.
+     * @throws IOException if the record could not be written.
+     */
+    @Override
+    public synchronized void update(BankAccount... changed) throws IOException {
+        if (journal == null) {
+            throw new IOException("Journal is not open");
+        }
+        if (failure != null) {
+            throw new IOException("Journal stopped after a write error", failure);
+        }
+        StringBuilder rows = new StringBuilder();
+        for (BankAccount a : changed) {
+            if (rows.length() > 0) {
+                rows.append(';');
+            }
+            rows.append(formatAccount(a));
+        }
+        ByteBuffer record = encodeRecord(rows.toString());
+        int bytes = record.remaining();
+        BankEvents.AccountStoreWriteEvent event = new BankEvents.AccountStoreWriteEvent();
+        event.begin();
+        boolean ok = false;
+        long goodLength = journal.position();
+        try {
+            while (record.hasRemaining()) {
+                write(record);
+            }
+            if (fsync) {
+                journal.force(false);
+            }
+            ok = true;
+        } catch (IOException e) {
+            failure = e;
+            Debug.error("JournalAccountStore::update: Error writing the journal, no more updates until a checkpoint: %s",
+                    e.getMessage());
+            try {
+                journal.truncate(goodLength);
+                journal.position(goodLength);
+            } catch (IOException truncateError) {
+                Debug.error("JournalAccountStore::update: Could not cut %s back to %d: %s", journalFile, goodLength,
+                        truncateError.getMessage());
+            }
+            throw e;
+        } finally {
+            BankEvents.commit(event, this, "update", changed.length, bytes, ok);
+        }
+        bytesWritten += bytes;
+        journalRecords++;
+    }
+
+    /**
+     * Writes bytes of a record to the journal at its position.
+     *
+     * @return The number of bytes written.
+     */
+    int write(ByteBuffer record) throws IOException {
+        return journal.write(record);
+    }
+
+    /**
+     * Checks if the journal holds as many records as there are accounts, in
+     * which case it is time to compact it into a new snapshot.
+     *
+     * @return true if the journal should be compacted.
+     */
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        return journalRecords >= Math.max(MIN_COMPACT_RECORDS, accounts.size());
+    }
+
+    /**
+     * Writes a new snapshot, which holds the changed accounts, rather than a
+     * journal record as large as a snapshot.
+     *
+     * @param changed The accounts to persist (all accounts are written).
+     * @throws IOException if the snapshot could not be written.
+     */
+    @Override
+    public synchronized void updateBatch(BankAccount... changed) throws IOException {
+        checkpoint();
+    }
+
+    /**
+     * Writes a new snapshot and truncates the journal.
+     * If a crash happens between the two, the next load replays records the
+     * snapshot already holds, which gives the same result. Once the snapshot
+     * is written, a journal stopped by a write error takes updates again.
+     *
+     * @throws IOException if the snapshot could not be written.
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        Debug.trace("JournalAccountStore::checkpoint: Compacting %d journal records", journalRecords);
+        super.checkpoint();
+        if (journal != null) {
+            journal.truncate(0);
+            journal.position(0);
+            if (fsync) {
+                journal.force(false);
+            }
+        }
+        journalRecords = 0;
+        failure = null;
+    }
+
+    /**
+     * Compacts the journal and closes it.
+     *
+     * @throws IOException if the snapshot could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            try {
+                checkpoint();
+            } finally {
+                journal.close();
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * Applies every valid journal record to the accounts.
+     *
+     * @return The length of the journal up to the end of the last valid record.
+     */
+    private long replay(IntObjectMap<BankAccount> accounts) throws IOException {
+        journalRecords = 0;
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+        long validLength = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(journalFile))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String rows = decodeRecord(line.toString("UTF-8"));
+                if (rows == null) {
+                    break; // checksum failure, nothing after this can be trusted
+                }
+                for (String row : rows.split(";")) {
+                    try {
+                        BankAccount a = parseAccount(row);
+                        accounts.put(a.accNumber, a);
+                    } catch (RuntimeException e) {
+                        Debug.warn("JournalAccountStore::replay: Error parsing account data: %s", e.getMessage());
+                    }
+                }
+                journalRecords++;
+                validLength += line.size() + 1;
+                line.reset();
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Encodes rows as a journal record: the CRC32 of the rows in hex, a space,
+     * the rows and a newline.
+     */
+    static ByteBuffer encodeRecord(String rows) {
+        byte[] payload = rows.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        String checksum = String.format("%08x ", crc.getValue());
+        ByteBuffer record = ByteBuffer.allocate(checksum.length() + payload.length + 1);
+        record.put(checksum.getBytes(StandardCharsets.US_ASCII)).put(payload).put((byte) '\n');
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Checks a journal record line against its checksum.
+     *
+     * @return The rows held by the record, or null if the record is corrupt.
+     */
+    static String decodeRecord(String line) {
+        if (line.length() < 10 || line.charAt(8) != ' ') {
+            return null;
+        }
+        String rows = line.substring(9);
+        CRC32 crc = new CRC32();
+        crc.update(rows.getBytes(StandardCharsets.UTF_8));
+        try {
+            return Long.parseLong(line.substring(0, 8), 16) == crc.getValue() ? rows : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package CI401.mybank;
+
+/**
+ * This class records latencies in nanoseconds and reports their percentiles.
+ * Like HdrHistogram, values are counted in buckets whose width grows with the
+ * value, so every value is kept to within 1/64 (about 1.6%) of its true size
+ * whatever its magnitude, in a fixed amount of memory.
+ * A histogram is not thread safe. Give each thread its own, and add them
+ * together once the threads have finished.
+ */
+
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7; // values below 2^7 are counted exactly
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2; // buckets in each power of two above SUB_BUCKETS
+    static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0; // the number of values recorded
+    private long sum = 0; // the sum of the values recorded, for the mean
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Records a value.
+     *
+     * @param nanos The latency in nanoseconds, negative values count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all the values recorded by another histogram to this one.
+     *
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Adds values counted elsewhere, bucket by bucket, such as by a histogram
+     * shared between threads.
+     *
+     * @param bucketCounts The number of values in each bucket.
+     * @param valueSum     The sum of the values.
+     * @param valueMin     The smallest value.
+     * @param valueMax     The largest value.
+     */
+    void add(long[] bucketCounts, long valueSum, long valueMin, long valueMax) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += bucketCounts[i];
+            total += bucketCounts[i];
+        }
+        sum += valueSum;
+        min = Math.min(min, valueMin);
+        max = Math.max(max, valueMax);
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The number of values.
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The largest value, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the smallest value recorded.
+     *
+     * @return The smallest value, or 0 if nothing has been recorded.
+     */
+    public long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean, or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * Gets the value at a percentile: the value which that percentage of the
+     * recorded values are no larger than, give or take the bucket width.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The value, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                // The top of the bucket, but never beyond what was actually seen
+                return Math.max(min, Math.min(max, highestValueIn(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Finds the bucket a value is counted in.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Shift the value down until it lies in [HALF, SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * Finds the largest value counted in a bucket.
+     */
+    static long highestValueIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long lowest = (long) ((index - SUB_BUCKETS) % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -5,6 +5,13 @@ package CI401.mybank;
  * on the number of withdrawals per day.
  * It extends the BankAccount class and overrides the withdraw method to enforce
  * the limit.
+ * The number of withdrawals made today is kept in the counter half of the
+ * account state, together with the day it was counted on (days since
+ * 1970-01-01, in the system's time zone), so a withdrawal changes the
+ * balance, the count and the day in one compare-and-set. A count from an
+ * earlier day is simply treated as 0: the first withdrawal of a new day
+ * starts the count again, and nothing has to visit every account at
+ * midnight. The count and its day are persisted with the account.
  */
 
 public class LimitedWithdrawalBankAccount extends BankAccount {
@@ -14,11 +21,8 @@ public class LimitedWithdrawalBankAccount extends BankAccount {
 
     protected static final int MAX_WITHDRAWALS_PER_DAY = 3;
 
-    /**
-     * The number of withdrawals made today.
-     */
-
-    protected int withdrawalsToday;
+    private static final int COUNT_BITS = 8; // the low bits of the counter hold the count, the rest the day
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
 
     /**
      * Constructor for the LimitedWithdrawalBankAccount class.
@@ -32,11 +36,52 @@ public class LimitedWithdrawalBankAccount extends BankAccount {
      */
 
     public LimitedWithdrawalBankAccount(int accNumber, String accPasswd, int balance) {
-        super(accNumber, accPasswd, balance); // Call the constructor of the superclass (BankAccount)
-        this.withdrawalsToday = 0; // Initialize the number of withdrawals made today to 0
+        super(accNumber, accPasswd, balance); // Call the constructor of the superclass (BankAccount), no withdrawals made today
         this.accountType = "limited"; // Set the account type to "limited"
     }
 
+    /**
+     * Constructor for the LimitedWithdrawalBankAccount class, for an account
+     * which has already made withdrawals today.
+     *
+     * @param accNumber        The account number.
+     * @param accPasswd        The password.
+     * @param balance          The balance.
+     * @param withdrawalsToday The number of withdrawals made today.
+     */
+
+    public LimitedWithdrawalBankAccount(int accNumber, String accPasswd, int balance, int withdrawalsToday) {
+        this(accNumber, accPasswd, balance, withdrawalsToday, DateTimeUtils.today());
+    }
+
+    /**
+     * Constructor for the LimitedWithdrawalBankAccount class, for an account
+     * whose withdrawals were counted on a given day, as it was saved.
+     *
+     * @param accNumber   The account number.
+     * @param accPasswd   The password.
+     * @param balance     The balance.
+     * @param withdrawals The number of withdrawals made on the day.
+     * @param day         The day, in days since 1970-01-01.
+     */
+
+    public LimitedWithdrawalBankAccount(int accNumber, String accPasswd, int balance, int withdrawals, int day) {
+        this(accNumber, accPasswd, balance);
+        compareAndSetState(getState(), pack(balance, counter(withdrawals, day)));
+    }
+
+    private static int counter(int withdrawals, int day) {
+        return day << COUNT_BITS | Math.min(Math.max(withdrawals, 0), COUNT_MASK);
+    }
+
+    private static int withdrawalsOf(int counter) {
+        return counter & COUNT_MASK;
+    }
+
+    private static int dayOf(int counter) {
+        return counter >>> COUNT_BITS;
+    }
+
     /**
      * Returns the number of withdrawals left for the day.
      *
@@ -44,7 +89,70 @@ public class LimitedWithdrawalBankAccount extends BankAccount {
      */
 
     public int getWithdrawalsLeft() {
-        return MAX_WITHDRAWALS_PER_DAY - withdrawalsToday;
+        return MAX_WITHDRAWALS_PER_DAY - getWithdrawalsToday();
+    }
+
+    /**
+     * Returns the number of withdrawals made today.
+     *
+     * @return The number of withdrawals made today.
+     */
+
+    public int getWithdrawalsToday() {
+        return getWithdrawalsOn(DateTimeUtils.today());
+    }
+
+    /**
+     * Returns the number of withdrawals made on a day. A count from an
+     * earlier day does not count.
+     *
+     * @param day The day, in days since 1970-01-01.
+     * @return The number of withdrawals made on the day.
+     */
+
+    int getWithdrawalsOn(int day) {
+        int counter = counterOf(getState());
+        return dayOf(counter) >= day ? withdrawalsOf(counter) : 0;
+    }
+
+    /**
+     * Returns the number of withdrawals as last counted, whatever day that
+     * was, for saving the account.
+     *
+     * @return The number of withdrawals counted.
+     */
+
+    int getWithdrawalCount() {
+        return withdrawalsOf(counterOf(getState()));
+    }
+
+    /**
+     * Returns the day the withdrawals were last counted on, for saving the
+     * account.
+     *
+     * @return The day, in days since 1970-01-01.
+     */
+
+    int getWithdrawalDay() {
+        return dayOf(counterOf(getState()));
+    }
+
+    /**
+     * Replaces the withdrawal count and its day, keeping the balance. This is
+     * used when an account is changed outside the bank, see
+     * BankAccount.setBalance.
+     *
+     * @param withdrawals The number of withdrawals made on the day.
+     * @param day         The day, in days since 1970-01-01.
+     */
+
+    void setWithdrawals(int withdrawals, int day) {
+        while (true) {
+            long current = getState();
+            if (compareAndSetState(current, pack(balanceOf(current), counter(withdrawals, day)))) {
+                return;
+            }
+        }
     }
 
     /**
@@ -59,15 +167,39 @@ public class LimitedWithdrawalBankAccount extends BankAccount {
 
     @Override
     public boolean withdraw(int amount) {
-        Debug.trace("LimitedWithdrawalBankAccount::withdraw: amount =" + amount);
-
-        if (amount < 0 || withdrawalsToday >= MAX_WITHDRAWALS_PER_DAY || balance < amount) {
-            return false;
-        } else {
-            balance -= amount; // subtract amount from balance
-            withdrawalsToday++;
-            System.out.println("\n" + withdrawalsToday + "\n");
-            return true;
+        return withdraw(amount, DateTimeUtils.today());
+    }
+
+    /**
+     * Withdraws a certain amount of money from the account on a given day,
+     * starting the count again if the last withdrawal was on an earlier day.
+     * If the clock has gone back to an earlier day than the count's, the
+     * count's day is kept.
+     *
+     * @param amount The amount of money to be withdrawn.
+     * @param today  The day, in days since 1970-01-01.
+     * @return true if the withdrawal was successful, false otherwise.
+     */
+
+    boolean withdraw(int amount, int today) {
+        Debug.trace("LimitedWithdrawalBankAccount::withdraw: amount =%d", amount);
+
+        while (true) {
+            long current = getState();
+            int balance = balanceOf(current);
+            int counter = counterOf(current);
+            int day = Math.max(today, dayOf(counter));
+            int withdrawalsToday = dayOf(counter) == day ? withdrawalsOf(counter) : 0;
+            if (amount < 0 || withdrawalsToday >= MAX_WITHDRAWALS_PER_DAY || balance < amount) {
+                return false;
+            }
+            // subtract amount from balance and count the withdrawal together, retry if
+            // the state changed since it was read
+            if (compareAndSetState(current, pack(balance - amount, counter(withdrawalsToday + 1, day)))) {
+                Debug.trace("LimitedWithdrawalBankAccount::withdraw: withdrawal %d of %d today", withdrawalsToday + 1,
+                        MAX_WITHDRAWALS_PER_DAY);
+                return true;
+            }
         }
     }
 }
\ No newline at end of file
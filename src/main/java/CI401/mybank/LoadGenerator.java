@@ -0,0 +1,496 @@
+package CI401.mybank;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A headless load generator for the ATM. It simulates a number of ATM
+ * terminals at once, each with its own Model, pressing the same buttons a
+ * customer would (the action strings the Controller passes to Model.process)
+ * against one shared Bank. Each session logs in, runs
+ * either a fixed script of operations or a random mix of them, and logs out.
+ * The latency of every operation is recorded, and the throughput and latency
+ * percentiles of each kind of operation are reported at the end.
+ * JavaFX is never started, so it runs on a plain Linux box, e.g.
+ * java -cp target/atm-test-two-1.0-SNAPSHOT-shaded.jar CI401.mybank.LoadGenerator --terminals 8 --data /tmp/load
+ * See main for the options.
+ */
+
+public class LoadGenerator {
+
+    /**
+     * The operations a session is made of.
+     */
+    public enum Operation {
+        LOGIN, BALANCE, DEPOSIT, WITHDRAW, TRANSFER, STATEMENT, LOGOUT
+    }
+
+    static final int FIRST_ACCOUNT = 100000; // account numbers used by the load generator start here
+    static final int MAX_AMOUNT = 50; // amounts are picked between 1 and this
+
+    private final Bank bank; // the bank shared by every terminal
+    private final int[] accounts; // the accounts the sessions log in to and transfer to
+    private final String password; // the password of every account
+    private Operation[] script = null; // the operations of every session in order, 'null' for a random mix
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class); // weights of the random mix
+
+    /**
+     * Constructor for the LoadGenerator class. Sessions use a random mix of
+     * operations, weighted towards balance checks, until setScript or setMix
+     * is called.
+     *
+     * @param bank     The bank the terminals share.
+     * @param accounts The account numbers to log in to, which all have the
+     *                 same password.
+     * @param password The password of the accounts.
+     */
+    public LoadGenerator(Bank bank, int[] accounts, String password) {
+        this.bank = bank;
+        this.accounts = accounts.clone();
+        this.password = password;
+        mix.put(Operation.BALANCE, 30);
+        mix.put(Operation.DEPOSIT, 20);
+        mix.put(Operation.WITHDRAW, 20);
+        mix.put(Operation.TRANSFER, 15);
+        mix.put(Operation.STATEMENT, 15);
+    }
+
+    /**
+     * Makes every session run the same operations in order, between logging in
+     * and logging out.
+     *
+     * @param operations The operations, which must not include LOGIN or LOGOUT.
+     */
+    public void setScript(Operation... operations) {
+        for (Operation operation : operations) {
+            if (operation == Operation.LOGIN || operation == Operation.LOGOUT) {
+                throw new IllegalArgumentException("every session logs in and out, they cannot be scripted");
+            }
+        }
+        script = operations.clone();
+    }
+
+    /**
+     * Makes every session run randomly picked operations, between logging in
+     * and logging out.
+     *
+     * @param weights How often each operation is picked, relative to the
+     *                others. Operations left out are never picked.
+     */
+    public void setMix(Map<Operation, Integer> weights) {
+        int total = 0;
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            if (weight.getKey() == Operation.LOGIN || weight.getKey() == Operation.LOGOUT || weight.getValue() < 0) {
+                throw new IllegalArgumentException("invalid weight for " + weight.getKey() + ": " + weight.getValue());
+            }
+            total += weight.getValue();
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("the mix has no operations");
+        }
+        mix.clear();
+        mix.putAll(weights);
+        script = null;
+    }
+
+    /**
+     * Runs the load, with each terminal on its own thread.
+     *
+     * @param terminals            The number of terminals.
+     * @param sessionsPerTerminal  The number of sessions each terminal runs.
+     * @param operationsPerSession The number of operations in a session with
+     *                             a random mix, scripted sessions run the
+     *                             script once.
+     * @param seed                 The seed of the random choices, each
+     *                             terminal uses its own seed derived from it.
+     * @return The latencies of the operations.
+     * @throws InterruptedException If interrupted while waiting for the
+     *                              terminals.
+     */
+    public Report run(int terminals, int sessionsPerTerminal, int operationsPerSession, long seed)
+            throws InterruptedException {
+        Debug.trace("LoadGenerator::run: %d terminals, %d sessions each", terminals, sessionsPerTerminal);
+        List<Callable<Report>> work = new ArrayList<>(terminals);
+        for (int t = 0; t < terminals; t++) {
+            long terminalSeed = seed * 31 + t;
+            work.add(() -> runTerminal(sessionsPerTerminal, operationsPerSession, new Random(terminalSeed)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(terminals);
+        Report report = new Report();
+        long start = System.nanoTime();
+        try {
+            for (Future<Report> terminal : executor.invokeAll(work)) {
+                report.add(terminal.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("a terminal failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        report.terminals = terminals;
+        return report;
+    }
+
+    /**
+     * Runs the sessions of one terminal.
+     */
+    private Report runTerminal(int sessions, int operationsPerSession, Random random) {
+        Report report = new Report();
+        Session session = bank.newSession();
+        Terminal terminal = new Terminal();
+        for (int s = 0; s < sessions; s++) {
+            int accNumber = accounts[random.nextInt(accounts.length)];
+            long start = System.nanoTime();
+            boolean loggedIn = session.login(accNumber, password);
+            report.record(Operation.LOGIN, start);
+            if (!loggedIn) {
+                report.failedLogins++;
+                continue;
+            }
+
+            // A new Model for each login, as the login window makes
+            Model model = new Model(session);
+            model.setListener(terminal);
+            terminal.model = model;
+            model.setAccount(accNumber, password);
+
+            int count = script != null ? script.length : operationsPerSession;
+            for (int i = 0; i < count; i++) {
+                Operation operation = script != null ? script[i] : pick(random);
+                start = System.nanoTime();
+                perform(terminal, operation, random);
+                report.record(operation, start);
+                // Nothing should be left half done, but never let one operation leak into the next
+                if (model.getState() != AtmState.LOGGED_IN) {
+                    terminal.process("CANCEL");
+                }
+            }
+
+            start = System.nanoTime();
+            terminal.process("LOGOUT");
+            report.record(Operation.LOGOUT, start);
+        }
+        return report;
+    }
+
+    /**
+     * Picks an operation from the random mix.
+     */
+    private Operation pick(Random random) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int choice = random.nextInt(total);
+        for (Map.Entry<Operation, Integer> weight : mix.entrySet()) {
+            choice -= weight.getValue();
+            if (choice < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("empty mix");
+    }
+
+    /**
+     * Presses the buttons of one operation on a terminal.
+     */
+    private void perform(Terminal terminal, Operation operation, Random random) {
+        int amount = 1 + random.nextInt(MAX_AMOUNT);
+        switch (operation) {
+            case BALANCE:
+                terminal.process("BALANCE");
+                break;
+            case DEPOSIT:
+                terminal.process("DEPOSIT");
+                terminal.type(amount);
+                terminal.process("ENTER");
+                break;
+            case WITHDRAW:
+                terminal.process("WITHDRAW");
+                terminal.type(amount);
+                terminal.process("ENTER");
+                break;
+            case TRANSFER:
+                int target = accounts[random.nextInt(accounts.length)];
+                terminal.process("TRANSFER");
+                terminal.type(target);
+                terminal.process("ENTER");
+                terminal.type(amount);
+                terminal.process("ENTER");
+                break;
+            case STATEMENT:
+                terminal.process("STATEMENT");
+                break;
+            default:
+                throw new IllegalArgumentException("not a session operation: " + operation);
+        }
+    }
+
+    /**
+     * A terminal without a window. What would be shown on the screen is kept
+     * in fields, and logging out leaves the shared bank open.
+     */
+    static class Terminal implements DisplayListener {
+        Model model; // the model of the current session
+        String message = ""; // what the message field would show
+        String reply = ""; // what the reply area would show
+
+        @Override
+        public void update(String output1, String output2) {
+            message = output1;
+            reply = output2;
+        }
+
+        /**
+         * Presses a button.
+         */
+        void process(String action) {
+            model.process(action);
+        }
+
+        /**
+         * Presses the digit buttons of a number, one at a time.
+         */
+        void type(int number) {
+            String digits = Integer.toString(number);
+            for (int i = 0; i < digits.length(); i++) {
+                process(String.valueOf(digits.charAt(i)));
+            }
+        }
+    }
+
+    /**
+     * The latencies of the operations run by one or more terminals.
+     */
+    public static class Report {
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        int failedLogins = 0; // logins turned away, either by a wrong password or a busy password verifier
+        long elapsedNanos = 0; // how long the run took
+        int terminals = 1; // how many terminals ran
+
+        Report() {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+            }
+        }
+
+        private void record(Operation operation, long startNanos) {
+            latencies.get(operation).record(System.nanoTime() - startNanos);
+        }
+
+        private void add(Report other) {
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).add(other.latencies.get(operation));
+            }
+            failedLogins += other.failedLogins;
+        }
+
+        /**
+         * Gets the latencies of one kind of operation.
+         *
+         * @param operation The operation.
+         * @return The latencies, in nanoseconds.
+         */
+        public LatencyHistogram getLatencies(Operation operation) {
+            return latencies.get(operation);
+        }
+
+        /**
+         * Gets the number of logins which failed.
+         *
+         * @return The number of failed logins.
+         */
+        public int getFailedLogins() {
+            return failedLogins;
+        }
+
+        /**
+         * Gets the number of operations of every kind run per second.
+         *
+         * @return The throughput.
+         */
+        public double getThroughput() {
+            long total = 0;
+            for (LatencyHistogram histogram : latencies.values()) {
+                total += histogram.getCount();
+            }
+            return elapsedNanos == 0 ? 0 : total * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Prints the throughput, and the throughput and latency percentiles of
+         * each kind of operation in microseconds.
+         *
+         * @param out Where to print the report.
+         */
+        public void print(PrintStream out) {
+            out.printf("%d terminals, %.1f s, %.0f ops/s, %d failed logins%n", terminals, elapsedNanos / 1e9,
+                    getThroughput(), failedLogins);
+            out.printf("%-10s %9s %9s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "mean us",
+                    "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram h = latencies.get(operation);
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                out.printf("%-10s %9d %9.0f %10.0f %10.0f %10.0f %10.0f %10.0f %10.0f%n", operation, h.getCount(),
+                        h.getCount() * 1e9 / Math.max(1, elapsedNanos), h.getMean() / 1e3,
+                        h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                        h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the data directory has the accounts the load generator logs
+     * in to, numbered from FIRST_ACCOUNT, adding any which are missing with
+     * the given password and a balance of £1000.
+     *
+     * @param bank     The bank.
+     * @param count    The number of accounts.
+     * @param password The password of the accounts.
+     * @return The account numbers.
+     */
+    public static int[] createAccounts(Bank bank, int count, String password) {
+        // One hash serves every account, bcrypt is too slow to hash thousands of them
+        String hash = SecurityUtils.hashPassword(password);
+        int[] accounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = FIRST_ACCOUNT + i;
+            if (bank.findAccount(accounts[i]) == null) {
+                bank.addBankAccount(new BankAccount(accounts[i], hash, 1000));
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Runs the load generator from the command line. The options are:
+     * --data DIR          the data directory, shared with anything else using it
+     *                     (default a new temporary directory)
+     * --terminals N       the number of terminals (default 4)
+     * --sessions N        the number of sessions each terminal runs (default 20)
+     * --ops N             the number of operations in a random session (default 10)
+     * --accounts N        the number of accounts to use (default 100)
+     * --password TEXT     the password of the accounts (default "password")
+     * --cost N            the bcrypt cost of the account passwords (default calibrated)
+     * --mix OP=W,...      the weights of the random mix, e.g. balance=30,withdraw=20
+     * --script OP,...     run these operations in order instead of a random mix
+     * --seed N            the seed of the random choices (default 1)
+     *
+     * @param args The options.
+     * @throws Exception If the data directory cannot be used.
+     */
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        String data = null;
+        int terminals = 4;
+        int sessions = 20;
+        int operations = 10;
+        int accountCount = 100;
+        String password = "password";
+        String mix = null;
+        String script = null;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--data":
+                    data = value;
+                    break;
+                case "--terminals":
+                    terminals = Integer.parseInt(value);
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(value);
+                    break;
+                case "--ops":
+                    operations = Integer.parseInt(value);
+                    break;
+                case "--accounts":
+                    accountCount = Integer.parseInt(value);
+                    break;
+                case "--password":
+                    password = value;
+                    break;
+                case "--cost":
+                    SecurityUtils.setCost(Integer.parseInt(value));
+                    break;
+                case "--mix":
+                    mix = value;
+                    break;
+                case "--script":
+                    script = value;
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        if (data == null) {
+            data = Files.createTempDirectory("atm-load").toString();
+        } else {
+            Files.createDirectories(Paths.get(data));
+        }
+
+        // Keep the console for the report, the accounts still print from their withdraw methods
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Bank bank = new Bank(data);
+        LoadGenerator generator = new LoadGenerator(bank, createAccounts(bank, accountCount, password), password);
+        if (script != null) {
+            generator.setScript(parseScript(script));
+        } else if (mix != null) {
+            generator.setMix(parseMix(mix));
+        }
+        out.printf("data directory %s, %d accounts, %d cores%n", data, accountCount,
+                Runtime.getRuntime().availableProcessors());
+        Report report = generator.run(terminals, sessions, operations, seed);
+        bank.close();
+        report.print(out);
+    }
+
+    /**
+     * Parses a script such as "balance,withdraw,statement".
+     */
+    static Operation[] parseScript(String script) {
+        String[] names = script.split(",");
+        Operation[] operations = new Operation[names.length];
+        for (int i = 0; i < names.length; i++) {
+            operations[i] = Operation.valueOf(names[i].trim().toUpperCase());
+        }
+        return operations;
+    }
+
+    /**
+     * Parses a mix such as "balance=30,withdraw=20".
+     */
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("expected OPERATION=WEIGHT: " + entry);
+            }
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
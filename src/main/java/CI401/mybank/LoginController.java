@@ -2,9 +2,11 @@ package CI401.mybank;
 
 import java.net.URL;
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
 import javafx.event.ActionEvent;
@@ -13,6 +15,7 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
@@ -31,9 +34,15 @@ public class LoginController {
     @FXML
     private PasswordField passwordField;
 
+    @FXML
+    private Label statusLabel;
+
     /**
      * Handles the login action when the login button is pressed.
-     * It gets the account number and password from the text fields, and attempts to log in.
+     * It gets the account number and password from the text fields, and starts
+     * checking them on the bank's password verifier, so the window stays
+     * responsive while bcrypt runs. The form is disabled and a progress message
+     * shown until the check completes.
      * If login is successful, it loads the main ATM scene and sets up the model, view, and controller.
      * If login fails, it shows an error alert.
      *
@@ -45,58 +54,136 @@ public class LoginController {
         // Get the account number and password from the text fields
         String accountNumber = accountField.getText();
         String password = passwordField.getText();
-        
-        // Create a Bank object
-        Bank b = new Bank();
-        if (b.login(Integer.parseInt(accountNumber), password)) {
-            try {
-                URL url = getClass().getResource("/CI401/mybank/atm.fxml");
-                if (url == null) {
-                    System.err.println("Unable to load 'atm.fxml'.");
-                    return;
-                }
-
-                FXMLLoader loader = new FXMLLoader(url);
-                loader.setController(controller); // Set the controller
-                // Load FXML scene
-                Parent root = loader.load();
-
-                Scene scene = new Scene(root);
-                Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
-                stage.setScene(scene);
-                stage.centerOnScreen();
-                stage.setTitle("ATM");
-                stage.show();
-                stage.setResizable(false);
-
-                Model model = new Model(b); // the model needs the Bank object to 'talk to' the bank
-                View view = new View();
-
-                // Set the model and view for the controller
-                controller.setModel(model);
-                controller.setView(view, stage);
-                controller.initialise();
-
-                // Set the controller for the model and view
-                model.setController(controller);
-                view.setController(controller);
-
-                // Set the state of the model and the account.
-                model.setAccount(Integer.parseInt(accountNumber), password);
-                controller.update("Welcome to the ATM", "");
+        // Check the account number is a number before connecting or disabling the form
+        int accNumber;
+        try {
+            accNumber = Integer.parseInt(accountNumber);
+        } catch (NumberFormatException e) {
+            Debug.trace("LoginController::handleLoginAction:: Account number is not a number: %s", accountNumber);
+            showLoginError("Invalid account number or password.");
+            return;
+        }
 
+        // Open a session, either with the ATM server given by the "mybank.server"
+        // system property, or on the Bank shared by the whole process, which is
+        // only loaded once
+        Session session;
+        Closeable connection;
+        String server = System.getProperty("mybank.server");
+        if (server != null) {
+            try {
+                RemoteSession remote = RemoteSession.connect(server);
+                session = remote;
+                connection = remote;
             } catch (IOException e) {
-                e.printStackTrace();
+                Debug.warn("LoginController::handleLoginAction:: cannot reach %s: %s", server, e.getMessage());
+                showLoginError("The bank cannot be reached, please try again in a moment.");
+                return;
             }
         } else {
-            Debug.trace("LoginController::handleLoginAction:: Login failed for account number: " + accountNumber);
-
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Login Error");
-            alert.setHeaderText("Login failed");
-            alert.setContentText("Invalid account number or password.");
-            // Waits for the user to close the alert before continuing the program
-            alert.showAndWait();
+            Session local = Bank.shared().newSession();
+            session = local;
+            connection = local::logout; // the shared bank stays open for the next login
+        }
+        setVerifying(true);
+        // When the check completes, go back to the JavaFX application thread to update the window
+        session.loginAsync(accNumber, password).whenComplete((loggedIn, error) -> Platform.runLater(() -> {
+            setVerifying(false);
+            if (error == null && loggedIn) {
+                showAtm(event, session, connection, accountNumber, password);
+            } else {
+                close(connection);
+                Debug.trace("LoginController::handleLoginAction:: Login failed for account number: %s", accountNumber);
+                // A check turned away by a busy verifier says nothing about the password
+                showLoginError(error == null ? "Invalid account number or password."
+                        : "The bank is busy, please try again in a moment.");
+            }
+        }));
+    }
+
+    /**
+     * Shows or clears the progress state of the login form. While the password
+     * is being checked the form is disabled, so it cannot be sent twice.
+     *
+     * @param verifying true while the password is being checked.
+     */
+    private void setVerifying(boolean verifying) {
+        loginButton.setDisable(verifying);
+        accountField.setDisable(verifying);
+        passwordField.setDisable(verifying);
+        statusLabel.setText(verifying ? "Checking your details..." : "");
+    }
+
+    /**
+     * Loads the main ATM scene once logged in, and sets up the model, view, and
+     * controller.
+     */
+    private void showAtm(ActionEvent event, Session session, Closeable connection, String accountNumber,
+            String password) {
+        try {
+            URL url = getClass().getResource("/CI401/mybank/atm.fxml");
+            if (url == null) {
+                System.err.println("Unable to load 'atm.fxml'.");
+                return;
+            }
+
+            FXMLLoader loader = new FXMLLoader(url);
+            loader.setController(controller); // Set the controller
+            // Load FXML scene
+            Parent root = loader.load();
+
+            Scene scene = new Scene(root);
+            Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
+            stage.setScene(scene);
+            stage.centerOnScreen();
+            stage.setTitle("ATM");
+            stage.show();
+            stage.setResizable(false);
+
+            Model model = new Model(session); // the model needs the session to 'talk to' the bank
+            View view = new View();
+
+            // Set the model and view for the controller
+            controller.setModel(model);
+            controller.setView(view, stage);
+            controller.setConnection(connection);
+            controller.initialise();
+
+            // Set the controller for the model and view
+            model.setListener(controller);
+            view.setController(controller);
+
+            // Set the state of the model and the account.
+            model.setAccount(Integer.parseInt(accountNumber), password);
+            controller.update("Welcome to the ATM", "");
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the session or server connection of a failed login.
+     */
+    private void close(Closeable connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            Debug.trace("LoginController::close: %s", e.getMessage());
         }
     }
+
+    /**
+     * Shows a login error alert.
+     *
+     * @param text The reason the login failed.
+     */
+    private void showLoginError(String text) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Login Error");
+        alert.setHeaderText("Login failed");
+        alert.setContentText(text);
+        // Waits for the user to close the alert before continuing the program
+        alert.showAndWait();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,485 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedAccountStore class keeps the accounts in a binary file
+ * (accounts.dat) of fixed-width records, which is memory mapped. A change
+ * rewrites the records of the accounts that changed in place, and startup
+ * reads the records straight out of the mapped file instead of parsing text.
+ *
+ * The file starts with a 1024 byte header: a magic number, the format
+ * version, the record size, the number of records, and room for a pending
+ * update of up to MAX_PENDING records. Then come the records, one per
+ * account, each RECORD_BYTES long:
+ *
+ * offset  size  field
+ * 0       4     account number
+ * 4       1     account type (0 normal, 1 overdraft, 2 limited)
+ * 5       1     length of the password hash
+ * 6       64    password hash, US-ASCII
+ * 70      4     balance
+ * 74      4     overdraft limit
+ * 78      4     withdrawals counted on the withdrawal day
+ * 82      4     withdrawal day, in days since 1970-01-01
+ * 86      10    reserved, zero
+ *
+ * All numbers are big-endian. An update first copies the new records into
+ * the pending area and sets the pending count, then writes the records in
+ * place and clears the count. If the process dies part way through, the
+ * next load finds the pending records and writes them again, so a transfer
+ * is never half persisted. The file is only forced to disk at a checkpoint
+ * and on close, unless "mybank.mapped.force" is "true", so a power cut may
+ * lose the last changes the operating system had not yet written.
+ * A single mapping can be at most 2GB, which limits the file to about 22
+ * million accounts.
+ */
+public class MappedAccountStore implements AccountStore {
+    static final int MAGIC = 0x41544d41; // "ATMA"
+    static final int VERSION = 1;
+    static final int RECORD_BYTES = 96;
+    static final int HASH_BYTES = 64; // bcrypt hashes are 60
+    static final int MAX_PENDING = 8; // records an update can write atomically
+    static final int HEADER_BYTES = 1024;
+    private static final int INITIAL_CAPACITY = 1024; // records the file has room for when created
+
+    // Header fields
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int RECORD_BYTES_AT = 8;
+    private static final int COUNT_AT = 12;
+    private static final int PENDING_COUNT_AT = 16;
+    private static final int PENDING_AT = 64; // each pending record is its slot followed by the record
+
+    // Record fields
+    private static final int NUMBER_AT = 0;
+    private static final int TYPE_AT = 4;
+    private static final int HASH_LENGTH_AT = 5;
+    private static final int HASH_AT = 6;
+    private static final int BALANCE_AT = 70;
+    private static final int OVERDRAFT_AT = 74;
+    private static final int WITHDRAWALS_AT = 78;
+    private static final int WITHDRAWAL_DAY_AT = 82;
+
+    private static final byte NORMAL = 0;
+    private static final byte OVERDRAFT = 1;
+    private static final byte LIMITED = 2;
+
+    private final Path file; // the binary accounts file
+    private final Path csvFile; // accounts.csv, imported if the binary file does not exist yet ('null' for none)
+    private final boolean force; // force every update to disk before returning
+    private FileChannel channel = null; // open file, 'null' until loaded or after close
+    private MappedByteBuffer buffer = null; // the mapped file
+    private final IntObjectMap<Integer> slots = new IntObjectMap<>(); // record number of each account
+    private int count = 0; // records in the file
+    private int capacity = 0; // records the mapping has room for
+    private long bytesWritten = 0; // bytes written into the mapping since the store was opened
+
+    /**
+     * Constructor for the MappedAccountStore class.
+     * Updates are forced to disk before returning if the "mybank.mapped.force"
+     * system property is "true".
+     *
+     * @param file    The binary accounts file.
+     * @param csvFile The CSV accounts file to import the accounts from if the
+     *                binary file does not exist yet, or null for none.
+     */
+    public MappedAccountStore(String file, String csvFile) {
+        this(file, csvFile, Boolean.getBoolean("mybank.mapped.force"));
+    }
+
+    /**
+     * Constructor for the MappedAccountStore class.
+     *
+     * @param file    The binary accounts file.
+     * @param csvFile The CSV accounts file to import the accounts from if the
+     *                binary file does not exist yet, or null for none.
+     * @param force   true to force every update to disk before returning.
+     */
+    public MappedAccountStore(String file, String csvFile, boolean force) {
+        this.file = Paths.get(file);
+        this.csvFile = csvFile == null ? null : Paths.get(csvFile);
+        this.force = force;
+    }
+
+    /**
+     * Maps the file and loads every record. A missing file is created, with
+     * the accounts from the CSV file if there is one. A pending update left by
+     * a crash is finished first.
+     *
+     * @param accounts The index to load the accounts into.
+     * @throws IOException if the file could not be read, or is not an accounts
+     *                     file.
+     */
+    @Override
+    public synchronized void load(IntObjectMap<BankAccount> accounts) throws IOException {
+        Debug.trace("MappedAccountStore::load: Loading accounts from %s", file);
+        if (!Files.exists(file)) {
+            create(accounts);
+            return;
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            throw new IOException(file + " is too short to be an accounts file");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(MAGIC_AT) != MAGIC || buffer.getInt(VERSION_AT) != VERSION
+                || buffer.getInt(RECORD_BYTES_AT) != RECORD_BYTES) {
+            throw new IOException(file + " is not a version " + VERSION + " accounts file");
+        }
+        capacity = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+        count = buffer.getInt(COUNT_AT);
+        if (count < 0 || count > capacity) {
+            throw new IOException(file + " says it holds " + count + " accounts but only has room for " + capacity);
+        }
+        finishPending();
+
+        for (int slot = 0; slot < count; slot++) {
+            BankAccount a = readRecord(slot);
+            if (accounts.putIfAbsent(a.accNumber, a)) {
+                slots.put(a.accNumber, slot);
+            } else {
+                Debug.trace("MappedAccountStore::load: Skipping duplicate account %d", a.accNumber);
+            }
+        }
+        Debug.trace("MappedAccountStore::load: Mapped %d accounts", count);
+    }
+
+    /**
+     * Creates the file, holding the accounts from the CSV file if there is one.
+     */
+    private void create(IntObjectMap<BankAccount> accounts) throws IOException {
+        if (csvFile != null && Files.exists(csvFile)) {
+            Debug.trace("MappedAccountStore::create: Importing %s", csvFile);
+            new CsvAccountStore(csvFile.toString()).load(accounts);
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        remap(Math.max(INITIAL_CAPACITY, accounts.size()));
+        buffer.putInt(MAGIC_AT, MAGIC);
+        buffer.putInt(VERSION_AT, VERSION);
+        buffer.putInt(RECORD_BYTES_AT, RECORD_BYTES);
+        for (BankAccount a : accounts) {
+            slots.put(a.accNumber, count);
+            writeRecord(count++, a);
+        }
+        buffer.putInt(COUNT_AT, count);
+        buffer.force();
+    }
+
+    /**
+     * Writes the records of the given accounts in place, adding records for
+     * new accounts. Up to MAX_PENDING accounts are written atomically.
+     *
+     * @param changed The accounts to persist.
+     * @throws IOException if the file is not open, or a password hash is too
+     *                     long for its field.
+     */
+    @Override
+    public synchronized void update(BankAccount... changed) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Accounts file is not open");
+        }
+        BankEvents.AccountStoreWriteEvent event = new BankEvents.AccountStoreWriteEvent();
+        event.begin();
+        long bytes = bytesWritten;
+        boolean ok = false;
+        try {
+            write(changed);
+            ok = true;
+        } finally {
+            BankEvents.commit(event, this, "update", changed.length, bytesWritten - bytes, ok);
+        }
+    }
+
+    private void write(BankAccount[] changed) throws IOException {
+        for (int start = 0; start < changed.length; start += MAX_PENDING) {
+            int end = Math.min(changed.length, start + MAX_PENDING);
+            int newCount = count;
+            int[] changedSlots = new int[end - start];
+            for (int i = start; i < end; i++) {
+                Integer slot = slots.get(changed[i].accNumber);
+                changedSlots[i - start] = slot != null ? slot : newCount++;
+            }
+            if (newCount > capacity) {
+                remap(Math.max(newCount, capacity * 2));
+            }
+
+            // Copy the records into the pending area, and set the count once they are all there
+            for (int i = start; i < end; i++) {
+                int at = PENDING_AT + (i - start) * (4 + RECORD_BYTES);
+                buffer.putInt(at, changedSlots[i - start]);
+                encode(changed[i], at + 4);
+            }
+            buffer.putInt(PENDING_COUNT_AT, end - start);
+
+            for (int i = start; i < end; i++) {
+                copy(PENDING_AT + (i - start) * (4 + RECORD_BYTES) + 4, offsetOf(changedSlots[i - start]));
+                slots.put(changed[i].accNumber, changedSlots[i - start]);
+            }
+            count = newCount;
+            buffer.putInt(COUNT_AT, count);
+            buffer.putInt(PENDING_COUNT_AT, 0);
+            // Each record is written twice, to the pending area and in place, and the header three times
+            bytesWritten += (end - start) * (4L + 2 * RECORD_BYTES) + 12;
+        }
+        if (force) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Gets the number of bytes this store has written into the file. These
+     * reach the disk a page at a time, so the disk may see more.
+     *
+     * @return The bytes written since the store was opened.
+     */
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * The file is always up to date, so it never needs a checkpoint.
+     *
+     * @return false.
+     */
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    /**
+     * Forces the file to disk.
+     *
+     * @throws IOException never, but stores which write here may.
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        if (buffer != null) {
+            BankEvents.AccountStoreWriteEvent event = new BankEvents.AccountStoreWriteEvent();
+            event.begin();
+            buffer.force();
+            BankEvents.commit(event, this, "checkpoint", count, 0, true);
+        }
+    }
+
+    /**
+     * Forces the file to disk and closes it.
+     *
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                buffer.force();
+            } finally {
+                channel.close();
+                channel = null;
+                buffer = null; // the mapping goes when the buffer is garbage collected
+            }
+        }
+    }
+
+    /**
+     * Writes the records of an update which was interrupted by a crash.
+     */
+    private void finishPending() throws IOException {
+        int pending = buffer.getInt(PENDING_COUNT_AT);
+        if (pending < 0 || pending > MAX_PENDING) {
+            throw new IOException(file + " has a corrupt pending update");
+        }
+        if (pending == 0) {
+            return;
+        }
+        Debug.trace("MappedAccountStore::finishPending: Writing %d pending records", pending);
+        for (int i = 0; i < pending; i++) {
+            int at = PENDING_AT + i * (4 + RECORD_BYTES);
+            int slot = buffer.getInt(at);
+            if (slot < 0 || slot >= capacity) {
+                throw new IOException(file + " has a corrupt pending update");
+            }
+            copy(at + 4, offsetOf(slot));
+            count = Math.max(count, slot + 1);
+        }
+        buffer.putInt(COUNT_AT, count);
+        buffer.putInt(PENDING_COUNT_AT, 0);
+        buffer.force();
+    }
+
+    /**
+     * Grows the file, and maps it again.
+     */
+    private void remap(int newCapacity) throws IOException {
+        long size = HEADER_BYTES + (long) newCapacity * RECORD_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many accounts for one mapped file: " + newCapacity);
+        }
+        Debug.trace("MappedAccountStore::remap: Room for %d accounts", newCapacity);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        capacity = newCapacity;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+
+    /**
+     * Copies a record within the file.
+     */
+    private void copy(int from, int to) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(from).limit(from + RECORD_BYTES);
+        ByteBuffer target = buffer.duplicate();
+        target.position(to);
+        target.put(source);
+    }
+
+    private void writeRecord(int slot, BankAccount a) throws IOException {
+        encode(a, offsetOf(slot));
+    }
+
+    /**
+     * Writes an account as a record at the given offset.
+     */
+    private void encode(BankAccount a, int at) throws IOException {
+        byte[] hash = a.accPasswd.getBytes(StandardCharsets.US_ASCII);
+        if (hash.length > HASH_BYTES) {
+            throw new IOException("Password hash of account " + a.accNumber + " is too long to store");
+        }
+        byte type = NORMAL;
+        int overdraftLimit = 0;
+        int withdrawals = 0;
+        int withdrawalDay = 0;
+        if (a instanceof OverdraftBankAccount) {
+            type = OVERDRAFT;
+            overdraftLimit = ((OverdraftBankAccount) a).getOverdraftLimit();
+        } else if (a instanceof LimitedWithdrawalBankAccount) {
+            type = LIMITED;
+            withdrawals = ((LimitedWithdrawalBankAccount) a).getWithdrawalCount();
+            withdrawalDay = ((LimitedWithdrawalBankAccount) a).getWithdrawalDay();
+        }
+
+        buffer.putInt(at + NUMBER_AT, a.accNumber);
+        buffer.put(at + TYPE_AT, type);
+        buffer.put(at + HASH_LENGTH_AT, (byte) hash.length);
+        for (int i = 0; i < HASH_BYTES; i++) {
+            buffer.put(at + HASH_AT + i, i < hash.length ? hash[i] : 0);
+        }
+        buffer.putInt(at + BALANCE_AT, a.getBalance());
+        buffer.putInt(at + OVERDRAFT_AT, overdraftLimit);
+        buffer.putInt(at + WITHDRAWALS_AT, withdrawals);
+        buffer.putInt(at + WITHDRAWAL_DAY_AT, withdrawalDay);
+    }
+
+    /**
+     * Reads the account held by a record.
+     */
+    private BankAccount readRecord(int slot) throws IOException {
+        int at = offsetOf(slot);
+        int accNumber = buffer.getInt(at + NUMBER_AT);
+        int hashLength = buffer.get(at + HASH_LENGTH_AT);
+        if (hashLength < 0 || hashLength > HASH_BYTES) {
+            throw new IOException("Record " + slot + " of " + file + " is corrupt");
+        }
+        byte[] hash = new byte[hashLength];
+        for (int i = 0; i < hashLength; i++) {
+            hash[i] = buffer.get(at + HASH_AT + i);
+        }
+        String accPasswd = new String(hash, StandardCharsets.US_ASCII);
+        int balance = buffer.getInt(at + BALANCE_AT);
+
+        switch (buffer.get(at + TYPE_AT)) {
+            case OVERDRAFT:
+                return new OverdraftBankAccount(accNumber, accPasswd, balance, buffer.getInt(at + OVERDRAFT_AT));
+            case LIMITED:
+                return new LimitedWithdrawalBankAccount(accNumber, accPasswd, balance,
+                        buffer.getInt(at + WITHDRAWALS_AT), buffer.getInt(at + WITHDRAWAL_DAY_AT));
+            default:
+                return new BankAccount(accNumber, accPasswd, balance);
+        }
+    }
+
+    /**
+     * Converts a CSV accounts file into a new binary accounts file.
+     *
+     * @param csvFile    The CSV accounts file.
+     * @param mappedFile The binary accounts file, which must not exist yet.
+     * @return The number of accounts converted.
+     * @throws IOException if either file could not be used.
+     */
+    public static int convertFromCsv(String csvFile, String mappedFile) throws IOException {
+        if (Files.exists(Paths.get(mappedFile))) {
+            throw new IOException(mappedFile + " already exists");
+        }
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        try (MappedAccountStore store = new MappedAccountStore(mappedFile, csvFile, false)) {
+            store.load(accounts);
+        }
+        return accounts.size();
+    }
+
+    /**
+     * Converts a binary accounts file into a CSV accounts file. The CSV layout
+     * has no column for withdrawals made today, so they are left out.
+     *
+     * @param mappedFile The binary accounts file.
+     * @param csvFile    The CSV accounts file, which is replaced.
+     * @return The number of accounts converted.
+     * @throws IOException if either file could not be used.
+     */
+    public static int convertToCsv(String mappedFile, String csvFile) throws IOException {
+        if (!Files.exists(Paths.get(mappedFile))) {
+            throw new IOException(mappedFile + " does not exist");
+        }
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        try (MappedAccountStore store = new MappedAccountStore(mappedFile, null, false)) {
+            store.load(accounts);
+        }
+        CsvAccountStore csv = new CsvAccountStore(csvFile);
+        csv.accounts = accounts;
+        csv.checkpoint();
+        return accounts.size();
+    }
+
+    /**
+     * Converts between the CSV and binary accounts files from the command
+     * line: "to-binary accounts.csv accounts.dat" or
+     * "to-csv accounts.dat accounts.csv".
+     *
+     * @param args The direction, the file to read and the file to write.
+     * @throws IOException if either file could not be used.
+     */
+    public static void main(String[] args) throws IOException {
+        Debug.set(false);
+        if (args.length != 3) {
+            System.err.println("usage: MappedAccountStore to-binary|to-csv <from> <to>");
+            System.exit(2);
+        }
+        int converted;
+        switch (args[0]) {
+            case "to-binary":
+                converted = convertFromCsv(args[1], args[2]);
+                break;
+            case "to-csv":
+                converted = convertToCsv(args[1], args[2]);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown direction: " + args[0]);
+        }
+        System.out.println("Converted " + converted + " accounts from " + args[1] + " to " + args[2]);
+    }
+}
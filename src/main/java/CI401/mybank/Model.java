@@ -1,54 +1,59 @@
 package CI401.mybank;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * This class represents the Model in the Model-View-Controller pattern.
  * It is responsible for managing the data and the business logic of the
  * application.
- * The Model communicates with the Bank object to perform banking operations.
- * The Model also communicates with the Controller and the View to update the
- * user interface.
+ * The Model communicates with the Bank through a Session to perform banking
+ * operations.
+ * The Model runs one ATM session without any user interface: buttons are
+ * pressed with process, and what the ATM shows is sent to a DisplayListener,
+ * such as the JavaFX Controller. A Model only holds a few fields, so one JVM
+ * can run a great many sessions at once, all sharing one Bank.
  */
 
 public class Model {
 
-    // The Controller instance associated with this Model.
-    public Controller controller;
-    // The View instance associated with this Model.
-    public View view;
-
-    /**
-     * Sets the controller for this model.
-     * 
-     * @param controller The controller to be set.
-     */
-    public void setController(Controller controller) {
-        this.controller = controller;
+    // What each button does, looked up by the text on the button. The digit
+    // buttons are handled by processNumber.
+    private static final Map<String, Consumer<Model>> BUTTONS = new HashMap<>();
+
+    static {
+        BUTTONS.put("ENTER", Model::processEnter);
+        BUTTONS.put("CLEAR", Model::processClear);
+        BUTTONS.put("CANCEL", Model::processCancel);
+        BUTTONS.put("LOGOUT", Model::processLogout);
+        BUTTONS.put("DEPOSIT", Model::processDeposit);
+        BUTTONS.put("BALANCE", Model::processBalance);
+        BUTTONS.put("STATEMENT", Model::processStatement);
+        BUTTONS.put("WITHDRAW", Model::processWithdraw);
+        BUTTONS.put("TRANSFER", Model::processTransfer);
     }
 
+    // The listener which shows the output of this Model ('null' shows nothing).
+    private DisplayListener listener = null;
+
     /**
-     * Sets the view for this model.
+     * Sets the listener which shows the output of this model.
      * 
-     * @param view The view to be set.
+     * @param listener The listener to be set.
      */
-    public void setView(View view) {
-        this.view = view;
+    public void setListener(DisplayListener listener) {
+        this.listener = listener;
     }
 
-    // Constants representing different states of the ATM.
-    final String LOGGED_IN = "logged_in";
-    final String CHANGE_PASSWORD = "change_password";
-    final String WITHDRAWING = "withdrawing";
-    final String DEPOSITING = "depositing";
-    final String LOGGED_OUT = "logged_out";
-    final String TRANSFERRING = "transferring";
-    final String ENTERING_ACCOUNT = "enteringAccount";
-
     // Constants representing different status codes for password change and
     // overdraft
     public static final int PASSWORD_UPDATED = 0;
     public static final int PASSWORD_INCORRECT = 1;
     public static final int PASSWORD_MISMATCH = 2;
     public static final int PASSWORD_SAME = 3;
+    public static final int PASSWORD_FAILED = 4;
 
     public static final int OVERDRAFT_UPDATED = 0;
     public static final int OVERDRAFT_INVALID = 1;
@@ -57,25 +62,24 @@ public class Model {
     public static final int OVERDRAFT_EXCEEDS_LIMIT = 4;
 
     // variables representing the ATM model
-    String state = LOGGED_IN; // The current state of the ATM.
+    AtmState state = AtmState.LOGGED_IN; // The current state of the ATM.
     int number = 0; // The current number displayed in the GUI.
-    Bank bank = null; // The Bank object that the ATM communicates with.
+    Session session = null; // The session with the bank that the ATM communicates with.
+    CompletableFuture<Boolean> passwordChange = null; // The last password change sent to the bank ('null' if none).
     int targetAccountNumber = -1; // The target account number for a transfer operation.
     int accNumber = -1; // The account number entered by the user.
-    String accPasswd = ""; // The password entered by the user.
-    String newPassword = ""; // The new password entered by the user during password change.
-    int missing_funds = 0; // The amount of funds missing during a withdrawal operation.
+    volatile String accPasswd = ""; // The password entered by the user, replaced once a change is saved.
     String display1 = null; // The contents of the first message box in the GUI.
     String display2 = null; // The contents of the second message box in the GUI.
 
     /**
      * Constructor for the Model class.
      * 
-     * @param b The bank to be associated with this model.
+     * @param s The bank session to be associated with this model.
      */
-    public Model(Bank b) {
+    public Model(Session s) {
         Debug.trace("Model::<constructor>");
-        bank = b;
+        session = s;
     }
 
     /**
@@ -95,7 +99,50 @@ public class Model {
      * @return The current account.
      */
     public BankAccount getCurrentAccount() {
-        return bank.account;
+        return session.getAccount();
+    }
+
+    /**
+     * Gets the current state of the ATM.
+     * 
+     * @return The current state.
+     */
+    public AtmState getState() {
+        return state;
+    }
+
+    /**
+     * Processes a button press, the action strings being the text on the ATM's
+     * buttons: digits, "ENTER", "CLEAR", "CANCEL", "LOGOUT", "DEPOSIT",
+     * "BALANCE", "STATEMENT", "WITHDRAW" and "TRANSFER". Anything else resets
+     * the ATM.
+     * 
+     * @param action The button pressed.
+     */
+    public void process(String action) {
+        Consumer<Model> button = BUTTONS.get(action);
+        if (button != null) {
+            button.accept(this);
+        } else if (isDigits(action)) {
+            processNumber(action);
+        } else {
+            processUnknownKey(action);
+        }
+    }
+
+    /**
+     * Checks if an action is a digit button, such as "7" or "00".
+     */
+    private static boolean isDigits(String action) {
+        if (action.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < action.length(); i++) {
+            if (action.charAt(i) < '0' || action.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -106,7 +153,7 @@ public class Model {
      */
     public void initialise(String message) {
         Debug.trace("model::initialise");
-        setState(LOGGED_IN);
+        setState(AtmState.LOGGED_IN);
         number = 0;
 
         display1 = "";
@@ -119,11 +166,11 @@ public class Model {
      * 
      * @param newState The new state to be set.
      */
-    public void setState(String newState) {
-        if (!state.equals(newState)) {
-            String oldState = state;
+    public void setState(AtmState newState) {
+        if (state != newState) {
+            AtmState oldState = state;
             state = newState;
-            Debug.trace("Model::setState: changed state from " + oldState + " to " + newState);
+            Debug.trace("Model::setState: changed state from %s to %s", oldState, newState);
         }
     }
 
@@ -146,7 +193,7 @@ public class Model {
         }
         // show the new number in the display with a £ in front
         // only if the state is not ENTERING_ACCOUNT
-        if (!state.equals(ENTERING_ACCOUNT)) {
+        if (state != AtmState.ENTERING_ACCOUNT) {
             display1 = "£" + number;
         } else {
             display1 = "" + number;
@@ -169,61 +216,53 @@ public class Model {
      * in
      */
     public void processEnter() {
-        // Enter was pressed - what we do depends what state the ATM is already in
-        switch (state) {
-            case WITHDRAWING:
-                makeWithDrawal();
-                break;
-            case DEPOSITING:
-                makeDeposit();
-                break;
-            case ENTERING_ACCOUNT:
-                targetAccountNumber = number;
-                makeTransfer();
-                break;
-            case TRANSFERRING:
-                makeTransfer();
-                break;
-            case LOGGED_OUT:
-                // I just put this here to ensure the user gets logged out if the program
-                // glitches
-                // And they somehow manage to press enter after clicking the logout button
-                controller.process("LOGOUT");
-                break;
-            case LOGGED_IN:
-            default:
-                // do nothing in any other state (ie logged in)
-        }
+        // Enter was pressed - what we do depends what state the ATM is already in,
+        // see AtmState
+        state.enter(this);
         display(); // update the GUI
     }
 
     /**
      * Changes the password of the account.
+     * The new password is hashed off the calling thread, so the result
+     * completes later, on whichever thread saved it. The model keeps the old
+     * password until the bank has saved the new one.
      * 
      * @param currentPassword The current password of the account.
      * @param newPassword     The new password to be set.
      * @param confirmPassword The confirmation of the new password.
-     * @return The status of the password change operation.
+     * @return The status of the password change operation: PASSWORD_UPDATED
+     *         once it is saved, PASSWORD_FAILED if the bank could not save it.
      */
-    public int changePassword(String currentPassword, String newPassword, String confirmPassword) {
-        Debug.trace("Model::changePassword %s \n%s \n%s", currentPassword, newPassword, confirmPassword);
+    public CompletableFuture<Integer> changePassword(String currentPassword, String newPassword,
+            String confirmPassword) {
+        Debug.trace("Model::changePassword");
         // Check if the current password is correct
         if (!currentPassword.equals(accPasswd)) {
-            return PASSWORD_INCORRECT; // Current password is incorrect
+            return CompletableFuture.completedFuture(PASSWORD_INCORRECT); // Current password is incorrect
         }
         // Check if the new password matches the confirmed password
         if (!newPassword.equals(confirmPassword)) {
-            return PASSWORD_MISMATCH; // New password and confirmed password do not match
+            // New password and confirmed password do not match
+            return CompletableFuture.completedFuture(PASSWORD_MISMATCH);
         }
         // Check if the new password matches the current password
         if (newPassword.equals(currentPassword)) {
-            return PASSWORD_SAME; // New password is the same as the current password
+            // New password is the same as the current password
+            return CompletableFuture.completedFuture(PASSWORD_SAME);
         }
         // If none of the error conditions are met, change the password
-        Debug.trace("Model::changePassword: changing password: " + accPasswd + " to " + newPassword);
-        accPasswd = newPassword; // Update the password in the model
-        bank.updatePassword(accNumber, newPassword); // Update the password in the bank
-        return PASSWORD_UPDATED; // Password updated successfully
+        Debug.trace("Model::changePassword: changing password");
+        // Update the password in the bank, hashing it off the JavaFX application thread
+        passwordChange = session.updatePasswordAsync(newPassword);
+        return passwordChange.handle((updated, error) -> {
+            if (error != null || !updated) {
+                Debug.warn("Model::changePassword: password not updated in the bank: %s", error);
+                return PASSWORD_FAILED;
+            }
+            accPasswd = newPassword; // Update the password in the model now the bank has it
+            return PASSWORD_UPDATED;
+        });
     }
 
     /**
@@ -246,14 +285,13 @@ public class Model {
             }
             // If the account balance is negative (i.e., in overdraft) and the new overdraft limit
             // is less than or equal to the absolute value of the balance, return an error code
-            if (bank.getBalance() < 0 && overdraftInt <= Math.abs(bank.getBalance())) {
+            if (session.getBalance() < 0 && overdraftInt <= Math.abs(session.getBalance())) {
                 return OVERDRAFT_EXCEEDS_BALANCE;
             }
 
             // If the account has an overdraft facility, set the new overdraft limit and
             // return a success code
-            if (bank.account instanceof OverdraftBankAccount) {
-                ((OverdraftBankAccount) bank.account).setOverdraftLimit(overdraftInt);
+            if (session.setOverdraftLimit(overdraftInt)) {
                 return OVERDRAFT_UPDATED;
             } else {
                 // If the account does not have an overdraft facility, return an error code
@@ -273,15 +311,15 @@ public class Model {
      */
     public void processWithdraw() {
         Debug.trace("Model::processWithdraw");
-        if (state.equals(LOGGED_IN)) {
+        if (state == AtmState.LOGGED_IN) {
             number = 0;
             display1 = "Enter withdraw amount";
-            display2 = "Your current balance is : " + formatBalance(bank.getBalance());
-            if (bank.account instanceof OverdraftBankAccount) {
-                display2 += "\nYour overdraft limit is: £" + ((OverdraftBankAccount) bank.account).getOverdraftLimit();
+            display2 = "Your current balance is : " + formatBalance(session.getBalance());
+            if (getCurrentAccount() instanceof OverdraftBankAccount) {
+                display2 += "\nYour overdraft limit is: £" + ((OverdraftBankAccount) getCurrentAccount()).getOverdraftLimit();
             }
-            if (bank.account instanceof LimitedWithdrawalBankAccount) {
-                int withdrawalsLeft = ((LimitedWithdrawalBankAccount) bank.account).getWithdrawalsLeft();
+            if (getCurrentAccount() instanceof LimitedWithdrawalBankAccount) {
+                int withdrawalsLeft = ((LimitedWithdrawalBankAccount) getCurrentAccount()).getWithdrawalsLeft();
                 if (withdrawalsLeft > 1) {
                     display2 += "\nYou have " + withdrawalsLeft + " withdrawals left.";
                 } else if (withdrawalsLeft == 1) {
@@ -293,8 +331,8 @@ public class Model {
                     return;
                 }
             }
-            setState(WITHDRAWING);
-        } else if (!state.equals(LOGGED_IN)) {
+            setState(AtmState.WITHDRAWING);
+        } else if (state != AtmState.LOGGED_IN) {
             display2 += "\nYou're already in a transaction. Please either finish or cancel it before starting a new one.";
         } else {
             initialise("An error has occured, and the ATM has been reset.");
@@ -318,57 +356,57 @@ public class Model {
         StringBuilder display2Builder = new StringBuilder();
 
         // Try to withdraw the amount from the bank
-        if (bank.withdraw(withdrawalAmount)) {
+        if (session.withdraw(withdrawalAmount)) {
             // If the withdrawal is successful, append the withdrawn amount and new
             // balanceto the message
             display2Builder.append("Withdrawn: £").append(withdrawalAmount).append("\nYour new balance is now: ")
-                    .append(formatBalance(bank.getBalance()));
+                    .append(formatBalance(session.getBalance()));
             // If the account is an OverdraftBankAccount, append the overdraft limit to the
             // message
-            if (bank.account instanceof OverdraftBankAccount) {
+            if (getCurrentAccount() instanceof OverdraftBankAccount) {
                 display2Builder.append("\nYour overdraft limit is: £")
-                        .append(((OverdraftBankAccount) bank.account).getOverdraftLimit());
+                        .append(((OverdraftBankAccount) getCurrentAccount()).getOverdraftLimit());
             }
         } else {
             // If the withdrawal is not successful, check the type of the account
-            if (bank.account instanceof OverdraftBankAccount) {
+            if (getCurrentAccount() instanceof OverdraftBankAccount) {
                 // If the account is an OverdraftBankAccount, calculate the available funds
-                int availableFunds = bank.getBalance()
-                        + Math.abs(((OverdraftBankAccount) bank.account).getOverdraftLimit());
+                int availableFunds = session.getBalance()
+                        + Math.abs(((OverdraftBankAccount) getCurrentAccount()).getOverdraftLimit());
                 // Calculate the missing funds
-                missing_funds = Math.max(0, withdrawalAmount - availableFunds);
+                int missing_funds = Math.max(0, withdrawalAmount - availableFunds);
                 // If there are missing funds, append the required additional amount to the
                 // message
                 if (missing_funds != 0) {
                     display2Builder.append("You do not have sufficient funds. You need an additional: £")
                             .append(missing_funds);
                 }
-            } else if (bank.account instanceof LimitedWithdrawalBankAccount) {
+            } else if (getCurrentAccount() instanceof LimitedWithdrawalBankAccount) {
                 // If the account is a LimitedWithdrawalBankAccount, check the number of
                 // withdrawals today
-                if (((LimitedWithdrawalBankAccount) bank.account).getWithdrawalsLeft() <= 0) {
+                if (((LimitedWithdrawalBankAccount) getCurrentAccount()).getWithdrawalsLeft() <= 0) {
                     // If the maximum number of withdrawals for the day has been reached, append a
                     // message to that effect
                     display2Builder.append("You have reached your maximum withdrawals for the day.");
                 } else {
                     // If the maximum number of withdrawals for the day has not been reached, try to
                     // withdraw the amount
-                    if (bank.account.withdraw(withdrawalAmount)) {
+                    if (session.withdraw(withdrawalAmount)) {
                         // If the withdrawal is successful, append the withdrawn amount and new balance
                         // to the message
                         display2Builder.append("Withdrawn: £").append(withdrawalAmount)
-                                .append("\nYour new balance is now: £").append(bank.getBalance());
+                                .append("\nYour new balance is now: £").append(session.getBalance());
                     } else {
                         // If the withdrawal is not successful, append the required additional amount to
                         // the message
                         display2Builder.append("You do not have sufficient funds, you require another £")
-                                .append(Math.abs(bank.getBalance() - withdrawalAmount));
+                                .append(Math.abs(session.getBalance() - withdrawalAmount));
                     }
                 }
             } else {
                 // If the account is not an OverdraftBankAccount or a
                 // LimitedWithdrawalBankAccount, calculate the missing funds
-                missing_funds = Math.abs(bank.getBalance() - withdrawalAmount);
+                int missing_funds = Math.abs(session.getBalance() - withdrawalAmount);
                 // Append the required additional amount to the message
                 display2Builder.append("You do not have sufficient funds, you require another: £")
                         .append(missing_funds);
@@ -377,7 +415,7 @@ public class Model {
 
         // Set the state to LOGGED_IN, clear display1, and set display2 to the built
         // message.
-        setState(LOGGED_IN);
+        setState(AtmState.LOGGED_IN);
         display1 = "";
         display2 = display2Builder.toString();
         // Reset the number to 0
@@ -392,13 +430,13 @@ public class Model {
      */
     public void processDeposit() {
         Debug.trace("Model::processDeposit");
-        if (state.equals(LOGGED_IN)) {
+        if (state == AtmState.LOGGED_IN) {
             // Switch to depositing state
             number = 0;
-            setState(DEPOSITING);
+            setState(AtmState.DEPOSITING);
             display1 = "Enter deposit amount";
-            display2 = "Your current balance is : " + formatBalance(bank.getBalance());
-        } else if (!state.equals(LOGGED_IN)) {
+            display2 = "Your current balance is : " + formatBalance(session.getBalance());
+        } else if (state != AtmState.LOGGED_IN) {
             // User is in a transaction
             display2 += "\nYou're already in a transaction. Please either finish or cancel it before starting a new one.";
         } else {
@@ -416,14 +454,14 @@ public class Model {
      */
     public void makeDeposit() {
         Debug.trace("Model::makeDeposit");
-        if (state.equals(DEPOSITING)) {
+        if (state == AtmState.DEPOSITING) {
             if (number > 0) {
-                if (bank.deposit(number)) {
+                if (session.deposit(number)) {
                     // Deposit successful
-                    setState(LOGGED_IN);
+                    setState(AtmState.LOGGED_IN);
                     display1 = "";
                     display2 = "Deposit successful\n£" + number + " has been deposited to your Current Account\n"
-                            + "Your new balance is now: " + formatBalance(bank.getBalance());
+                            + "Your new balance is now: " + formatBalance(session.getBalance());
                 } else {
                     // Deposit failed
                     initialise("Deposit failed. Please try again.");
@@ -444,13 +482,13 @@ public class Model {
      */
     public void processBalance() {
         Debug.trace("Model::processBalance");
-        if (state.equals(LOGGED_IN)) {
+        if (state == AtmState.LOGGED_IN) {
 
             display1 = "";
-            display2 = "Your balance is: " + formatBalance(bank.getBalance());
+            display2 = "Your balance is: " + formatBalance(session.getBalance());
             number = 0;
 
-        } else if (!state.equals(LOGGED_IN)) {
+        } else if (state != AtmState.LOGGED_IN) {
             // User is in a transaction
             display2 += "\nYou're already in a transaction. Please either finish or cancel it before starting a new one.";
         } else {
@@ -468,16 +506,16 @@ public class Model {
      */
     public void processTransfer() {
         Debug.trace("Model::processTransfer");
-        if (state.equals(LOGGED_IN)) {
+        if (state == AtmState.LOGGED_IN) {
             // Switch to enteringAccount state
             targetAccountNumber = -1;
             number = 0;
-            setState(ENTERING_ACCOUNT);
+            setState(AtmState.ENTERING_ACCOUNT);
 
             display1 = "Enter target account";
             display2 = "Please enter the target account number above\nYour current balance is : "
-                    + formatBalance(bank.getBalance());
-        } else if (!state.equals(LOGGED_IN)) {
+                    + formatBalance(session.getBalance());
+        } else if (state != AtmState.LOGGED_IN) {
             // User is in a transaction
             display2 += "\nYou're already in a transaction. Please either finish or cancel it before starting a new one.";
         } else {
@@ -495,23 +533,23 @@ public class Model {
      */
     public void makeTransfer() {
         Debug.trace("Model::makeTransfer");
-        if (state.equals(ENTERING_ACCOUNT)) {
+        if (state == AtmState.ENTERING_ACCOUNT) {
             // User has entered the target account number
             number = 0;
-            setState(TRANSFERRING);
+            setState(AtmState.TRANSFERRING);
 
             display1 = "Enter transfer amount";
-            display2 = "Your current balance is : " + formatBalance(bank.getBalance());
+            display2 = "Your current balance is : " + formatBalance(session.getBalance());
 
-        } else if (state.equals(TRANSFERRING)) {
+        } else if (state == AtmState.TRANSFERRING) {
             // User has entered the transfer amount
-            if (bank.transfer(accNumber, targetAccountNumber, number)) {
+            if (session.transfer(targetAccountNumber, number)) {
                 // Transfer successful
-                setState(LOGGED_IN);
+                setState(AtmState.LOGGED_IN);
 
                 display1 = "";
                 display2 = "Transfer successful\n£" + number + " has been transferred to account No."
-                        + targetAccountNumber + "\n" + "Your new balance is now: " + formatBalance(bank.getBalance());
+                        + targetAccountNumber + "\n" + "Your new balance is now: " + formatBalance(session.getBalance());
 
                 targetAccountNumber = -1;
             } else {
@@ -552,13 +590,13 @@ public class Model {
      */
     public void processStatement() {
         Debug.trace("Model::processStatement");
-        if (state.equals(LOGGED_IN)) {
+        if (state == AtmState.LOGGED_IN) {
             number = 0;
 
             display1 = "Statement printed.";
-            display2 = bank.getStatement();
+            display2 = session.getStatement();
 
-        } else if (!state.equals(LOGGED_IN)) {
+        } else if (state != AtmState.LOGGED_IN) {
             // User is in a transaction
             display2 += "\nYou're already in a transaction. Please either finish or cancel it before starting a new one.";
         } else {
@@ -576,7 +614,7 @@ public class Model {
      */
     public void processUnknownKey(String action) {
         // unknown button, or invalid for this state - reset everything
-        Debug.trace("Model::processUnknownKey: unknown button \"" + action + "\", re-initialising");
+        Debug.trace("Model::processUnknownKey: unknown button \"%s\", re-initialising", action);
         // go back to initial state
         initialise("An error has occured, and the ATM has been reset.");
         display();
@@ -596,22 +634,35 @@ public class Model {
 
     /**
      * This method is used to process a logout request.
-     * It logs the user out and resets the state.
+     * It logs the user out and resets the state. The bank is left open, since
+     * it may be shared with other sessions. If a password change is still
+     * being hashed, the listener is told once it has finished, without
+     * waiting for it here, so its connection is not closed under it.
      */
     public void processLogout() {
         // Logout button - reset everything
         Debug.trace("Model::processLogout");
-        setState(LOGGED_OUT);
+        setState(AtmState.LOGGED_OUT);
         // Ensure the user is logged out of the bank to prevent any potential exploits.
-        bank.logout();
+        session.logout();
+        CompletableFuture<Boolean> pending = passwordChange == null ? CompletableFuture.completedFuture(true)
+                : passwordChange.exceptionally(error -> false);
+        passwordChange = null;
+        pending.thenRun(() -> {
+            if (listener != null) {
+                listener.loggedOut();
+            }
+        });
     }
 
     /**
      * This method is used to update the display.
-     * It updates the display with the current state information.
+     * It sends the current display contents to the listener.
      */
     public void display() {
         Debug.trace("Model::display");
-        controller.update(display1, display2);
+        if (listener != null) {
+            listener.update(display1, display2);
+        }
     }
 }
\ No newline at end of file
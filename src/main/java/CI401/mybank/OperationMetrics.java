@@ -0,0 +1,175 @@
+package CI401.mybank;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The OperationMetrics class counts one kind of bank operation by outcome and
+ * records how long it took. Any number of threads can record at once: the
+ * counts are LongAdders and the latencies go into a LatencyHistogram's
+ * buckets held in an AtomicLongArray, so recording takes no lock and
+ * allocates nothing. Reading the latencies copies the buckets into a
+ * LatencyHistogram.
+ */
+
+public final class OperationMetrics implements OperationMetricsMBean {
+    private final BankMetrics.Operation operation;
+    private final LongAdder[] outcomes = new LongAdder[BankMetrics.Outcome.values().length];
+    private final AtomicLongArray buckets = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final LongAdder sum = new LongAdder(); // of the latencies, for the mean
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytes = new LongAdder(); // bytes written, when the operation itself counts them
+    private volatile LongSupplier bytesSource = bytes::sum; // where the bytes written are read from
+
+    /**
+     * Constructor for the OperationMetrics class.
+     *
+     * @param operation The operation counted.
+     */
+    OperationMetrics(BankMetrics.Operation operation) {
+        this.operation = operation;
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one operation.
+     *
+     * @param outcome How it ended.
+     * @param nanos   How long it took.
+     */
+    void record(BankMetrics.Outcome outcome, long nanos) {
+        long value = Math.max(0, nanos);
+        outcomes[outcome.ordinal()].increment();
+        buckets.incrementAndGet(LatencyHistogram.indexOf(value));
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Adds to the bytes the operation has written.
+     *
+     * @param count The bytes written.
+     */
+    void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    /**
+     * Reads the bytes the operation has written from somewhere else, such as
+     * a store which counts its own writes.
+     *
+     * @param source Gives the bytes written.
+     */
+    void setBytesSource(LongSupplier source) {
+        bytesSource = source;
+    }
+
+    /**
+     * Gets the operation counted.
+     *
+     * @return The operation.
+     */
+    public BankMetrics.Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the number of operations which ended a certain way.
+     *
+     * @param outcome The outcome.
+     * @return The number of operations.
+     */
+    public long getCount(BankMetrics.Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * Copies the latencies recorded so far into a histogram.
+     *
+     * @return The latencies, in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(counts, sum.sum(), min.get(), max.get());
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder outcome : outcomes) {
+            count += outcome.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public long getSuccesses() {
+        return getCount(BankMetrics.Outcome.SUCCESS);
+    }
+
+    @Override
+    public long getRefusals() {
+        return getCount(BankMetrics.Outcome.REFUSED);
+    }
+
+    @Override
+    public long getBadPasswords() {
+        return getCount(BankMetrics.Outcome.BAD_PASSWORD);
+    }
+
+    @Override
+    public long getNoAccounts() {
+        return getCount(BankMetrics.Outcome.NO_ACCOUNT);
+    }
+
+    @Override
+    public long getBusy() {
+        return getCount(BankMetrics.Outcome.BUSY);
+    }
+
+    @Override
+    public long getErrors() {
+        return getCount(BankMetrics.Outcome.ERROR);
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return getLatencies().getMean() / 1000;
+    }
+
+    @Override
+    public double getMedianMicros() {
+        return getLatencies().getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double get99thPercentileMicros() {
+        return getLatencies().getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double get999thPercentileMicros() {
+        return getLatencies().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return getLatencies().getMax() / 1000.0;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesSource.getAsLong();
+    }
+}
@@ -0,0 +1,33 @@
+package CI401.mybank;
+
+/**
+ * The JMX view of one kind of bank operation, see OperationMetrics.
+ * Times are in microseconds.
+ */
+public interface OperationMetricsMBean {
+    long getCount();
+
+    long getSuccesses();
+
+    long getRefusals();
+
+    long getBadPasswords();
+
+    long getNoAccounts();
+
+    long getBusy();
+
+    long getErrors();
+
+    double getMeanMicros();
+
+    double getMedianMicros();
+
+    double get99thPercentileMicros();
+
+    double get999thPercentileMicros();
+
+    double getMaxMicros();
+
+    long getBytesWritten();
+}
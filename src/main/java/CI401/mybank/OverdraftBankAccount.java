@@ -7,7 +7,7 @@ package CI401.mybank;
  * overdraft limit.
  */
 public class OverdraftBankAccount extends BankAccount {
-    private int overdraftLimit;
+    private volatile int overdraftLimit;
 
     /**
      * Constructs an overdraft bank account with the specified account number,
@@ -32,13 +32,9 @@ public class OverdraftBankAccount extends BankAccount {
      */
     @Override
     public boolean withdraw(int amount) {
-        Debug.trace("OverdraftBankAccount::withdraw: amount =" + amount);
-        if (amount < 0 || (balance + overdraftLimit) < amount) {
-            return false;
-        } else {
-            balance -= amount; // subtract amount from balance
-            return true;
-        }
+        Debug.trace("OverdraftBankAccount::withdraw: amount =%d", amount);
+        // The balance may go down to minus the overdraft limit
+        return withdrawAbove(amount, -overdraftLimit);
     }
 
     /**
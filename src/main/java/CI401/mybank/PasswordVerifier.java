@@ -0,0 +1,149 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The PasswordVerifier class runs bcrypt password checks and hashes on a
+ * dedicated pool of threads, so they never run on the JavaFX application
+ * thread and a burst of logins cannot use more than a fixed number of cores.
+ * The pool has a fixed number of threads and a bounded queue. A request made
+ * while the queue is full is turned away at once: its future completes
+ * exceptionally with a RejectedExecutionException rather than waiting behind
+ * hundreds of others.
+ */
+public class PasswordVerifier implements Closeable {
+    private static PasswordVerifier shared = null; // the pool used by every Bank, created when first needed
+
+    private final ThreadPoolExecutor executor; // the bcrypt threads and their queue
+
+    /**
+     * Returns the pool shared by the whole process, created with the settings
+     * from the system properties "mybank.auth.threads" (default: the number of
+     * cores) and "mybank.auth.queue" (default 256).
+     *
+     * @return The shared pool.
+     */
+    public static synchronized PasswordVerifier shared() {
+        if (shared == null) {
+            shared = new PasswordVerifier(
+                    Integer.getInteger("mybank.auth.threads", Runtime.getRuntime().availableProcessors()),
+                    Integer.getInteger("mybank.auth.queue", 256));
+        }
+        return shared;
+    }
+
+    /**
+     * Constructor for the PasswordVerifier class.
+     *
+     * @param threads    The number of bcrypt operations run at once.
+     * @param queueDepth The number of requests which can wait for a thread.
+     */
+    public PasswordVerifier(int threads, int queueDepth) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "password-verifier-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueDepth)), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Checks a password against a bcrypt hash on the pool.
+     *
+     * @param hashedPassword The stored hash.
+     * @param password       The password to check.
+     * @return A future which completes with true if the password matches, or
+     *         completes exceptionally if the pool is full.
+     */
+    public CompletableFuture<Boolean> verify(String hashedPassword, String password) {
+        long submitted = System.nanoTime();
+        return submit(() -> {
+            long queued = System.nanoTime() - submitted;
+            BankEvents.PasswordEvent event = new BankEvents.PasswordEvent();
+            event.begin();
+            String outcome = "error";
+            try {
+                boolean ok = SecurityUtils.checkPassword(hashedPassword, password);
+                outcome = ok ? "match" : "mismatch";
+                return ok;
+            } finally {
+                commit(event, "check", hashedPassword, outcome, queued);
+            }
+        });
+    }
+
+    /**
+     * Hashes a password on the pool.
+     *
+     * @param password The password to hash.
+     * @return A future which completes with the hash, or completes
+     *         exceptionally if the pool is full.
+     */
+    public CompletableFuture<String> hash(String password) {
+        long submitted = System.nanoTime();
+        return submit(() -> {
+            long queued = System.nanoTime() - submitted;
+            BankEvents.PasswordEvent event = new BankEvents.PasswordEvent();
+            event.begin();
+            String hashedPassword = null;
+            try {
+                hashedPassword = SecurityUtils.hashPassword(password);
+                return hashedPassword;
+            } finally {
+                commit(event, "hash", hashedPassword, hashedPassword != null ? "success" : "error", queued);
+            }
+        });
+    }
+
+    /**
+     * Fills in and commits a password event, if it is recorded.
+     */
+    private static void commit(BankEvents.PasswordEvent event, String operation, String hashedPassword,
+            String outcome, long queued) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cost = SecurityUtils.costOf(hashedPassword);
+            event.outcome = outcome;
+            event.queued = queued;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread.
+     *
+     * @return The queue length.
+     */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the pool once the requests already made have run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Debug.trace("PasswordVerifier::submit: Too many requests waiting, request turned away");
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,273 @@
+package CI401.mybank;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A session with a Bank served by an AtmServer, which the ATM uses in place
+ * of its own Bank when started with -Dmybank.server=host:port. Every method
+ * sends one request and waits for its reply, see AtmProtocol.
+ * The account returned by getAccount is a copy made when it was asked for,
+ * changing it does not change the account on the server, and there is no
+ * local Bank, so getBank returns null.
+ * If the connection fails, the methods throw UncheckedIOException.
+ */
+
+public class RemoteSession extends Session implements Closeable {
+    private final SocketChannel channel; // the connection to the server, in blocking mode
+    private final ByteBuffer header = ByteBuffer.allocate(4); // the length of the last reply
+    private volatile boolean loggedIn = false;
+
+    /**
+     * Constructor for the RemoteSession class.
+     *
+     * @param channel The connection to the server.
+     */
+    RemoteSession(SocketChannel channel) {
+        super(null);
+        this.channel = channel;
+    }
+
+    /**
+     * Connects to an ATM server.
+     *
+     * @param server The server, as "host:port" or just "host" for the default
+     *               port.
+     * @return A session, not yet logged in.
+     * @throws IOException If the server cannot be reached.
+     */
+    public static RemoteSession connect(String server) throws IOException {
+        int colon = server.lastIndexOf(':');
+        String host = colon < 0 ? server : server.substring(0, colon);
+        int port = colon < 0 ? AtmProtocol.DEFAULT_PORT : Integer.parseInt(server.substring(colon + 1));
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        Debug.trace("RemoteSession::connect: connected to %s", server);
+        return new RemoteSession(channel);
+    }
+
+    /**
+     * Sends a request and waits for the reply.
+     *
+     * @param request The request, flipped ready to send.
+     * @return The reply, positioned after the status.
+     * @throws UncheckedIOException If the connection fails, or the server
+     *                              could not understand the request.
+     * @throws RejectedExecutionException If the server is too busy.
+     */
+    private synchronized ByteBuffer call(ByteBuffer request) {
+        try {
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            header.clear();
+            readFully(header);
+            ByteBuffer reply = ByteBuffer.allocate(header.getInt(0));
+            readFully(reply);
+            reply.flip();
+            byte status = reply.get();
+            if (status == AtmProtocol.BUSY) {
+                throw new RejectedExecutionException("the bank is busy");
+            } else if (status != AtmProtocol.OK) {
+                throw new IOException("the server could not handle the request, status " + status);
+            }
+            return reply;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("the server closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Makes a request whose fields are all ints.
+     */
+    private static ByteBuffer request(byte operation, int... fields) {
+        ByteBuffer request = AtmProtocol.frame(operation, 4 * fields.length);
+        for (int field : fields) {
+            request.putInt(field);
+        }
+        return request.flip();
+    }
+
+    /**
+     * Starts logging in to a specific account, logging out of any current
+     * account first. The request is sent from a background thread.
+     *
+     * @param newAccNumber The account number.
+     * @param newAccPasswd The password of the account.
+     * @return A future which completes with true if the login was successful
+     *         or false otherwise, or completes exceptionally if the server is
+     *         too busy to check the password or cannot be reached.
+     */
+    @Override
+    public CompletableFuture<Boolean> loginAsync(int newAccNumber, String newAccPasswd) {
+        Debug.trace("RemoteSession::login: accNumber = %d", newAccNumber);
+        return CompletableFuture.supplyAsync(() -> {
+            ByteBuffer request = AtmProtocol.frame(AtmProtocol.LOGIN, 4 + AtmProtocol.sizeOf(newAccPasswd));
+            request.putInt(newAccNumber);
+            AtmProtocol.putString(request, newAccPasswd);
+            try {
+                loggedIn = AtmProtocol.getBoolean(call(request.flip()));
+            } catch (RejectedExecutionException | UncheckedIOException e) {
+                loggedIn = false;
+                throw new CompletionException(e);
+            }
+            return loggedIn;
+        });
+    }
+
+    @Override
+    public void logout() {
+        if (loggedIn) {
+            Debug.trace("RemoteSession::logout: logging out");
+            loggedIn = false;
+            call(request(AtmProtocol.LOGOUT));
+        }
+    }
+
+    @Override
+    public boolean loggedIn() {
+        return loggedIn;
+    }
+
+    /**
+     * Gets a copy of the account this session is logged in to, as it is on
+     * the server now.
+     *
+     * @return The account, or null if the session is not logged in.
+     */
+    @Override
+    public BankAccount getAccount() {
+        ByteBuffer reply = call(request(AtmProtocol.ACCOUNT));
+        String type = AtmProtocol.getString(reply);
+        int accNumber = reply.getInt();
+        int balance = reply.getInt();
+        int overdraftLimit = reply.getInt();
+        int withdrawalsToday = reply.getInt();
+        switch (type) {
+            case "":
+                return null;
+            case "overdraft":
+                return new OverdraftBankAccount(accNumber, "", balance, overdraftLimit);
+            case "limited":
+                return new LimitedWithdrawalBankAccount(accNumber, "", balance, withdrawalsToday);
+            default:
+                return new BankAccount(accNumber, "", balance);
+        }
+    }
+
+    @Override
+    public boolean deposit(int amount) {
+        return AtmProtocol.getBoolean(call(request(AtmProtocol.DEPOSIT, amount)));
+    }
+
+    @Override
+    public boolean withdraw(int amount) {
+        return AtmProtocol.getBoolean(call(request(AtmProtocol.WITHDRAW, amount)));
+    }
+
+    @Override
+    public int getBalance() {
+        return call(request(AtmProtocol.BALANCE)).getInt();
+    }
+
+    @Override
+    public boolean transfer(int targetAccNumber, int amount) {
+        return AtmProtocol.getBoolean(call(request(AtmProtocol.TRANSFER, targetAccNumber, amount)));
+    }
+
+    @Override
+    public boolean setOverdraftLimit(int overdraftLimit) {
+        return AtmProtocol.getBoolean(call(request(AtmProtocol.OVERDRAFT, overdraftLimit)));
+    }
+
+    @Override
+    public boolean updatePassword(String newPassword) {
+        try {
+            return updatePasswordAsync(newPassword).join();
+        } catch (CompletionException e) {
+            Debug.trace("RemoteSession::updatePassword: %s", e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Starts updating the password of the current account. The request is
+     * sent from a background thread.
+     *
+     * @param newPassword The new password.
+     * @return A future which completes with true if the password was updated
+     *         or false otherwise, or completes exceptionally if the server is
+     *         too busy to hash the password or cannot be reached.
+     */
+    @Override
+    public CompletableFuture<Boolean> updatePasswordAsync(String newPassword) {
+        return CompletableFuture.supplyAsync(() -> {
+            ByteBuffer request = AtmProtocol.frame(AtmProtocol.PASSWORD, AtmProtocol.sizeOf(newPassword));
+            AtmProtocol.putString(request, newPassword);
+            return AtmProtocol.getBoolean(call(request.flip()));
+        });
+    }
+
+    @Override
+    public String getStatement() {
+        return AtmProtocol.getString(call(request(AtmProtocol.STATEMENT)));
+    }
+
+    @Override
+    public int getTransactionCount() {
+        return call(request(AtmProtocol.HISTORY_COUNT)).getInt();
+    }
+
+    /**
+     * Gets one page of the statement of the current account. The
+     * transactions are marked with the account number -1, since the server
+     * does not send it.
+     */
+    @Override
+    public List<Transaction> getStatementPage(int page, int pageSize) {
+        return AtmProtocol.getTransactions(call(request(AtmProtocol.HISTORY_PAGE, page, pageSize)), -1);
+    }
+
+    /**
+     * Gets the transactions of the current account made in a time range. The
+     * transactions are marked with the account number -1, since the server
+     * does not send it.
+     */
+    @Override
+    public List<Transaction> getStatementBetween(long fromMillis, long toMillis) {
+        ByteBuffer request = AtmProtocol.frame(AtmProtocol.HISTORY_RANGE, 16);
+        request.putLong(fromMillis);
+        request.putLong(toMillis);
+        return AtmProtocol.getTransactions(call(request.flip()), -1);
+    }
+
+    /**
+     * Logs out, if logged in, and closes the connection to the server.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            logout();
+        } catch (UncheckedIOException e) {
+            Debug.trace("RemoteSession::close: %s", e.getMessage());
+        }
+        channel.close();
+    }
+}
@@ -1,15 +1,28 @@
 package CI401.mybank;
 
+import java.security.SecureRandom;
+
 import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
 
 /**
- * The SecurityUtils class provides methods for hashing and checking passwords
+ * The SecurityUtils class provides methods for hashing and checking passwords.
+ * New hashes use the bcrypt cost picked for this machine, see getCost. A hash
+ * made with a different cost still checks as normal, and needsRehash tells the
+ * Bank to replace it after the next successful login.
  */
 public class SecurityUtils {
+    static final int MIN_BCRYPT_COST = 4; // lowest cost bcrypt accepts
+    static final int MAX_BCRYPT_COST = 31; // highest cost bcrypt accepts
+    private static final int PROBE_COST = 8; // cost timed by calibrate
+
+    private static final SecureRandom RANDOM = new SecureRandom(); // shared source of salts
+    private static final Object PICKING = new Object(); // held while the cost is picked, so it is picked once
+    private static volatile int cost = 0; // cost of new hashes, 0 until it has been picked
 
     /**
      * Hashes the given password using OpenBSDBCrypt algorithm.
-     * The hashed password is generated using a random salt and a cost of 12.
+     * The hashed password is generated using a random salt and the cost from
+     * getCost.
      * The salt and cost are stored in the hashed password.
      *
      * @param password the password to be hashed
@@ -17,26 +30,163 @@ public class SecurityUtils {
      */
 
     public static String hashPassword(String password) {
+        return hashPassword(password, getCost());
+    }
+
+    /**
+     * Hashes the given password using OpenBSDBCrypt algorithm with the given
+     * cost.
+     *
+     * @param password the password to be hashed
+     * @param cost     the bcrypt cost, each step doubles the time taken
+     * @return the hashed password
+     */
+
+    public static String hashPassword(String password, int cost) {
         byte[] salt = new byte[16];
-        new java.security.SecureRandom().nextBytes(salt);
-        int cost = 12;
+        RANDOM.nextBytes(salt); // SecureRandom is thread safe, one instance serves every hash
         return OpenBSDBCrypt.generate(password.toCharArray(), salt, cost);
     }
 
     /**
      * This method checks if the provided password matches the hashed password.
      *
-     * @param hashedPassword The hashed password, typically retrieved from the database. 
-     * This is the hashed version of the original password that was created when the user 
+     * @param hashedPassword The hashed password, typically retrieved from the database.
+     * This is the hashed version of the original password that was created when the user
      * set or last changed their password.
-     * @param password The plaintext password provided by the user trying to authenticate, 
+     * @param password The plaintext password provided by the user trying to authenticate,
      * such as during a login attempt.
-     * @return Returns true if the provided password matches the hashed password, false otherwise. 
-     * The method uses OpenBSDBCrypt.checkPassword(), which hashes the provided password in the same way 
-     * as the original password was hashed, then compares the result to the stored hashed password. 
+     * @return Returns true if the provided password matches the hashed password, false otherwise.
+     * The method uses OpenBSDBCrypt.checkPassword(), which hashes the provided password in the same way
+     * as the original password was hashed, then compares the result to the stored hashed password.
      * If they match, it means the correct password was provided.
      */
     public static boolean checkPassword(String hashedPassword, String password) {
         return OpenBSDBCrypt.checkPassword(hashedPassword, password.toCharArray());
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the bcrypt cost used for new hashes.
+     * The "mybank.bcrypt.cost" system property sets it directly. Otherwise it is
+     * picked the first time it is needed by calibrate, so that one check takes
+     * no longer than "mybank.bcrypt.targetMillis" (default 250) on this machine,
+     * but never below "mybank.bcrypt.minCost" (default 10).
+     * The cost is picked once, by the first caller. Callers needing it at the
+     * same time wait for that caller rather than calibrating too, since
+     * calibrations running side by side slow each other down and would pick
+     * a cost too low. The class lock is not held meanwhile, so setCost does
+     * not wait for calibration.
+     *
+     * @return The bcrypt cost.
+     * @throws IllegalArgumentException if "mybank.bcrypt.cost" is outside the
+     *                                  range bcrypt accepts.
+     */
+    public static int getCost() {
+        int picked = cost;
+        if (picked != 0) {
+            return picked;
+        }
+        synchronized (PICKING) {
+            picked = cost;
+            if (picked != 0) {
+                return picked; // picked by the caller this one waited for
+            }
+            Integer configured = Integer.getInteger("mybank.bcrypt.cost");
+            if (configured != null) {
+                checkCost(configured);
+                picked = configured;
+            } else {
+                picked = calibrate(Long.getLong("mybank.bcrypt.targetMillis", 250),
+                        Integer.getInteger("mybank.bcrypt.minCost", 10));
+            }
+            synchronized (SecurityUtils.class) {
+                if (cost == 0) { // unless setCost was called meanwhile
+                    cost = picked;
+                }
+                return cost;
+            }
+        }
+    }
+
+    /**
+     * Sets the bcrypt cost used for new hashes.
+     *
+     * @param newCost The bcrypt cost.
+     */
+    public static synchronized void setCost(int newCost) {
+        checkCost(newCost);
+        cost = newCost;
+    }
+
+    private static void checkCost(int newCost) {
+        if (newCost < MIN_BCRYPT_COST || newCost > MAX_BCRYPT_COST) {
+            throw new IllegalArgumentException("bcrypt cost must be between " + MIN_BCRYPT_COST + " and "
+                    + MAX_BCRYPT_COST + ": " + newCost);
+        }
+    }
+
+    /**
+     * Picks the highest bcrypt cost whose hash takes no longer than the target
+     * on this machine. A cheap hash is timed and scaled up, since each step of
+     * cost doubles the time taken.
+     *
+     * @param targetMillis The longest a password check should take.
+     * @param minCost      The lowest cost to return, whatever the timing.
+     * @return The bcrypt cost.
+     */
+    public static int calibrate(long targetMillis, int minCost) {
+        char[] password = "calibration".toCharArray();
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        // Time the probe until it stops getting faster, which leaves out JIT warm up
+        long best = Long.MAX_VALUE;
+        int steady = 0;
+        for (int i = 0; i < 20 && steady < 2; i++) {
+            long start = System.nanoTime();
+            OpenBSDBCrypt.generate(password, salt, PROBE_COST);
+            long elapsed = System.nanoTime() - start;
+            steady = elapsed < best * 0.9 ? 0 : steady + 1;
+            best = Math.min(best, elapsed);
+        }
+
+        double nanosPerRound = (double) best / (1L << PROBE_COST);
+        int picked = MIN_BCRYPT_COST;
+        while (picked < MAX_BCRYPT_COST && nanosPerRound * (1L << (picked + 1)) <= targetMillis * 1e6) {
+            picked++;
+        }
+        picked = Math.max(picked, Math.max(MIN_BCRYPT_COST, Math.min(minCost, MAX_BCRYPT_COST)));
+        Debug.trace("SecurityUtils::calibrate: cost %d takes about %.0f ms", picked,
+                nanosPerRound * (1L << picked) / 1e6);
+        return picked;
+    }
+
+    /**
+     * Returns the cost a bcrypt hash was made with.
+     *
+     * @param hashedPassword The hash, such as "$2y$12$...".
+     * @return The cost, or -1 if the hash is not in the bcrypt format.
+     */
+    public static int costOf(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$'
+                || hashedPassword.charAt(3) != '$' || hashedPassword.charAt(6) != '$') {
+            return -1;
+        }
+        char tens = hashedPassword.charAt(4);
+        char units = hashedPassword.charAt(5);
+        if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+            return -1;
+        }
+        return (tens - '0') * 10 + (units - '0');
+    }
+
+    /**
+     * Checks if a hash was made with a different cost than new hashes use, in
+     * which case it should be replaced the next time its password is known.
+     *
+     * @param hashedPassword The hash.
+     * @return true if the hash should be replaced.
+     */
+    public static boolean needsRehash(String hashedPassword) {
+        return costOf(hashedPassword) != getCost();
+    }
+}
@@ -0,0 +1,279 @@
+package CI401.mybank;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class represents one user's session with a bank: the account they are
+ * logged in to. Any number of sessions can share one Bank, each logged in to
+ * its own account, and can be used from different threads at once.
+ * A single session is meant to be used by one thread at a time.
+ * It provides methods for logging in and out, depositing and withdrawing money,
+ * getting the balance, transferring money to another account, updating the
+ * password, and getting the statement of the logged in account.
+ */
+
+public class Session {
+    private final Bank bank; // the bank this session belongs to
+    volatile BankAccount account = null; // the account this session is logged in to ('null' if logged out)
+    private int logins = 0; // number of logins and logouts started, guarded by the session's lock
+
+    /**
+     * Constructor for the Session class. Sessions are opened with
+     * Bank.newSession().
+     *
+     * @param bank The bank the session belongs to.
+     */
+    Session(Bank bank) {
+        this.bank = bank;
+    }
+
+    /**
+     * Gets the bank this session belongs to.
+     *
+     * @return The bank.
+     */
+    public Bank getBank() {
+        return bank;
+    }
+
+    /**
+     * Logs in to a specific account, logging out of any current account first.
+     * This waits for the password check, so it should not be called on the
+     * JavaFX application thread, use loginAsync there.
+     *
+     * @param newAccNumber The account number.
+     * @param newAccPasswd The password of the account.
+     * @return true if the login was successful, false otherwise.
+     */
+    public boolean login(int newAccNumber, String newAccPasswd) {
+        try {
+            return loginAsync(newAccNumber, newAccPasswd).join();
+        } catch (CompletionException e) {
+            Debug.trace("Session::login: login failed, accNumber = %d: %s", newAccNumber, e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Starts logging in to a specific account, logging out of any current
+     * account first. The password is checked on the bank's password verifier,
+     * and the session is logged in when the returned future completes, unless
+     * another login or a logout has been started since, in which case it
+     * completes with false.
+     *
+     * @param newAccNumber The account number.
+     * @param newAccPasswd The password of the account.
+     * @return A future which completes with true if the login was successful
+     *         or false otherwise, or completes exceptionally if the password
+     *         verifier is too busy to check the password.
+     */
+    public CompletableFuture<Boolean> loginAsync(int newAccNumber, String newAccPasswd) {
+        Debug.trace("Session::login: accNumber = %d", newAccNumber);
+        int login;
+        synchronized (this) {
+            logout(); // logout of any previous account
+            login = logins;
+        }
+
+        return bank.authenticateAsync(newAccNumber, newAccPasswd).thenApply(a -> {
+            synchronized (this) {
+                if (login != logins) {
+                    Debug.trace("Session::login: login overtaken by a later one, accNumber = %d", newAccNumber);
+                    return false;
+                }
+                account = a;
+            }
+            if (a != null) {
+                Debug.trace("Session::login: logged in, accNumber = %d", newAccNumber);
+                return true;
+            }
+            Debug.trace("Session::login: login failed, accNumber = %d", newAccNumber);
+            return false;
+        });
+    }
+
+    /**
+     * Logs out from the current account, and stops any login still waiting
+     * for its password check.
+     */
+    public synchronized void logout() {
+        logins++;
+        if (loggedIn()) {
+            Debug.trace("Session::logout: logging out, accNumber = %d", account.accNumber);
+            account = null;
+        }
+    }
+
+    /**
+     * Checks if the session is logged in to an account or not.
+     *
+     * @return true if the session is logged in to an account, false otherwise.
+     */
+    public boolean loggedIn() {
+        return account != null;
+    }
+
+    /**
+     * Gets the account this session is logged in to.
+     *
+     * @return The account, or null if the session is not logged in.
+     */
+    public BankAccount getAccount() {
+        return account;
+    }
+
+    /**
+     * Deposits a certain amount of money to the current account.
+     *
+     * @param amount The amount of money to be deposited.
+     * @return true if the deposit was successful, false otherwise.
+     */
+    public boolean deposit(int amount) {
+        return loggedIn() && bank.deposit(account, amount);
+    }
+
+    /**
+     * Withdraws a certain amount of money from the current account.
+     *
+     * @param amount The amount of money to be withdrawn.
+     * @return true if the withdrawal was successful, false otherwise.
+     */
+    public boolean withdraw(int amount) {
+        return loggedIn() && bank.withdraw(account, amount);
+    }
+
+    /**
+     * Gets the balance of the current account.
+     *
+     * @return The balance of the current account, or -1 if the session is not
+     *         logged in to an account.
+     */
+    public int getBalance() {
+        if (loggedIn()) {
+            return bank.getBalance(account);
+        }
+        Debug.trace("Session::getBalance: Error: Not logged in");
+        return -1; // use -1 as an indicator of an error
+    }
+
+    /**
+     * Transfers a certain amount of money from the current account to a target
+     * account.
+     *
+     * @param targetAccNumber The account number of the target account.
+     * @param amount          The amount of money to be transferred.
+     * @return true if the transfer was successful, false otherwise.
+     */
+    public boolean transfer(int targetAccNumber, int amount) {
+        return loggedIn() && bank.transfer(account, targetAccNumber, amount);
+    }
+
+    /**
+     * Sets the overdraft limit of the current account.
+     *
+     * @param overdraftLimit The new overdraft limit.
+     * @return true if the limit was set, false if the session is not logged in
+     *         or the account has no overdraft facility.
+     */
+    public boolean setOverdraftLimit(int overdraftLimit) {
+        return loggedIn() && bank.setOverdraftLimit(account, overdraftLimit);
+    }
+
+    /**
+     * Updates the password of the current account, waiting for the new
+     * password to be hashed.
+     *
+     * @param newPassword The new password.
+     * @return true if the password was updated successfully, false otherwise.
+     */
+    public boolean updatePassword(String newPassword) {
+        return loggedIn() && bank.updatePassword(account.accNumber, newPassword);
+    }
+
+    /**
+     * Starts updating the password of the current account. The new password
+     * is hashed on the bank's password verifier.
+     *
+     * @param newPassword The new password.
+     * @return A future which completes with true if the password was updated
+     *         or false otherwise, or completes exceptionally if the password
+     *         verifier is too busy to hash the password.
+     */
+    public CompletableFuture<Boolean> updatePasswordAsync(String newPassword) {
+        BankAccount a = account;
+        if (a == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return bank.updatePasswordAsync(a.accNumber, newPassword);
+    }
+
+    /**
+     * Gets the statement of the current account.
+     *
+     * @return The statement of the current account, or an error message if the
+     *         session is not logged in to an account.
+     */
+    public String getStatement() {
+        if (loggedIn()) {
+            return bank.getStatement(account);
+        }
+        return "ERROR: Not logged in";
+    }
+
+    /**
+     * Gets the number of transactions of the current account.
+     *
+     * @return The number of transactions, or 0 if the session is not logged
+     *         in to an account.
+     */
+    public int getTransactionCount() {
+        return loggedIn() ? bank.getTransactionCount(account) : 0;
+    }
+
+    /**
+     * Gets one page of the statement of the current account. Page 0 holds the
+     * most recent transactions.
+     *
+     * @param page     The page, counting back from the most recent.
+     * @param pageSize The number of transactions on a page.
+     * @return The transactions of the page, oldest first, or an empty list if
+     *         there is no such page or the session is not logged in.
+     */
+    public List<Transaction> getStatementPage(int page, int pageSize) {
+        if (loggedIn()) {
+            return bank.getTransactions(account, page, pageSize);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Gets the transactions of the current account made in a time range.
+     *
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, exclusive.
+     * @return The transactions, oldest first, or an empty list if the session
+     *         is not logged in.
+     */
+    public List<Transaction> getStatementBetween(long fromMillis, long toMillis) {
+        if (loggedIn()) {
+            return bank.getTransactions(account, fromMillis, toMillis);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Gets the transactions of the current account made between two days.
+     *
+     * @param from The first day.
+     * @param to   The last day, included.
+     * @return The transactions, oldest first, or an empty list if the session
+     *         is not logged in.
+     */
+    public List<Transaction> getStatementBetween(LocalDate from, LocalDate to) {
+        return getStatementBetween(DateTimeUtils.startOfDay(from), DateTimeUtils.startOfDay(to.plusDays(1)));
+    }
+}
@@ -0,0 +1,576 @@
+package CI401.mybank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The StatementExport class writes the statements of every account for a
+ * period, such as a month, reading the transaction history once rather than
+ * once for each account. The history is read oldest first from the sealed
+ * segments whose time range overlaps the period, then the rotated files
+ * waiting to be sealed, then the active file (see HistoryCatalogue).
+ * The records in the period are grouped by account with a sort which keeps
+ * each account's records in the order they were made. Records are gathered
+ * into runs which fit in half of the memory budget; each run is sorted (with
+ * Arrays.parallelSort) and, if there is more than one, written to a temporary
+ * file, and the run files are then merged. The other half of the budget holds
+ * the batch of statements being written: the statements of a batch are
+ * formatted, and written to their files, in parallel on a fork/join pool. An
+ * account with more records than a batch holds is written across batches.
+ * Statements go either to one file per account, statement-NNN.txt, or to one
+ * combined file in account order.
+ */
+
+public class StatementExport {
+    public static final long DEFAULT_MEMORY_BYTES = 64L << 20; // see "mybank.export.memoryBytes"
+    static final int SORT_RECORD_BYTES = 40; // memory a record takes in a run
+    static final int OUTPUT_RECORD_BYTES = 512; // memory a record takes in a batch, with its text
+    private static final int MIN_RECORDS = 1024; // fewest records in a run or a batch
+
+    private final Path historyFile;
+    private final long fromMillis;
+    private final long toMillis;
+    private final int runRecords; // most records in a run
+    private final int batchRecords; // most records in a batch of statements
+    private final ForkJoinPool pool;
+    private long records = 0; // records in the period, counted by the last export
+    private int runs = 0; // runs the last export sorted
+
+    /**
+     * Constructor for the StatementExport class.
+     *
+     * @param historyFile The active transaction history CSV file.
+     * @param fromMillis  The start of the period, in milliseconds since the epoch.
+     * @param toMillis    The end of the period, exclusive.
+     * @param memoryBytes About the most memory to use for the records, half for
+     *                    sorting and half for writing.
+     * @param pool        The pool the statements are formatted and written on.
+     */
+    public StatementExport(Path historyFile, long fromMillis, long toMillis, long memoryBytes, ForkJoinPool pool) {
+        this.historyFile = historyFile;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.runRecords = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_RECORDS, memoryBytes / 2
+                / SORT_RECORD_BYTES));
+        this.batchRecords = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_RECORDS, memoryBytes / 2
+                / OUTPUT_RECORD_BYTES));
+        this.pool = pool;
+    }
+
+    /**
+     * Constructor for the StatementExport class, for the statements of a
+     * month, using the memory budget from the system property
+     * "mybank.export.memoryBytes" and the common fork/join pool.
+     *
+     * @param historyFile The active transaction history CSV file.
+     * @param month       The month, in the system's time zone.
+     */
+    public StatementExport(Path historyFile, YearMonth month) {
+        this(historyFile, DateTimeUtils.startOfDay(month.atDay(1)),
+                DateTimeUtils.startOfDay(month.plusMonths(1).atDay(1)),
+                Long.getLong("mybank.export.memoryBytes", DEFAULT_MEMORY_BYTES), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Gets the number of records in the period, found by the last export.
+     *
+     * @return The number of records.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the number of sorted runs the last export used; more than one means
+     * the records did not fit in memory and were merged from files.
+     *
+     * @return The number of runs.
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * Writes each account's statement to its own file, statement-NNN.txt,
+     * replacing any file of that name.
+     *
+     * @param directory The directory, created if needed.
+     * @return The number of statements written.
+     * @throws IOException if the history could not be read or a statement
+     *                     written.
+     */
+    public int exportFiles(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return export(directory, null);
+    }
+
+    /**
+     * Writes every account's statement to one file, in account order.
+     *
+     * @param file The file, replaced if it exists.
+     * @return The number of statements written.
+     * @throws IOException if the history could not be read or the file written.
+     */
+    public int exportCombined(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return export(parent, out);
+        }
+    }
+
+    /**
+     * Gets the file an account's statement is written to by exportFiles.
+     *
+     * @param directory The directory.
+     * @param accNumber The account number.
+     * @return The file.
+     */
+    public static Path statementFile(Path directory, int accNumber) {
+        return directory.resolve("statement-" + accNumber + ".txt");
+    }
+
+    private int export(Path directory, Writer combined) throws IOException {
+        long start = System.nanoTime();
+        records = 0;
+        runs = 0;
+        Gather gather = new Gather(directory);
+        try {
+            readHistory(gather);
+            Cursor cursor;
+            if (gather.runFiles.isEmpty()) {
+                gather.run.sort();
+                runs = records > 0 ? 1 : 0;
+                cursor = gather.run;
+            } else {
+                if (gather.run.size > 0) {
+                    gather.spill();
+                }
+                gather.run = null; // let the last run go before merging
+                cursor = new Merge(gather.runFiles);
+            }
+            try {
+                int statements = write(cursor, directory, combined);
+                Debug.trace("StatementExport::export: Wrote %d statements of %d records from %d runs in %d ms",
+                        statements, records, runs, (System.nanoTime() - start) / 1_000_000);
+                return statements;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            if (gather.sortDirectory != null) {
+                for (Path file : gather.runFiles) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(gather.sortDirectory);
+            }
+        }
+    }
+
+    /**
+     * Reads the history oldest first: the sealed segments which overlap the
+     * period, the rotated files not yet sealed, and the active file. The
+     * rotated files are listed before the catalogue is read, so a file sealed
+     * in between is read once, from its segment.
+     */
+    private void readHistory(HistoryCatalogue.RecordVisitor visitor) throws IOException {
+        Path historyDirectory = HistoryCatalogue.directoryOf(historyFile);
+        List<Path> rotatedFiles = HistoryCatalogue.rotatedFiles(historyDirectory);
+        HistoryCatalogue catalogue = HistoryCatalogue.open(historyDirectory);
+        for (HistoryCatalogue.Entry entry : catalogue.entriesBetween(fromMillis, toMillis - 1)) {
+            readSegment(entry.file, visitor);
+        }
+        for (Path file : rotatedFiles) {
+            if (catalogue.contains(HistoryCatalogue.segmentFileOf(file))) {
+                continue;
+            }
+            try {
+                HistoryCatalogue.forEachRecord(file, 0, 0, Long.MAX_VALUE, visitor);
+            } catch (NoSuchFileException e) {
+                readSegment(HistoryCatalogue.segmentFileOf(file), visitor); // sealed and deleted since
+            }
+        }
+        if (Files.exists(historyFile)) {
+            HistoryCatalogue.forEachRecord(historyFile, 0, 0, Long.MAX_VALUE, visitor);
+        }
+    }
+
+    private void readSegment(Path file, HistoryCatalogue.RecordVisitor visitor) throws IOException {
+        HistorySegment segment = HistorySegment.open(file);
+        if (!segment.overlaps(fromMillis, toMillis - 1)) {
+            return;
+        }
+        HistorySegment.Columns columns = segment.columns();
+        long[] times = columns.times();
+        for (int i = 0; i < columns.size(); i++) {
+            if (times[i] >= fromMillis && times[i] < toMillis) {
+                visitor.visit(columns.get(i), -1);
+            }
+        }
+    }
+
+    /**
+     * Gathers the records in the period into runs, writing each full run to a
+     * temporary file.
+     */
+    private final class Gather implements HistoryCatalogue.RecordVisitor {
+        final Path directory; // where the temporary directory is made
+        final List<Path> runFiles = new ArrayList<>();
+        final Map<String, String> types = new HashMap<>(); // one copy of each transaction type
+        Path sortDirectory = null;
+        Run run = new Run(runRecords);
+
+        Gather(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void visit(Transaction t, long offset) throws IOException {
+            if (t.timestamp < fromMillis || t.timestamp >= toMillis) {
+                return;
+            }
+            run.add(t, types.computeIfAbsent(t.transactionType, type -> type));
+            records++;
+            if (run.isFull()) {
+                spill();
+            }
+        }
+
+        void spill() throws IOException {
+            if (sortDirectory == null) {
+                sortDirectory = Files.createTempDirectory(directory, "statement-sort");
+            }
+            runFiles.add(run.sortAndSpill(sortDirectory.resolve("run-" + runFiles.size())));
+            runs++;
+        }
+    }
+
+    /**
+     * Reads the grouped records from a cursor and writes them in batches.
+     */
+    private int write(Cursor cursor, Path directory, Writer combined) throws IOException {
+        int statements = 0;
+        List<Statement> batch = new ArrayList<>();
+        Statement current = null;
+        int inBatch = 0;
+        Transaction t;
+        while ((t = cursor.next()) != null) {
+            boolean newAccount = current == null || current.accNumber != t.accNumber;
+            if (newAccount && current != null) {
+                current.last = true;
+            }
+            if (inBatch == batchRecords) {
+                writeBatch(batch, directory, combined);
+                batch = new ArrayList<>();
+                inBatch = 0;
+            }
+            if (newAccount) {
+                current = new Statement(t.accNumber, true);
+                batch.add(current);
+                statements++;
+            } else if (inBatch == 0) {
+                current = new Statement(t.accNumber, false); // the rest of an account cut off by the last batch
+                batch.add(current);
+            }
+            current.transactions.add(t);
+            inBatch++;
+        }
+        if (current != null) {
+            current.last = true;
+        }
+        writeBatch(batch, directory, combined);
+        return statements;
+    }
+
+    /**
+     * Formats the statements of a batch in parallel, and writes them to their
+     * own files in parallel or to the combined file in order.
+     */
+    private void writeBatch(List<Statement> batch, Path directory, Writer combined) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (combined == null) {
+                pool.submit(() -> batch.parallelStream().forEach(s -> s.writeTo(directory))).get();
+            } else {
+                String[] texts = pool.submit(() -> batch.parallelStream().map(s -> s.format(true))
+                        .toArray(String[]::new)).get();
+                for (String text : texts) {
+                    combined.write(text);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing statements", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Error writing statements", e.getCause());
+        }
+    }
+
+    /**
+     * The records of one account in a batch: all of its statement, or the
+     * first, a middle or the last part of it.
+     */
+    private final class Statement {
+        final int accNumber;
+        final boolean first; // true if this starts the statement
+        boolean last = false; // true if this ends the statement
+        final List<Transaction> transactions = new ArrayList<>();
+
+        Statement(int accNumber, boolean first) {
+            this.accNumber = accNumber;
+            this.first = first;
+        }
+
+        String format(boolean combined) {
+            StringBuilder text = new StringBuilder(transactions.size() * 128 + 64);
+            if (first) {
+                text.append("Statement for account ").append(accNumber).append(", ")
+                        .append(DateTimeUtils.formatDate(fromMillis)).append(" to ")
+                        .append(DateTimeUtils.formatDate(toMillis - 1)).append("\n\n");
+            }
+            for (int i = 0; i < transactions.size(); i++) {
+                if (i > 0 || !first) {
+                    text.append("\n\n");
+                }
+                text.append(transactions.get(i).format());
+            }
+            if (last) {
+                text.append(combined ? "\n\n\n" : "\n");
+            }
+            return text.toString();
+        }
+
+        void writeTo(Path directory) {
+            Path file = statementFile(directory, accNumber);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, first ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND)) {
+                out.write(format(false));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Hands out the records grouped by account, each account's records in the
+     * order they were made.
+     */
+    private interface Cursor {
+        Transaction next() throws IOException; // null once there are no more
+
+        void close() throws IOException;
+    }
+
+    /**
+     * A run of records in arrays, sorted by account number and then by
+     * position in the run, which is the order they were made.
+     */
+    private static final class Run implements Cursor {
+        final int[] accNumbers;
+        final String[] types;
+        final int[] amounts;
+        final int[] newBalances;
+        final long[] timestamps;
+        final long[] sequences;
+        final long[] keys; // account number in the high half, position in the low half
+        int size = 0;
+        int cursor = 0; // the next key handed out by next
+
+        Run(int capacity) {
+            accNumbers = new int[capacity];
+            types = new String[capacity];
+            amounts = new int[capacity];
+            newBalances = new int[capacity];
+            timestamps = new long[capacity];
+            sequences = new long[capacity];
+            keys = new long[capacity];
+        }
+
+        void add(Transaction t, String type) {
+            accNumbers[size] = t.accNumber;
+            types[size] = type;
+            amounts[size] = t.amount;
+            newBalances[size] = t.newBalance;
+            timestamps[size] = t.timestamp;
+            sequences[size] = t.sequence;
+            // Flipping the sign bit makes negative account numbers sort before positive ones
+            keys[size] = (long) (t.accNumber ^ Integer.MIN_VALUE) << 32 | size;
+            size++;
+        }
+
+        boolean isFull() {
+            return size == keys.length;
+        }
+
+        void sort() {
+            Arrays.parallelSort(keys, 0, size);
+            cursor = 0;
+        }
+
+        /**
+         * Sorts the run, writes it to a file and empties it.
+         */
+        Path sortAndSpill(Path file) throws IOException {
+            sort();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                    1 << 16))) {
+                Transaction t;
+                while ((t = next()) != null) {
+                    write(out, t);
+                }
+            }
+            size = 0;
+            cursor = 0;
+            Arrays.fill(types, null);
+            return file;
+        }
+
+        @Override
+        public Transaction next() {
+            if (cursor == size) {
+                return null;
+            }
+            int i = (int) keys[cursor++];
+            return new Transaction(accNumbers[i], types[i], amounts[i], newBalances[i], timestamps[i], sequences[i]);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void write(DataOutputStream out, Transaction t) throws IOException {
+        out.writeInt(t.accNumber);
+        out.writeUTF(t.transactionType);
+        out.writeInt(t.amount);
+        out.writeInt(t.newBalance);
+        out.writeLong(t.timestamp);
+        out.writeLong(t.sequence);
+    }
+
+    /**
+     * Reads a run back from its file.
+     */
+    private static final class RunReader {
+        final DataInputStream in;
+        final int number; // the run's place in the history, to keep ties in order
+        final Map<String, String> types = new HashMap<>();
+        Transaction current; // null once the run is used up
+
+        RunReader(Path file, int number) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            this.number = number;
+            advance();
+        }
+
+        void advance() throws IOException {
+            int accNumber;
+            try {
+                accNumber = in.readInt();
+            } catch (EOFException e) {
+                current = null;
+                return;
+            }
+            String type = types.computeIfAbsent(in.readUTF(), t -> t);
+            current = new Transaction(accNumber, type, in.readInt(), in.readInt(), in.readLong(), in.readLong());
+        }
+    }
+
+    /**
+     * Merges the run files, taking the lowest account number next, and for
+     * the same account the record from the earlier run.
+     */
+    private static final class Merge implements Cursor {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+            int c = Integer.compare(a.current.accNumber, b.current.accNumber);
+            return c != 0 ? c : Integer.compare(a.number, b.number);
+        });
+
+        Merge(List<Path> files) throws IOException {
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    RunReader reader = new RunReader(files.get(i), i);
+                    readers.add(reader);
+                    if (reader.current != null) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Transaction next() throws IOException {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+                return null;
+            }
+            Transaction t = reader.current;
+            reader.advance();
+            if (reader.current != null) {
+                queue.add(reader);
+            }
+            return t;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    /**
+     * Exports the statements of a month.
+     * Usage: StatementExport history.csv yyyy-MM output [combined]
+     * The output is a directory of statement files, or, with "combined", one
+     * file.
+     *
+     * @param args The history file, the month, the output and the mode.
+     * @throws IOException if the history could not be read or the statements
+     *                     written.
+     */
+    public static void main(String[] args) throws IOException {
+        Debug.set(false);
+        if (args.length < 3 || args.length > 4 || (args.length == 4 && !args[3].equals("combined"))) {
+            System.err.println("Usage: StatementExport <history.csv> <yyyy-MM> <output> [combined]");
+            System.exit(2);
+        }
+        StatementExport export = new StatementExport(Paths.get(args[0]), YearMonth.parse(args[1]));
+        long start = System.nanoTime();
+        int statements = args.length == 4 ? export.exportCombined(Paths.get(args[2]))
+                : export.exportFiles(Paths.get(args[2]));
+        System.out.printf("Wrote %d statements of %d records (%d sorted runs) in %d ms%n", statements,
+                export.getRecords(), export.getRuns(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,175 @@
+package CI401.mybank;
+
+import java.util.List;
+
+/**
+ * The Transaction class represents one record of the transaction history:
+ * the account, the type of the transaction, the amount, the balance after it,
+ * when it happened and its sequence number.
+ * Times are kept as milliseconds since the epoch, and only formatted as a
+ * date and time for display. The sequence number orders the records of one
+ * history file, including records made in the same millisecond.
+ * It also converts records to and from the rows of transaction_history.csv.
+ * Rows in the old format, with a dd/MM/yy date and HH:mm time in place of the
+ * timestamp and sequence number, are still read, see TransactionLog.migrate.
+ */
+public class Transaction {
+    static final String HEADER = "accNumber,transactionType,amount,newBalance,timestamp,sequence";
+
+    public final int accNumber;
+    public final String transactionType;
+    public final int amount;
+    public final int newBalance;
+    public final long timestamp; // when it happened, in milliseconds since the epoch
+    public final long sequence; // position in the history file (0 if not logged yet)
+
+    /**
+     * Constructor for the Transaction class.
+     *
+     * @param accNumber       The account number.
+     * @param transactionType The type of the transaction.
+     * @param amount          The amount of money involved in the transaction.
+     * @param newBalance      The balance of the account after the transaction.
+     * @param timestamp       When the transaction happened, in milliseconds
+     *                        since the epoch.
+     * @param sequence        The sequence number of the record, or 0 if it
+     *                        has not been logged yet.
+     */
+    public Transaction(int accNumber, String transactionType, int amount, int newBalance, long timestamp,
+            long sequence) {
+        this.accNumber = accNumber;
+        this.transactionType = transactionType;
+        this.amount = amount;
+        this.newBalance = newBalance;
+        this.timestamp = timestamp;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Constructor for a transaction recorded in the old format, with a date
+     * and a time to the minute.
+     *
+     * @param accNumber       The account number.
+     * @param transactionType The type of the transaction.
+     * @param amount          The amount of money involved in the transaction.
+     * @param newBalance      The balance of the account after the transaction.
+     * @param date            The date of the transaction (dd/MM/yy).
+     * @param time            The time of the transaction (HH:mm).
+     * @throws IllegalArgumentException if the date or time cannot be read.
+     */
+    public Transaction(int accNumber, String transactionType, int amount, int newBalance, String date,
+            String time) {
+        this(accNumber, transactionType, amount, newBalance, DateTimeUtils.toEpochMillis(date, time), 0);
+    }
+
+    /**
+     * Makes a copy of the transaction with a sequence number and timestamp,
+     * as given to it when it is logged.
+     *
+     * @param timestamp The timestamp.
+     * @param sequence  The sequence number.
+     * @return The copy.
+     */
+    Transaction stamped(long timestamp, long sequence) {
+        return new Transaction(accNumber, transactionType, amount, newBalance, timestamp, sequence);
+    }
+
+    /**
+     * Gets the date of the transaction, for display.
+     *
+     * @return The date (dd/MM/yy).
+     */
+    public String getDate() {
+        return DateTimeUtils.formatDate(timestamp);
+    }
+
+    /**
+     * Gets the time of the transaction, for display.
+     *
+     * @return The time (HH:mm).
+     */
+    public String getTime() {
+        return DateTimeUtils.formatTime(timestamp);
+    }
+
+    /**
+     * Parses one row of transaction_history.csv, in either format.
+     *
+     * @param line The CSV row, without a line terminator.
+     * @return The transaction, or null if the row does not have enough fields or
+     *         is not a valid record (such as the header line).
+     */
+    public static Transaction parse(String line) {
+        int[] commas = new int[5];
+        int found = 0;
+        for (int i = 0; i < line.length() && found < commas.length; i++) {
+            if (line.charAt(i) == ',') {
+                commas[found++] = i;
+            }
+        }
+        if (found < commas.length) {
+            return null; // Skip lines that don't have enough parts
+        }
+        try {
+            int end = line.indexOf(',', commas[4] + 1); // ignore any extra fields
+            int accNumber = Integer.parseInt(line, 0, commas[0], 10);
+            String type = line.substring(commas[0] + 1, commas[1]);
+            int amount = Integer.parseInt(line, commas[1] + 1, commas[2], 10);
+            int newBalance = Integer.parseInt(line, commas[2] + 1, commas[3], 10);
+            if (line.indexOf('/', commas[3] + 1) == commas[3] + 3) {
+                // The old format: date and time
+                return new Transaction(accNumber, type, amount, newBalance, line.substring(commas[3] + 1, commas[4]),
+                        line.substring(commas[4] + 1, end < 0 ? line.length() : end));
+            }
+            return new Transaction(accNumber, type, amount, newBalance,
+                    Long.parseLong(line, commas[3] + 1, commas[4], 10),
+                    Long.parseLong(line, commas[4] + 1, end < 0 ? line.length() : end, 10));
+        } catch (IllegalArgumentException e) {
+            return null; // including NumberFormatException
+        }
+    }
+
+    /**
+     * Formats the transaction as a row of transaction_history.csv.
+     *
+     * @return The CSV row, including the line terminator.
+     */
+    public String toCsv() {
+        return accNumber + "," + transactionType + "," + amount + "," + newBalance + "," + timestamp + ","
+                + sequence + "\n";
+    }
+
+    /**
+     * Formats the transaction for display in a statement.
+     *
+     * @return The transaction as it appears in a statement.
+     */
+    public String format() {
+        return "Transaction Type: " + transactionType
+                + "\nAmount: " + Model.formatBalance(amount)
+                + "\nNew Balance: " + Model.formatBalance(newBalance)
+                + "\nTransaction Date: " + getDate()
+                + "\nTransaction Time: " + getTime();
+    }
+
+    /**
+     * Formats a list of transactions as a statement.
+     *
+     * @param transactions The transactions, oldest first.
+     * @return The statement text.
+     */
+    public static String formatStatement(List<Transaction> transactions) {
+        // Check if there are no transactions
+        if (transactions.isEmpty()) {
+            return "No transaction history available for this account.";
+        }
+        StringBuilder statement = new StringBuilder();
+        for (Transaction t : transactions) {
+            if (statement.length() > 0) {
+                statement.append("\n\n");
+            }
+            statement.append(t.format());
+        }
+        return statement.toString();
+    }
+}
@@ -0,0 +1,458 @@
+package CI401.mybank;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The TransactionIndex class keeps, for every account, the byte offsets of its
+ * records in the transaction history and a ring of its most recent
+ * transactions. Once the history has been rotated into segments, the offsets
+ * run on from one file to the next, see TransactionLog.
+ * The Bank updates it as it logs each transaction, so a statement costs O(N)
+ * for the account instead of a scan of the whole history file.
+ * For date range statements it also keeps a sparse time index: the time of
+ * every MARK_EVERY'th record of each account, so the records of a range are
+ * found by binary search and only those records are read from the file.
+ * It is rebuilt from the history in one sequential pass on startup.
+ */
+public class TransactionIndex {
+    public static final int DEFAULT_RECENT = 5; // transactions kept in memory per account
+    static final int MARK_EVERY = 16; // records of an account between entries of the time index
+
+    private final int recentSize; // size of each account's ring of recent transactions
+    private final IntObjectMap<History> histories = new IntObjectMap<>(); // history of each account
+    private long records = 0; // number of records indexed
+    private long lastSequence = 0; // highest sequence number indexed
+    private long latestTime = Long.MIN_VALUE; // latest time of any record indexed
+
+    /**
+     * The indexed history of one account.
+     */
+    static class History {
+        long[] offsets = new long[4]; // byte offset of each record, oldest first
+        long[] marks = new long[1]; // latest time of records 0 to i * MARK_EVERY, see MARK_EVERY
+        long latest = Long.MIN_VALUE; // latest time of any record so far
+        int count = 0; // number of records for the account
+        final Transaction[] recent; // ring of the most recent transactions
+
+        History(int recentSize) {
+            recent = new Transaction[recentSize];
+        }
+
+        void add(Transaction t, long offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count + (count >> 1) + 1);
+            }
+            offsets[count] = offset;
+            recent[count % recent.length] = t;
+            // Keep the marks in order even if the clock went back, so they can be binary searched
+            latest = Math.max(latest, t.timestamp);
+            if (count % MARK_EVERY == 0) {
+                int mark = count / MARK_EVERY;
+                if (mark == marks.length) {
+                    marks = Arrays.copyOf(marks, mark * 2);
+                }
+                marks[mark] = latest;
+            }
+            count++;
+        }
+
+        /**
+         * Takes out the records from an offset on, which are the newest.
+         *
+         * @return The number of records taken out.
+         */
+        int discardFrom(long offset) {
+            int kept = count;
+            while (kept > 0 && offsets[kept - 1] >= offset) {
+                kept--;
+                recent[kept % recent.length] = null;
+            }
+            int discarded = count - kept;
+            count = kept;
+            return discarded;
+        }
+    }
+
+    /**
+     * Constructor for the TransactionIndex class.
+     * It keeps the default number of recent transactions for each account.
+     */
+    public TransactionIndex() {
+        this(DEFAULT_RECENT);
+    }
+
+    /**
+     * Constructor for the TransactionIndex class.
+     *
+     * @param recentSize The number of recent transactions to keep in memory for
+     *                   each account.
+     */
+    public TransactionIndex(int recentSize) {
+        this.recentSize = recentSize;
+    }
+
+    /**
+     * Adds a transaction to the index.
+     *
+     * @param t      The transaction.
+     * @param offset The byte offset of its record in the history file.
+     */
+    public synchronized void add(Transaction t, long offset) {
+        History h = histories.get(t.accNumber);
+        if (h == null) {
+            h = new History(recentSize);
+            histories.put(t.accNumber, h);
+        }
+        h.add(t, offset);
+        records++;
+        lastSequence = Math.max(lastSequence, t.sequence);
+        latestTime = Math.max(latestTime, t.timestamp);
+    }
+
+    /**
+     * Returns the most recent transactions of an account.
+     *
+     * @param accNumber The account number.
+     * @return Up to the ring size of the latest transactions, oldest first.
+     */
+    public synchronized List<Transaction> recent(int accNumber) {
+        History h = histories.get(accNumber);
+        List<Transaction> result = new ArrayList<>(recentSize);
+        if (h != null) {
+            int from = Math.max(0, h.count - recentSize);
+            for (int i = from; i < h.count; i++) {
+                Transaction t = h.recent[i % recentSize];
+                if (t != null) { // null where a newer record taken out by discardFrom was
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Takes every record at or after an offset out of the index, such as the
+     * records the TransactionLog could not write. Each account's records are
+     * in offset order, so only the newest of each are looked at.
+     *
+     * @param offset The offset of the first record to take out.
+     */
+    public synchronized void discardFrom(long offset) {
+        long discarded = 0;
+        for (History h : histories) {
+            discarded += h.discardFrom(offset);
+        }
+        records -= discarded;
+    }
+
+    /**
+     * Returns the number of records of an account.
+     *
+     * @param accNumber The account number.
+     * @return The number of records.
+     */
+    public synchronized int count(int accNumber) {
+        History h = histories.get(accNumber);
+        return h == null ? 0 : h.count;
+    }
+
+    /**
+     * Returns the byte offsets of some of the records of an account.
+     *
+     * @param accNumber The account number.
+     * @param from      The position of the first record, counting from the
+     *                  oldest as 0.
+     * @param to        The position after the last record.
+     * @return The offsets, oldest first, of the records which exist.
+     */
+    public synchronized long[] offsets(int accNumber, int from, int to) {
+        History h = histories.get(accNumber);
+        if (h == null) {
+            return new long[0];
+        }
+        int start = Math.max(0, from);
+        int end = Math.min(h.count, to);
+        return start >= end ? new long[0] : Arrays.copyOfRange(h.offsets, start, end);
+    }
+
+    /**
+     * Finds which records of an account may fall in a time range, by binary
+     * search of the account's time index. The records outside the positions
+     * returned are all outside the range; the ones inside must still be
+     * checked, since each mark only narrows the range to MARK_EVERY records.
+     *
+     * @param accNumber  The account number.
+     * @param fromMillis The start of the range, in milliseconds since the epoch.
+     * @param toMillis   The end of the range, exclusive.
+     * @return The positions of the first record and the record after the last,
+     *         as for offsets(accNumber, from, to).
+     */
+    public synchronized int[] positionsBetween(int accNumber, long fromMillis, long toMillis) {
+        History h = histories.get(accNumber);
+        if (h == null || fromMillis >= toMillis || fromMillis > h.latest) {
+            return new int[] { 0, 0 };
+        }
+        int marks = (h.count + MARK_EVERY - 1) / MARK_EVERY;
+        // Records before the last mark earlier than the range are earlier still
+        int first = lastMarkBefore(h.marks, marks, fromMillis);
+        // Records from the first mark at or after the end are no earlier than it
+        int last = lastMarkBefore(h.marks, marks, toMillis) + 1;
+        return new int[] { Math.max(0, first) * MARK_EVERY, Math.min(h.count, last * MARK_EVERY) };
+    }
+
+    /**
+     * Finds the last of the marks which is earlier than a time.
+     *
+     * @return The position of the mark, or -1 if every mark is at or after the
+     *         time.
+     */
+    private static int lastMarkBefore(long[] marks, int count, long millis) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (marks[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Returns the byte offsets of every record of an account.
+     *
+     * @param accNumber The account number.
+     * @return The offsets, oldest first (empty if the account has no history).
+     */
+    public synchronized long[] offsets(int accNumber) {
+        History h = histories.get(accNumber);
+        return h == null ? new long[0] : Arrays.copyOf(h.offsets, h.count);
+    }
+
+    /**
+     * Returns the number of records held by the index.
+     *
+     * @return The number of records.
+     */
+    public synchronized long size() {
+        return records;
+    }
+
+    /**
+     * Returns the highest sequence number of the records indexed.
+     *
+     * @return The sequence number, or 0 if there are none.
+     */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Returns the latest time of the records indexed.
+     *
+     * @return The time in milliseconds since the epoch, or Long.MIN_VALUE if
+     *         there are none.
+     */
+    public synchronized long latestTime() {
+        return latestTime;
+    }
+
+    /**
+     * Rebuilds the index from a history file, replacing its contents.
+     * A missing file gives an empty index.
+     *
+     * @param historyFile The transaction history file.
+     * @throws IOException if the file could not be read.
+     */
+    public synchronized void rebuild(Path historyFile) throws IOException {
+        clear();
+        index(historyFile, 0);
+    }
+
+    /**
+     * Empties the index.
+     */
+    public synchronized void clear() {
+        histories.clear();
+        records = 0;
+        lastSequence = 0;
+        latestTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * Adds the records of a history file to the index, after the ones already
+     * in it. A missing file adds nothing.
+     *
+     * @param historyFile The transaction history file.
+     * @param base        The offset the file starts at in the history, added
+     *                    to the offset of each record (0 for a single file).
+     * @throws IOException if the file could not be read.
+     */
+    public synchronized void index(Path historyFile, long base) throws IOException {
+        if (!Files.exists(historyFile)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(historyFile)) {
+            byte[] buffer = new byte[1 << 16];
+            int carried = 0; // bytes of an unfinished line kept at the start of the buffer
+            long position = base; // offset of the start of the buffer
+            int read;
+            while ((read = in.read(buffer, carried, buffer.length - carried)) != -1) {
+                int end = carried + read;
+                int start = 0;
+                for (int i = carried; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        indexLine(buffer, start, i, position + start);
+                        start = i + 1;
+                    }
+                }
+                // Keep the unfinished line, growing the buffer if one line fills it
+                carried = end - start;
+                if (carried == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, carried);
+                }
+                position += start;
+            }
+            if (carried > 0) {
+                indexLine(buffer, 0, carried, position); // last line without a terminator
+            }
+        }
+        Debug.trace("TransactionIndex::index: Indexed %s, %d transactions for %d accounts", historyFile, records,
+                histories.size());
+    }
+
+    private void indexLine(byte[] bytes, int from, int to, long offset) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        Transaction t = parseLine(bytes, from, to);
+        if (t != null) { // skips the header line and malformed lines
+            History h = histories.get(t.accNumber);
+            if (h == null) {
+                h = new History(recentSize);
+                histories.put(t.accNumber, h);
+            }
+            h.add(t, offset);
+            records++;
+            lastSequence = Math.max(lastSequence, t.sequence);
+            latestTime = Math.max(latestTime, t.timestamp);
+        }
+    }
+
+    /**
+     * Parses a history record straight from its bytes, which avoids building a
+     * String for the whole line and reuses the common transaction type names.
+     * Records in the old format are handed to Transaction.parse.
+     *
+     * @return The transaction, or null if the line is not a valid record.
+     */
+    private static Transaction parseLine(byte[] bytes, int from, int to) {
+        // Find the ends of the first five fields, the sixth runs to the next comma or
+        // the end of the line (any extra fields are ignored)
+        int accEnd = indexOf(bytes, from, to);
+        int typeEnd = indexOf(bytes, accEnd + 1, to);
+        int amountEnd = indexOf(bytes, typeEnd + 1, to);
+        int balanceEnd = indexOf(bytes, amountEnd + 1, to);
+        int timestampEnd = indexOf(bytes, balanceEnd + 1, to);
+        if (timestampEnd >= to) {
+            return null;
+        }
+        int sequenceEnd = indexOf(bytes, timestampEnd + 1, to);
+        long accNumber = parseInt(bytes, from, accEnd);
+        long amount = parseInt(bytes, typeEnd + 1, amountEnd);
+        long newBalance = parseInt(bytes, amountEnd + 1, balanceEnd);
+        long timestamp = parseLong(bytes, balanceEnd + 1, timestampEnd);
+        long sequence = parseLong(bytes, timestampEnd + 1, sequenceEnd);
+        if (timestamp == Long.MIN_VALUE || sequence == Long.MIN_VALUE) {
+            return Transaction.parse(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        }
+        if (accNumber == Long.MIN_VALUE || amount == Long.MIN_VALUE || newBalance == Long.MIN_VALUE) {
+            return null;
+        }
+        return new Transaction((int) accNumber, typeName(bytes, accEnd + 1, typeEnd), (int) amount,
+                (int) newBalance, timestamp, sequence);
+    }
+
+    /**
+     * Returns the position of the next comma, or 'to' if there is none.
+     */
+    private static int indexOf(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == ',') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Parses a decimal int from bytes.
+     *
+     * @return The value, or Long.MIN_VALUE if the bytes are not a valid int.
+     */
+    private static long parseInt(byte[] bytes, int from, int to) {
+        boolean negative = from < to && bytes[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 10) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    /**
+     * Parses a decimal long of at most 18 digits from bytes.
+     *
+     * @return The value, or Long.MIN_VALUE if the bytes are not such a number.
+     */
+    private static long parseLong(byte[] bytes, int from, int to) {
+        boolean negative = from < to && bytes[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 18) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static final String[] KNOWN_TYPES = { "deposit", "withdraw", "transfer" };
+
+    private static String typeName(byte[] bytes, int from, int to) {
+        for (String known : KNOWN_TYPES) {
+            if (known.length() == to - from) {
+                int i = 0;
+                while (i < known.length() && known.charAt(i) == bytes[from + i]) {
+                    i++;
+                }
+                if (i == known.length()) {
+                    return known;
+                }
+            }
+        }
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+}
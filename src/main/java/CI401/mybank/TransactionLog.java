@@ -0,0 +1,980 @@
+package CI401.mybank;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The TransactionLog class appends transactions to transaction_history.csv
+ * from a single background writer thread.
+ * Callers hand a transaction over through a bounded queue and get back a
+ * future which completes once the record has been written (and forced to disk
+ * if fsync is on). The writer takes records off the queue in groups, so many
+ * transactions share one write and one flush (group commit). A group is
+ * written when it holds groupRecords records or groupMillis milliseconds
+ * after its first record arrived, whichever comes first. A groupRecords of 1
+ * writes every record on its own.
+ * Each record is given the next sequence number as it is queued, and a
+ * timestamp no earlier than the record before it, so the file is in order
+ * of both.
+ * The log also keeps the TransactionIndex up to date, since the offset of
+ * each record is known as soon as it is queued, and reads records back by
+ * their offsets for statements.
+ * A history file in the old format (dates and times to the minute) is
+ * migrated to the current one when it is opened, see migrate.
+ * The history is kept in segments. Records are always appended to the active
+ * file, transaction_history.csv, which is rotated into the "history"
+ * directory once it reaches segmentBytes, or at the first record of a new
+ * day if segmentDaily is on. A background thread then seals each rotated
+ * file into a compressed HistorySegment and lists it in the HistoryCatalogue.
+ * Offsets run on from one file to the next, as if the history were still
+ * one file, so the index and the records read back by offset do not change
+ * when a file is rotated or sealed.
+ * A record's offset is indexed before it is written, so a failed write would
+ * leave every later offset pointing at the wrong bytes. The log stops at the
+ * first write error instead: the file is cut back to the last complete group,
+ * the records after it are taken out of the index and every record after it
+ * is refused. Reads then leave out any offset past the last complete group.
+ */
+public class TransactionLog implements Closeable {
+    private static final Record CLOSE = new Record(null, null); // tells the writer to stop
+    private static final int BATCH_CHUNK_BYTES = 1 << 20; // most bytes appendAll puts in one record
+    private static final byte[] HEADER_BYTES = (Transaction.HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+    private static final long DECODED_BYTES = 64L << 20; // memory for sealed segments kept decoded for reads
+    private static final int DECODED_ROW_BYTES = 48; // memory a decoded record takes
+
+    private final Path historyFile; // the active history file
+    private final Path historyDirectory; // where rotated files and sealed segments are kept
+    private final HistoryCatalogue catalogue; // the sealed segments
+    private final long segmentBytes; // size the active file is rotated at (0 for no limit)
+    private final boolean segmentDaily; // rotate the active file at the first record of each day
+    private final TransactionIndex index; // index of the records in the history file
+    private final int groupRecords; // most records written in one group
+    private final long groupMillis; // longest time a record waits for its group to fill
+    private final boolean fsync; // force each group to disk before completing it
+    private final BlockingQueue<Record> queue; // records waiting for the writer
+    private final Thread writer; // the background writer thread
+    private final ExecutorService sealer; // seals rotated files, one at a time in the order they were rotated
+    private final ReentrantReadWriteLock filesLock = new ReentrantReadWriteLock(); // write locked to change the files
+    private final TreeMap<Long, Rotated> rotated = new TreeMap<>(); // rotated files not yet sealed, by their start
+    private final LinkedHashMap<Path, HistorySegment.Columns> decoded = new LinkedHashMap<>(16, 0.75f, true);
+    private long decodedRows = 0; // records in the decoded segments, guarded by decoded
+    private FileChannel channel; // the open active file, only replaced by the writer under filesLock
+    private long activeBase; // offset the active file starts at, only changed by the writer under filesLock
+    private long activeStart; // offset the active file starts at once the queued records are written
+    private int nextSegment; // number of the next rotated file
+    private boolean sealFailed = false; // once a seal fails the later files wait until the log is reopened
+    private long nextOffset; // offset the next queued record will be written at
+    private long nextSequence; // sequence number of the next queued record
+    private long lastTimestamp; // timestamp of the last queued record
+    private volatile long writtenOffset; // offset up to which the records have been written
+    private volatile long bytesWritten = 0; // bytes of records written since the log was opened
+    private CompletableFuture<Void> lastQueued = CompletableFuture.completedFuture(null); // of the last queued record
+    private boolean closed = false; // true once close has been called
+    private volatile IOException failure = null; // the write error which stopped the log, or null
+
+    /**
+     * A transaction waiting to be written.
+     */
+    private static class Record {
+        final byte[] bytes;
+        final CompletableFuture<Void> written;
+        final Path rotateTo; // where to move the active file before writing the bytes, or null
+
+        Record(byte[] bytes, CompletableFuture<Void> written) {
+            this(bytes, written, null);
+        }
+
+        Record(byte[] bytes, CompletableFuture<Void> written, Path rotateTo) {
+            this.bytes = bytes;
+            this.written = written;
+            this.rotateTo = rotateTo;
+        }
+    }
+
+    /**
+     * A rotated file waiting to be sealed, still open for reads.
+     */
+    private static class Rotated {
+        final Path file;
+        final FileChannel channel;
+        final long size;
+
+        Rotated(Path file, FileChannel channel, long size) {
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Opens a transaction log using the settings from the system properties
+     * "mybank.log.queue" (queue capacity, default 4096),
+     * "mybank.log.groupRecords" (default 64), "mybank.log.groupMillis"
+     * (default 2), "mybank.log.fsync" (default false),
+     * "mybank.log.segmentBytes" (default 64 MB, 0 for no limit) and
+     * "mybank.log.segmentDaily" (default false).
+     *
+     * @param historyFile The history file.
+     * @param index       The index to rebuild from the file and keep up to date.
+     * @return The transaction log.
+     * @throws IOException if the history file could not be opened.
+     */
+    public static TransactionLog open(Path historyFile, TransactionIndex index) throws IOException {
+        return new TransactionLog(historyFile, index,
+                Integer.getInteger("mybank.log.queue", 4096),
+                Integer.getInteger("mybank.log.groupRecords", 64),
+                Long.getLong("mybank.log.groupMillis", 2),
+                Boolean.getBoolean("mybank.log.fsync"),
+                Long.getLong("mybank.log.segmentBytes", 64L << 20),
+                Boolean.getBoolean("mybank.log.segmentDaily"));
+    }
+
+    /**
+     * Constructor for the TransactionLog class, for a log which is never
+     * rotated.
+     *
+     * @param historyFile   The history file.
+     * @param index         The index to rebuild from the file and keep up to date.
+     * @param queueCapacity The most records which can wait for the writer;
+     *                      callers block when the queue is full.
+     * @param groupRecords  The most records written in one group (1 writes
+     *                      every record on its own).
+     * @param groupMillis   The longest time in milliseconds a record waits for
+     *                      its group to fill.
+     * @param fsync         true to force each group to disk before its futures
+     *                      complete.
+     * @throws IOException if the history file could not be opened.
+     */
+    public TransactionLog(Path historyFile, TransactionIndex index, int queueCapacity, int groupRecords,
+            long groupMillis, boolean fsync) throws IOException {
+        this(historyFile, index, queueCapacity, groupRecords, groupMillis, fsync, 0, false);
+    }
+
+    /**
+     * Constructor for the TransactionLog class.
+     * It seals any rotated files left from before, rebuilds the index from
+     * the sealed segments and the active file, writes the header line if the
+     * active file is new, and starts the writer thread.
+     *
+     * @param historyFile   The active history file.
+     * @param index         The index to rebuild from the history and keep up to
+     *                      date.
+     * @param queueCapacity The most records which can wait for the writer;
+     *                      callers block when the queue is full.
+     * @param groupRecords  The most records written in one group (1 writes
+     *                      every record on its own).
+     * @param groupMillis   The longest time in milliseconds a record waits for
+     *                      its group to fill.
+     * @param fsync         true to force each group to disk before its futures
+     *                      complete.
+     * @param segmentBytes  The size in bytes the active file is rotated at, or
+     *                      0 for no limit.
+     * @param segmentDaily  true to rotate the active file at the first record
+     *                      of each day.
+     * @throws IOException if the history could not be opened.
+     */
+    public TransactionLog(Path historyFile, TransactionIndex index, int queueCapacity, int groupRecords,
+            long groupMillis, boolean fsync, long segmentBytes, boolean segmentDaily) throws IOException {
+        this.historyFile = historyFile;
+        this.index = index;
+        this.groupRecords = Math.max(1, groupRecords);
+        this.groupMillis = Math.max(0, groupMillis);
+        this.fsync = fsync;
+        this.segmentBytes = Math.max(0, segmentBytes);
+        this.segmentDaily = segmentDaily;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        migrate(historyFile);
+        Path parent = historyFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        historyDirectory = HistoryCatalogue.directoryOf(historyFile);
+        catalogue = HistoryCatalogue.open(historyDirectory);
+        sealRotatedFiles();
+        index.clear();
+        for (HistoryCatalogue.Entry entry : catalogue.getEntries()) {
+            indexSegment(entry);
+        }
+        activeBase = catalogue.getEndOffset();
+        index.index(historyFile, activeBase);
+        nextSequence = index.lastSequence() + 1;
+        lastTimestamp = index.latestTime();
+        String last = HistoryArchive.nextSegmentFile(historyDirectory).getFileName().toString();
+        nextSegment = Integer.parseInt(last.substring("history-".length(), last.length() - ".seg".length()));
+
+        channel = FileChannel.open(historyFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size == 0) {
+            // Write the headers if the file is new
+            size = writeFully(ByteBuffer.wrap(HEADER_BYTES), 0);
+        } else if (!endsWithNewline()) {
+            // Finish a last line left without a terminator so the next record starts a new line
+            size = writeFully(ByteBuffer.wrap(new byte[] { '\n' }), size);
+        }
+        channel.position(size);
+        activeStart = activeBase;
+        nextOffset = activeBase + size;
+        writtenOffset = nextOffset;
+
+        sealer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-log-sealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer = new Thread(this::runWriter, "transaction-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Seals the rotated files a log left behind when it stopped, oldest
+     * first, and deletes the ones which had been sealed already.
+     */
+    private void sealRotatedFiles() throws IOException {
+        for (Path file : HistoryCatalogue.rotatedFiles(historyDirectory)) {
+            if (!catalogue.contains(HistoryCatalogue.segmentFileOf(file))) {
+                catalogue.seal(file, catalogue.getEndOffset());
+            }
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Adds the records of a sealed segment to the index.
+     */
+    private void indexSegment(HistoryCatalogue.Entry entry) throws IOException {
+        if (entry.rows == 0) {
+            return;
+        }
+        HistorySegment.Columns columns = HistorySegment.open(entry.file).columns();
+        long[] offsets = columns.offsets();
+        for (int i = 0; i < columns.size(); i++) {
+            index.add(columns.get(i), offsets[i]);
+        }
+    }
+
+    /**
+     * Queues a transaction to be written and adds it to the index, giving it
+     * the next sequence number. This blocks if the queue is full.
+     *
+     * @param t The transaction.
+     * @return A future which completes when the record has been written, or
+     *         completes exceptionally if it could not be.
+     */
+    public CompletableFuture<Void> append(Transaction t) {
+        Record record;
+        // Offsets and sequence numbers are handed out in queue order, which is the order the writer writes in
+        synchronized (this) {
+            t = t.stamped(Math.max(t.timestamp, lastTimestamp), nextSequence);
+            record = new Record(t.toCsv().getBytes(StandardCharsets.UTF_8), new CompletableFuture<>());
+            if (closed || failure != null) {
+                record.written.completeExceptionally(refusal());
+                return record.written;
+            }
+            if (needsRotation(nextOffset, record.bytes.length, lastTimestamp, t.timestamp)) {
+                rotate();
+            }
+            // Indexed before the writer can see it, so a failed write always finds it to take out
+            index.add(t, nextOffset);
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                index.discardFrom(nextOffset);
+                record.written.completeExceptionally(e);
+                return record.written;
+            }
+            nextOffset += record.bytes.length;
+            nextSequence++;
+            lastTimestamp = t.timestamp;
+            lastQueued = record.written;
+        }
+        return record.written;
+    }
+
+    /**
+     * Queues a batch of transactions to be written and adds them to the index,
+     * giving them the next sequence numbers, as append does. They are handed
+     * to the writer in large records rather than one at a time, so the batch
+     * is written in a few large writes. The active file is rotated between
+     * records of the batch as it would be between appends.
+     *
+     * @param batch The transactions.
+     * @return A future which completes when every record has been written, or
+     *         completes exceptionally if any could not be.
+     */
+    public CompletableFuture<Void> appendAll(List<Transaction> batch) {
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        synchronized (this) {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(BATCH_CHUNK_BYTES + 256);
+            List<Transaction> stamped = new ArrayList<>(); // the transactions in the chunk
+            List<Integer> offsets = new ArrayList<>(); // where each of them starts in the chunk
+            long sequence = nextSequence;
+            long timestamp = lastTimestamp;
+            for (int i = 0; i < batch.size(); i++) {
+                Transaction t = batch.get(i).stamped(Math.max(batch.get(i).timestamp, timestamp), sequence++);
+                byte[] line = t.toCsv().getBytes(StandardCharsets.UTF_8);
+                if (needsRotation(nextOffset + chunk.size(), line.length, timestamp, t.timestamp)) {
+                    if (chunk.size() > 0 && !queueChunk(chunk, stamped, offsets, written)) {
+                        break;
+                    }
+                    rotate();
+                }
+                timestamp = t.timestamp;
+                stamped.add(t);
+                offsets.add(chunk.size());
+                chunk.write(line, 0, line.length);
+                if ((chunk.size() >= BATCH_CHUNK_BYTES || i == batch.size() - 1)
+                        && !queueChunk(chunk, stamped, offsets, written)) {
+                    break;
+                }
+            }
+        }
+        return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Queues the transactions in a chunk of appendAll as one record, adds
+     * them to the index and empties the chunk.
+     *
+     * @return false if the record could not be queued.
+     */
+    private boolean queueChunk(ByteArrayOutputStream chunk, List<Transaction> stamped, List<Integer> offsets,
+            List<CompletableFuture<Void>> written) {
+        Record record = new Record(chunk.toByteArray(), new CompletableFuture<>());
+        written.add(record.written);
+        if (closed || failure != null) {
+            record.written.completeExceptionally(refusal());
+            return false;
+        }
+        for (int j = 0; j < stamped.size(); j++) {
+            index.add(stamped.get(j), nextOffset + offsets.get(j));
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            index.discardFrom(nextOffset);
+            record.written.completeExceptionally(e);
+            return false;
+        }
+        Transaction last = stamped.get(stamped.size() - 1);
+        nextOffset += record.bytes.length;
+        nextSequence = last.sequence + 1;
+        lastTimestamp = last.timestamp;
+        lastQueued = record.written;
+        chunk.reset();
+        stamped.clear();
+        offsets.clear();
+        return true;
+    }
+
+    /**
+     * Gets the write error which stopped the log. Once it has stopped, every
+     * record appended is refused until the log is reopened.
+     *
+     * @return The error, or null if the log is still writing.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Makes the error a record is refused with once the log is closed or has
+     * stopped.
+     */
+    private IOException refusal() {
+        return closed ? new IOException("Transaction log is closed")
+                : new IOException("Transaction log stopped after a write error", failure);
+    }
+
+    /**
+     * Checks if the active file should be rotated before a record is queued.
+     * A file holding no records yet is never rotated.
+     *
+     * @param offset       The offset the record would be written at.
+     * @param length       The length of the record.
+     * @param previousTime The timestamp of the record before it.
+     * @param time         The timestamp of the record.
+     */
+    private boolean needsRotation(long offset, int length, long previousTime, long time) {
+        if (offset - activeStart <= HEADER_BYTES.length) {
+            return false;
+        }
+        return segmentBytes > 0 && offset - activeStart + length > segmentBytes
+                || segmentDaily && DateTimeUtils.dayOf(time) != DateTimeUtils.dayOf(previousTime);
+    }
+
+    /**
+     * Queues the rotation of the active file. The writer moves the file into
+     * the history directory when it reaches the rotation and starts a new
+     * one with the header, so the next record queued goes into the new file.
+     * If the rotation cannot be queued the records carry on in the same file.
+     */
+    private void rotate() {
+        Path rotateTo = historyDirectory.resolve(String.format("history-%06d.csv", nextSegment));
+        Record record = new Record(HEADER_BYTES, new CompletableFuture<>(), rotateTo);
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        nextSegment++;
+        activeStart = nextOffset;
+        nextOffset += record.bytes.length;
+        lastQueued = record.written;
+    }
+
+    /**
+     * Gets the offset the next record queued will be written at, which is
+     * the end of the history once the writer has caught up.
+     *
+     * @return The offset.
+     */
+    public synchronized long getEndOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Reads records back from the history, such as the ones the index gives
+     * for an account, from the active file, a rotated file or a sealed
+     * segment, wherever each one is now. Records still waiting for the writer
+     * are waited for first.
+     *
+     * @param offsets The offsets of the records.
+     * @return The transactions, in the order of the offsets. A record which
+     *         cannot be parsed is left out.
+     * @throws IOException if the history could not be read.
+     */
+    public List<Transaction> read(long[] offsets) throws IOException {
+        return read(offsets, -1);
+    }
+
+    /**
+     * Reads records of one account back from the history, as read does,
+     * leaving out any record at those offsets which belongs to another
+     * account.
+     *
+     * @param accNumber The account number.
+     * @param offsets   The offsets of the account's records.
+     * @return The account's transactions, in the order of the offsets.
+     * @throws IOException if the history could not be read.
+     */
+    public List<Transaction> read(int accNumber, long[] offsets) throws IOException {
+        return read(offsets, accNumber);
+    }
+
+    private List<Transaction> read(long[] offsets, int accNumber) throws IOException {
+        waitUntilWritten(offsets);
+        // Once the log has stopped, nothing past the last complete group was written
+        long end = failure != null ? writtenOffset : Long.MAX_VALUE;
+        BankEvents.TransactionLogReadEvent event = new BankEvents.TransactionLogReadEvent();
+        event.begin();
+        List<Transaction> result = new ArrayList<>(offsets.length);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        long bytes = 0;
+        filesLock.readLock().lock();
+        try {
+            for (long offset : offsets) {
+                if (offset >= end) {
+                    continue;
+                }
+                FileChannel file = channel;
+                long position = offset - activeBase;
+                if (offset < activeBase) {
+                    Map.Entry<Long, Rotated> r = rotated.floorEntry(offset);
+                    if (r != null && offset < r.getKey() + r.getValue().size) {
+                        file = r.getValue().channel;
+                        position = offset - r.getKey();
+                    } else {
+                        Transaction t = readSealed(offset);
+                        if (t != null && isOf(t, accNumber, offset)) {
+                            result.add(t);
+                        }
+                        continue;
+                    }
+                }
+                buffer.clear();
+                int length = readLine(file, buffer, position);
+                while (length < 0) {
+                    // The line is longer than the buffer
+                    bytes += buffer.position();
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    length = readLine(file, buffer, position);
+                }
+                bytes += buffer.position();
+                Transaction t = Transaction.parse(new String(buffer.array(), 0, length, StandardCharsets.UTF_8));
+                if (t != null && isOf(t, accNumber, offset)) {
+                    result.add(t);
+                }
+            }
+        } finally {
+            filesLock.readLock().unlock();
+        }
+        if (event.shouldCommit()) {
+            event.records = offsets.length;
+            event.bytes = bytes;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Checks that a record read back belongs to the account it was asked for
+     * (any account for -1).
+     */
+    private static boolean isOf(Transaction t, int accNumber, long offset) {
+        if (accNumber < 0 || t.accNumber == accNumber) {
+            return true;
+        }
+        Debug.warn("TransactionLog::read: The record at offset %d is of account %d, not %d", offset, t.accNumber,
+                accNumber);
+        return false;
+    }
+
+    /**
+     * Reads a record from the sealed segment holding it. The segments read
+     * most recently are kept decoded, up to DECODED_BYTES, since a segment
+     * has to be decoded whole to read one record from it.
+     */
+    private Transaction readSealed(long offset) throws IOException {
+        HistoryCatalogue.Entry entry = catalogue.entryAt(offset);
+        if (entry == null || entry.rows == 0) {
+            return null;
+        }
+        HistorySegment.Columns columns;
+        synchronized (decoded) {
+            columns = decoded.get(entry.file);
+        }
+        if (columns == null) {
+            columns = HistorySegment.open(entry.file).columns();
+            columns.get(0); // decode every column before other threads can see it
+            columns.offsets();
+            synchronized (decoded) {
+                if (decoded.put(entry.file, columns) == null) {
+                    decodedRows += columns.size();
+                }
+                Iterator<HistorySegment.Columns> eldest = decoded.values().iterator();
+                while (decodedRows * DECODED_ROW_BYTES > DECODED_BYTES && decoded.size() > 1) {
+                    decodedRows -= eldest.next().size();
+                    eldest.remove();
+                }
+            }
+        }
+        int i = columns.positionOf(offset);
+        return i < 0 ? null : columns.get(i);
+    }
+
+    /**
+     * Reads every record from an offset to the end of the history, oldest
+     * first, once the writer has caught up. Files are not rotated or sealed
+     * while it reads.
+     *
+     * @param from    The offset to start at.
+     * @param visitor Called with each record and its offset.
+     * @throws IOException if the history could not be read.
+     */
+    public void scan(long from, HistoryCatalogue.RecordVisitor visitor) throws IOException {
+        waitUntilWritten(new long[] { getEndOffset() });
+        filesLock.readLock().lock();
+        try {
+            for (HistoryCatalogue.Entry entry : catalogue.getEntries()) {
+                // A file sealed but not yet deleted is read as a rotated file below
+                if (entry.endOffset <= from || entry.rows == 0 || rotated.containsKey(entry.firstOffset)) {
+                    continue;
+                }
+                HistorySegment.Columns columns = HistorySegment.open(entry.file).columns();
+                long[] offsets = columns.offsets();
+                for (int i = 0; i < columns.size(); i++) {
+                    if (offsets[i] >= from) {
+                        visitor.visit(columns.get(i), offsets[i]);
+                    }
+                }
+            }
+            for (Map.Entry<Long, Rotated> r : rotated.entrySet()) {
+                if (r.getKey() + r.getValue().size > from) {
+                    HistoryCatalogue.forEachRecord(r.getValue().file, r.getKey(), from,
+                            r.getKey() + r.getValue().size, visitor);
+                }
+            }
+            HistoryCatalogue.forEachRecord(historyFile, activeBase, from, writtenOffset, visitor);
+        } finally {
+            filesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the writer if any of the offsets are beyond what it has
+     * written. Records are written in order, so the last record queued is the
+     * one to wait for. Once the log has stopped there is nothing more to wait
+     * for, the offsets it never wrote are left out by the read.
+     */
+    private void waitUntilWritten(long[] offsets) throws IOException {
+        long end = 0;
+        for (long offset : offsets) {
+            end = Math.max(end, offset);
+        }
+        if (end < writtenOffset || failure != null) {
+            return;
+        }
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            last = lastQueued;
+        }
+        try {
+            last.join();
+        } catch (CompletionException | CancellationException e) {
+            if (failure == null) {
+                throw new IOException("Transactions could not be written", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Reads the line starting at an offset into the buffer.
+     *
+     * @return The length of the line without its line break, or -1 if it did
+     *         not fit in the buffer.
+     */
+    private int readLine(FileChannel file, ByteBuffer buffer, long offset) throws IOException {
+        int searched = 0;
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, offset + buffer.position()) < 0) {
+                return buffer.position(); // the last line, with no line break
+            }
+            byte[] bytes = buffer.array();
+            for (; searched < buffer.position(); searched++) {
+                if (bytes[searched] == '\n') {
+                    return searched > 0 && bytes[searched - 1] == '\r' ? searched - 1 : searched;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rewrites a history file in the old format, whose records have a date and
+     * a time to the minute, in the current format. The records keep their
+     * order and are numbered from 1. Lines which are not valid records are
+     * left out, as the index has always skipped them. The new file replaces
+     * the old one only once it is complete.
+     * A file which is missing or already in the current format is left alone.
+     *
+     * @param historyFile The history file.
+     * @return The number of records migrated.
+     * @throws IOException if the file could not be read or rewritten.
+     */
+    public static long migrate(Path historyFile) throws IOException {
+        if (!Files.exists(historyFile) || Files.size(historyFile) == 0) {
+            return 0;
+        }
+        try (BufferedReader in = Files.newBufferedReader(historyFile)) {
+            if (Transaction.HEADER.equals(in.readLine())) {
+                return 0;
+            }
+        }
+        Path migrated = historyFile.resolveSibling(historyFile.getFileName() + ".migrating");
+        long sequence = 0;
+        long skipped = 0;
+        try (BufferedReader in = Files.newBufferedReader(historyFile);
+                BufferedWriter out = Files.newBufferedWriter(migrated)) {
+            out.write(Transaction.HEADER + "\n");
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction t = Transaction.parse(line);
+                if (t == null) {
+                    skipped++;
+                    continue;
+                }
+                out.write(t.stamped(t.timestamp, ++sequence).toCsv());
+            }
+        }
+        Files.move(migrated, historyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Debug.trace("TransactionLog::migrate: Migrated %d records, skipped %d lines", sequence, skipped);
+        return sequence;
+    }
+
+    /**
+     * Returns the number of bytes of records written since the log was
+     * opened, for the bank's metrics.
+     *
+     * @return The bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the history file written by this log.
+     *
+     * @return The history file.
+     */
+    public Path getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * Returns the catalogue of the segments sealed from this log.
+     *
+     * @return The catalogue.
+     */
+    public HistoryCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Writes everything still queued, stops the writer thread, waits for the
+     * rotated files to be sealed and closes the files.
+     *
+     * @throws IOException if a file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                queue.put(CLOSE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            writer.join();
+            sealer.shutdown();
+            sealer.awaitTermination(1, TimeUnit.MINUTES); // a file still rotated is sealed when the log is reopened
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        filesLock.writeLock().lock();
+        try {
+            for (Rotated r : rotated.values()) {
+                r.channel.close();
+            }
+            channel.close();
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The writer thread: takes groups of records off the queue and writes each
+     * group with one write (and one force if fsync is on).
+     */
+    private void runWriter() {
+        List<Record> group = new ArrayList<>(groupRecords);
+        boolean running = true;
+        while (running) {
+            try {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(groupMillis);
+                while (group.size() < groupRecords && group.get(group.size() - 1) != CLOSE) {
+                    long wait = deadline - System.nanoTime();
+                    Record next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break; // the group has waited long enough
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Keep going until told to close, so no queued record is lost
+                continue;
+            }
+            if (group.get(group.size() - 1) == CLOSE) {
+                group.remove(group.size() - 1);
+                running = false;
+            }
+            writeGroup(group);
+            group.clear();
+        }
+    }
+
+    /**
+     * Writes a group, rotating the active file at each rotation in it.
+     */
+    private void writeGroup(List<Record> group) {
+        int from = 0;
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).rotateTo != null) {
+                writeRecords(group.subList(from, i));
+                rotateFile(group.get(i));
+                from = i + 1;
+            }
+        }
+        writeRecords(group.subList(from, group.size()));
+    }
+
+    private void writeRecords(List<Record> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        if (failure != null) {
+            index.discardFrom(writtenOffset);
+            for (Record r : group) {
+                r.written.completeExceptionally(refusal());
+            }
+            return;
+        }
+        int length = 0;
+        for (Record r : group) {
+            length += r.bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Record r : group) {
+            buffer.put(r.bytes);
+        }
+        buffer.flip();
+        BankEvents.TransactionLogWriteEvent event = new BankEvents.TransactionLogWriteEvent();
+        event.begin();
+        boolean ok = false;
+        try {
+            writtenOffset = activeBase + writeFully(buffer, -1);
+            bytesWritten += length;
+            if (fsync) {
+                channel.force(false);
+            }
+            ok = true;
+        } catch (IOException e) {
+            Debug.error("TransactionLog::writeRecords: Error writing transactions, no more are logged: %s",
+                    e.getMessage());
+            failure = e;
+            try {
+                // Leave no part of the group in the file
+                channel.truncate(writtenOffset - activeBase);
+            } catch (IOException truncateError) {
+                Debug.error("TransactionLog::writeRecords: Could not cut %s back to %d: %s", historyFile,
+                        writtenOffset - activeBase, truncateError.getMessage());
+            }
+            // Nor in the index, so no statement points at records which are not there
+            index.discardFrom(writtenOffset);
+            for (Record r : group) {
+                r.written.completeExceptionally(e);
+            }
+        }
+        if (event.shouldCommit()) {
+            event.records = group.size();
+            event.bytes = length;
+            event.forced = fsync;
+            event.outcome = ok ? "success" : "error";
+            event.commit();
+        }
+        if (ok) {
+            for (Record r : group) {
+                r.written.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Moves the active file into the history directory and opens a new one,
+     * whose header is the rotation record's bytes, then hands the rotated file
+     * to the sealer. If the file cannot be moved the header is written in the
+     * same file, so the offsets already handed out still hold.
+     */
+    private void rotateFile(Record record) {
+        if (failure != null) {
+            writeRecords(Collections.singletonList(record));
+            return;
+        }
+        long base = activeBase;
+        boolean moved = false;
+        filesLock.writeLock().lock();
+        try {
+            channel.force(false);
+            long size = channel.size();
+            Files.createDirectories(historyDirectory);
+            Files.move(historyFile, record.rotateTo, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            FileChannel next = FileChannel.open(historyFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            rotated.put(base, new Rotated(record.rotateTo, channel, size));
+            channel = next;
+            activeBase = base + size;
+        } catch (IOException e) {
+            // After a failed open the records carry on in the moved file, which is sealed when the log is reopened
+            Debug.warn("TransactionLog::rotateFile: Could not rotate %s%s: %s", historyFile,
+                    moved ? " after moving it" : "", e.getMessage());
+            moved = false;
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+        writeRecords(Collections.singletonList(record));
+        if (moved) {
+            Debug.trace("TransactionLog::rotateFile: Rotated %s to %s at offset %d", historyFile, record.rotateTo,
+                    activeBase);
+            sealer.execute(() -> seal(record.rotateTo, base));
+        }
+    }
+
+    /**
+     * The sealer: seals a rotated file into a segment, then stops reading it
+     * and deletes it. Files are sealed in the order they were rotated, so
+     * after a failure the rest wait to be sealed when the log is reopened.
+     */
+    private void seal(Path file, long base) {
+        if (sealFailed) {
+            return;
+        }
+        try {
+            catalogue.seal(file, base);
+        } catch (IOException | RuntimeException e) {
+            Debug.warn("TransactionLog::seal: Could not seal %s: %s", file, e.getMessage());
+            sealFailed = true;
+            return;
+        }
+        filesLock.writeLock().lock();
+        try {
+            Rotated r = rotated.remove(base);
+            if (r != null) {
+                r.channel.close();
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Debug.warn("TransactionLog::seal: Could not delete %s: %s", file, e.getMessage());
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, channel.size() - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * Writes the whole buffer at the given position, or at the channel's
+     * position if it is negative.
+     *
+     * @return The position after the write.
+     */
+    long writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (position < 0) {
+                channel.write(buffer);
+            } else {
+                position += channel.write(buffer, position);
+            }
+        }
+        return position < 0 ? channel.position() : position;
+    }
+}
@@ -61,7 +61,7 @@ public class View {
             window.setResizable(false);
 
         } catch (IOException e) {
-            Debug.trace("Failed to load the FXML file.");
+            Debug.error("Failed to load the FXML file.");
             e.printStackTrace();
         }
     }
@@ -2,7 +2,8 @@
  * The com.mybank module contains classes and resources related to the banking
  * functionality of the application.
  * It requires the JavaFX controls module, JavaFX FXML module, JavaFX graphics
- * module, and the Bouncy Castle provider module.
+ * module, the Bouncy Castle provider module, and the java.management and
+ * jdk.jfr modules for the bank's metrics and flight recorder events.
  * The module is opened to JavaFX FXML for loading FXML files, and it exports
  * the com.mybank package for other modules to use.
  */
@@ -11,6 +12,8 @@ module com.mybank {
     requires javafx.fxml;
     requires transitive javafx.graphics;
     requires org.bouncycastle.provider;
+    requires java.management;
+    requires jdk.jfr;
 
     opens CI401.mybank to javafx.fxml;
 
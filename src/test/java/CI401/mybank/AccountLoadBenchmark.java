@@ -0,0 +1,104 @@
+package CI401.mybank;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long startup takes to load accounts.csv files of 100K, 1M and
+ * 10M accounts, reading line by line as the bank used to and with the
+ * parallel CsvAccountLoader on one thread and on the common pool. This is not
+ * a unit test, run it on its own with enough heap for the largest file, e.g.
+ * java -Xmx4g -cp target/classes:target/test-classes CI401.mybank.AccountLoadBenchmark [accounts...]
+ */
+public class AccountLoadBenchmark {
+    private static final String HASH = "$2a$11$abcdefghijklmnopqrstuuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ12";
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        int[] sizes = {100_000, 1_000_000, 10_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        System.out.printf("%d cores, common pool parallelism %d%n", Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.commonPool().getParallelism());
+        for (int accounts : sizes) {
+            Path dir = Files.createTempDirectory("accounts");
+            Path file = dir.resolve("accounts.csv");
+            writeAccounts(file, accounts);
+            System.out.printf("%,d accounts, %,d MB%n", accounts, Files.size(file) >> 20);
+            run("line by line (before)", file, accounts, () -> loadLineByLine(file));
+            run("chunked, 1 thread", file, accounts, () -> CsvAccountLoader.load(file, new IntObjectMap<>(), single));
+            run("chunked, common pool", file, accounts, () -> CsvAccountLoader.load(file, new IntObjectMap<>()));
+            Files.delete(file);
+            Files.delete(dir);
+        }
+        single.shutdown();
+    }
+
+    private interface Load {
+        int load() throws IOException;
+    }
+
+    private static void run(String name, Path file, int accounts, Load load) throws IOException {
+        int runs = Math.max(1, Math.min(5, 2_000_000 / accounts));
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= runs; i++) { // the first run warms up
+            System.gc();
+            long start = System.nanoTime();
+            int loaded = load.load();
+            long elapsed = System.nanoTime() - start;
+            if (loaded != accounts) {
+                throw new IllegalStateException(name + " loaded " + loaded + " of " + accounts);
+            }
+            if (i > 0 || runs == 1) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("  %-24s %8d ms %12.0f accounts/s%n", name, best / 1_000_000, accounts / (best / 1e9));
+    }
+
+    private static void writeAccounts(Path file, int accounts) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write(CsvAccountStore.HEADER);
+            out.newLine();
+            for (int i = 0; i < accounts; i++) {
+                BankAccount a;
+                switch (i % 10) {
+                    case 0:
+                        a = new OverdraftBankAccount(100000 + i, HASH, i % 5000, 500);
+                        break;
+                    case 1:
+                        a = new LimitedWithdrawalBankAccount(100000 + i, HASH, i % 5000);
+                        break;
+                    default:
+                        a = new BankAccount(100000 + i, HASH, i % 5000);
+                }
+                out.write(CsvAccountStore.formatAccount(a));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * The loading done by CsvAccountStore.load before the CsvAccountLoader.
+     */
+    private static int loadLineByLine(Path file) throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line = br.readLine(); // the header
+            while ((line = br.readLine()) != null) {
+                BankAccount a = CsvAccountStore.parseAccount(line);
+                accounts.putIfAbsent(a.accNumber, a);
+            }
+        }
+        return accounts.size();
+    }
+}
@@ -0,0 +1,133 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class AccountsWatcherTest {
+
+    private Path dataDirectory;
+    private Path accountsFile;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) throws IOException {
+        dataDirectory = tempDirectory;
+        accountsFile = dataDirectory.resolve("accounts.csv");
+        Files.write(accountsFile, Arrays.asList(CsvAccountStore.HEADER, "1,hash1,100,normal,0",
+                "2,hash2,200,overdraft,50", "3,hash3,300,limited,0"));
+    }
+
+    private Bank openBank(boolean journal) {
+        AccountStore store = journal
+                ? new JournalAccountStore(accountsFile.toString(), dataDirectory.resolve("accounts.journal").toString())
+                : new CsvAccountStore(accountsFile.toString());
+        return new Bank(dataDirectory.toString(), store);
+    }
+
+    /**
+     * Edits the accounts file the way another program would.
+     */
+    private void edit(String from, String to) throws IOException {
+        List<String> lines = Files.readAllLines(accountsFile);
+        lines.replaceAll(line -> line.equals(from) ? to : line);
+        if (from == null) {
+            lines.add(to);
+        }
+        Files.write(accountsFile, lines);
+    }
+
+    @Test
+    public void testReload_UpdatesChangedAccountInPlace() throws IOException {
+        Bank bank = openBank(false);
+        BankAccount account = bank.findAccount(2);
+        edit("2,hash2,200,overdraft,50", "2,newhash,250,overdraft,75");
+
+        Assertions.assertEquals(1, bank.reloadChangedAccounts());
+        Assertions.assertSame(account, bank.findAccount(2));
+        Assertions.assertEquals(250, account.getBalance());
+        Assertions.assertEquals("newhash", account.accPasswd);
+        Assertions.assertEquals(75, ((OverdraftBankAccount) account).getOverdraftLimit());
+        Assertions.assertEquals(100, bank.findAccount(1).getBalance());
+        bank.close();
+    }
+
+    @Test
+    public void testReload_IgnoresTheBanksOwnWrites() throws IOException {
+        Bank bank = openBank(false);
+        Assertions.assertTrue(bank.deposit(bank.findAccount(1), 5)); // rewrites accounts.csv
+        Assertions.assertEquals(0, bank.reloadChangedAccounts());
+        Assertions.assertEquals(105, bank.findAccount(1).getBalance());
+        bank.close();
+    }
+
+    @Test
+    public void testReload_KeepsChangesSinceTheSnapshot() throws IOException {
+        Bank bank = openBank(true);
+        Assertions.assertTrue(bank.deposit(bank.findAccount(1), 5)); // journaled, accounts.csv still says 100
+        edit("3,hash3,300,limited,0", "3,hash3,333,limited,0");
+
+        Assertions.assertEquals(1, bank.reloadChangedAccounts());
+        Assertions.assertEquals(105, bank.findAccount(1).getBalance());
+        Assertions.assertEquals(333, bank.findAccount(3).getBalance());
+        bank.close();
+
+        // The reload was journaled like any other change
+        Bank reopened = openBank(true);
+        Assertions.assertEquals(105, reopened.findAccount(1).getBalance());
+        Assertions.assertEquals(333, reopened.findAccount(3).getBalance());
+        reopened.close();
+    }
+
+    @Test
+    public void testReload_AddsAndReplacesAccounts() throws IOException {
+        Bank bank = openBank(true);
+        edit(null, "4,hash4,400,normal,0");
+        edit("1,hash1,100,normal,0", "1,hash1,100,overdraft,500");
+
+        Assertions.assertEquals(2, bank.reloadChangedAccounts());
+        Assertions.assertEquals(400, bank.findAccount(4).getBalance());
+        Assertions.assertEquals(500, ((OverdraftBankAccount) bank.findAccount(1)).getOverdraftLimit());
+
+        // Reading the same file again finds nothing new, even before a checkpoint
+        Assertions.assertTrue(bank.deposit(bank.findAccount(4), 1));
+        Files.setLastModifiedTime(accountsFile, Files.getLastModifiedTime(dataDirectory));
+        Assertions.assertEquals(0, bank.reloadChangedAccounts());
+        Assertions.assertEquals(401, bank.findAccount(4).getBalance());
+        bank.close();
+    }
+
+    @Test
+    public void testWatcher_ReloadsEditsWhileRunning() throws Exception {
+        Bank bank = openBank(true);
+        bank.watchForChanges();
+        edit("1,hash1,100,normal,0", "1,hash1,123,normal,0");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (bank.findAccount(1).getBalance() != 123 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assertions.assertEquals(123, bank.findAccount(1).getBalance());
+        bank.close();
+    }
+
+    @Test
+    public void testReadOutsideChanges_AfterIndexMovesAccounts() throws IOException {
+        CsvAccountStore store = new CsvAccountStore(accountsFile.toString());
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        store.load(accounts);
+        // Removing an account moves the last one into its place in the index
+        accounts.remove(1);
+        edit("2,hash2,200,overdraft,50", "2,hash2,222,overdraft,50");
+
+        List<BankAccount> changed = store.readOutsideChanges();
+        Assertions.assertEquals(1, changed.size());
+        Assertions.assertEquals(222, changed.get(0).getBalance());
+    }
+}
@@ -0,0 +1,96 @@
+package CI401.mybank;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Opens a large number of connections to an AtmServer on localhost, then
+ * sends balance requests round all of them from a few client threads, and
+ * reports the heap each connection takes on the server and the request
+ * latency percentiles. Both ends of every connection are in this process, so
+ * it needs a file limit of at least twice the number of connections. This is
+ * not a unit test, run it on its own, e.g.
+ * java -cp target/classes:target/test-classes CI401.mybank.AtmServerBenchmark [connections] [client threads]
+ */
+public class AtmServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        int clientThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        Bank bank = new Bank(Files.createTempDirectory("server").toString(), new BankStressBenchmark.NullAccountStore());
+        AtmServer server = new AtmServer(bank, new InetSocketAddress("localhost", 0), 2);
+        server.start();
+        long before = usedHeap();
+
+        SocketChannel[] channels = new SocketChannel[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            channels[i] = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+        }
+        while (server.getConnectionCount() < count) {
+            Thread.sleep(10);
+        }
+        long connected = System.nanoTime() - start;
+        long after = usedHeap();
+        System.out.printf("%d connections in %.0f ms, about %.0f bytes of heap each (both ends)%n", count,
+                connected / 1e6, (double) (after - before) / count);
+
+        // Each client thread sends requests round its share of the connections
+        int rounds = 5;
+        LatencyHistogram[] latencies = new LatencyHistogram[clientThreads];
+        Thread[] threads = new Thread[clientThreads];
+        start = System.nanoTime();
+        for (int t = 0; t < clientThreads; t++) {
+            int first = t;
+            latencies[t] = new LatencyHistogram();
+            threads[t] = new Thread(() -> {
+                ByteBuffer reply = ByteBuffer.allocate(9);
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        for (int i = first; i < count; i += clientThreads) {
+                            long sent = System.nanoTime();
+                            channels[i].write(AtmProtocol.frame(AtmProtocol.BALANCE, 0).flip());
+                            reply.clear();
+                            while (reply.hasRemaining()) {
+                                channels[i].read(reply);
+                            }
+                            latencies[first].record(System.nanoTime() - sent);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[t].start();
+        }
+        LatencyHistogram total = new LatencyHistogram();
+        for (int t = 0; t < clientThreads; t++) {
+            threads[t].join();
+            total.add(latencies[t]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d requests from %d client threads, %.0f requests/s, p50 %.0f us, p99 %.0f us, max %.0f us%n",
+                total.getCount(), clientThreads, total.getCount() * 1e9 / elapsed,
+                total.getValueAtPercentile(50) / 1e3, total.getValueAtPercentile(99) / 1e3, total.getMax() / 1e3);
+        System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        server.close();
+        bank.close();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,224 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AtmServerTest {
+
+    private Path dataDirectory;
+    private Bank bank;
+    private AtmServer server;
+    private String address;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) throws Exception {
+        dataDirectory = tempDirectory;
+        bank = new Bank(dataDirectory.toString());
+        String hash = SecurityUtils.hashPassword("password");
+        bank.addBankAccount(new BankAccount(1, hash, 100));
+        bank.addBankAccount(new BankAccount(2, hash, 100));
+        bank.addBankAccount(new OverdraftBankAccount(3, hash, 100, 500));
+        server = new AtmServer(bank, new InetSocketAddress("localhost", 0), 2);
+        server.start();
+        address = "localhost:" + server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.close();
+        bank.close();
+    }
+
+    @Test
+    public void testRemoteSession_EndToEnd() throws Exception {
+        RemoteSession session = RemoteSession.connect(address);
+        Assertions.assertEquals(-1, session.getBalance());
+        Assertions.assertNull(session.getAccount());
+        Assertions.assertFalse(session.login(1, "wrongpassword"));
+        Assertions.assertTrue(session.login(1, "password"));
+        Assertions.assertTrue(session.loggedIn());
+
+        Assertions.assertTrue(session.deposit(50));
+        Assertions.assertTrue(session.withdraw(20));
+        Assertions.assertFalse(session.withdraw(1000));
+        Assertions.assertTrue(session.transfer(2, 30));
+        Assertions.assertFalse(session.transfer(99, 30));
+        Assertions.assertEquals(100, session.getBalance());
+        Assertions.assertEquals(130, bank.findAccount(2).getBalance());
+        Assertions.assertTrue(session.getStatement().contains("deposit"), session.getStatement());
+        Assertions.assertEquals(1, session.getAccount().accNumber);
+        Assertions.assertFalse(session.setOverdraftLimit(100));
+
+        Assertions.assertTrue(session.updatePassword("newpassword"));
+        session.close();
+
+        RemoteSession again = RemoteSession.connect(address);
+        Assertions.assertFalse(again.login(1, "password"));
+        Assertions.assertTrue(again.login(1, "newpassword"));
+        again.close();
+    }
+
+    @Test
+    public void testRemoteSession_StatementPages() throws Exception {
+        RemoteSession session = RemoteSession.connect(address);
+        Assertions.assertTrue(session.login(1, "password"));
+        for (int i = 1; i <= 5; i++) {
+            Assertions.assertTrue(session.deposit(i));
+        }
+        Assertions.assertEquals(5, session.getTransactionCount());
+        List<Transaction> page = session.getStatementPage(0, 2);
+        Assertions.assertEquals(2, page.size());
+        Assertions.assertEquals(4, page.get(0).amount);
+        Assertions.assertEquals(115, page.get(1).newBalance);
+
+        long now = System.currentTimeMillis();
+        List<Transaction> today = session.getStatementBetween(now - 3_600_000L, now + 3_600_000L);
+        Assertions.assertEquals(5, today.size());
+        Assertions.assertEquals("deposit", today.get(0).transactionType);
+        session.close();
+    }
+
+    @Test
+    public void testRemoteSession_OverdraftAccount() throws Exception {
+        RemoteSession session = RemoteSession.connect(address);
+        Assertions.assertTrue(session.login(3, "password"));
+        BankAccount account = session.getAccount();
+        Assertions.assertTrue(account instanceof OverdraftBankAccount);
+        Assertions.assertEquals(500, ((OverdraftBankAccount) account).getOverdraftLimit());
+
+        Assertions.assertTrue(session.setOverdraftLimit(200));
+        Assertions.assertEquals(200, ((OverdraftBankAccount) bank.findAccount(3)).getOverdraftLimit());
+        Assertions.assertTrue(session.withdraw(300));
+        Assertions.assertEquals(-200, session.getBalance());
+        session.close();
+    }
+
+    @Test
+    public void testModel_OverRemoteSession() throws Exception {
+        RemoteSession session = RemoteSession.connect(address);
+        Assertions.assertTrue(session.login(1, "password"));
+        Model model = new Model(session);
+        String[] reply = new String[1];
+        model.setListener((message, text) -> reply[0] = text);
+
+        for (String action : new String[] { "WITHDRAW", "4", "0", "ENTER" }) {
+            model.process(action);
+        }
+        Assertions.assertTrue(reply[0].contains("£60"), reply[0]);
+        Assertions.assertEquals(60, bank.findAccount(1).getBalance());
+        session.close();
+    }
+
+    @Test
+    public void testManyConnections_ShareOneBank() throws Exception {
+        List<RemoteSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            sessions.add(RemoteSession.connect(address));
+        }
+        for (int i = 0; i < 100 && server.getConnectionCount() < 300; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(300, server.getConnectionCount());
+
+        // A few sessions deposit at once into the same account, the rest are idle
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            RemoteSession session = sessions.get(t * 50);
+            Assertions.assertTrue(session.login(2, "password"));
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    session.deposit(1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(500, bank.findAccount(2).getBalance());
+        for (RemoteSession session : sessions) {
+            Assertions.assertEquals(-1, session.loggedIn() ? -1 : session.getBalance());
+            session.close();
+        }
+        for (int i = 0; i < 100 && server.getConnectionCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    public void testBadRequest_KeepsConnection() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            // An unknown operation, then a balance request split across two writes
+            channel.write(AtmProtocol.frame((byte) 99, 0).flip());
+            ByteBuffer balance = AtmProtocol.frame(AtmProtocol.BALANCE, 0).flip();
+            channel.write(ByteBuffer.wrap(balance.array(), 0, 2));
+            Thread.sleep(50);
+            channel.write(ByteBuffer.wrap(balance.array(), 2, 3));
+
+            ByteBuffer replies = ByteBuffer.allocate(5 + 9);
+            while (replies.hasRemaining()) {
+                Assertions.assertTrue(channel.read(replies) >= 0);
+            }
+            replies.flip();
+            Assertions.assertEquals(1, replies.getInt());
+            Assertions.assertEquals(AtmProtocol.BAD_REQUEST, replies.get());
+            Assertions.assertEquals(5, replies.getInt());
+            Assertions.assertEquals(AtmProtocol.OK, replies.get());
+            Assertions.assertEquals(-1, replies.getInt());
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests_AllAnsweredInOrder() throws Exception {
+        int requests = AtmServer.MAX_REQUESTS_IN_FLIGHT * 4;
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            // Send far more requests than the server takes in flight before reading any reply
+            ByteBuffer all = ByteBuffer.allocate(requests * 5);
+            for (int i = 0; i < requests; i++) {
+                all.put(AtmProtocol.frame(i % 2 == 0 ? AtmProtocol.BALANCE : (byte) 99, 0).flip());
+            }
+            all.flip();
+            while (all.hasRemaining()) {
+                channel.write(all);
+            }
+
+            ByteBuffer replies = ByteBuffer.allocate(requests / 2 * (5 + 9));
+            while (replies.hasRemaining()) {
+                Assertions.assertTrue(channel.read(replies) >= 0);
+            }
+            replies.flip();
+            for (int i = 0; i < requests; i++) {
+                if (i % 2 == 0) {
+                    Assertions.assertEquals(5, replies.getInt());
+                    Assertions.assertEquals(AtmProtocol.OK, replies.get());
+                    Assertions.assertEquals(-1, replies.getInt());
+                } else {
+                    Assertions.assertEquals(1, replies.getInt());
+                    Assertions.assertEquals(AtmProtocol.BAD_REQUEST, replies.get());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClosedServer_FailsCalls() throws Exception {
+        RemoteSession session = RemoteSession.connect(address);
+        server.close();
+        Assertions.assertThrows(UncheckedIOException.class, session::getBalance);
+        session.close();
+    }
+}
@@ -0,0 +1,108 @@
+package CI401.mybank;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the compare-and-set balance updates of OverdraftBankAccount with
+ * the same rules run under a synchronized lock, with every thread hammering
+ * one account (the worst case for contention) and with the threads spread
+ * over 64 accounts. Each operation is a deposit followed by a withdrawal.
+ * This is not a unit test, run it on its own, e.g.
+ * java -cp target/classes:target/test-classes CI401.mybank.BalanceContentionBenchmark
+ */
+public class BalanceContentionBenchmark {
+    private static final long MILLIS = 2000;
+
+    /**
+     * The overdraft rules as they were before the compare-and-set loops, made
+     * thread safe with synchronized.
+     */
+    private static class SynchronizedOverdraftAccount {
+        private int balance;
+        private final int overdraftLimit;
+
+        SynchronizedOverdraftAccount(int balance, int overdraftLimit) {
+            this.balance = balance;
+            this.overdraftLimit = overdraftLimit;
+        }
+
+        synchronized boolean deposit(int amount) {
+            if (amount < 0) {
+                return false;
+            }
+            balance += amount;
+            return true;
+        }
+
+        synchronized boolean withdraw(int amount) {
+            if (amount < 0 || (balance + overdraftLimit) < amount) {
+                return false;
+            }
+            balance -= amount;
+            return true;
+        }
+    }
+
+    private interface Operation {
+        void run(int account);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores%n", cores);
+        System.out.printf("%8s %9s %18s %18s%n", "threads", "accounts", "synchronized op/s", "CAS op/s");
+        for (int accountCount : new int[] { 1, 64 }) {
+            SynchronizedOverdraftAccount[] locked = new SynchronizedOverdraftAccount[accountCount];
+            OverdraftBankAccount[] lockFree = new OverdraftBankAccount[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                locked[i] = new SynchronizedOverdraftAccount(1000, 500);
+                lockFree[i] = new OverdraftBankAccount(i, "password", 1000, 500);
+            }
+            Operation synchronizedOp = a -> {
+                locked[a].deposit(10);
+                locked[a].withdraw(10);
+            };
+            Operation casOp = a -> {
+                lockFree[a].deposit(10);
+                lockFree[a].withdraw(10);
+            };
+            for (int threads = 1; threads <= Math.max(4, 2 * cores); threads *= 2) {
+                System.out.printf("%8d %9d %18.0f %18.0f%n", threads, accountCount,
+                        run(synchronizedOp, threads, accountCount), run(casOp, threads, accountCount));
+            }
+        }
+    }
+
+    private static double run(Operation op, int threadCount, int accountCount) throws InterruptedException {
+        measure(op, threadCount, accountCount); // warm up
+        return measure(op, threadCount, accountCount);
+    }
+
+    private static double measure(Operation op, int threadCount, int accountCount) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            int first = t % accountCount;
+            new Thread(() -> {
+                int account = first;
+                long count = 0;
+                while (running.get()) {
+                    op.run(account);
+                    account = account + 1 == accountCount ? 0 : account + 1;
+                    count++;
+                }
+                ops.add(count);
+                done.countDown();
+            }).start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(MILLIS);
+        running.set(false);
+        done.await();
+        return ops.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -20,4 +20,22 @@ public class BankAccountTest {
         Assertions.assertFalse(result);
         Assertions.assertEquals(1000, account.getBalance());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConcurrentDeposits_NoLostUpdates() throws InterruptedException {
+        BankAccount account = new BankAccount(123456, "password", 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    account.deposit(1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(40_000, account.getBalance());
+    }
+}
@@ -0,0 +1,72 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class BankEventsTest {
+
+    @Test
+    public void testOperationsAndStagesAreRecorded(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("bank.jfr");
+        Bank bank = new Bank(directory.toString());
+        bank.addBankAccount(7, SecurityUtils.hashPassword("password"), 100);
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "CI401.mybank.Operation", "CI401.mybank.Password",
+                    "CI401.mybank.AccountStoreWrite", "CI401.mybank.TransactionLogWrite" }) {
+                recording.enable(name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            Assertions.assertTrue(bank.login(7, "password"));
+            Assertions.assertTrue(bank.deposit(50));
+            Assertions.assertFalse(bank.withdraw(1000));
+            bank.close();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> operations = new ArrayList<>();
+        List<String> stages = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals("CI401.mybank.Operation")) {
+                operations.add(event);
+            } else {
+                stages.add(event.getEventType().getName());
+            }
+        }
+        Assertions.assertEquals(3, operations.size());
+        RecordedEvent deposit = null;
+        for (RecordedEvent event : operations) {
+            Assertions.assertEquals(7L, event.getLong("account"));
+            if (event.getString("operation").equals("deposit")) {
+                deposit = event;
+            } else if (event.getString("operation").equals("withdraw")) {
+                Assertions.assertEquals("refused", event.getString("outcome"));
+            }
+        }
+        Assertions.assertNotNull(deposit);
+        Assertions.assertEquals("success", deposit.getString("outcome"));
+        Assertions.assertFalse(deposit.getDuration().isNegative());
+        Assertions.assertTrue(stages.contains("CI401.mybank.Password"));
+        Assertions.assertTrue(stages.contains("CI401.mybank.AccountStoreWrite"));
+        Assertions.assertTrue(stages.contains("CI401.mybank.TransactionLogWrite"));
+    }
+
+    @Test
+    public void testAccountHash() {
+        Assertions.assertEquals(12345L, BankEvents.account(12345)); // not hashed unless asked for
+        Assertions.assertEquals(BankEvents.hash(12345), BankEvents.hash(12345));
+        Assertions.assertNotEquals(12345L, BankEvents.hash(12345));
+        Assertions.assertNotEquals(BankEvents.hash(12345), BankEvents.hash(12346));
+    }
+}
@@ -0,0 +1,107 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class BankMetricsTest {
+
+    @Test
+    public void testOperationsAreCountedByOutcome(@TempDir Path directory) {
+        Bank bank = new Bank(directory.toString());
+        bank.addBankAccount(1, SecurityUtils.hashPassword("password"), 100);
+        bank.addBankAccount(2, SecurityUtils.hashPassword("password"), 100);
+
+        Assertions.assertFalse(bank.login(1, "wrong"));
+        Assertions.assertFalse(bank.login(3, "password"));
+        Assertions.assertTrue(bank.login(1, "password"));
+        Assertions.assertTrue(bank.deposit(50));
+        Assertions.assertFalse(bank.withdraw(1000));
+        Assertions.assertTrue(bank.withdraw(10));
+        Assertions.assertTrue(bank.transfer(1, 2, 20));
+        Assertions.assertFalse(bank.transfer(1, 3, 20));
+        Assertions.assertEquals(120, bank.getBalance());
+        bank.getStatement();
+        bank.close();
+
+        BankMetrics metrics = bank.metrics;
+        OperationMetrics logins = metrics.get(BankMetrics.Operation.LOGIN);
+        Assertions.assertEquals(3, logins.getCount());
+        Assertions.assertEquals(1, logins.getSuccesses());
+        Assertions.assertEquals(1, logins.getBadPasswords());
+        Assertions.assertEquals(1, logins.getNoAccounts());
+        Assertions.assertEquals(1, metrics.get(BankMetrics.Operation.DEPOSIT).getSuccesses());
+        Assertions.assertEquals(1, metrics.get(BankMetrics.Operation.WITHDRAW).getRefusals());
+        Assertions.assertEquals(1, metrics.get(BankMetrics.Operation.TRANSFER).getNoAccounts());
+        Assertions.assertEquals(1, metrics.get(BankMetrics.Operation.BALANCE).getCount());
+        Assertions.assertEquals(1, metrics.get(BankMetrics.Operation.STATEMENT).getCount());
+        Assertions.assertEquals(4, metrics.get(BankMetrics.Operation.LOG_TRANSACTION).getSuccesses());
+        Assertions.assertEquals(3, metrics.getChanges());
+
+        // Every record written to the log is counted, and the store has written the accounts at least once
+        Assertions.assertTrue(metrics.getTransactionLogBytesWritten() > 0);
+        Assertions.assertTrue(metrics.getAccountStoreBytesWritten() > 0);
+        Assertions.assertEquals(metrics.getAccountStoreBytesWritten(),
+                metrics.get(BankMetrics.Operation.SAVE_ACCOUNTS).getBytesWritten()
+                        + metrics.get(BankMetrics.Operation.CHECKPOINT).getBytesWritten());
+        Assertions.assertTrue(metrics.getBytesPerChange() > 0);
+        Assertions.assertTrue(logins.getMaxMicros() >= logins.getMedianMicros());
+    }
+
+    @Test
+    public void testMetricsAreRegisteredWithJmx(@TempDir Path directory) throws JMException {
+        Bank bank = new Bank(directory.toString());
+        bank.addBankAccount(1, SecurityUtils.hashPassword("password"), 100);
+        bank.login(1, "password");
+        bank.deposit(10);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName bankName = null;
+        for (ObjectName name : server.queryNames(new ObjectName(BankMetrics.DOMAIN + ":type=Bank,*"), null)) {
+            if (name.getKeyProperty("operation") == null
+                    && directory.toString().equals(server.getAttribute(name, "DataDirectory"))) {
+                bankName = name;
+            }
+        }
+        Assertions.assertNotNull(bankName);
+        Assertions.assertEquals(1L, server.getAttribute(bankName, "Changes"));
+        ObjectName deposits = new ObjectName(bankName + ",operation=deposit");
+        Assertions.assertEquals(1L, server.getAttribute(deposits, "Successes"));
+        Assertions.assertTrue((Double) server.getAttribute(deposits, "MeanMicros") > 0);
+
+        bank.close();
+        Assertions.assertFalse(server.isRegistered(bankName));
+        Assertions.assertFalse(server.isRegistered(deposits));
+    }
+
+    @Test
+    public void testWriteReport(@TempDir Path directory) throws IOException {
+        BankMetrics metrics = new BankMetrics(directory.toString());
+        metrics.record(BankMetrics.Operation.DEPOSIT, BankMetrics.Outcome.SUCCESS, 2_000);
+        metrics.record(BankMetrics.Operation.DEPOSIT, BankMetrics.Outcome.REFUSED, 4_000);
+        Path file = directory.resolve("metrics").resolve("bank.csv");
+        metrics.writeReport(file);
+        metrics.writeReport(file);
+
+        List<String> lines = Files.readAllLines(file);
+        int operations = BankMetrics.Operation.values().length;
+        Assertions.assertEquals(1 + 2 * operations, lines.size());
+        Assertions.assertEquals(BankMetrics.FILE_HEADER, lines.get(0));
+        String[] deposits = lines.get(1 + BankMetrics.Operation.DEPOSIT.ordinal()).split(",");
+        Assertions.assertEquals(BankMetrics.FILE_HEADER.split(",").length, deposits.length);
+        Assertions.assertEquals("deposit", deposits[1]);
+        Assertions.assertEquals("2", deposits[2]);
+        Assertions.assertEquals("1", deposits[3]);
+        Assertions.assertEquals("1", deposits[4]);
+        Assertions.assertEquals(3.0, Double.parseDouble(deposits[9]), 0.5);
+    }
+}
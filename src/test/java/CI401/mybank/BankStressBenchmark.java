@@ -0,0 +1,94 @@
+package CI401.mybank;
+
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many deposits, withdrawals and transfers a shared Bank handles
+ * per second as the number of threads grows, from 1 up to twice the number
+ * of cores. Accounts are persisted to a store which does nothing, so the
+ * numbers show the cost of the locking rather than of the disk. This is not
+ * a unit test, run it on its own, e.g.
+ * java -cp target/classes:target/test-classes CI401.mybank.BankStressBenchmark
+ */
+public class BankStressBenchmark {
+    private static final int ACCOUNTS = 10_000;
+    private static final long MILLIS = 2000;
+
+    /**
+     * An account store which does not store anything.
+     */
+    static class NullAccountStore implements AccountStore {
+        @Override
+        public void load(IntObjectMap<BankAccount> accounts) {
+        }
+
+        @Override
+        public void update(BankAccount... changed) {
+        }
+
+        @Override
+        public boolean needsCheckpoint() {
+            return false;
+        }
+
+        @Override
+        public void checkpoint() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        Bank bank = new Bank(Files.createTempDirectory("stress").toString(), new NullAccountStore());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            bank.addBankAccount(new BankAccount(i, "password", 1_000_000));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores, %d accounts%n", cores, ACCOUNTS);
+        run(bank, 1); // warm up
+        for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+            System.out.printf("%3d threads %12.0f ops/s%n", threads, run(bank, threads));
+        }
+        bank.close();
+    }
+
+    private static double run(Bank bank, int threadCount) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            long seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                while (running.get()) {
+                    BankAccount a = bank.findAccount(random.nextInt(ACCOUNTS));
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            bank.deposit(a, 10);
+                            break;
+                        case 1:
+                            bank.withdraw(a, 10);
+                            break;
+                        default:
+                            bank.transfer(a, random.nextInt(ACCOUNTS), 10);
+                    }
+                    ops.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(MILLIS);
+        running.set(false);
+        done.await();
+        return ops.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -3,28 +3,71 @@ package CI401.mybank;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class BankTest {
 
     private Bank bank;
+    private Path dataDirectory;
 
     @BeforeEach
-    public void setup() {
-        bank = new Bank();
+    public void setup(@TempDir Path tempDirectory) {
+        dataDirectory = tempDirectory;
+        bank = new Bank(dataDirectory.toString());
     }
 
     @Test
-    public void testAddBankAccount_MaxAccountsReached() {
-        // Add maximum number of accounts to the bank
-        for (int i = 0; i < bank.maxAccounts; i++) {
+    public void testAddBankAccount_NoAccountLimit() {
+        // Add more accounts than the old limit of ten
+        for (int i = 0; i < 100; i++) {
             BankAccount account = new BankAccount(i, "password", 1000);
-            bank.addBankAccount(account);
+            Assertions.assertTrue(bank.addBankAccount(account));
         }
 
-        // Try to add one more account
-        BankAccount newAccount = new BankAccount(999999, "password", 1000);
+        Assertions.assertEquals(100, bank.accounts.size());
+        Assertions.assertEquals(1000, bank.accounts.get(42).getBalance());
+    }
+
+    @Test
+    public void testAddBankAccount_DuplicateAccountNumber() {
+        bank.addBankAccount(new BankAccount(123456, "password", 1000));
+
+        // Try to add another account with the same account number
+        BankAccount newAccount = new BankAccount(123456, "password", 2000);
         boolean result = bank.addBankAccount(newAccount);
         Assertions.assertFalse(result);
+        Assertions.assertEquals(1000, bank.accounts.get(123456).getBalance());
+    }
+
+    @Test
+    public void testLoadAccounts_ReadsSavedAccounts() {
+        bank.addBankAccount(new BankAccount(1, "password", 100));
+        bank.makeOverdraftBankAccount(2, "password", 200, 50);
+
+        Bank reloaded = new Bank(dataDirectory.toString());
+        Assertions.assertEquals(2, reloaded.accounts.size());
+        Assertions.assertEquals(100, reloaded.accounts.get(1).getBalance());
+        Assertions.assertEquals(50, ((OverdraftBankAccount) reloaded.accounts.get(2)).getOverdraftLimit());
+    }
+
+    @Test
+    public void testLoadAccounts_KeepsWithdrawalsToday() {
+        bank.makeLimitedWithdrawalBankAccount(3, "password", 300);
+        BankAccount account = bank.findAccount(3);
+        Assertions.assertTrue(bank.withdraw(account, 10));
+        Assertions.assertTrue(bank.withdraw(account, 10));
+        bank.close();
+
+        Bank reloaded = new Bank(dataDirectory.toString());
+        LimitedWithdrawalBankAccount limited = (LimitedWithdrawalBankAccount) reloaded.accounts.get(3);
+        Assertions.assertEquals(280, limited.getBalance());
+        Assertions.assertEquals(2, limited.getWithdrawalsToday());
+        Assertions.assertEquals(DateTimeUtils.today(), limited.getWithdrawalDay());
+        Assertions.assertEquals(0, limited.getWithdrawalsOn(DateTimeUtils.today() + 1));
+        reloaded.close();
     }
 
     @Test
@@ -47,4 +90,61 @@ public class BankTest {
         Assertions.assertEquals(1000, account.getBalance());
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testFailedSaveUndoesTheChange() {
+        boolean[] failWrites = {false};
+        CsvAccountStore store = new CsvAccountStore(dataDirectory.resolve("accounts.csv").toString()) {
+            @Override
+            public void update(BankAccount... changed) throws IOException {
+                if (failWrites[0]) {
+                    throw new IOException("No space left on device");
+                }
+                super.update(changed);
+            }
+        };
+        Bank failing = new Bank(dataDirectory.toString(), store);
+        failing.makeLimitedWithdrawalBankAccount(1, "password", 100);
+        failing.addBankAccount(new BankAccount(2, "password", 0));
+        BankAccount source = failing.findAccount(1);
+        BankAccount target = failing.findAccount(2);
+
+        failWrites[0] = true;
+        Assertions.assertFalse(failing.deposit(source, 10));
+        Assertions.assertFalse(failing.withdraw(source, 10));
+        Assertions.assertFalse(failing.transfer(source, 2, 10));
+        Assertions.assertFalse(failing.addBankAccount(new BankAccount(3, "password", 0)));
+        Assertions.assertEquals(100, source.getBalance());
+        Assertions.assertEquals(0, ((LimitedWithdrawalBankAccount) source).getWithdrawalsToday());
+        Assertions.assertEquals(0, target.getBalance());
+        Assertions.assertNull(failing.findAccount(3));
+        Assertions.assertEquals(2, failing.metrics.get(BankMetrics.Operation.DEPOSIT).getCount(BankMetrics.Outcome.ERROR)
+                + failing.metrics.get(BankMetrics.Operation.WITHDRAW).getCount(BankMetrics.Outcome.ERROR));
+    }
+
+    @Test
+    public void testStoppedHistoryRefusesMoney() throws Exception {
+        bank.addBankAccount(new BankAccount(1, "password", 100));
+        bank.addBankAccount(new BankAccount(2, "password", 0));
+        BankAccount account = bank.findAccount(1);
+        boolean[] failWrites = { false };
+        bank.transactionLog.close();
+        bank.transactionLog = TransactionLogTest.failingLog(dataDirectory.resolve("transaction_history.csv"),
+                bank.transactions, failWrites);
+        Assertions.assertTrue(bank.deposit(account, 10));
+        bank.transactionLog.read(1, bank.transactions.offsets(1)); // waits for the record to be written
+
+        // The record of this deposit cannot be written, which stops the log
+        failWrites[0] = true;
+        Assertions.assertTrue(bank.deposit(account, 10));
+        Assertions.assertThrows(Exception.class, () -> bank.logTransaction(1, "deposit", 0, 120).get());
+        Assertions.assertTrue(bank.historyStopped());
+
+        Assertions.assertFalse(bank.deposit(account, 10));
+        Assertions.assertFalse(bank.withdraw(account, 10));
+        Assertions.assertFalse(bank.transfer(account, 2, 10));
+        Assertions.assertEquals(120, account.getBalance());
+        Assertions.assertEquals(1, bank.getTransactionCount(account));
+        bank.transactionLog.close();
+    }
+}
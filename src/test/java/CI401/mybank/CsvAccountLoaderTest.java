@@ -0,0 +1,126 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class CsvAccountLoaderTest {
+
+    private Path accountsFile;
+
+    @BeforeEach
+    public void setup(@TempDir Path dataDirectory) {
+        accountsFile = dataDirectory.resolve("accounts.csv");
+    }
+
+    private IntObjectMap<BankAccount> load(ForkJoinPool pool) throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        CsvAccountLoader.load(accountsFile, accounts, pool);
+        return accounts;
+    }
+
+    @Test
+    public void testLoad_ReadsEveryAccountType() throws IOException {
+        Files.write(accountsFile, Arrays.asList(CsvAccountStore.HEADER, "1,hash1,100,normal,0",
+                "2,hash2,-20,overdraft,250", "3,hash3,30,limited,0"));
+        IntObjectMap<BankAccount> accounts = load(ForkJoinPool.commonPool());
+
+        Assertions.assertEquals(3, accounts.size());
+        Assertions.assertEquals("hash1", accounts.get(1).accPasswd);
+        Assertions.assertEquals(100, accounts.get(1).getBalance());
+        Assertions.assertEquals(250, ((OverdraftBankAccount) accounts.get(2)).getOverdraftLimit());
+        Assertions.assertEquals(-20, accounts.get(2).getBalance());
+        Assertions.assertTrue(accounts.get(3) instanceof LimitedWithdrawalBankAccount);
+    }
+
+    @Test
+    public void testLoad_SkipsBadRowsLikeBefore() throws IOException {
+        String file = CsvAccountStore.HEADER + "\r\n"
+                + "1,hash1,100,normal,0\r\n"
+                + "not,a,row\r\n"
+                + "\r\n"
+                + "2,hash2,20,overdraft\r\n"
+                + "3,hash3,99999999999,normal,0\r\n"
+                + "4,hash4,+5,,0\r\n"
+                + "1,other,1,normal,0\r\n"
+                + "5,hash5,7,limited";
+        Files.write(accountsFile, file.getBytes(StandardCharsets.UTF_8));
+        IntObjectMap<BankAccount> accounts = load(ForkJoinPool.commonPool());
+
+        Assertions.assertEquals(3, accounts.size());
+        Assertions.assertEquals("hash1", accounts.get(1).accPasswd); // the first row of a duplicate wins
+        Assertions.assertEquals(5, accounts.get(4).getBalance());
+        Assertions.assertEquals(7, accounts.get(5).getBalance());
+        Assertions.assertNull(accounts.get(2));
+        Assertions.assertNull(accounts.get(3));
+    }
+
+    @Test
+    public void testLoad_ManyChunksMatchOneThread() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(CsvAccountStore.HEADER);
+        for (int i = 0; i < 40_000; i++) {
+            lines.add(i + ",$2a$10$abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHIJKLMNOPQ," + i + ",normal,0");
+        }
+        Files.write(accountsFile, lines);
+        Assertions.assertTrue(Files.size(accountsFile) > 2 * CsvAccountLoader.MIN_CHUNK_BYTES);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        IntObjectMap<BankAccount> parallel = load(pool);
+        pool.shutdown();
+        ForkJoinPool single = new ForkJoinPool(1);
+        IntObjectMap<BankAccount> sequential = load(single);
+        single.shutdown();
+
+        Assertions.assertEquals(40_000, parallel.size());
+        Assertions.assertEquals(40_000, sequential.size());
+        for (int i = 0; i < 40_000; i++) {
+            Assertions.assertEquals(i, parallel.keyAt(i)); // inserted in file order
+            Assertions.assertEquals(i, parallel.get(i).getBalance());
+        }
+    }
+
+    @Test
+    public void testFindBounds_StartsEveryRangeOnALine() throws IOException {
+        Files.write(accountsFile, Arrays.asList(CsvAccountStore.HEADER, "1,a,1,normal,0", "22,bb,22,normal,0",
+                "333,ccc,333,normal,0"));
+        byte[] bytes = Files.readAllBytes(accountsFile);
+        try (FileChannel channel = FileChannel.open(accountsFile)) {
+            long[] bounds = CsvAccountLoader.findBounds(channel, bytes.length, 5);
+            Assertions.assertEquals(CsvAccountStore.HEADER.length() + 1, bounds[0]);
+            Assertions.assertEquals(bytes.length, bounds[bounds.length - 1]);
+            int rows = 0;
+            for (int i = 0; i < bounds.length - 1; i++) {
+                Assertions.assertEquals('\n', bytes[(int) bounds[i] - 1]);
+                rows += CsvAccountLoader.parseRange(channel, bounds[i], bounds[i + 1]).size();
+            }
+            Assertions.assertEquals(3, rows);
+        }
+    }
+
+    @Test
+    public void testParseInt_MatchesIntegerParseInt() {
+        String[] valid = {"0", "-0", "+7", "007", "2147483647", "-2147483648"};
+        for (String text : valid) {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            Assertions.assertEquals(Integer.parseInt(text), CsvAccountLoader.parseInt(bytes, 0, bytes.length));
+        }
+        String[] invalid = {"", "-", "2147483648", "1 ", "1a", "99999999999"};
+        for (String text : invalid) {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            Assertions.assertThrows(NumberFormatException.class,
+                    () -> CsvAccountLoader.parseInt(bytes, 0, bytes.length));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DebugAppenderTest {
+
+    @Test
+    public void testMessagesAreFormattedInOrder(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("mybank.log");
+        DebugAppender appender = new DebugAppender(file, 1 << 20, 2, 256); // room for every message, none are dropped
+        for (int i = 0; i < 100; i++) {
+            appender.append(Debug.Level.WARN, "message %d of %s", 2, i, "test", null, null);
+        }
+        appender.append(Debug.Level.ERROR, "100% literal", 0, null, null, null, null);
+        appender.append(Debug.Level.INFO, "%s %s %s %s", 4, null, null, null, new Object[] { "a", "b", "c", "d" });
+        appender.close();
+
+        List<String> lines = Files.readAllLines(file);
+        Assertions.assertEquals(102, lines.size());
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(lines.get(i).endsWith(" WARN [" + Thread.currentThread().getName()
+                    + "] message " + i + " of test"), lines.get(i));
+        }
+        Assertions.assertTrue(lines.get(100).endsWith("ERROR [" + Thread.currentThread().getName()
+                + "] 100% literal"), lines.get(100));
+        Assertions.assertTrue(lines.get(101).endsWith("] a b c d"), lines.get(101));
+    }
+
+    @Test
+    public void testFileIsRolled(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("mybank.log");
+        DebugAppender appender = new DebugAppender(file, 1000, 2, 64);
+        for (int i = 0; i < 200; i++) {
+            appender.append(Debug.Level.WARN, "line %d", 1, i, null, null, null);
+            if (i % 50 == 0) {
+                appender.flush();
+            }
+        }
+        appender.close();
+
+        Assertions.assertTrue(Files.size(file) <= 1000);
+        Assertions.assertTrue(Files.size(directory.resolve("mybank.log.1")) <= 1000);
+        Assertions.assertTrue(Files.exists(directory.resolve("mybank.log.2")));
+        Assertions.assertFalse(Files.exists(directory.resolve("mybank.log.3")));
+        // The newest lines are in the current file, and the older files hold the lines just before them
+        List<String> lines = new ArrayList<>(Files.readAllLines(directory.resolve("mybank.log.1")));
+        lines.addAll(Files.readAllLines(file));
+        Assertions.assertTrue(lines.get(lines.size() - 1).endsWith("line 199"));
+        for (int i = 1; i < lines.size(); i++) {
+            int previous = Integer.parseInt(lines.get(i - 1).substring(lines.get(i - 1).lastIndexOf(' ') + 1));
+            Assertions.assertEquals(previous + 1,
+                    Integer.parseInt(lines.get(i).substring(lines.get(i).lastIndexOf(' ') + 1)));
+        }
+    }
+
+    @Test
+    public void testLevels() {
+        Debug.Level old = Debug.setLevel(Debug.Level.WARN);
+        try {
+            Assertions.assertFalse(Debug.isEnabled(Debug.Level.TRACE));
+            Assertions.assertFalse(Debug.isEnabled(Debug.Level.INFO));
+            Assertions.assertTrue(Debug.isEnabled(Debug.Level.ERROR));
+            Debug.trace(() -> {
+                throw new AssertionError("a message which is not kept is not made");
+            });
+            Assertions.assertFalse(Debug.set(true));
+            Assertions.assertEquals(Debug.Level.TRACE, Debug.getLevel());
+            Assertions.assertTrue(Debug.set(false));
+            Assertions.assertTrue(Debug.isEnabled(Debug.Level.WARN));
+            Debug.setLevel(Debug.Level.OFF);
+            Assertions.assertFalse(Debug.isEnabled(Debug.Level.ERROR));
+        } finally {
+            Debug.setLevel(old);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package CI401.mybank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Times the end of day over a bank of synthetic accounts, a tenth of them
+ * overdraft accounts and a fifth of those below zero, in the account store
+ * selected by "mybank.store", for three days in a row. The postings are
+ * worked out and applied on the common fork/join pool.
+ * This is not a unit test, run it on its own, e.g.
+ * java -Dmybank.store=mapped -cp target/classes:target/test-classes CI401.mybank.EndOfDayBenchmark [accounts]
+ */
+public class EndOfDayBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Debug.set(false);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("endofday");
+        Random random = new Random(42);
+        try (Bank bank = new Bank(dir.toString())) {
+            bank.accounts.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                int accNumber = 100_000 + i;
+                BankAccount a = i % 10 == 0
+                        ? new OverdraftBankAccount(accNumber, "x", random.nextInt(1000) - 200, 500)
+                        : new BankAccount(accNumber, "x", random.nextInt(100_000));
+                bank.accounts.put(accNumber, a);
+            }
+            bank.store.updateBatch(); // the initial snapshot, not timed
+            EndOfDay endOfDay = new EndOfDay(bank);
+            LocalDate day = LocalDate.of(2024, 1, 1);
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                int postings = endOfDay.run(day.plusDays(run));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%,d accounts, %,d postings in %.2f s (%,.0f accounts/s, %d threads)%n", count,
+                        postings, seconds, count / seconds, ForkJoinPool.getCommonPoolParallelism());
+            }
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
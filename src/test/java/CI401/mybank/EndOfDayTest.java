@@ -0,0 +1,135 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class EndOfDayTest {
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 1);
+
+    /**
+     * A CSV store whose next batch fails, as if the bank stopped part way
+     * through the end of day.
+     */
+    private static class FailingStore extends CsvAccountStore {
+        boolean fail = true;
+
+        FailingStore(String accountsFile) {
+            super(accountsFile);
+        }
+
+        @Override
+        public synchronized void updateBatch(BankAccount... changed) throws IOException {
+            if (fail) {
+                fail = false;
+                throw new IOException("disk full");
+            }
+            super.updateBatch(changed);
+        }
+    }
+
+    private static List<Transaction> postings(Path dataDirectory) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        for (String line : Files.readAllLines(dataDirectory.resolve("transaction_history.csv"))) {
+            Transaction t = Transaction.parse(line);
+            if (t != null && (t.transactionType.equals(EndOfDay.INTEREST) || t.transactionType.equals(EndOfDay.FEE))) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static void addAccounts(Bank bank) {
+        bank.addBankAccount(new BankAccount(1, "password", 10_000));
+        bank.makeOverdraftBankAccount(2, "password", -300, 500);
+        bank.addBankAccount(new BankAccount(3, "password", 0));
+        bank.addBankAccount(new BankAccount(4, "password", Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testRun_PostsInterestAndFees(@TempDir Path dataDirectory) throws IOException {
+        Bank bank = new Bank(dataDirectory.toString());
+        addAccounts(bank);
+        for (int i = 100; i < 50_000; i++) {
+            bank.accounts.put(i, new BankAccount(i, "password", 1000)); // enough to be split across tasks
+        }
+        EndOfDay endOfDay = new EndOfDay(bank, 100, 25, new ForkJoinPool(4));
+
+        Assertions.assertEquals(49_903, endOfDay.run(DAY));
+        Assertions.assertEquals(10_100, bank.accounts.get(1).getBalance());
+        Assertions.assertEquals(-325, bank.accounts.get(2).getBalance());
+        Assertions.assertEquals(0, bank.accounts.get(3).getBalance());
+        Assertions.assertEquals(Integer.MAX_VALUE, bank.accounts.get(4).getBalance()); // interest stops at the limit
+        Assertions.assertEquals(1010, bank.accounts.get(40_000).getBalance());
+        Assertions.assertEquals(DAY, EndOfDay.lastCompleted(dataDirectory));
+        Assertions.assertFalse(Files.exists(dataDirectory.resolve(EndOfDay.PENDING_FILE)));
+
+        List<Transaction> postings = postings(dataDirectory);
+        Assertions.assertEquals(49_903, postings.size());
+        Assertions.assertEquals(25, postings.get(1).amount);
+        Assertions.assertEquals(-325, postings.get(1).newBalance);
+        Assertions.assertEquals(EndOfDay.FEE, postings.get(1).transactionType);
+
+        // The same day again does nothing, the next day posts again
+        Assertions.assertEquals(0, endOfDay.run(DAY));
+        Assertions.assertEquals(10_100, bank.accounts.get(1).getBalance());
+        Assertions.assertEquals(49_902, endOfDay.run(DAY.plusDays(1))); // account 4 is at the limit
+        Assertions.assertEquals(10_201, bank.accounts.get(1).getBalance());
+        bank.close();
+
+        Bank reloaded = new Bank(dataDirectory.toString());
+        Assertions.assertEquals(10_201, reloaded.accounts.get(1).getBalance());
+        Assertions.assertEquals(-350, reloaded.accounts.get(2).getBalance());
+        reloaded.close();
+    }
+
+    @Test
+    public void testRecover_CompletesInterruptedRun(@TempDir Path dataDirectory) throws IOException {
+        String accountsFile = dataDirectory.resolve("accounts.csv").toString();
+        Bank bank = new Bank(dataDirectory.toString(), new FailingStore(accountsFile));
+        addAccounts(bank);
+        Assertions.assertThrows(IOException.class, () -> new EndOfDay(bank, 100, 25, new ForkJoinPool(2)).run(DAY));
+        Assertions.assertTrue(Files.exists(dataDirectory.resolve(EndOfDay.PENDING_FILE)));
+        Assertions.assertNull(EndOfDay.lastCompleted(dataDirectory));
+        Assertions.assertEquals(0, postings(dataDirectory).size());
+
+        // The bank has applied the postings in memory, so recovering it logs them without applying them again
+        Assertions.assertEquals(0, EndOfDay.recover(bank));
+        Assertions.assertEquals(10_100, bank.accounts.get(1).getBalance());
+        Assertions.assertEquals(DAY, EndOfDay.lastCompleted(dataDirectory));
+        Assertions.assertFalse(Files.exists(dataDirectory.resolve(EndOfDay.PENDING_FILE)));
+        Assertions.assertEquals(3, postings(dataDirectory).size());
+        bank.close();
+
+        Bank reopened = new Bank(dataDirectory.toString());
+        Assertions.assertEquals(10_100, reopened.accounts.get(1).getBalance());
+        Assertions.assertEquals(-325, reopened.accounts.get(2).getBalance());
+        reopened.close();
+    }
+
+    @Test
+    public void testRecover_AppliesPostingsOnOpen(@TempDir Path dataDirectory) throws IOException {
+        String accountsFile = dataDirectory.resolve("accounts.csv").toString();
+        Bank bank = new Bank(dataDirectory.toString(), new FailingStore(accountsFile));
+        addAccounts(bank);
+        Assertions.assertThrows(IOException.class, () -> new EndOfDay(bank, 100, 25, new ForkJoinPool(2)).run(DAY));
+        bank.close();
+
+        // A new bank loads the balances from before the postings, and applies them once
+        Bank reopened = new Bank(dataDirectory.toString());
+        Assertions.assertEquals(10_100, reopened.accounts.get(1).getBalance());
+        Assertions.assertEquals(-325, reopened.accounts.get(2).getBalance());
+        Assertions.assertEquals(DAY, EndOfDay.lastCompleted(dataDirectory));
+        Assertions.assertEquals(3, postings(dataDirectory).size());
+        Assertions.assertEquals(0, new EndOfDay(reopened).run(DAY));
+        reopened.close();
+    }
+}
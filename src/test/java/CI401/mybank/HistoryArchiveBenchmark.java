@@ -0,0 +1,191 @@
+package CI401.mybank;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the size of a synthetic transaction history as CSV and as a
+ * HistoryArchive, and the time taken by three reads of each: totals by
+ * transaction type over every record, one account's statement, and the
+ * records of one day. The CSV is read line by line with Transaction.parse.
+ * This is not a unit test, run it on its own, e.g.
+ * java -cp target/classes:target/test-classes CI401.mybank.HistoryArchiveBenchmark [records] [accounts]
+ */
+public class HistoryArchiveBenchmark {
+    private static final String[] TYPES = { "deposit", "withdraw", "transfer" };
+    private static final long DAY = 24 * 3600_000L;
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        long records = args.length > 0 ? Long.parseLong(args[0]) : 50_000_000L;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Path dir = Files.createTempDirectory("history");
+        Path csv = dir.resolve("transaction_history.csv");
+        Path archiveDirectory = dir.resolve("archive");
+
+        long start = DateTimeUtils.toEpochMillis("01/01/24", "00:00");
+        long span = 365 * DAY;
+        writeHistory(csv, records, accounts, start, span);
+        long time = System.nanoTime();
+        HistoryArchive.archive(csv, archiveDirectory, HistoryArchive.DEFAULT_SEGMENT_ROWS);
+        double archiveSeconds = (System.nanoTime() - time) / 1e9;
+        HistoryArchive archive = HistoryArchive.open(archiveDirectory);
+
+        long csvBytes = Files.size(csv);
+        long archiveBytes = 0;
+        for (HistorySegment segment : archive.getSegments()) {
+            archiveBytes += Files.size(segment.getFile());
+        }
+        System.out.printf("%,d records, %,d accounts, %d segments, archived in %.1f s%n", records, accounts,
+                archive.getSegments().size(), archiveSeconds);
+        System.out.printf("CSV     %,15d bytes %6.1f bytes/record%n", csvBytes, (double) csvBytes / records);
+        System.out.printf("archive %,15d bytes %6.1f bytes/record (%.1fx smaller)%n", archiveBytes,
+                (double) archiveBytes / records, (double) csvBytes / archiveBytes);
+
+        int account = 100000 + accounts / 2;
+        long dayStart = start + 200 * DAY;
+        String day = DateTimeUtils.fromEpochMillis(dayStart)[0];
+
+        System.out.printf("%-28s %10s %10s %8s%n", "read", "CSV ms", "archive ms", "speed-up");
+        compare("totals by type", () -> csvTotals(csv), () -> archiveTotals(archive));
+        compare("statement of one account", () -> csvStatement(csv, account),
+                () -> archive.transactionsOf(account).size());
+        compare("records of one day", () -> csvDay(csv, day), () -> archiveDay(archive, dayStart, dayStart + DAY - 1));
+
+        for (HistorySegment segment : archive.getSegments()) {
+            Files.delete(segment.getFile());
+        }
+        Files.delete(archiveDirectory);
+        Files.delete(csv);
+        Files.delete(dir);
+    }
+
+    private interface Read {
+        long run() throws IOException;
+    }
+
+    private static void compare(String name, Read csv, Read archive) throws IOException {
+        long time = System.nanoTime();
+        long csvResult = csv.run();
+        double csvMillis = (System.nanoTime() - time) / 1e6;
+        archive.run(); // warm up
+        time = System.nanoTime();
+        long archiveResult = archive.run();
+        double archiveMillis = (System.nanoTime() - time) / 1e6;
+        if (csvResult != archiveResult) {
+            throw new IllegalStateException(name + ": CSV gave " + csvResult + ", archive " + archiveResult);
+        }
+        System.out.printf("%-28s %10.0f %10.0f %7.1fx%n", name, csvMillis, archiveMillis, csvMillis / archiveMillis);
+    }
+
+    private static void writeHistory(Path csv, long records, int accounts, long start, long span)
+            throws IOException {
+        Random random = new Random(1);
+        int[] balances = new int[accounts];
+        try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+            out.write(Transaction.HEADER);
+            out.newLine();
+            for (long i = 0; i < records; i++) {
+                int account = random.nextInt(accounts);
+                String type = TYPES[random.nextInt(10) < 9 ? random.nextInt(2) : 2];
+                int amount = 1 + random.nextInt(500);
+                balances[account] += type.equals("deposit") ? amount : -amount;
+                String[] dateTime = DateTimeUtils.fromEpochMillis(start + span * i / records);
+                out.write(new Transaction(100000 + account, type, amount, balances[account], dateTime[0],
+                        dateTime[1]).toCsv());
+            }
+        }
+    }
+
+    /**
+     * Sums the amounts of each type and returns a checksum of the totals.
+     */
+    private static long csvTotals(Path csv) throws IOException {
+        Map<String, Long> totals = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(csv)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction t = Transaction.parse(line);
+                if (t != null) {
+                    totals.merge(t.transactionType, (long) t.amount, Long::sum);
+                }
+            }
+        }
+        return checksum(totals);
+    }
+
+    private static long archiveTotals(HistoryArchive archive) throws IOException {
+        Map<String, Long> totals = new HashMap<>();
+        for (HistorySegment segment : archive.getSegments()) {
+            HistorySegment.Columns columns = segment.columns();
+            String[] types = columns.types();
+            long[] sums = new long[types.length];
+            int[] codes = columns.typeCodes();
+            int[] amounts = columns.amounts();
+            for (int i = 0; i < columns.size(); i++) {
+                sums[codes[i]] += amounts[i];
+            }
+            for (int c = 0; c < types.length; c++) {
+                totals.merge(types[c], sums[c], Long::sum);
+            }
+        }
+        return checksum(totals);
+    }
+
+    private static long checksum(Map<String, Long> totals) {
+        long sum = 0;
+        for (Map.Entry<String, Long> e : totals.entrySet()) {
+            sum += e.getKey().hashCode() * e.getValue();
+        }
+        return sum;
+    }
+
+    private static long csvStatement(Path csv, int account) throws IOException {
+        long found = 0;
+        try (BufferedReader in = Files.newBufferedReader(csv)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction t = Transaction.parse(line);
+                if (t != null && t.accNumber == account) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static long csvDay(Path csv, String day) throws IOException {
+        long found = 0;
+        try (BufferedReader in = Files.newBufferedReader(csv)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction t = Transaction.parse(line);
+                if (t != null && t.getDate().equals(day)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static long archiveDay(HistoryArchive archive, long from, long to) throws IOException {
+        long found = 0;
+        List<HistorySegment> segments = archive.segmentsBetween(from, to);
+        for (HistorySegment segment : segments) {
+            long[] times = segment.columns().times();
+            for (long t : times) {
+                if (t >= from && t <= to) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,77 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HistoryArchiveTest {
+
+    private Path historyFile;
+    private Path archiveDirectory;
+
+    @BeforeEach
+    public void setup(@TempDir Path dataDirectory) throws IOException {
+        historyFile = dataDirectory.resolve("transaction_history.csv");
+        archiveDirectory = dataDirectory.resolve("archive");
+        Files.write(historyFile, Arrays.asList(Transaction.HEADER,
+                "1,deposit,10,110,01/01/24,09:00",
+                "2,deposit,20,220,01/01/24,09:05",
+                "not a record",
+                "1,withdraw,5,105,02/01/24,10:00",
+                "3,transfer,7,7,03/01/24,11:00",
+                "1,deposit,1,106,bad date,11:00",
+                "2,withdraw,2,218,04/01/24,12:00",
+                "1,transfer,6,100,05/01/24,13:00"));
+    }
+
+    @Test
+    public void testArchive_SealsRecordsInOrder() throws IOException {
+        Assertions.assertEquals(6, HistoryArchive.archive(historyFile, archiveDirectory, 4));
+        HistoryArchive archive = HistoryArchive.open(archiveDirectory);
+        Assertions.assertEquals(2, archive.getSegments().size());
+        Assertions.assertEquals(6, archive.getRows());
+
+        List<String> rows = new ArrayList<>();
+        for (Transaction t : archive.transactionsOf(1)) {
+            rows.add(t.transactionType + "," + t.amount + "," + t.newBalance + "," + t.getDate() + "," + t.getTime());
+        }
+        Assertions.assertEquals(Arrays.asList("deposit,10,110,01/01/24,09:00", "withdraw,5,105,02/01/24,10:00",
+                "transfer,6,100,05/01/24,13:00"), rows);
+    }
+
+    @Test
+    public void testArchive_AppendsNewSegments() throws IOException {
+        HistoryArchive.archive(historyFile, archiveDirectory, 4);
+        HistoryArchive.archive(historyFile, archiveDirectory, 100);
+        HistoryArchive archive = HistoryArchive.open(archiveDirectory);
+        Assertions.assertEquals(3, archive.getSegments().size());
+        Assertions.assertEquals(archiveDirectory.resolve("history-000003.seg"),
+                archive.getSegments().get(2).getFile());
+        Assertions.assertEquals(6, archive.transactionsOf(1).size());
+    }
+
+    @Test
+    public void testSegmentsBetween_SkipsOtherTimes() throws IOException {
+        HistoryArchive.archive(historyFile, archiveDirectory, 4);
+        HistoryArchive archive = HistoryArchive.open(archiveDirectory);
+        long fourth = DateTimeUtils.toEpochMillis("04/01/24", "00:00");
+        Assertions.assertEquals(1, archive.segmentsBetween(fourth, Long.MAX_VALUE).size());
+        Assertions.assertEquals(2, archive.segmentsBetween(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        Assertions.assertEquals(0, archive.segmentsBetween(Long.MIN_VALUE, fourth - 14L * 24 * 3600_000).size());
+    }
+
+    @Test
+    public void testOpen_MissingDirectoryIsEmpty() throws IOException {
+        HistoryArchive archive = HistoryArchive.open(archiveDirectory);
+        Assertions.assertEquals(0, archive.getRows());
+        Assertions.assertTrue(archive.transactionsOf(1).isEmpty());
+    }
+}
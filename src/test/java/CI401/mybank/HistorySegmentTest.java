@@ -0,0 +1,125 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class HistorySegmentTest {
+
+    private Path segmentFile;
+
+    @BeforeEach
+    public void setup(@TempDir Path directory) {
+        segmentFile = directory.resolve("history-000001.seg");
+    }
+
+    @Test
+    public void testColumns_RoundTrip() throws IOException {
+        Random random = new Random(42);
+        int rows = 5000;
+        int[] accNumbers = new int[rows];
+        int[] amounts = new int[rows];
+        int[] balances = new int[rows];
+        long[] times = new long[rows];
+        String[] typeNames = { "deposit", "withdraw", "transfer", "interest £" };
+        int[] types = new int[rows];
+        int minAmount = Integer.MAX_VALUE;
+        int maxAmount = Integer.MIN_VALUE;
+        try (HistorySegment.Writer writer = new HistorySegment.Writer(segmentFile, rows)) {
+            long time = 1_700_000_000_000L;
+            for (int i = 0; i < rows; i++) {
+                accNumbers[i] = 100000 + random.nextInt(1000);
+                amounts[i] = random.nextInt(2000) - 1000;
+                minAmount = Math.min(minAmount, amounts[i]);
+                maxAmount = Math.max(maxAmount, amounts[i]);
+                balances[i] = random.nextInt();
+                time += random.nextInt(120_000) - 1000; // occasionally earlier than the last
+                times[i] = time;
+                types[i] = random.nextInt(typeNames.length);
+                writer.add(accNumbers[i], typeNames[types[i]], amounts[i], balances[i], times[i]);
+            }
+            Assertions.assertTrue(writer.isFull());
+        }
+
+        HistorySegment segment = HistorySegment.open(segmentFile);
+        Assertions.assertEquals(rows, segment.getRows());
+        HistorySegment.Columns columns = segment.columns();
+        Assertions.assertArrayEquals(accNumbers, columns.accNumbers());
+        Assertions.assertArrayEquals(amounts, columns.amounts());
+        Assertions.assertArrayEquals(balances, columns.balances());
+        Assertions.assertArrayEquals(times, columns.times());
+        for (int i = 0; i < rows; i++) {
+            Assertions.assertEquals(typeNames[types[i]], columns.types()[columns.typeCodes()[i]]);
+        }
+        Assertions.assertEquals(minAmount, segment.getMinAmount());
+        Assertions.assertEquals(maxAmount, segment.getMaxAmount());
+    }
+
+    @Test
+    public void testHeader_RulesOutAccountsAndTimes() throws IOException {
+        try (HistorySegment.Writer writer = new HistorySegment.Writer(segmentFile, 100)) {
+            for (int i = 0; i < 100; i++) {
+                writer.add(1000 + 2 * i, "deposit", 10, 10, 60_000L * i);
+            }
+        }
+        HistorySegment segment = HistorySegment.open(segmentFile);
+        Assertions.assertEquals(1000, segment.getMinAccNumber());
+        Assertions.assertEquals(1198, segment.getMaxAccNumber());
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(segment.mightContain(1000 + 2 * i)); // never a false negative
+        }
+        Assertions.assertFalse(segment.mightContain(999));
+        Assertions.assertFalse(segment.mightContain(1200));
+        int falsePositives = 0;
+        for (int i = 0; i < 99; i++) {
+            falsePositives += segment.mightContain(1001 + 2 * i) ? 1 : 0;
+        }
+        Assertions.assertTrue(falsePositives < 10, "false positives: " + falsePositives);
+
+        Assertions.assertTrue(segment.overlaps(60_000L * 99, Long.MAX_VALUE));
+        Assertions.assertFalse(segment.overlaps(60_000L * 100, Long.MAX_VALUE));
+        Assertions.assertFalse(segment.overlaps(Long.MIN_VALUE, -1));
+    }
+
+    @Test
+    public void testTransactionsOf_KeepsDateAndTime() throws IOException {
+        try (HistorySegment.Writer writer = new HistorySegment.Writer(segmentFile, 10)) {
+            writer.add(new Transaction(7, "deposit", 50, 150, "22/04/24", "11:40"));
+            writer.add(new Transaction(8, "withdraw", 20, 80, "22/04/24", "11:41"));
+            writer.add(new Transaction(7, "withdraw", -5, 145, "31/12/25", "23:59"));
+        }
+        List<Transaction> transactions = HistorySegment.open(segmentFile).transactionsOf(7);
+        Assertions.assertEquals(2, transactions.size());
+        Assertions.assertEquals("22/04/24", transactions.get(0).getDate());
+        Assertions.assertEquals("11:40", transactions.get(0).getTime());
+        Assertions.assertEquals(50, transactions.get(0).amount);
+        Assertions.assertEquals("31/12/25", transactions.get(1).getDate());
+        Assertions.assertEquals("23:59", transactions.get(1).getTime());
+        Assertions.assertEquals(145, transactions.get(1).newBalance);
+    }
+
+    @Test
+    public void testWriter_RejectsBadTimesAndFullSegments() {
+        HistorySegment.Writer writer = new HistorySegment.Writer(segmentFile, 1);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> writer.add(new Transaction(1, "deposit", 1, 1, "2024-04-22", "11:40")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> writer.add(new Transaction(1, "deposit", 1, 1, "31/02/24", "11:40")));
+        writer.add(new Transaction(1, "deposit", 1, 1, "29/02/24", "11:40"));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> writer.add(new Transaction(1, "deposit", 1, 1, "29/02/24", "11:40")));
+    }
+
+    @Test
+    public void testOpen_RejectsOtherFiles() throws IOException {
+        Files.write(segmentFile, new byte[64]);
+        Assertions.assertThrows(IOException.class, () -> HistorySegment.open(segmentFile));
+    }
+}
@@ -0,0 +1,91 @@
+package CI401.mybank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures account lookup latency in the IntObjectMap used by the Bank, from
+ * 10 up to 10 million accounts, next to the linear list scan it replaced.
+ * This is not a unit test, run it on its own with a large heap, e.g.
+ * java -Xmx4g -cp target/classes:target/test-classes CI401.mybank.IntObjectMapBenchmark
+ */
+public class IntObjectMapBenchmark {
+    private static final int[] SIZES = { 10, 1_000, 100_000, 1_000_000, 10_000_000 };
+    private static final int LOOKUPS = 5_000_000;
+    private static final int MAX_SCAN_SIZE = 100_000; // the list scan is too slow to time beyond this
+
+    public static void main(String[] args) {
+        Debug.set(false);
+        Random random = new Random(1);
+        System.out.printf("%12s %18s %18s%n", "accounts", "map ns/lookup", "list ns/lookup");
+
+        for (int size : SIZES) {
+            // Build the accounts with scattered account numbers, like real ones
+            IntObjectMap<BankAccount> map = new IntObjectMap<>();
+            List<BankAccount> list = new ArrayList<>();
+            int[] accNumbers = new int[size];
+            for (int i = 0; i < size; i++) {
+                int accNumber;
+                do {
+                    accNumber = random.nextInt(Integer.MAX_VALUE);
+                } while (map.containsKey(accNumber));
+                BankAccount account = new BankAccount(accNumber, "hash", i);
+                map.put(accNumber, account);
+                if (size <= MAX_SCAN_SIZE) {
+                    list.add(account);
+                }
+                accNumbers[i] = accNumber;
+            }
+
+            // Look up existing accounts in a random order so the cache does not help
+            int[] probes = new int[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                probes[i] = accNumbers[random.nextInt(size)];
+            }
+
+            timeMap(map, probes); // warm up
+            double mapNanos = timeMap(map, probes);
+            String listNanos = "-";
+            if (size <= MAX_SCAN_SIZE) {
+                int scanLookups = (int) Math.min(LOOKUPS, 2_000_000_000L / size);
+                timeList(list, probes, scanLookups);
+                listNanos = String.format("%.1f", timeList(list, probes, scanLookups));
+            }
+            System.out.printf("%12d %18.1f %18s%n", size, mapNanos, listNanos);
+        }
+    }
+
+    private static double timeMap(IntObjectMap<BankAccount> map, int[] probes) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int probe : probes) {
+            sum += map.get(probe).getBalance();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sum);
+        return (double) elapsed / probes.length;
+    }
+
+    private static double timeList(List<BankAccount> list, int[] probes, int lookups) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            for (BankAccount b : list) {
+                if (b.accNumber == probes[i]) {
+                    sum += b.getBalance();
+                    break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sum);
+        return (double) elapsed / lookups;
+    }
+
+    private static void consume(long value) {
+        if (value == 42) {
+            System.out.println();
+        }
+    }
+}
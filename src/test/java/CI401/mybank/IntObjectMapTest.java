@@ -0,0 +1,91 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Assertions.assertNull(map.put(1, "one"));
+        Assertions.assertNull(map.put(0, "zero"));
+        Assertions.assertNull(map.put(-7, "minus seven"));
+        Assertions.assertEquals("one", map.put(1, "uno"));
+
+        Assertions.assertEquals(3, map.size());
+        Assertions.assertEquals("uno", map.get(1));
+        Assertions.assertEquals("zero", map.get(0));
+        Assertions.assertEquals("minus seven", map.get(-7));
+        Assertions.assertNull(map.get(2));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Assertions.assertTrue(map.putIfAbsent(5, "first"));
+        Assertions.assertFalse(map.putIfAbsent(5, "second"));
+        Assertions.assertEquals("first", map.get(5));
+    }
+
+    @Test
+    public void testGrowKeepsInsertionOrder() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        for (int i = 0; i < 10000; i++) {
+            map.put(i * 31, i);
+        }
+        Assertions.assertEquals(10000, map.size());
+        int expected = 0;
+        for (Integer value : map) {
+            Assertions.assertEquals(expected, value.intValue());
+            Assertions.assertEquals(expected * 31, map.keyAt(expected));
+            expected++;
+        }
+    }
+
+    @Test
+    public void testRemoveMatchesHashMap() {
+        // Compare against java.util.HashMap with a random mix of puts and removes
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        Map<Integer, Integer> reference = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextBoolean()) {
+                Assertions.assertEquals(reference.put(key, i), map.put(key, i));
+            } else {
+                Assertions.assertEquals(reference.remove(key), map.remove(key));
+            }
+        }
+        Assertions.assertEquals(reference.size(), map.size());
+        for (int key = 0; key < 5000; key++) {
+            Assertions.assertEquals(reference.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testNullValueRejected() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Assertions.assertThrows(NullPointerException.class, () -> map.put(1, null));
+    }
+
+    @Test
+    public void testEnsureCapacityKeepsEntries() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(3, "three");
+        map.put(1, "one");
+        map.ensureCapacity(10000);
+        map.ensureCapacity(10); // never shrinks
+        Assertions.assertEquals("three", map.get(3));
+        Assertions.assertEquals("one", map.get(1));
+        Assertions.assertEquals(1, map.keyAt(1));
+        for (int i = 100; i < 10000; i++) {
+            map.put(i, "value");
+        }
+        Assertions.assertEquals(9902, map.size());
+    }
+}
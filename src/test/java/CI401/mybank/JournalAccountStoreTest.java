@@ -0,0 +1,136 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class JournalAccountStoreTest {
+
+    private Path accountsFile;
+    private Path journalFile;
+
+    @BeforeEach
+    public void setup(@TempDir Path dataDirectory) {
+        accountsFile = dataDirectory.resolve("accounts.csv");
+        journalFile = dataDirectory.resolve("accounts.journal");
+    }
+
+    private JournalAccountStore openStore(IntObjectMap<BankAccount> accounts) throws IOException {
+        JournalAccountStore store = new JournalAccountStore(accountsFile.toString(), journalFile.toString());
+        store.load(accounts);
+        return store;
+    }
+
+    @Test
+    public void testUpdateAppendsWithoutRewritingSnapshot() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        JournalAccountStore store = openStore(accounts);
+        BankAccount account = new BankAccount(1, "hash", 100);
+        accounts.put(1, account);
+        store.update(account);
+        account.deposit(50);
+        store.update(account);
+
+        Assertions.assertFalse(Files.exists(accountsFile));
+        Assertions.assertEquals(2, Files.readAllLines(journalFile).size());
+
+        // Replaying the journal gives the latest state
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        openStore(reloaded);
+        Assertions.assertEquals(150, reloaded.get(1).getBalance());
+    }
+
+    @Test
+    public void testCloseCompactsJournalIntoSnapshot() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        JournalAccountStore store = openStore(accounts);
+        OverdraftBankAccount account = new OverdraftBankAccount(7, "hash", -20, 100);
+        accounts.put(7, account);
+        store.update(account);
+        store.close();
+
+        Assertions.assertEquals(0, Files.size(journalFile));
+        Assertions.assertEquals(CsvAccountStore.HEADER + "\n7,hash,-20,overdraft,100\n",
+                new String(Files.readAllBytes(accountsFile), "UTF-8").replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        JournalAccountStore store = openStore(accounts);
+        BankAccount source = new BankAccount(1, "hash", 100);
+        BankAccount target = new BankAccount(2, "hash", 0);
+        accounts.put(1, source);
+        accounts.put(2, target);
+        store.update(source, target);
+
+        // Simulate a crash half way through writing the next record
+        Files.write(journalFile, "0badc0de 1,hash,40,nor".getBytes("UTF-8"), StandardOpenOption.APPEND);
+
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        JournalAccountStore reopened = openStore(reloaded);
+        Assertions.assertEquals(100, reloaded.get(1).getBalance());
+        Assertions.assertEquals(0, reloaded.get(2).getBalance());
+
+        // New records follow the last good one
+        reloaded.get(2).deposit(5);
+        reopened.update(reloaded.get(2));
+        IntObjectMap<BankAccount> again = new IntObjectMap<>();
+        openStore(again);
+        Assertions.assertEquals(5, again.get(2).getBalance());
+    }
+
+    @Test
+    public void testFailedWriteIsCutBackAndStopsUpdates() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        boolean[] failWrites = {false};
+        JournalAccountStore store = new JournalAccountStore(accountsFile.toString(), journalFile.toString()) {
+            @Override
+            int write(ByteBuffer record) throws IOException {
+                if (!failWrites[0]) {
+                    return super.write(record);
+                }
+                // Write half the record, then fail like a full disk
+                ByteBuffer half = record.duplicate();
+                half.limit(record.position() + record.remaining() / 2);
+                int written = super.write(half);
+                record.position(half.position());
+                throw new IOException("No space left on device");
+            }
+        };
+        store.load(accounts);
+        BankAccount account = new BankAccount(1, "hash", 100);
+        accounts.put(1, account);
+        store.update(account);
+        long goodLength = Files.size(journalFile);
+
+        failWrites[0] = true;
+        account.deposit(50);
+        Assertions.assertThrows(IOException.class, () -> store.update(account));
+        Assertions.assertEquals(goodLength, Files.size(journalFile));
+
+        // No more updates are taken, even once writes work again
+        failWrites[0] = false;
+        Assertions.assertThrows(IOException.class, () -> store.update(account));
+        Assertions.assertEquals(goodLength, Files.size(journalFile));
+
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        openStore(reloaded);
+        Assertions.assertEquals(100, reloaded.get(1).getBalance());
+
+        // A checkpoint writes every account and lets updates through again
+        store.checkpoint();
+        account.deposit(5);
+        store.update(account);
+        IntObjectMap<BankAccount> again = new IntObjectMap<>();
+        openStore(again);
+        Assertions.assertEquals(155, again.get(1).getBalance());
+    }
+}
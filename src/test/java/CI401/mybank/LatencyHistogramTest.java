@@ -0,0 +1,67 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getValueAtPercentile(99));
+        Assertions.assertEquals(0, histogram.getMin());
+        Assertions.assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void testSmallValues_AreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assertions.assertEquals(100, histogram.getCount());
+        Assertions.assertEquals(50, histogram.getValueAtPercentile(50));
+        Assertions.assertEquals(99, histogram.getValueAtPercentile(99));
+        Assertions.assertEquals(100, histogram.getValueAtPercentile(100));
+        Assertions.assertEquals(1, histogram.getMin());
+        Assertions.assertEquals(50.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testLargeValues_AreWithinBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assertions.assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 / 64.0);
+        Assertions.assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 / 64.0);
+        Assertions.assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBuckets_CoverEveryValue() {
+        long[] values = { 0, 127, 128, 129, 255, 256, 1000, 123_456_789, Long.MAX_VALUE / 4 };
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            Assertions.assertTrue(LatencyHistogram.highestValueIn(index) >= value, "bucket too low for " + value);
+            if (index > 0) {
+                Assertions.assertTrue(LatencyHistogram.highestValueIn(index - 1) < value, "bucket too high for " + value);
+            }
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+        first.add(second);
+        Assertions.assertEquals(3, first.getCount());
+        Assertions.assertEquals(10, first.getMin());
+        Assertions.assertEquals(30, first.getMax());
+        Assertions.assertEquals(20, first.getValueAtPercentile(50));
+    }
+}
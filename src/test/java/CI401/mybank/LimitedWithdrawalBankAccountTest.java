@@ -3,6 +3,8 @@ package CI401.mybank;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class LimitedWithdrawalBankAccountTest {
 
     @Test
@@ -34,4 +36,44 @@ public class LimitedWithdrawalBankAccountTest {
         Assertions.assertEquals(100, account.getBalance());
         Assertions.assertEquals(0, account.getWithdrawalsLeft());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWithdrawalsCountedAgainOnNewDay() {
+        LimitedWithdrawalBankAccount account = new LimitedWithdrawalBankAccount(123456, "password", 1000, 3, 100);
+        Assertions.assertEquals(3, account.getWithdrawalsOn(100));
+        Assertions.assertFalse(account.withdraw(10, 100));
+
+        // The first withdrawal of the next day starts the count again, without anything else resetting it
+        Assertions.assertEquals(0, account.getWithdrawalsOn(101));
+        Assertions.assertTrue(account.withdraw(10, 101));
+        Assertions.assertEquals(1, account.getWithdrawalsOn(101));
+        Assertions.assertEquals(101, account.getWithdrawalDay());
+
+        // A clock set back to the day before still counts against the later day
+        Assertions.assertTrue(account.withdraw(10, 100));
+        Assertions.assertEquals(2, account.getWithdrawalsOn(101));
+        Assertions.assertEquals(101, account.getWithdrawalDay());
+        Assertions.assertEquals(980, account.getBalance());
+    }
+
+    @Test
+    public void testConcurrentWithdrawals_CountedWithBalance() throws InterruptedException {
+        LimitedWithdrawalBankAccount account = new LimitedWithdrawalBankAccount(123456, "password", 1000);
+        AtomicInteger succeeded = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                if (account.withdraw(10)) {
+                    succeeded.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(3, succeeded.get());
+        Assertions.assertEquals(970, account.getBalance());
+        Assertions.assertEquals(0, account.getWithdrawalsLeft());
+    }
+}
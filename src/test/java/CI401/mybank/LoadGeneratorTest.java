@@ -0,0 +1,88 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+import CI401.mybank.LoadGenerator.Operation;
+
+public class LoadGeneratorTest {
+
+    private Bank bank;
+    private int[] accounts;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) {
+        bank = new Bank(tempDirectory.toString());
+        accounts = LoadGenerator.createAccounts(bank, 5, "password");
+    }
+
+    @Test
+    public void testScript_RunsEveryOperation() throws Exception {
+        LoadGenerator generator = new LoadGenerator(bank, accounts, "password");
+        generator.setScript(Operation.BALANCE, Operation.DEPOSIT, Operation.WITHDRAW, Operation.TRANSFER,
+                Operation.STATEMENT);
+        LoadGenerator.Report report = generator.run(2, 2, 0, 1);
+
+        Assertions.assertEquals(0, report.getFailedLogins());
+        for (Operation operation : Operation.values()) {
+            Assertions.assertEquals(4, report.getLatencies(operation).getCount(), operation.toString());
+            Assertions.assertTrue(report.getLatencies(operation).getMax() > 0, operation.toString());
+        }
+        Assertions.assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void testTransfers_ConserveMoney() throws Exception {
+        LoadGenerator generator = new LoadGenerator(bank, accounts, "password");
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        mix.put(Operation.TRANSFER, 1);
+        generator.setMix(mix);
+        LoadGenerator.Report report = generator.run(3, 1, 50, 7);
+
+        Assertions.assertEquals(150, report.getLatencies(Operation.TRANSFER).getCount());
+        int total = 0;
+        for (int accNumber : accounts) {
+            total += bank.findAccount(accNumber).getBalance();
+        }
+        Assertions.assertEquals(accounts.length * 1000, total);
+    }
+
+    @Test
+    public void testWrongPassword_CountsFailedLogins() throws Exception {
+        LoadGenerator generator = new LoadGenerator(bank, accounts, "wrongpassword");
+        LoadGenerator.Report report = generator.run(1, 2, 3, 1);
+
+        Assertions.assertEquals(2, report.getFailedLogins());
+        Assertions.assertEquals(0, report.getLatencies(Operation.BALANCE).getCount());
+    }
+
+    @Test
+    public void testScript_RejectsLogin() {
+        LoadGenerator generator = new LoadGenerator(bank, accounts, "password");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> generator.setScript(Operation.LOGIN));
+    }
+
+    @Test
+    public void testTerminal_DrivesModel() {
+        Session session = bank.newSession();
+        Assertions.assertTrue(session.login(accounts[0], "password"));
+        LoadGenerator.Terminal terminal = new LoadGenerator.Terminal();
+        Model model = new Model(session);
+        model.setListener(terminal);
+        terminal.model = model;
+
+        terminal.process("DEPOSIT");
+        terminal.type(250);
+        terminal.process("ENTER");
+        Assertions.assertTrue(terminal.reply.contains("£1250"), terminal.reply);
+
+        terminal.process("LOGOUT");
+        Assertions.assertFalse(session.loggedIn());
+    }
+}
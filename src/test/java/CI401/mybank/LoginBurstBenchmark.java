@@ -0,0 +1,85 @@
+package CI401.mybank;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fires a burst of concurrent logins at a Bank and reports the login latency
+ * percentiles, measured from the moment the burst starts to the moment each
+ * login completes, and how many logins were turned away by a full queue.
+ * Each run uses a fresh PasswordVerifier with the given number of threads and
+ * queue depth. This is not a unit test, run it on its own with the Bouncy
+ * Castle jar on the class path, e.g.
+ * java -cp target/classes:target/test-classes:bcprov-jdk15on-1.70.jar CI401.mybank.LoginBurstBenchmark [attempts]
+ */
+public class LoginBurstBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        int attempts = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Bank bank = new Bank(Files.createTempDirectory("logins").toString());
+        String hash = SecurityUtils.hashPassword("password");
+        for (int i = 0; i < 50; i++) {
+            bank.addBankAccount(new BankAccount(i, hash, 100));
+        }
+
+        System.out.printf("%d cores, %d concurrent logins%n", cores, attempts);
+        System.out.printf("%8s %7s %10s %10s %10s %10s%n", "threads", "queue", "p50 ms", "p99 ms", "max ms",
+                "rejected");
+        run(bank, cores, attempts, attempts);
+        run(bank, 2 * cores, attempts, attempts);
+        run(bank, cores, attempts / 4, attempts);
+        bank.close();
+    }
+
+    private static void run(Bank bank, int threads, int queue, int attempts) {
+        bank.verifier = new PasswordVerifier(threads, queue);
+        long[] latencies = new long[attempts];
+        int[] rejected = new int[1];
+        List<CompletableFuture<Boolean>> logins = new ArrayList<>(attempts);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < attempts; i++) {
+            int attempt = i;
+            // Every tenth login uses the wrong password
+            String password = i % 10 == 0 ? "wrong" : "password";
+            logins.add(bank.newSession().loginAsync(i % 50, password).whenComplete((ok, error) -> {
+                latencies[attempt] = System.nanoTime() - start;
+                if (error != null) {
+                    synchronized (rejected) {
+                        rejected[0]++;
+                    }
+                }
+            }));
+        }
+        for (CompletableFuture<Boolean> login : logins) {
+            login.exceptionally(error -> false).join();
+        }
+        bank.verifier.close();
+
+        // Only logins which were checked count towards the latency
+        long[] checked = new long[attempts - rejected[0]];
+        int n = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (!logins.get(i).isCompletedExceptionally()) {
+                checked[n++] = latencies[i];
+            }
+        }
+        Arrays.sort(checked);
+        System.out.printf("%8d %7d %10.0f %10.0f %10.0f %10d%n", threads, queue, percentile(checked, 50),
+                percentile(checked, 99), percentile(checked, 100), rejected[0]);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
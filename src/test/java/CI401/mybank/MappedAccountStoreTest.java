@@ -0,0 +1,153 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class MappedAccountStoreTest {
+
+    private Path dataDirectory;
+    private Path mappedFile;
+    private Path csvFile;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) {
+        dataDirectory = tempDirectory;
+        mappedFile = dataDirectory.resolve("accounts.dat");
+        csvFile = dataDirectory.resolve("accounts.csv");
+    }
+
+    private MappedAccountStore openStore(IntObjectMap<BankAccount> accounts) throws IOException {
+        MappedAccountStore store = new MappedAccountStore(mappedFile.toString(), csvFile.toString(), false);
+        store.load(accounts);
+        return store;
+    }
+
+    @Test
+    public void testAccounts_SurviveReload() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        MappedAccountStore store = openStore(accounts);
+        String hash = SecurityUtils.hashPassword("password", 4);
+        store.update(new BankAccount(1, hash, 100));
+        store.update(new OverdraftBankAccount(2, hash, -50, 300));
+        store.update(new LimitedWithdrawalBankAccount(3, hash, 70, 2));
+        store.close();
+
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        openStore(reloaded).close();
+        Assertions.assertEquals(3, reloaded.size());
+        Assertions.assertEquals(100, reloaded.get(1).getBalance());
+        Assertions.assertEquals(hash, reloaded.get(1).accPasswd);
+        Assertions.assertEquals(300, ((OverdraftBankAccount) reloaded.get(2)).getOverdraftLimit());
+        Assertions.assertEquals(-50, reloaded.get(2).getBalance());
+        Assertions.assertEquals(2, ((LimitedWithdrawalBankAccount) reloaded.get(3)).getWithdrawalsToday());
+    }
+
+    @Test
+    public void testUpdate_RewritesOnlyItsRecord() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        MappedAccountStore store = openStore(accounts);
+        BankAccount first = new BankAccount(1, "hash", 100);
+        BankAccount second = new BankAccount(2, "hash", 100);
+        store.update(first, second);
+        store.checkpoint();
+        byte[] before = Files.readAllBytes(mappedFile);
+
+        first.deposit(25);
+        store.update(first);
+        store.checkpoint();
+        byte[] after = Files.readAllBytes(mappedFile);
+
+        Assertions.assertEquals(before.length, after.length);
+        int firstRecord = MappedAccountStore.HEADER_BYTES;
+        int secondRecord = firstRecord + MappedAccountStore.RECORD_BYTES;
+        Assertions.assertFalse(Arrays.equals(Arrays.copyOfRange(before, firstRecord, secondRecord),
+                Arrays.copyOfRange(after, firstRecord, secondRecord)));
+        Assertions.assertArrayEquals(Arrays.copyOfRange(before, secondRecord, before.length),
+                Arrays.copyOfRange(after, secondRecord, after.length));
+        store.close();
+    }
+
+    @Test
+    public void testFile_GrowsPastItsFirstSize() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        MappedAccountStore store = openStore(accounts);
+        for (int i = 0; i < 3000; i++) {
+            store.update(new BankAccount(i, "hash", i));
+        }
+        store.close();
+
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        openStore(reloaded).close();
+        Assertions.assertEquals(3000, reloaded.size());
+        Assertions.assertEquals(2999, reloaded.get(2999).getBalance());
+    }
+
+    @Test
+    public void testLoad_FinishesPendingUpdate() throws IOException {
+        IntObjectMap<BankAccount> accounts = new IntObjectMap<>();
+        MappedAccountStore store = openStore(accounts);
+        store.update(new BankAccount(1, "hash", 100));
+        store.close();
+
+        // Leave a pending update of account 1 to a balance of 40, as a crash after the copy would
+        try (FileChannel channel = FileChannel.open(mappedFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer record = ByteBuffer.allocate(MappedAccountStore.RECORD_BYTES);
+            channel.read(record, MappedAccountStore.HEADER_BYTES);
+            record.putInt(70, 40).flip();
+            ByteBuffer pending = ByteBuffer.allocate(4 + MappedAccountStore.RECORD_BYTES);
+            pending.putInt(0).put(record).flip();
+            channel.write(pending, 64);
+            channel.write(ByteBuffer.allocate(4).putInt(1).flip(), 16);
+        }
+
+        IntObjectMap<BankAccount> reloaded = new IntObjectMap<>();
+        openStore(reloaded).close();
+        Assertions.assertEquals(40, reloaded.get(1).getBalance());
+    }
+
+    @Test
+    public void testLoad_RejectsOtherFiles() throws IOException {
+        Files.write(mappedFile, new byte[MappedAccountStore.HEADER_BYTES]);
+        Assertions.assertThrows(IOException.class, () -> openStore(new IntObjectMap<>()));
+    }
+
+    @Test
+    public void testConvert_CsvRoundTrip() throws IOException {
+        Files.write(csvFile, Arrays.asList(CsvAccountStore.HEADER, "1,hash1,100,normal,0",
+                "2,hash2,-20,overdraft,250", "3,hash3,30,limited,0", "4,hash4,40,limited,0,2,2026-10-18"));
+        Assertions.assertEquals(4, MappedAccountStore.convertFromCsv(csvFile.toString(), mappedFile.toString()));
+
+        Path exported = dataDirectory.resolve("exported.csv");
+        Assertions.assertEquals(4, MappedAccountStore.convertToCsv(mappedFile.toString(), exported.toString()));
+        Assertions.assertEquals(Files.readAllLines(csvFile), Files.readAllLines(exported));
+    }
+
+    @Test
+    public void testBank_ImportsCsvOnFirstOpen() throws IOException {
+        Files.write(csvFile, Arrays.asList(CsvAccountStore.HEADER, "1,hash1,100,normal,0"));
+        Bank bank = new Bank(dataDirectory.toString(), openStoreForBank());
+        Assertions.assertEquals(100, bank.findAccount(1).getBalance());
+        Assertions.assertTrue(bank.deposit(bank.findAccount(1), 5));
+        bank.close();
+
+        // accounts.csv is only read the first time
+        Files.delete(csvFile);
+        Bank reloaded = new Bank(dataDirectory.toString(), openStoreForBank());
+        Assertions.assertEquals(105, reloaded.findAccount(1).getBalance());
+        reloaded.close();
+    }
+
+    private AccountStore openStoreForBank() {
+        return new MappedAccountStore(mappedFile.toString(), csvFile.toString(), false);
+    }
+}
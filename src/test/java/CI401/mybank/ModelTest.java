@@ -0,0 +1,126 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+public class ModelTest {
+
+    private Bank bank;
+    private Model model;
+    private Screen screen;
+
+    /**
+     * Keeps what the ATM would show.
+     */
+    private static class Screen implements DisplayListener {
+        String message;
+        String reply;
+        int logouts = 0;
+
+        @Override
+        public void update(String message, String reply) {
+            this.message = message;
+            this.reply = reply;
+        }
+
+        @Override
+        public void loggedOut() {
+            logouts++;
+        }
+    }
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) {
+        bank = new Bank(tempDirectory.toString());
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("password"), 100));
+        bank.addBankAccount(new BankAccount(2, SecurityUtils.hashPassword("password"), 100));
+        Session session = bank.newSession();
+        Assertions.assertTrue(session.login(1, "password"));
+        model = new Model(session);
+        screen = new Screen();
+        model.setListener(screen);
+        model.setAccount(1, "password");
+    }
+
+    private void press(String... actions) {
+        for (String action : actions) {
+            model.process(action);
+        }
+    }
+
+    @Test
+    public void testDeposit() {
+        press("DEPOSIT");
+        Assertions.assertEquals(AtmState.DEPOSITING, model.getState());
+        press("5", "00");
+        Assertions.assertEquals("£500", screen.message);
+        press("ENTER");
+        Assertions.assertEquals(AtmState.LOGGED_IN, model.getState());
+        Assertions.assertTrue(screen.reply.contains("£600"), screen.reply);
+    }
+
+    @Test
+    public void testWithdraw_InsufficientFunds() {
+        press("WITHDRAW", "2", "00", "ENTER");
+        Assertions.assertEquals(AtmState.LOGGED_IN, model.getState());
+        Assertions.assertTrue(screen.reply.contains("You do not have sufficient funds"), screen.reply);
+        Assertions.assertEquals(100, bank.findAccount(1).getBalance());
+    }
+
+    @Test
+    public void testTransfer() {
+        press("TRANSFER");
+        Assertions.assertEquals(AtmState.ENTERING_ACCOUNT, model.getState());
+        press("2");
+        Assertions.assertEquals("2", screen.message);
+        press("ENTER");
+        Assertions.assertEquals(AtmState.TRANSFERRING, model.getState());
+        press("4", "0", "ENTER");
+        Assertions.assertEquals(AtmState.LOGGED_IN, model.getState());
+        Assertions.assertEquals(60, bank.findAccount(1).getBalance());
+        Assertions.assertEquals(140, bank.findAccount(2).getBalance());
+    }
+
+    @Test
+    public void testMenuButton_DuringTransaction() {
+        press("DEPOSIT", "BALANCE");
+        Assertions.assertEquals(AtmState.DEPOSITING, model.getState());
+        Assertions.assertTrue(screen.reply.contains("You're already in a transaction"), screen.reply);
+        press("CANCEL");
+        Assertions.assertEquals(AtmState.LOGGED_IN, model.getState());
+        Assertions.assertTrue(screen.reply.startsWith("Transaction cancelled"), screen.reply);
+    }
+
+    @Test
+    public void testUnknownButton_Resets() {
+        press("WITHDRAW", "NOT A BUTTON");
+        Assertions.assertEquals(AtmState.LOGGED_IN, model.getState());
+        Assertions.assertTrue(screen.reply.startsWith("An error has occured"), screen.reply);
+    }
+
+    @Test
+    public void testLogout_TellsListener() {
+        press("LOGOUT");
+        Assertions.assertEquals(AtmState.LOGGED_OUT, model.getState());
+        Assertions.assertEquals(1, screen.logouts);
+        Assertions.assertFalse(model.session.loggedIn());
+    }
+
+    @Test
+    public void testChangePassword_KeepsOldPasswordUntilSaved() {
+        Assertions.assertEquals(Model.PASSWORD_UPDATED,
+                (int) model.changePassword("password", "secret", "secret").join());
+        Assertions.assertEquals("secret", model.accPasswd);
+        Assertions.assertTrue(bank.newSession().login(1, "secret"));
+
+        // Once logged out the bank cannot save it, so the model keeps the old password
+        model.session.logout();
+        Assertions.assertEquals(Model.PASSWORD_FAILED,
+                (int) model.changePassword("secret", "other", "other").join());
+        Assertions.assertEquals("secret", model.accPasswd);
+    }
+}
@@ -3,6 +3,8 @@ package CI401.mybank;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class OverdraftBankAccountTest {
 
     @Test
@@ -43,4 +45,26 @@ public class OverdraftBankAccountTest {
         account.setOverdraftLimit(1000);
         Assertions.assertEquals(1000, account.getOverdraftLimit());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConcurrentWithdrawals_StopAtOverdraftLimit() throws InterruptedException {
+        OverdraftBankAccount account = new OverdraftBankAccount(123456, "password", 0, 500);
+        AtomicInteger succeeded = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (account.withdraw(1)) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(500, succeeded.get());
+        Assertions.assertEquals(-500, account.getBalance());
+    }
+}
@@ -0,0 +1,44 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+public class PasswordVerifierTest {
+
+    @Test
+    public void testVerify() {
+        String hash = SecurityUtils.hashPassword("password123");
+        try (PasswordVerifier verifier = new PasswordVerifier(2, 8)) {
+            Assertions.assertTrue(verifier.verify(hash, "password123").join());
+            Assertions.assertFalse(verifier.verify(hash, "wrongpassword").join());
+        }
+    }
+
+    @Test
+    public void testHash() {
+        try (PasswordVerifier verifier = new PasswordVerifier(1, 8)) {
+            String hash = verifier.hash("password123").join();
+            Assertions.assertTrue(SecurityUtils.checkPassword(hash, "password123"));
+        }
+    }
+
+    @Test
+    public void testFullQueue_RejectsRequest() {
+        String hash = SecurityUtils.hashPassword("password123");
+        try (PasswordVerifier verifier = new PasswordVerifier(1, 1)) {
+            // One check runs and one waits, so a third has nowhere to go
+            CompletableFuture<Boolean> running = verifier.verify(hash, "password123");
+            CompletableFuture<Boolean> queued = verifier.verify(hash, "password123");
+            CompletableFuture<Boolean> rejected = verifier.verify(hash, "password123");
+
+            CompletionException e = Assertions.assertThrows(CompletionException.class, rejected::join);
+            Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            Assertions.assertTrue(running.join());
+            Assertions.assertTrue(queued.join());
+        }
+    }
+}
@@ -32,4 +32,32 @@ public class SecurityUtilsTest {
         System.out.println("Check password invalid result: " + result);
         Assertions.assertFalse(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCostOf() {
+        Assertions.assertEquals(5, SecurityUtils.costOf(SecurityUtils.hashPassword("password123", 5)));
+        Assertions.assertEquals(12, SecurityUtils.costOf("$2y$12$abcdefghijklmnopqrstuv"));
+        Assertions.assertEquals(-1, SecurityUtils.costOf("password123"));
+    }
+
+    @Test
+    public void testCalibrate() {
+        // A tiny target gives the lowest cost allowed
+        Assertions.assertEquals(6, SecurityUtils.calibrate(0, 6));
+        int cost = SecurityUtils.calibrate(50, 4);
+        Assertions.assertTrue(cost >= 4 && cost <= 31);
+
+        // A cost picked for 50 ms takes about that long, well under a second
+        String hashedPassword = SecurityUtils.hashPassword("password123", cost);
+        long start = System.nanoTime();
+        SecurityUtils.checkPassword(hashedPassword, "password123");
+        Assertions.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void testNeedsRehash() {
+        int cost = SecurityUtils.getCost();
+        Assertions.assertFalse(SecurityUtils.needsRehash(SecurityUtils.hashPassword("password123")));
+        Assertions.assertTrue(SecurityUtils.needsRehash(SecurityUtils.hashPassword("password123", cost == 4 ? 5 : 4)));
+    }
+}
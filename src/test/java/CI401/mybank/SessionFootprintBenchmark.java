@@ -0,0 +1,59 @@
+package CI401.mybank;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * Opens a large number of ATM sessions on one Bank, each with its own Model
+ * and logged in to its own account, presses a few buttons on each, and
+ * reports how much heap each session takes on top of its account. This is
+ * not a unit test, run it on its own, e.g.
+ * java -Xmx2g -cp target/classes:target/test-classes CI401.mybank.SessionFootprintBenchmark [sessions]
+ */
+public class SessionFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the withdraw methods print
+
+        Bank bank = new Bank(Files.createTempDirectory("footprint").toString(), new BankStressBenchmark.NullAccountStore());
+        for (int i = 0; i < count; i++) {
+            bank.addBankAccount(new BankAccount(i, "unused", 1000));
+        }
+        long before = usedHeap();
+
+        Model[] models = new Model[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Session session = bank.newSession();
+            session.account = bank.findAccount(i); // skip bcrypt, it is not what is being measured
+            models[i] = new Model(session);
+            models[i].setAccount(i, "unused");
+        }
+        // Leave every session part way through a withdrawal
+        for (Model model : models) {
+            model.process("BALANCE");
+            model.process("WITHDRAW");
+            model.process("5");
+        }
+        long elapsed = System.nanoTime() - start;
+        long after = usedHeap();
+
+        out.printf("%d sessions in %.0f ms, %.0f bytes per session (model, session and display text)%n", count,
+                elapsed / 1e6, (double) (after - before) / count);
+        out.println(models[count - 1].getState()); // keep the models reachable
+        bank.close();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,190 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class SessionTest {
+
+    private Bank bank;
+    private Path dataDirectory;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) {
+        dataDirectory = tempDirectory;
+        bank = new Bank(dataDirectory.toString());
+    }
+
+    @Test
+    public void testSessions_AreIndependent() {
+        String hash = SecurityUtils.hashPassword("password");
+        bank.addBankAccount(new BankAccount(1, hash, 100));
+        bank.addBankAccount(new BankAccount(2, hash, 200));
+
+        Session first = bank.newSession();
+        Session second = bank.newSession();
+        Assertions.assertTrue(first.login(1, "password"));
+        Assertions.assertTrue(second.login(2, "password"));
+
+        Assertions.assertTrue(first.deposit(50));
+        Assertions.assertEquals(150, first.getBalance());
+        Assertions.assertEquals(200, second.getBalance());
+
+        first.logout();
+        Assertions.assertFalse(first.loggedIn());
+        Assertions.assertTrue(second.loggedIn());
+        Assertions.assertTrue(second.withdraw(20));
+        Assertions.assertEquals(180, second.getBalance());
+    }
+
+    @Test
+    public void testLoginAsync() {
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("password"), 100));
+
+        Session session = bank.newSession();
+        CompletableFuture<Boolean> login = session.loginAsync(1, "password");
+        Assertions.assertTrue(login.join());
+        Assertions.assertTrue(session.loggedIn());
+        Assertions.assertFalse(session.loginAsync(1, "wrongpassword").join());
+        Assertions.assertFalse(session.loggedIn());
+        Assertions.assertFalse(session.loginAsync(2, "password").join());
+    }
+
+    @Test
+    public void testLoginAsync_OvertakenByLogoutOrLogin() {
+        String hash = SecurityUtils.hashPassword("password");
+        bank.addBankAccount(new BankAccount(1, hash, 100));
+        bank.addBankAccount(new BankAccount(2, hash, 200));
+
+        // A logout made while the password is checked wins
+        Session session = bank.newSession();
+        CompletableFuture<Boolean> login = session.loginAsync(1, "password");
+        session.logout();
+        Assertions.assertFalse(login.join());
+        Assertions.assertFalse(session.loggedIn());
+
+        // So does a later login
+        CompletableFuture<Boolean> first = session.loginAsync(1, "password");
+        CompletableFuture<Boolean> second = session.loginAsync(2, "password");
+        Assertions.assertTrue(second.join());
+        Assertions.assertFalse(first.join());
+        Assertions.assertEquals(2, session.getAccount().accNumber);
+    }
+
+    @Test
+    public void testUpdatePasswordAsync() {
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("password"), 100));
+
+        Session session = bank.newSession();
+        Assertions.assertTrue(session.login(1, "password"));
+        Assertions.assertTrue(session.updatePasswordAsync("newpassword").join());
+        Assertions.assertTrue(bank.newSession().login(1, "newpassword"));
+    }
+
+    @Test
+    public void testLogin_RehashesOldCost() throws Exception {
+        int cost = SecurityUtils.getCost();
+        int oldCost = cost == 4 ? 5 : 4;
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("password", oldCost), 100));
+
+        Assertions.assertTrue(bank.newSession().login(1, "password"));
+        // The new hash is made in the background after the login
+        for (int i = 0; i < 100 && SecurityUtils.costOf(bank.findAccount(1).accPasswd) == oldCost; i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(cost, SecurityUtils.costOf(bank.findAccount(1).accPasswd));
+        Assertions.assertTrue(bank.newSession().login(1, "password"));
+    }
+
+    @Test
+    public void testTransfer_NotLoggedIn() {
+        bank.addBankAccount(new BankAccount(1, "password", 100));
+        bank.addBankAccount(new BankAccount(2, "password", 100));
+
+        Session session = bank.newSession();
+        Assertions.assertFalse(session.transfer(2, 50));
+        Assertions.assertEquals(-1, session.getBalance());
+        Assertions.assertEquals("ERROR: Not logged in", session.getStatement());
+    }
+
+    @Test
+    public void testConcurrentTransfers_ConserveMoney() throws Exception {
+        int accountCount = 20;
+        for (int i = 0; i < accountCount; i++) {
+            bank.addBankAccount(new BankAccount(i, "password", 1000));
+        }
+
+        // Enough transfers for the journal to be compacted while they run
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    BankAccount source = bank.findAccount(random.nextInt(accountCount));
+                    bank.transfer(source, random.nextInt(accountCount), 1 + random.nextInt(300));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assertions.assertEquals(accountCount * 1000, totalBalance(bank, accountCount));
+        for (int i = 0; i < accountCount; i++) {
+            Assertions.assertTrue(bank.findAccount(i).getBalance() >= 0);
+        }
+
+        bank.close();
+        Bank reloaded = new Bank(dataDirectory.toString());
+        Assertions.assertEquals(accountCount * 1000, totalBalance(reloaded, accountCount));
+    }
+
+    @Test
+    public void testOpposingTransfers_DoNotDeadlock() throws Exception {
+        bank.addBankAccount(new BankAccount(1, "password", 1000));
+        bank.addBankAccount(new BankAccount(2, "password", 1000));
+        BankAccount one = bank.findAccount(1);
+        BankAccount two = bank.findAccount(2);
+
+        Thread forward = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                bank.transfer(one, 2, 10);
+            }
+        });
+        Thread backward = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                bank.transfer(two, 1, 10);
+            }
+        });
+        forward.start();
+        backward.start();
+        forward.join(30_000);
+        backward.join(30_000);
+
+        Assertions.assertFalse(forward.isAlive() || backward.isAlive(), "transfers deadlocked");
+        Assertions.assertEquals(2000, one.getBalance() + two.getBalance());
+    }
+
+    @Test
+    public void testTransfer_ToSameAccount() {
+        bank.addBankAccount(new BankAccount(1, "password", 100));
+
+        Assertions.assertFalse(bank.transfer(bank.findAccount(1), 1, 50));
+        Assertions.assertEquals(100, bank.findAccount(1).getBalance());
+    }
+
+    private static int totalBalance(Bank bank, int accountCount) {
+        int total = 0;
+        for (int i = 0; i < accountCount; i++) {
+            total += bank.findAccount(i).getBalance();
+        }
+        return total;
+    }
+}
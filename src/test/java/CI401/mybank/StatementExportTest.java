@@ -0,0 +1,135 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+public class StatementExportTest {
+    private static final int ACCOUNTS = 40;
+    private static final int RECORDS = 6000; // over 5 runs and batches of the smallest budget
+    private static final long HOUR = 3600_000L;
+
+    private Path directory;
+    private Path historyFile;
+    private long from;
+    private long to;
+
+    @BeforeEach
+    public void setup(@TempDir Path tempDirectory) throws IOException {
+        directory = tempDirectory;
+        historyFile = directory.resolve("transaction_history.csv");
+        from = DateTimeUtils.startOfDay(LocalDate.of(2024, 3, 1));
+        to = DateTimeUtils.startOfDay(LocalDate.of(2024, 4, 1));
+        List<String> lines = new ArrayList<>();
+        lines.add(Transaction.HEADER);
+        long time = from - 24 * HOUR;
+        for (int i = 0; i < RECORDS; i++) {
+            // Account 7 has most of the records, so its statement is cut across batches
+            int accNumber = i % 3 == 0 ? 7 : 1000 - i % ACCOUNTS;
+            lines.add(new Transaction(accNumber, "deposit", i, i, time + i * (HOUR / 4), i + 1).toCsv().trim());
+        }
+        lines.add("not a record");
+        Files.write(historyFile, lines);
+    }
+
+    private List<Transaction> expected(int accNumber) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        for (String line : Files.readAllLines(historyFile)) {
+            Transaction t = Transaction.parse(line);
+            if (t != null && t.accNumber == accNumber && t.timestamp >= from && t.timestamp < to) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testExportFiles_SameInMemoryAndMerged() throws IOException {
+        StatementExport inMemory = new StatementExport(historyFile, from, to, 64L << 20, ForkJoinPool.commonPool());
+        int statements = inMemory.exportFiles(directory.resolve("memory"));
+        Assertions.assertEquals(1, inMemory.getRuns());
+
+        StatementExport merged = new StatementExport(historyFile, from, to, 1, new ForkJoinPool(3));
+        Assertions.assertEquals(statements, merged.exportFiles(directory.resolve("merged")));
+        Assertions.assertTrue(merged.getRuns() > 1);
+        Assertions.assertEquals(inMemory.getRecords(), merged.getRecords());
+        Assertions.assertEquals(ACCOUNTS + 1, statements);
+
+        long records = 0;
+        for (int accNumber : new int[] { 7, 1000, 999, 1000 - ACCOUNTS + 1 }) {
+            String text = read(StatementExport.statementFile(directory.resolve("merged"), accNumber));
+            Assertions.assertEquals(read(StatementExport.statementFile(directory.resolve("memory"), accNumber)), text);
+            List<Transaction> transactions = expected(accNumber);
+            Assertions.assertTrue(text.startsWith("Statement for account " + accNumber + ", 01/03/24 to 31/03/24\n\n"));
+            Assertions.assertTrue(text.endsWith(Transaction.formatStatement(transactions) + "\n"));
+            records += transactions.size();
+        }
+        Assertions.assertTrue(records > 0);
+        // The run files are deleted
+        try (Stream<Path> files = Files.list(directory.resolve("merged"))) {
+            Assertions.assertEquals(statements, files.count());
+        }
+    }
+
+    @Test
+    public void testExportCombined_InAccountOrder() throws IOException {
+        Path file = directory.resolve("statements.txt");
+        StatementExport export = new StatementExport(historyFile, from, to, 1, ForkJoinPool.commonPool());
+        int statements = export.exportCombined(file);
+        String text = read(file);
+
+        int previous = Integer.MIN_VALUE;
+        int found = 0;
+        int at = text.indexOf("Statement for account ");
+        while (at >= 0) {
+            int accNumber = Integer.parseInt(text.substring(at + 22, text.indexOf(',', at)));
+            Assertions.assertTrue(accNumber > previous);
+            previous = accNumber;
+            found++;
+            at = text.indexOf("Statement for account ", at + 1);
+        }
+        Assertions.assertEquals(statements, found);
+        Assertions.assertTrue(text.contains(Transaction.formatStatement(expected(7)) + "\n\n\n"));
+    }
+
+    @Test
+    public void testExportFiles_ReadsSegmentsAndActiveFile(@TempDir Path logDirectory) throws IOException {
+        // The same records, logged with rotation so most of them are in sealed segments
+        Path rotatedHistory = logDirectory.resolve("transaction_history.csv");
+        List<Transaction> batch = new ArrayList<>();
+        for (String line : Files.readAllLines(historyFile)) {
+            Transaction t = Transaction.parse(line);
+            if (t != null) {
+                batch.add(t);
+            }
+        }
+        try (TransactionLog log = new TransactionLog(rotatedHistory, new TransactionIndex(), 16, 16, 1, false,
+                16_384, false)) {
+            log.appendAll(batch).join();
+        }
+        Assertions.assertTrue(HistoryCatalogue.open(HistoryCatalogue.directoryOf(rotatedHistory)).getEntries()
+                .size() > 5);
+
+        StatementExport export = new StatementExport(rotatedHistory, from, to, 64L << 20, ForkJoinPool.commonPool());
+        Assertions.assertEquals(ACCOUNTS + 1, export.exportFiles(directory.resolve("rotated")));
+        for (int accNumber : new int[] { 7, 1000, 1000 - ACCOUNTS + 1 }) {
+            String text = read(StatementExport.statementFile(directory.resolve("rotated"), accNumber));
+            Assertions.assertTrue(text.endsWith(Transaction.formatStatement(expected(accNumber)) + "\n"));
+        }
+    }
+}
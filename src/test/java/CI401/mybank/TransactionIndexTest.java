@@ -0,0 +1,131 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+public class TransactionIndexTest {
+
+    @Test
+    public void testRecentKeepsLatestInOrder() {
+        TransactionIndex index = new TransactionIndex(3);
+        for (int i = 1; i <= 5; i++) {
+            index.add(new Transaction(1, "deposit", i, i * 10, "01/01/24", "10:00"), i * 100L);
+        }
+        index.add(new Transaction(2, "withdraw", 9, 0, "01/01/24", "10:00"), 600L);
+
+        List<Transaction> recent = index.recent(1);
+        Assertions.assertEquals(3, recent.size());
+        Assertions.assertEquals(3, recent.get(0).amount);
+        Assertions.assertEquals(5, recent.get(2).amount);
+        Assertions.assertEquals(5, index.offsets(1).length);
+        Assertions.assertTrue(index.recent(3).isEmpty());
+    }
+
+    @Test
+    public void testRebuildRecordsByteOffsets(@TempDir Path dataDirectory) throws IOException {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        Files.write(history, (Transaction.HEADER + "\n"
+                + "3,withdraw,3,13677,22/04/24,11:40\n"
+                + "1,deposit,50,50,22/04/24,11:41\n"
+                + "bad line\n"
+                + "3,deposit,3,13680,22/04/24,11:41").getBytes("UTF-8"));
+
+        TransactionIndex index = new TransactionIndex();
+        index.rebuild(history);
+        Assertions.assertEquals(3, index.size());
+        Assertions.assertEquals(2, index.recent(3).size());
+        Assertions.assertEquals(13680, index.recent(3).get(1).newBalance);
+
+        // Each offset points at the start of the account's record
+        try (RandomAccessFile file = new RandomAccessFile(history.toFile(), "r")) {
+            for (long offset : index.offsets(3)) {
+                file.seek(offset);
+                Assertions.assertEquals(3, Transaction.parse(file.readLine()).accNumber);
+            }
+        }
+    }
+
+    @Test
+    public void testBankStatementUsesLoggedTransactions(@TempDir Path dataDirectory) {
+        Bank bank = new Bank(dataDirectory.toString());
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("pw"), 100));
+        Assertions.assertTrue(bank.login(1, "pw"));
+        Assertions.assertEquals("No transaction history available for this account.", bank.getStatement());
+        bank.deposit(25);
+        bank.withdraw(5);
+        String statement = bank.getStatement();
+        bank.close();
+
+        // A new bank rebuilds the same index from the file
+        Bank reloaded = new Bank(dataDirectory.toString());
+        Assertions.assertTrue(reloaded.login(1, "pw"));
+        Assertions.assertEquals(statement, reloaded.getStatement());
+        Assertions.assertTrue(reloaded.getStatement().contains("New Balance: £120"));
+    }
+
+    @Test
+    public void testPositionsBetweenNarrowsToRange() {
+        TransactionIndex index = new TransactionIndex();
+        // One record a minute from 10:00, so 100 records cover several time marks
+        for (int i = 0; i < 100; i++) {
+            String time = String.format("%02d:%02d", 10 + i / 60, i % 60);
+            index.add(new Transaction(1, "deposit", i, i, "01/01/24", time), i * 40L);
+        }
+        long from = DateTimeUtils.toEpochMillis("01/01/24", "10:40");
+        long to = DateTimeUtils.toEpochMillis("01/01/24", "10:50");
+        int[] positions = index.positionsBetween(1, from, to);
+        Assertions.assertTrue(positions[0] <= 40 && positions[1] >= 50);
+        Assertions.assertTrue(positions[1] - positions[0] <= 10 + 2 * TransactionIndex.MARK_EVERY);
+        Assertions.assertEquals(100, index.count(1));
+        Assertions.assertArrayEquals(new long[] { 40 * 40L, 41 * 40L }, index.offsets(1, 40, 42));
+
+        int[] none = index.positionsBetween(1, to + 3_600_000L * 24, to + 3_600_000L * 48);
+        Assertions.assertEquals(none[0], none[1]);
+        Assertions.assertArrayEquals(new int[] { 0, 0 }, index.positionsBetween(2, from, to));
+    }
+
+    @Test
+    public void testStatementPagesAndDateRange(@TempDir Path dataDirectory) throws IOException {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        StringBuilder lines = new StringBuilder(Transaction.HEADER + "\n");
+        for (int day = 1; day <= 30; day++) {
+            lines.append(String.format("1,deposit,%d,%d,%02d/06/24,09:00%n", day, day * 10, day));
+            lines.append(String.format("2,deposit,1,1,%02d/06/24,09:30%n", day));
+        }
+        Files.write(history, lines.toString().getBytes("UTF-8"));
+
+        Bank bank = new Bank(dataDirectory.toString());
+        bank.addBankAccount(new BankAccount(1, SecurityUtils.hashPassword("pw"), 300));
+        Session session = bank.newSession();
+        Assertions.assertTrue(session.login(1, "pw"));
+        Assertions.assertEquals(30, session.getTransactionCount());
+
+        List<Transaction> latest = session.getStatementPage(0, 7);
+        Assertions.assertEquals(7, latest.size());
+        Assertions.assertEquals(24, latest.get(0).amount);
+        Assertions.assertEquals(30, latest.get(6).amount);
+        List<Transaction> oldest = session.getStatementPage(4, 7);
+        Assertions.assertEquals(2, oldest.size());
+        Assertions.assertEquals(1, oldest.get(0).amount);
+        Assertions.assertTrue(session.getStatementPage(5, 7).isEmpty());
+
+        List<Transaction> week = session.getStatementBetween(LocalDate.of(2024, 6, 10), LocalDate.of(2024, 6, 16));
+        Assertions.assertEquals(7, week.size());
+        Assertions.assertEquals(10, week.get(0).amount);
+        Assertions.assertEquals(16, week.get(6).amount);
+
+        // Records still queued for the writer are read back too
+        session.deposit(5);
+        List<Transaction> last = session.getStatementPage(0, 1);
+        Assertions.assertEquals(305, last.get(0).newBalance);
+        bank.close();
+    }
+}
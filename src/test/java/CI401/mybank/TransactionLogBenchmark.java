@@ -0,0 +1,81 @@
+package CI401.mybank;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares transaction logging throughput of the old per-call
+ * open/append/close with the background TransactionLog in a few durability
+ * settings. This is not a unit test, run it on its own, e.g.
+ * java -cp target/classes:target/test-classes CI401.mybank.TransactionLogBenchmark
+ */
+public class TransactionLogBenchmark {
+    private static final int RECORDS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        Debug.set(false);
+        Transaction t = new Transaction(1234, "deposit", 100, 5000, "22/04/24", "11:40");
+
+        run("open/append/close per call", RECORDS / 4, dir -> {
+            File file = dir.resolve("transaction_history.csv").toFile();
+            for (int i = 0; i < RECORDS / 4; i++) {
+                appendPerCall(file, t);
+            }
+        });
+        run("flush per record", RECORDS, dir -> writeAll(dir, t, 1, 0, false));
+        run("group commit 64 / 2 ms", RECORDS, dir -> writeAll(dir, t, 64, 2, false));
+        run("group commit 256 / 10 ms", RECORDS, dir -> writeAll(dir, t, 256, 10, false));
+        run("fsync per record", 500, dir -> writeAll(dir, t, 500, 1, 0, true));
+        run("group commit 64 / 2 ms + fsync", RECORDS / 10, dir -> writeAll(dir, t, RECORDS / 10, 64, 2, true));
+    }
+
+    private interface Body {
+        void run(Path dataDirectory) throws Exception;
+    }
+
+    private static void run(String name, int records, Body body) throws Exception {
+        Path dir = Files.createTempDirectory("txlog");
+        body.run(dir); // warm up
+        dir = Files.createTempDirectory("txlog");
+        long start = System.nanoTime();
+        body.run(dir);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-34s %12.0f records/s%n", name, records / seconds);
+    }
+
+    private static void writeAll(Path dir, Transaction t, int groupRecords, long groupMillis, boolean fsync)
+            throws Exception {
+        writeAll(dir, t, RECORDS, groupRecords, groupMillis, fsync);
+    }
+
+    private static void writeAll(Path dir, Transaction t, int records, int groupRecords, long groupMillis,
+            boolean fsync) throws Exception {
+        CompletableFuture<Void> last = null;
+        try (TransactionLog log = new TransactionLog(dir.resolve("transaction_history.csv"), new TransactionIndex(),
+                4096, groupRecords, groupMillis, fsync)) {
+            for (int i = 0; i < records; i++) {
+                last = log.append(t);
+            }
+            last.get();
+        }
+    }
+
+    /**
+     * The logging done by Bank.logTransaction before the TransactionLog.
+     */
+    private static void appendPerCall(File file, Transaction t) throws IOException {
+        boolean isNewFile = file.createNewFile();
+        try (FileWriter csvWriter = new FileWriter(file, true)) {
+            if (isNewFile) {
+                csvWriter.append(Transaction.HEADER + "\n");
+            }
+            csvWriter.append(String.format("%d,%s,%d,%d,%d,%d\n", t.accNumber, t.transactionType, t.amount,
+                    t.newBalance, t.timestamp, t.sequence));
+            csvWriter.flush();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package CI401.mybank;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class TransactionLogTest {
+
+    @Test
+    public void testFutureCompletesWhenRecordIsWritten(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        TransactionIndex index = new TransactionIndex();
+        try (TransactionLog log = new TransactionLog(history, index, 16, 1, 0, true)) {
+            log.append(new Transaction(1, "deposit", 10, 10, "01/01/24", "10:00")).get();
+            List<String> lines = Files.readAllLines(history);
+            Assertions.assertEquals(Transaction.HEADER, lines.get(0));
+            Assertions.assertEquals("1,deposit,10,10," + DateTimeUtils.toEpochMillis("01/01/24", "10:00") + ",1",
+                    lines.get(1));
+        }
+    }
+
+    @Test
+    public void testMigrateOldFormatAndCarryOnSequence(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        Files.write(history, Arrays.asList("accNumber,transactionType,amount,balance,date,time",
+                "3,withdraw,3,13677,22/04/24,11:40",
+                "not a record",
+                "1,deposit,50,50,22/04/24,11:41"));
+        long later = DateTimeUtils.toEpochMillis("22/04/24", "11:41");
+
+        TransactionIndex index = new TransactionIndex();
+        try (TransactionLog log = new TransactionLog(history, index, 16, 1, 0, false)) {
+            Assertions.assertEquals(2, index.size());
+            Assertions.assertEquals(2, index.lastSequence());
+            // A record stamped earlier than the last one is moved up to it
+            log.append(new Transaction(1, "deposit", 5, 55, later - 60_000, 0)).get();
+        }
+        List<String> lines = Files.readAllLines(history);
+        Assertions.assertEquals(Transaction.HEADER, lines.get(0));
+        Assertions.assertEquals("3,withdraw,3,13677," + (later - 60_000) + ",1", lines.get(1));
+        Assertions.assertEquals("1,deposit,50,50," + later + ",2", lines.get(2));
+        Assertions.assertEquals("1,deposit,5,55," + later + ",3", lines.get(3));
+        Assertions.assertEquals(4, lines.size());
+
+        // Migrating again does nothing
+        Assertions.assertEquals(0, TransactionLog.migrate(history));
+        Assertions.assertEquals("22/04/24", Transaction.parse(lines.get(3)).getDate());
+    }
+
+    @Test
+    public void testGroupCommitKeepsOrderAndOffsets(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        TransactionIndex index = new TransactionIndex();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        try (TransactionLog log = new TransactionLog(history, index, 8, 32, 50, false)) {
+            // More records than the queue holds, so appending has to wait for the writer
+            for (int i = 0; i < 1000; i++) {
+                written.add(log.append(new Transaction(i % 3, "deposit", i, i, "01/01/24", "10:00")));
+            }
+        }
+        for (CompletableFuture<Void> w : written) {
+            Assertions.assertTrue(w.isDone() && !w.isCompletedExceptionally());
+        }
+
+        // The offsets handed out while queueing match where the writer put the records
+        TransactionIndex rebuilt = new TransactionIndex();
+        rebuilt.rebuild(history);
+        Assertions.assertEquals(1000, rebuilt.size());
+        for (int acc = 0; acc < 3; acc++) {
+            Assertions.assertArrayEquals(index.offsets(acc), rebuilt.offsets(acc));
+        }
+    }
+
+    @Test
+    public void testAppendAfterCloseFails(@TempDir Path dataDirectory) throws Exception {
+        TransactionLog log = new TransactionLog(dataDirectory.resolve("transaction_history.csv"),
+                new TransactionIndex(), 16, 1, 0, false);
+        log.close();
+        Assertions.assertTrue(
+                log.append(new Transaction(1, "deposit", 1, 1, "01/01/24", "10:00")).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testReadLeavesOutOtherAccounts(@TempDir Path dataDirectory) throws Exception {
+        TransactionIndex index = new TransactionIndex();
+        try (TransactionLog log = new TransactionLog(dataDirectory.resolve("transaction_history.csv"), index, 16, 1,
+                0, false)) {
+            log.append(new Transaction(1, "deposit", 10, 10, "01/01/24", "10:00"));
+            log.append(new Transaction(2, "deposit", 20, 20, "01/01/24", "10:00"));
+            long[] offsets = { index.offsets(1)[0], index.offsets(2)[0] };
+            Assertions.assertEquals(2, log.read(offsets).size());
+            List<Transaction> read = log.read(2, offsets);
+            Assertions.assertEquals(1, read.size());
+            Assertions.assertEquals(20, read.get(0).amount);
+        }
+    }
+
+    /**
+     * Opens a log whose writes fail, part way through, once failWrites[0] is set.
+     */
+    static TransactionLog failingLog(Path historyFile, TransactionIndex index, boolean[] failWrites)
+            throws Exception {
+        return new TransactionLog(historyFile, index, 16, 1, 0, false) {
+            @Override
+            long writeFully(ByteBuffer buffer, long position) throws IOException {
+                if (failWrites[0]) {
+                    ByteBuffer half = buffer.duplicate();
+                    half.limit(buffer.position() + buffer.remaining() / 2);
+                    super.writeFully(half, position);
+                    throw new IOException("No space left on device");
+                }
+                return super.writeFully(buffer, position);
+            }
+        };
+    }
+
+    @Test
+    public void testWriteErrorTakesFailedRecordsOutOfIndex(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        TransactionIndex index = new TransactionIndex();
+        boolean[] failWrites = { false };
+        try (TransactionLog log = failingLog(history, index, failWrites)) {
+            log.append(new Transaction(1, "deposit", 10, 10, "01/01/24", "10:00")).get();
+            long goodLength = Files.size(history);
+
+            failWrites[0] = true;
+            CompletableFuture<Void> failed = log.append(new Transaction(1, "deposit", 20, 30, "01/01/24", "10:01"));
+            Assertions.assertThrows(ExecutionException.class, failed::get);
+            Assertions.assertNotNull(log.getFailure());
+            Assertions.assertEquals(goodLength, Files.size(history));
+
+            // The failed record is gone from the index, and later ones are refused without being indexed
+            Assertions.assertTrue(
+                    log.append(new Transaction(2, "deposit", 5, 5, "01/01/24", "10:02")).isCompletedExceptionally());
+            Assertions.assertEquals(1, index.count(1));
+            Assertions.assertEquals(0, index.count(2));
+            Assertions.assertEquals(1, index.size());
+            Assertions.assertEquals(10, index.recent(1).get(0).amount);
+
+            // Reading the account's history still works
+            List<Transaction> read = log.read(1, index.offsets(1));
+            Assertions.assertEquals(1, read.size());
+            Assertions.assertEquals(10, read.get(0).amount);
+        }
+    }
+
+    private static long[] sequencesOf(List<Transaction> transactions) {
+        long[] sequences = new long[transactions.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = transactions.get(i).sequence;
+        }
+        return sequences;
+    }
+
+    @Test
+    public void testRotateBySizeAndReadAcrossSegments(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        long time = DateTimeUtils.startOfDay(LocalDate.of(2024, 3, 1));
+        List<Transaction> expected = new ArrayList<>(); // of account 3
+        TransactionIndex index = new TransactionIndex();
+        try (TransactionLog log = new TransactionLog(history, index, 64, 16, 1, false, 4096, false)) {
+            List<Transaction> batch = new ArrayList<>();
+            for (int i = 0; i < 2500; i++) {
+                Transaction t = new Transaction(i % 7, "deposit", i, i, time + i, 0);
+                if (i < 2000) {
+                    log.append(t);
+                } else {
+                    batch.add(t); // the rest in one batch, rotated part way through
+                }
+                if (i % 7 == 3) {
+                    expected.add(t.stamped(t.timestamp, i + 1));
+                }
+            }
+            log.appendAll(batch).join();
+            // Wherever the records are now, in the active file, a rotated file or a segment
+            Assertions.assertArrayEquals(sequencesOf(expected), sequencesOf(log.read(index.offsets(3))));
+        }
+
+        HistoryCatalogue catalogue = HistoryCatalogue.open(HistoryCatalogue.directoryOf(history));
+        List<HistoryCatalogue.Entry> entries = catalogue.getEntries();
+        Assertions.assertTrue(entries.size() > 10);
+        Assertions.assertEquals(0, entries.get(0).firstOffset);
+        long rows = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            HistoryCatalogue.Entry entry = entries.get(i);
+            Assertions.assertTrue(entry.endOffset - entry.firstOffset <= 4096);
+            Assertions.assertEquals(i + 1 < entries.size() ? entries.get(i + 1).firstOffset : catalogue.getEndOffset(),
+                    entry.endOffset);
+            Assertions.assertEquals(entry, catalogue.entryAt(entry.endOffset - 1));
+            rows += entry.rows;
+        }
+        Assertions.assertEquals(entries.get(0).rows, entries.get(0).lastSequence);
+        Assertions.assertTrue(Files.size(history) <= 4096);
+        Assertions.assertTrue(HistoryCatalogue.rotatedFiles(HistoryCatalogue.directoryOf(history)).isEmpty());
+
+        // Reopened, the index is rebuilt from the segments and the active file with the same offsets
+        TransactionIndex reopened = new TransactionIndex();
+        try (TransactionLog log = new TransactionLog(history, reopened, 64, 16, 1, false, 4096, false)) {
+            Assertions.assertEquals(2500, reopened.size());
+            Assertions.assertEquals(2500, reopened.lastSequence());
+            Assertions.assertTrue(rows < 2500 && rows > 2000);
+            for (int acc = 0; acc < 7; acc++) {
+                Assertions.assertArrayEquals(index.offsets(acc), reopened.offsets(acc));
+            }
+            Assertions.assertArrayEquals(sequencesOf(expected), sequencesOf(log.read(reopened.offsets(3))));
+            List<Long> scanned = new ArrayList<>();
+            log.scan(index.offsets(3)[300], (t, offset) -> scanned.add(offset));
+            Assertions.assertEquals(2500 - (300 * 7 + 3), scanned.size());
+        }
+        String lastFive = Transaction.formatStatement(expected.subList(expected.size() - 5, expected.size()));
+        Assertions.assertEquals(lastFive, new BankAccount(3, "password", 0).getStatement(history.toString()));
+    }
+
+    @Test
+    public void testRotateDaily(@TempDir Path dataDirectory) throws Exception {
+        Path history = dataDirectory.resolve("transaction_history.csv");
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        try (TransactionLog log = new TransactionLog(history, new TransactionIndex(), 16, 1, 0, false, 0, true)) {
+            for (int d = 0; d < 3; d++) {
+                long start = DateTimeUtils.startOfDay(day.plusDays(d));
+                log.append(new Transaction(10 + d, "deposit", 1, 1, start + 1000, 0));
+                log.append(new Transaction(20 + d, "deposit", 1, 1, start + 2000, 0)).join();
+            }
+        }
+        HistoryCatalogue catalogue = HistoryCatalogue.open(HistoryCatalogue.directoryOf(history));
+        Assertions.assertEquals(2, catalogue.getEntries().size());
+        for (int d = 0; d < 2; d++) {
+            HistoryCatalogue.Entry entry = catalogue.getEntries().get(d);
+            Assertions.assertEquals(2, entry.rows);
+            Assertions.assertEquals(DateTimeUtils.startOfDay(day.plusDays(d)) + 1000, entry.minTime);
+            Assertions.assertEquals(10 + d, entry.minAccNumber);
+            Assertions.assertEquals(20 + d, entry.maxAccNumber);
+            Assertions.assertTrue(entry.covers(15 + d) && !entry.covers(21 + d));
+        }
+        long second = DateTimeUtils.startOfDay(day.plusDays(1));
+        Assertions.assertEquals(1, catalogue.entriesBetween(second, second + 5000).size());
+        Assertions.assertEquals(3, Files.readAllLines(history).size()); // the header and the third day
+    }
+}